@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm;
+
+/**
+ * Marker for toplevel transaction listeners, whose side effects (email, http, file I/O) do not need the
+ * transaction's thread and may be executed after the toplevel transaction returned.<br>
+ * <br>
+ * Such listeners are notified by the CirmTransactionListenerExecutor on a worker thread, if 
+ * CirmTransactionListenerExecutor.USE_ASYNC_LISTENERS is set. They must not use CirmTransaction.get() 
+ * or other thread or request scoped state of the transaction.<br>
+ */
+public interface AsyncCirmTransactionListener extends CirmTransactionListener
+{
+}
@@ -17,9 +17,11 @@ package org.sharegov.cirm;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.SortedSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -74,6 +76,13 @@ public abstract class CirmTransaction<V> implements Callable<V>
 	private UUID transactionUUID = null; 
 
 	private volatile boolean isAllowDBLock = false;
+
+	private volatile boolean readOnly = false;
+
+	/**
+	 * Business objects the transaction writes, declared before execution.
+	 */
+	private final SortedSet<Long> businessObjectIds = new ConcurrentSkipListSet<Long>();
 		
 	//
 	// Transaction Stats and Management
@@ -345,6 +354,51 @@ public abstract class CirmTransaction<V> implements Callable<V>
 		this.isAllowDBLock = isAllowDBLock;
 	}
 
+	/**
+	 * A read only toplevel transaction is executed once on a read only connection with a lighter isolation level,
+	 * without lock strategy and retries. Sublevel transactions execute in the mode of the toplevel transaction.
+	 * @return
+	 */
+	public boolean isReadOnly()
+	{
+		return readOnly;
+	}
+
+	/**
+	 * Marks the transaction as read only; must be called before it is executed.
+	 * Thread safe.
+	 * @param readOnly
+	 * @return this transaction
+	 */
+	public CirmTransaction<V> setReadOnly(boolean readOnly)
+	{
+		this.readOnly = readOnly;
+		return this;
+	}
+
+	/**
+	 * Declares a business object the transaction will write, so the transaction controller
+	 * can serialize transactions on the same business object before execution.
+	 * Only effective on a toplevel transaction. The store adds each business object saved 
+	 * during execution, ids added then take effect from the next execution on.
+	 * Thread safe.
+	 * @param boid
+	 * @return this transaction
+	 */
+	public CirmTransaction<V> addBusinessObjectId(long boid)
+	{
+		businessObjectIds.add(boid);
+		return this;
+	}
+
+	/**
+	 * @return the declared business object ids in ascending order.
+	 */
+	public SortedSet<Long> getBusinessObjectIds()
+	{
+		return businessObjectIds;
+	}
+
 	//
 	// Transaction timing
 	//
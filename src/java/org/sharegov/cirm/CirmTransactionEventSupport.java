@@ -71,7 +71,8 @@ public class CirmTransactionEventSupport
 
 	/**
 	 * This is called from CirmTransaction after(!) a state change.
-	 * The same event object will be sent to all listeners.
+	 * The same event object will be sent to all listeners; AsyncCirmTransactionListeners 
+	 * are notified later on a worker thread of the CirmTransactionListenerExecutor.
 	 * 
 	 * @param t a CirmTransaction after a state change.
 	 */
@@ -81,10 +82,7 @@ public class CirmTransactionEventSupport
 		if (Arrays.asList(CirmTransactionListener.OBSERVED_STATES).contains(transactionState)) 
 		{
 			CirmTransactionEvent e = new CirmTransactionEvent(transactionState);
-			for (CirmTransactionListener l : listeners)
-			{
-				l.transactionStateChanged(e);
-			}
+			CirmTransactionListenerExecutor.get().notify(t, listeners, e);
 		}
 	}	
 }
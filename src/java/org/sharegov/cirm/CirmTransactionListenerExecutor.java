@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.sharegov.cirm.utils.GenUtils;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Bounded executor notifying AsyncCirmTransactionListeners after the toplevel transaction, so their side effects
+ * do not add to the response time.<br>
+ * <br>
+ * Notifications are executed by a fixed number of lanes, each a single worker thread with a bounded queue.
+ * Each business object id of the transaction, which includes all business objects it saved (see CirmTransaction.addBusinessObjectId),
+ * maps to one lane; a transaction that saved none maps to a lane by itself. A notification involving one lane is executed there.
+ * A notification involving several lanes is executed on the first one after all notifications queued before it on the others,
+ * which wait for it. Notifications are queued on all their lanes at once, so notifications for the same business object 
+ * and all listeners of one transaction are executed in order of the transactions and listener registration.<br>
+ * <br>
+ * If a lane's queue is full, the BackPressurePolicy decides: BLOCK waits for space, behind notifications already waiting, 
+ * and DISCARD drops and reports the notification. Notifications submitted by a lane thread, i.e. by transactions of async listeners,
+ * never wait, as the lane may wait for them, and are dropped and reported instead.<br>
+ * <br>
+ * Listener failures are logged, counted and reported by GenUtils.reportFatal, as there is no request left to fail.
+ * Queued notifications are lost if the JVM stops.<br>
+ */
+public class CirmTransactionListenerExecutor
+{
+	public static boolean USE_ASYNC_LISTENERS = true;
+	public static boolean REPORT_FAILURES = true;
+
+	public static final int DEFAULT_LANES = 8;
+	public static final int DEFAULT_LANE_CAPACITY = 500;
+
+	public enum BackPressurePolicy { BLOCK, DISCARD }
+
+	/**
+	 * Interval at which a notification waiting for space in a full lane rechecks.
+	 */
+	public static final long BLOCK_POLL_MS = 10;
+
+	private static volatile CirmTransactionListenerExecutor instance;
+
+	private final ThreadPoolExecutor[] lanes;
+	private final Set<Thread> laneThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+	private volatile BackPressurePolicy backPressurePolicy = BackPressurePolicy.BLOCK;
+
+	/**
+	 * Guards queueing, so each notification is queued on all its lanes before the next one, and the waiting tickets.
+	 */
+	private final Object submitLock = new Object();
+	private long nextTicket = 0;
+	private long servedTicket = 0;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong multiLane = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private volatile String lastFailure = null;
+
+	public static CirmTransactionListenerExecutor get()
+	{
+		if (instance == null)
+			synchronized (CirmTransactionListenerExecutor.class)
+			{
+				if (instance == null)
+					instance = new CirmTransactionListenerExecutor(DEFAULT_LANES, DEFAULT_LANE_CAPACITY);
+			}
+		return instance;
+	}
+
+	public CirmTransactionListenerExecutor(int nrOfLanes, int laneCapacity)
+	{
+		if (nrOfLanes < 1 || laneCapacity < 1)
+			throw new IllegalArgumentException("nrOfLanes and laneCapacity must be >=1, were " + nrOfLanes + ", " + laneCapacity);
+		lanes = new ThreadPoolExecutor[nrOfLanes];
+		for (int i = 0; i < nrOfLanes; i++)
+		{
+			final String threadName = "CirmTransactionListener lane " + i;
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(laneCapacity),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r)
+					{
+						Thread t = new Thread(r, threadName);
+						t.setDaemon(true);
+						laneThreads.add(t);
+						return t;
+					}
+				},
+				new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor lane)
+					{
+						rejected(r, lane);
+					}
+				});
+		}
+	}
+
+	/**
+	 * Notifies each listener of the event: AsyncCirmTransactionListeners on a lane, all others on the calling thread
+	 * in registration order.
+	 */
+	public void notify(CirmTransaction<?> t, List<CirmTransactionListener> listeners, CirmTransactionEvent e)
+	{
+		int[] laneIndexes = null;
+		for (CirmTransactionListener l : listeners)
+		{
+			if (USE_ASYNC_LISTENERS && l instanceof AsyncCirmTransactionListener)
+			{
+				if (laneIndexes == null)
+					laneIndexes = laneIndexes(t);
+				submitted.incrementAndGet();
+				submit(laneIndexes, new Notification(l, e, t.toString()));
+			}
+			else
+				l.transactionStateChanged(e);
+		}
+	}
+
+	/**
+	 * @return the ascending indexes of the lanes of all business objects of the transaction or of the transaction itself.
+	 */
+	int[] laneIndexes(CirmTransaction<?> t)
+	{
+		if (t.getBusinessObjectIds().isEmpty())
+			return new int[] { laneIndex(System.identityHashCode(t)) };
+		SortedSet<Integer> indexes = new TreeSet<Integer>();
+		for (Long boid : t.getBusinessObjectIds())
+			indexes.add(laneIndex(boid));
+		int[] result = new int[indexes.size()];
+		int i = 0;
+		for (Integer index : indexes)
+			result[i++] = index;
+		return result;
+	}
+
+	private int laneIndex(long key)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 33) % lanes.length);
+	}
+
+	/**
+	 * Queues the notification on all its lanes at once. If a lane is full, waits by ticket, so that waiting notifications 
+	 * are queued in order of submission. A waiting notification interrupted or still waiting at shutdown is discarded in its turn.
+	 */
+	private void submit(int[] laneIndexes, Notification n)
+	{
+		boolean onLane = laneThreads.contains(Thread.currentThread());
+		boolean interrupted = false;
+		try
+		{
+			synchronized (submitLock)
+			{
+				long ticket = -1;
+				while (true)
+				{
+					boolean turn = ticket == -1 ? servedTicket == nextTicket : servedTicket == ticket;
+					boolean shutdown = isShutdown(laneIndexes);
+					if (turn && !shutdown && hasSpace(laneIndexes) && !interrupted)
+						break;
+					if ((turn && (shutdown || interrupted))
+							|| (ticket == -1 && (onLane || backPressurePolicy == BackPressurePolicy.DISCARD)))
+					{
+						if (ticket != -1)
+							serveTicket();
+						discard(n);
+						return;
+					}
+					if (ticket == -1)
+					{
+						ticket = nextTicket++;
+						blocked.incrementAndGet();
+					}
+					try
+					{
+						submitLock.wait(BLOCK_POLL_MS);
+					}
+					catch (InterruptedException e)
+					{
+						interrupted = true;
+					}
+				}
+				if (ticket != -1)
+					serveTicket();
+				if (laneIndexes.length == 1)
+				{
+					lanes[laneIndexes[0]].execute(n);
+					return;
+				}
+				multiLane.incrementAndGet();
+				MultiLaneNotification m = new MultiLaneNotification(n, laneIndexes.length - 1);
+				lanes[laneIndexes[0]].execute(m);
+				for (int i = 1; i < laneIndexes.length; i++)
+					lanes[laneIndexes[i]].execute(m.gate);
+			}
+		}
+		finally
+		{
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void serveTicket()
+	{
+		servedTicket++;
+		submitLock.notifyAll();
+	}
+
+	/**
+	 * Caller must hold submitLock, which keeps queues from growing, so execute does not reject.
+	 */
+	private boolean hasSpace(int[] laneIndexes)
+	{
+		for (int i : laneIndexes)
+			if (lanes[i].getQueue().remainingCapacity() == 0)
+				return false;
+		return true;
+	}
+
+	private boolean isShutdown(int[] laneIndexes)
+	{
+		for (int i : laneIndexes)
+			if (lanes[i].isShutdown())
+				return true;
+		return false;
+	}
+
+	private void rejected(Runnable r, ThreadPoolExecutor lane)
+	{
+		// only after a shutdown, as queueing is guarded by submitLock
+		if (r instanceof Notification)
+			discard((Notification) r);
+		else if (r instanceof MultiLaneNotification)
+			discard(((MultiLaneNotification) r).notification);
+	}
+
+	private void discard(Notification n)
+	{
+		discarded.incrementAndGet();
+		String msg = "Transaction listener notification discarded, queue full: " + n.listener + " of " + n.transaction;
+		ThreadLocalStopwatch.error(msg);
+		if (REPORT_FAILURES)
+			GenUtils.reportFatal("CirmTransactionListenerExecutor discarded notification", msg, new IllegalStateException(msg));
+	}
+
+	private class Notification implements Runnable
+	{
+		final CirmTransactionListener listener;
+		final CirmTransactionEvent event;
+		final String transaction;
+
+		Notification(CirmTransactionListener listener, CirmTransactionEvent event, String transaction)
+		{
+			this.listener = listener;
+			this.event = event;
+			this.transaction = transaction;
+		}
+
+		public void run()
+		{
+			try
+			{
+				listener.transactionStateChanged(event);
+				completed.incrementAndGet();
+			}
+			catch (Throwable t)
+			{
+				failed.incrementAndGet();
+				String msg = "Transaction listener " + listener + " failed for " + event.getSourceState() + " " + transaction + ": " + t;
+				lastFailure = msg;
+				ThreadLocalStopwatch.error(msg);
+				t.printStackTrace();
+				if (REPORT_FAILURES)
+					GenUtils.reportFatal("CirmTransactionListenerExecutor listener failed", msg, t);
+			}
+		}
+	}
+
+	/**
+	 * A notification involving several lanes, executed on the first one, once the gates queued on the others 
+	 * have started. The gates wait for the notification to finish.
+	 */
+	private static class MultiLaneNotification implements Runnable
+	{
+		final Notification notification;
+		final CountDownLatch gatesStarted;
+		final CountDownLatch finished = new CountDownLatch(1);
+		final Runnable gate = new Runnable() {
+			public void run()
+			{
+				gatesStarted.countDown();
+				awaitUninterruptibly(finished);
+			}
+		};
+
+		MultiLaneNotification(Notification notification, int gates)
+		{
+			this.notification = notification;
+			this.gatesStarted = new CountDownLatch(gates);
+		}
+
+		public void run()
+		{
+			try
+			{
+				awaitUninterruptibly(gatesStarted);
+				notification.run();
+			}
+			finally
+			{
+				finished.countDown();
+			}
+		}
+
+		static void awaitUninterruptibly(CountDownLatch latch)
+		{
+			boolean interrupted = false;
+			while (true)
+			{
+				try
+				{
+					latch.await();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	public BackPressurePolicy getBackPressurePolicy()
+	{
+		return backPressurePolicy;
+	}
+
+	public void setBackPressurePolicy(BackPressurePolicy backPressurePolicy)
+	{
+		if (backPressurePolicy == null) throw new IllegalArgumentException("backPressurePolicy null");
+		this.backPressurePolicy = backPressurePolicy;
+	}
+
+	/**
+	 * Stops accepting notifications and waits for queued ones.
+	 * @return true, if all queued notifications were executed within timeoutSecs.
+	 */
+	public boolean shutdown(long timeoutSecs) throws InterruptedException
+	{
+		synchronized (submitLock)
+		{
+			for (ThreadPoolExecutor lane : lanes)
+				lane.shutdown();
+			submitLock.notifyAll();
+		}
+		long deadline = System.currentTimeMillis() + timeoutSecs * 1000;
+		for (ThreadPoolExecutor lane : lanes)
+			if (!lane.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return queued notifications and counters since creation.
+	 */
+	public Json getStatistics()
+	{
+		int queued = 0;
+		int maxQueued = 0;
+		for (ThreadPoolExecutor lane : lanes)
+		{
+			BlockingQueue<Runnable> q = lane.getQueue();
+			queued += q.size();
+			maxQueued = Math.max(maxQueued, q.size());
+		}
+		return Json.object()
+			.set("async", USE_ASYNC_LISTENERS)
+			.set("backPressurePolicy", backPressurePolicy.name())
+			.set("lanes", lanes.length)
+			.set("queued", queued)
+			.set("maxLaneQueued", maxQueued)
+			.set("submitted", submitted.get())
+			.set("completed", completed.get())
+			.set("failed", failed.get())
+			.set("multiLane", multiLane.get())
+			.set("blocked", blocked.get())
+			.set("discarded", discarded.get())
+			.set("lastFailure", lastFailure);
+	}
+}
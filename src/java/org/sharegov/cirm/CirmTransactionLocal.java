@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm;
+
+/**
+ * A value bound to one execution of the toplevel CirmTransaction of the current thread.<br>
+ * <br>
+ * The value is created on first get during an execution and handed to succeeded, after the toplevel
+ * transaction succeeded (committed). A retry or a failed transaction silently discards the value.<br>
+ * Typical use: collect cache updates during a transaction and publish them to other threads only after commit.<br>
+ * <br>
+ */
+public abstract class CirmTransactionLocal<T>
+{
+	private final ThreadLocal<Execution> executions = new ThreadLocal<Execution>();
+
+	/**
+	 * @return a new value for a transaction execution.
+	 */
+	protected abstract T initialValue();
+
+	/**
+	 * Called by the executing thread after the toplevel transaction succeeded.
+	 * @param value the value of the succeeded execution.
+	 */
+	protected abstract void succeeded(T value);
+
+	/**
+	 * @return the value of the current transaction execution, created if necessary; null if no transaction is executing.
+	 */
+	public T get()
+	{
+		CirmTransaction<?> t = CirmTransaction.get();
+		if (t == null)
+			return null;
+		Execution e = current(t);
+		if (e == null)
+		{
+			e = new Execution(t, initialValue());
+			executions.set(e);
+			t.addTopLevelEventListener(e);
+		}
+		return e.value;
+	}
+
+	/**
+	 * @return the value of the current transaction execution or null, if none was created or no transaction is executing.
+	 */
+	public T peek()
+	{
+		CirmTransaction<?> t = CirmTransaction.get();
+		if (t == null)
+		{
+			executions.remove();
+			return null;
+		}
+		Execution e = current(t);
+		return e == null? null : e.value;
+	}
+
+	private Execution current(CirmTransaction<?> t)
+	{
+		Execution e = executions.get();
+		if (e != null && !e.isFor(t))
+		{
+			// retried or ended without success
+			executions.remove();
+			e = null;
+		}
+		return e;
+	}
+
+	private class Execution implements CirmTransactionListener
+	{
+		final CirmTransaction<?> transaction;
+		final int executionCount;
+		final T value;
+
+		Execution(CirmTransaction<?> transaction, T value)
+		{
+			this.transaction = transaction;
+			this.executionCount = transaction.getExecutionCount();
+			this.value = value;
+		}
+
+		boolean isFor(CirmTransaction<?> t)
+		{
+			return transaction == t && executionCount == t.getExecutionCount();
+		}
+
+		public void transactionStateChanged(CirmTransactionEvent e)
+		{
+			if (executions.get() == this)
+				executions.remove();
+			if (e.isSucceeded())
+				succeeded(value);
+		}
+	}
+}
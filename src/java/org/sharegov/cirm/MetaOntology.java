@@ -59,6 +59,7 @@ import org.semanticweb.owlapi.util.DefaultPrefixManager;
 import org.semanticweb.owlapi.util.ShortFormProvider;
 import org.semanticweb.owlapi.vocab.OWL2Datatype;
 import org.sharegov.cirm.event.ClearOWLEntityCacheForSrTypeModification;
+import org.sharegov.cirm.owl.CachedReasoner;
 import org.sharegov.cirm.rest.OWLIndividuals;
 import org.sharegov.cirm.utils.GenUtils;
 import org.sharegov.cirm.utils.ThreadLocalStopwatch;
@@ -993,6 +994,9 @@ public class MetaOntology
 	/**
 	 * Clears caches, synchronizes the reasoner and always tests reasoner consistency.
 	 * Synchronization will be conducted only, if the reasoner is in buffering mode.
+	 * A CachedReasoner is flushed and invalidated under its write lock, so no concurrent cache miss can cache
+	 * an answer of the unflushed reasoner. With selective invalidation, only the entries affected by the pending
+	 * changes are evicted.
 	 * 
 	 * 
 	 * TODO hilpold find the right class for this method.
@@ -1000,6 +1004,15 @@ public class MetaOntology
 	 */	
 	public static void clearCacheAndSynchronizeReasoner() {
 		synchronized (OWL.reasoner()) {
+			OWLReasoner reasoner = OWL.reasoner();
+			if (reasoner instanceof CachedReasoner) {
+				ThreadLocalStopwatch.startTop("START flushAndInvalidate");
+				((CachedReasoner) reasoner).flushAndInvalidate();
+				ClearOWLEntityCacheForSrTypeModification.clearJsonCaches();
+				synchronizeReasoner();
+				ThreadLocalStopwatch.now("END flushAndInvalidate");
+				return;
+			}
 			ThreadLocalStopwatch.startTop("START clearCache");
 			clearCache();
 			ThreadLocalStopwatch.now("END clearCache");
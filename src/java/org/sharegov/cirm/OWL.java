@@ -101,7 +101,6 @@ import org.semanticweb.owlapi.vocab.OWL2Datatype;
 import org.sharegov.cirm.owl.OWLObjectPropertyCondition;
 import org.sharegov.cirm.owl.OwlRepo;
 import org.sharegov.cirm.owl.SynchronizedOWLManager;
-import org.sharegov.cirm.owl.SynchronizedOWLOntologyManager;
 import org.sharegov.cirm.rest.OntoAdmin;
 import org.sharegov.cirm.utils.Base64;
 import org.sharegov.cirm.utils.CustomOWLOntologyIRIMapper;
@@ -171,7 +170,7 @@ public class OWL
 					}
 					VDHGDBOntologyRepository.getInstance();
 				}
-				manager = SynchronizedOWLOntologyManager.synchronizedManager(HGDBOWLManager.createOWLOntologyManager());
+				manager = SynchronizedOWLManager.threadSafeManager(HGDBOWLManager.createOWLOntologyManager());
 				if (DBG_HGDB_ENTITY_CREATION) 
 					OWLDataFactoryInternalsHGDB.DBG = true;
 			}
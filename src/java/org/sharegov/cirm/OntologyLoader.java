@@ -31,7 +31,10 @@ import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
 import org.sharegov.cirm.owl.CachedReasoner;
+import org.sharegov.cirm.owl.ReadWriteLockedOWLOntologyManager;
+import org.sharegov.cirm.owl.SynchronizedOWLManager;
 import org.sharegov.cirm.owl.SynchronizedOWLOntologyManager;
+import org.sharegov.cirm.owl.CopyOnWriteReasoner;
 import org.sharegov.cirm.owl.SynchronizedReasoner;
 
 import com.clarkparsia.pellet.owlapiv3.PelletReasonerFactory;
@@ -46,6 +49,12 @@ public class OntologyLoader
 {
 	public static boolean THREAD_SAFE_REASONERS = true;
 	public static boolean CACHED_REASONERS = true;
+	/**
+	 * If true, thread safe reasoners for loaded ontologies publish classified snapshots (CopyOnWriteReasoner) 
+	 * instead of synchronizing all calls (SynchronizedReasoner).
+	 */
+	public static boolean COPY_ON_WRITE_REASONERS = false;
+	public static int COPY_ON_WRITE_REASONER_COPIES = CopyOnWriteReasoner.DEFAULT_COPIES;
 	
 	private OWLOntologyManager manager;
 	private Map<IRI, File> locations = new ConcurrentHashMap<IRI, File>();
@@ -79,8 +88,8 @@ public class OntologyLoader
 		
 		this.manager = manager;
 		boolean hgdbManager = false;
-		if (manager instanceof SynchronizedOWLOntologyManager) {
-			hgdbManager = ((SynchronizedOWLOntologyManager)manager).getWrappedOWLOntologyManager() instanceof HGDBOntologyManagerImpl;
+		if (manager instanceof SynchronizedOWLOntologyManager || manager instanceof ReadWriteLockedOWLOntologyManager) {
+			hgdbManager = SynchronizedOWLManager.unwrapThreadSafeManager(manager) instanceof HGDBOntologyManagerImpl;
 		} else {
 			System.err.println("OWLOntologyManager in use is NOT THREAD SAFE :" + manager);
 			hgdbManager = manager instanceof HGDBOntologyManagerImpl;
@@ -218,7 +227,16 @@ public class OntologyLoader
 			return reasoner;
 		}
 		OWLReasoner reasoner = reasoners.get(iri);
-		if (reasoner == null)
+		if (reasoner == null && THREAD_SAFE_REASONERS && COPY_ON_WRITE_REASONERS)
+		{
+			CopyOnWriteReasoner copyOnWrite = CopyOnWriteReasoner.copyOnWriteReasoner(reasonerFactory, ontology, COPY_ON_WRITE_REASONER_COPIES);
+			if (!copyOnWrite.isConsistent()) throw new IllegalStateException("REASONER NOT CONSISTENT AFTER INIT");
+			reasoner = CACHED_REASONERS ? CachedReasoner.cachedReasoner(copyOnWrite) : copyOnWrite;
+			OWLReasoner existing = reasoners.putIfAbsent(iri, reasoner);
+			if (existing != null)
+				reasoner = existing;
+		}
+		else if (reasoner == null)
 		{
 			reasoner =  reasonerFactory.createReasoner(ontology);
 			if (!reasoner.isConsistent()) throw new IllegalStateException("REASONER NOT CONSISTENT AFTER INIT");
@@ -268,4 +286,12 @@ public class OntologyLoader
 		return reasoners.size();
 	}
 
+	/**
+	 * The factory of all reasoners created by this loader, e.g. for independent reasoner copies.
+	 */
+	public OWLReasonerFactory getReasonerFactory()
+	{
+		return reasonerFactory;
+	}
+
 }
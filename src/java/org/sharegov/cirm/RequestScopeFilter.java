@@ -20,6 +20,7 @@ import java.util.Map;
 
 import org.restlet.Request;
 import org.restlet.Response;
+import org.restlet.data.ClientInfo;
 import org.restlet.routing.Filter;
 
 public class RequestScopeFilter extends Filter
@@ -32,11 +33,34 @@ public class RequestScopeFilter extends Filter
 		}
 	};
 
+	/**
+	 * Request scope key of the client sending the request: the authenticated principal. Requests that were not 
+	 * authenticated have no client, as the server keeps no sessions and neither cookies, which the client controls, 
+	 * nor the client address, which is shared by all clients behind a proxy, identify a client.
+	 */
+	public static final String CLIENT = "client";
+
 	protected int beforeHandle(Request request, Response response)
 	{
+		String client = getClient(request.getClientInfo());
+		if (client != null)
+			set(CLIENT, client);
 		return CONTINUE;
 	}
 
+	/**
+	 * @return the client of a request with the given client info, see CLIENT, or null if it was not authenticated.
+	 */
+	public static String getClient(ClientInfo clientInfo)
+	{
+		if (clientInfo == null)
+			return null;
+		if (clientInfo.isAuthenticated() && clientInfo.getUser() != null && clientInfo.getUser().getIdentifier() != null)
+			return "user:" + clientInfo.getUser().getIdentifier();
+		else
+			return null;
+	}
+
 	protected void afterHandle(Request request, Response response)
 	{
 		requestScope.get().clear();
@@ -52,6 +76,14 @@ public class RequestScopeFilter extends Filter
 		requestScope.get().put(key, value);
 	}
 	
+	/**
+	 * @return the client of the current request (see CLIENT) or null, if unknown or outside of a request.
+	 */
+	public static String getClient()
+	{
+		return (String) get(CLIENT);
+	}
+	
 	public static void clear() 
 	{
 		requestScope.get().clear();
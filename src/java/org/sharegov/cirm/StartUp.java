@@ -57,6 +57,9 @@ import org.sharegov.cirm.legacy.ActivityManager;
 import org.sharegov.cirm.legacy.MessageManager;
 import org.sharegov.cirm.legacy.ServiceCaseManager;
 import org.sharegov.cirm.owl.CachedReasoner;
+import org.sharegov.cirm.owl.CachedReasonerSnapshot;
+import org.sharegov.cirm.owl.CachedReasonerWarmup;
+import org.sharegov.cirm.owl.CopyOnWriteReasoner;
 import org.sharegov.cirm.rdb.RelationalOWLMapper;
 import org.sharegov.cirm.rest.MainRestApplication;
 import org.sharegov.cirm.rest.OntoAdmin;
@@ -114,6 +117,10 @@ public class StartUp extends ServerResource
 					":", "http://www.miamidade.gov/ontology#"
 					))
 			.set("cachedReasonerPopulate", false)
+			.set("cachedReasonerSnapshot", false)
+			.set("cachedReasonerWarmupThreads", CachedReasonerWarmup.DEFAULT_THREADS)
+			.set("copyOnWriteReasoner", false)
+			.set("copyOnWriteReasonerCopies", CopyOnWriteReasoner.DEFAULT_COPIES)
 			.set("startDepartmentIntegration", "x.x.xxx")
 			.set("isConfigMode", true);
 
@@ -312,6 +319,8 @@ public class StartUp extends ServerResource
 		}
 		boolean productionMode = config.at(MODE_CONFIG_PARAM).asString().equals(PRODUCTION_MODE_IDENTIFIER);
 		setProductionMode(productionMode);
+		OntologyLoader.COPY_ON_WRITE_REASONERS = config.at("copyOnWriteReasoner", false).asBoolean();
+		OntologyLoader.COPY_ON_WRITE_REASONER_COPIES = config.at("copyOnWriteReasonerCopies", CopyOnWriteReasoner.DEFAULT_COPIES).asInteger();
 		System.out.println("Using config " + config.toString());
 		if (isProductionMode()) {
 			ThreadLocalStopwatch.now("************************* 311Hub PRODUCTION MODE *************************");
@@ -449,6 +458,27 @@ public class StartUp extends ServerResource
         attachToServer(topRestlet);
 	    
    		RelationalOWLMapper.getInstance();
+   		if (config.has("cachedReasonerSnapshot") && config.is("cachedReasonerSnapshot", true))
+   		{
+   			final CachedReasonerSnapshot snapshot = new OntoAdmin().getCachedReasonerSnapshot();
+   			if (snapshot != null)
+   			{
+   				snapshot.loadInBackground();
+   				Runtime.getRuntime().addShutdownHook(new Thread("CachedReasonerSnapshot save") {
+   					public void run()
+   					{
+   						try
+   						{
+   							snapshot.save();
+   						}
+   						catch (Throwable t)
+   						{
+   							System.err.println("CachedReasonerSnapshot: save on shutdown failed " + t);
+   						}
+   					}
+   				});
+   			}
+   		}
    		if (config.has("cachedReasonerPopulate") && config.is("cachedReasonerPopulate", true))
    		{
    			OntoAdmin oa = new OntoAdmin();
@@ -34,9 +34,17 @@ public class ClearOWLEntityCacheForSrTypeModification implements EventTrigger
 				//Thread safe call
 				cr.clearCache();
 			}
-			Refs.owlJsonCache.resolve().clearAll();
-			Refs.ontologyTransformer.resolve().clearPredicateCache();
-			Refs.owlJsonSrTypeWithTransientCache.resolve().clear();
+			clearJsonCaches();
 		}
 	}
+
+	/**
+	 * Clears the json and predicate caches derived from ontology entities, but not the reasoner cache.
+	 */
+	public static void clearJsonCaches()
+	{
+		Refs.owlJsonCache.resolve().clearAll();
+		Refs.ontologyTransformer.resolve().clearPredicateCache();
+		Refs.owlJsonSrTypeWithTransientCache.resolve().clear();
+	}
 }
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hypergraphdb.util.Pair;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLObject;
+
+/**
+ * Records which entities a cached reasoner answer depended on and evicts all cached answers that depend on
+ * any of a set of changed entities.<br>
+ * An entry is identified by the cache map and its key; the dependencies of an entry are the signature of its key
+ * (e.g. the individual and property of a getObjectPropertyValues query).<br>
+ * <br>
+ * Records happen on cache misses inside the reasoner lock of CachedReasoner, evictions while holding it.
+ */
+public class CacheDependencyIndex
+{
+	/**
+	 * A cached entry: the cache map (by identity) and the key in it.
+	 */
+	static class Ref
+	{
+		final String cacheName;
+		final ConcurrentHashMap<?, ?> cache;
+		final Object key;
+
+		Ref(String cacheName, ConcurrentHashMap<?, ?> cache, Object key)
+		{
+			this.cacheName = cacheName;
+			this.cache = cache;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode(cache) + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Ref))
+				return false;
+			Ref other = (Ref) o;
+			return cache == other.cache && key.equals(other.key);
+		}
+	}
+
+	private final Map<OWLEntity, Set<Ref>> byEntity = new HashMap<OWLEntity, Set<Ref>>();
+	private final Map<Ref, Set<OWLEntity>> byRef = new HashMap<Ref, Set<OWLEntity>>();
+
+	/**
+	 * Records the dependencies of an entry that was just put into cache.
+	 */
+	public synchronized void record(String cacheName, ConcurrentHashMap<?, ?> cache, Object key)
+	{
+		Ref ref = new Ref(cacheName, cache, key);
+		Set<OWLEntity> dependencies = signature(key);
+		Set<OWLEntity> previous = byRef.put(ref, dependencies);
+		if (previous != null)
+			unlink(ref, previous);
+		for (OWLEntity e : dependencies)
+		{
+			Set<Ref> refs = byEntity.get(e);
+			if (refs == null)
+			{
+				refs = new HashSet<Ref>();
+				byEntity.put(e, refs);
+			}
+			refs.add(ref);
+		}
+	}
+
+	/**
+	 * Removes all entries that depend on at least one of the given entities from their caches.
+	 *
+	 * @param affected changed entities
+	 * @param onlyCaches if not null, only entries of these caches are evicted.
+	 * @return the number of evicted entries by cache name.
+	 */
+	public synchronized Map<String, Integer> evict(Set<? extends OWLEntity> affected, Set<ConcurrentHashMap<?, ?>> onlyCaches)
+	{
+		Map<String, Integer> evicted = new HashMap<String, Integer>();
+		for (OWLEntity e : affected)
+		{
+			Set<Ref> refs = byEntity.get(e);
+			if (refs == null)
+				continue;
+			for (Ref ref : new HashSet<Ref>(refs))
+			{
+				if (onlyCaches != null && !onlyCaches.contains(ref.cache))
+					continue;
+				if (ref.cache.remove(ref.key) != null)
+				{
+					Integer count = evicted.get(ref.cacheName);
+					evicted.put(ref.cacheName, count == null ? 1 : count + 1);
+				}
+				unlink(ref, byRef.remove(ref));
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Clears a whole cache and forgets the dependencies of its entries.
+	 *
+	 * @return the number of evicted entries.
+	 */
+	public synchronized int evictAll(ConcurrentHashMap<?, ?> cache)
+	{
+		int size = cache.size();
+		cache.clear();
+		for (Ref ref : new HashSet<Ref>(byRef.keySet()))
+			if (ref.cache == cache)
+				unlink(ref, byRef.remove(ref));
+		return size;
+	}
+
+	public synchronized void clear()
+	{
+		byEntity.clear();
+		byRef.clear();
+	}
+
+	/**
+	 * @return the number of recorded entries.
+	 */
+	public synchronized int size()
+	{
+		return byRef.size();
+	}
+
+	private void unlink(Ref ref, Set<OWLEntity> dependencies)
+	{
+		if (dependencies == null)
+			return;
+		for (OWLEntity e : dependencies)
+		{
+			Set<Ref> refs = byEntity.get(e);
+			if (refs != null)
+			{
+				refs.remove(ref);
+				if (refs.isEmpty())
+					byEntity.remove(e);
+			}
+		}
+	}
+
+	/**
+	 * Collects the entities of an OWLObject, a Pair, a Node, NodeSet or Collection of those.
+	 */
+	public static Set<OWLEntity> signature(Object o)
+	{
+		Set<OWLEntity> result = new HashSet<OWLEntity>();
+		collectSignature(o, result);
+		return result;
+	}
+
+	private static void collectSignature(Object o, Set<OWLEntity> result)
+	{
+		if (o instanceof OWLObject)
+			result.addAll(((OWLObject) o).getSignature());
+		else if (o instanceof Pair<?, ?>)
+		{
+			collectSignature(((Pair<?, ?>) o).getFirst(), result);
+			collectSignature(((Pair<?, ?>) o).getSecond(), result);
+		}
+		else if (o instanceof Iterable<?>)
+			for (Object element : (Iterable<?>) o)
+				collectSignature(element, result);
+	}
+}
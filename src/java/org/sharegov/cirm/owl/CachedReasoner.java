@@ -15,10 +15,19 @@
  ******************************************************************************/
 package org.sharegov.cirm.owl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import mjson.Json;
 
@@ -29,11 +38,16 @@ import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLDataProperty;
 import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLEquivalentClassesAxiom;
 import org.semanticweb.owlapi.model.OWLLiteral;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLSubClassOfAxiom;
+import org.semanticweb.owlapi.model.OWLSubPropertyChainOfAxiom;
 import org.semanticweb.owlapi.reasoner.AxiomNotInProfileException;
 import org.semanticweb.owlapi.reasoner.BufferingMode;
 import org.semanticweb.owlapi.reasoner.ClassExpressionNotInProfileException;
@@ -63,10 +77,14 @@ import uk.ac.manchester.cs.owl.owlapi.mansyntaxrenderer.ManchesterOWLSyntaxOWLOb
  * results of most commonly used reasoner methods in the Cirm system and
  * provides them in a non blocking way.
  * 
- * A Read/Write lock is used for each cached method.
+ * A Read/Write lock is used for each cached method: cache misses are computed under the read lock, 
+ * flushAndInvalidate holds the write lock. Wrapping a CopyOnWriteReasoner, cache misses therefore do not block each other.
  * 
  * Not all methods are cached.
  * 
+ * Answers about individuals (types, instances, property values) record the entities of their query in a
+ * CacheDependencyIndex, so that flushAndInvalidate can evict only the answers an assertion change may affect.
+ * 
  * @author Thomas Hilpold
  */
 public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
@@ -77,8 +95,24 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	public static final float LOAD_FACTOR_PER_CACHE = 0.5f;
 	public static final int CONCURRENCY_PER_CACHE = 50;
 
+	/**
+	 * If true, flushAndInvalidate evicts only the entries that depend on changed assertions;
+	 * if false, it always clears the whole cache.
+	 */
+	public static volatile boolean USE_SELECTIVE_INVALIDATION = true;
+
+	/**
+	 * Change sets larger than this clear the whole cache.
+	 */
+	public static final int MAX_SELECTIVE_CHANGES = 1000;
+
+	public static final int MAX_INVALIDATION_REPORTS = 20;
+	public static final int MAX_REPORTED_CHANGES = 100;
+
 	
 	private OWLReasoner reasoner;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 	
 	private volatile String getReasonerNameCache = null;
 	private volatile Version getReasonerVersionChache = null;
@@ -198,6 +232,26 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	private volatile FreshEntityPolicy getFreshEntityPolicyCache = null;
 	
 	private volatile IndividualNodeSetPolicy getIndividualNodeSetPolicyCache = null;
+
+	private final CacheDependencyIndex dependencies = new CacheDependencyIndex();
+
+	/**
+	 * Classes with a complex definition (equivalent or general class axiom) and their superclasses.
+	 * Determined by TBox only, reset on clearCache.
+	 */
+	private volatile Set<OWLClass> definedClassClosure = null;
+
+	/**
+	 * Individuals used in TBox or RBox axioms (nominals). Reset on clearCache.
+	 */
+	private volatile Set<OWLNamedIndividual> tboxIndividuals = null;
+
+	private final LinkedList<Json> invalidationReports = new LinkedList<Json>();
+
+	/**
+	 * Incremented whenever the reasoner is flushed or cached answers are invalidated.
+	 */
+	private final AtomicLong invalidationCount = new AtomicLong();
 	
 	
 	/**
@@ -211,11 +265,22 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		return new CachedReasoner(reasoner);
 	}
 
+	/**
+	 * Creates a new cached reasoner wrapping the copy on write reasoner.
+	 * 
+	 * @param reasoner
+	 * @return
+	 */
+	public static CachedReasoner cachedReasoner(CopyOnWriteReasoner reasoner)
+	{
+		return new CachedReasoner(reasoner);
+	}
+
 	/**
 	 * @param reasoner
-	 *            a synchronized reasoner
+	 *            a synchronized or copy on write reasoner
 	 */
-	private CachedReasoner(SynchronizedReasoner reasoner)
+	private CachedReasoner(OWLReasoner reasoner)
 	{
 		this.reasoner = reasoner;
 	}
@@ -223,39 +288,75 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	public String getReasonerName()
 	{
 		if (getReasonerNameCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getReasonerNameCache == null)
 					getReasonerNameCache = reasoner.getReasonerName();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getReasonerNameCache;
 	}
 
 	public Version getReasonerVersion()
 	{
 		if (getReasonerVersionChache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getReasonerVersionChache == null)
 					getReasonerVersionChache = reasoner.getReasonerVersion();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getReasonerVersionChache;
 	}
 
 	public BufferingMode getBufferingMode()
 	{
 		if (getBufferingModeCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getBufferingModeCache == null)
 					getBufferingModeCache = reasoner.getBufferingMode();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getBufferingModeCache;
 	}
 
+	/**
+	 * Flushes the reasoner under the write lock, waiting for cache misses in progress. 
+	 * Cached answers are kept; use flushAndInvalidate to also evict them.
+	 */
 	public void flush()
 	{
-		reasoner.flush();
+		if (reasoner instanceof CopyOnWriteReasoner)
+			((CopyOnWriteReasoner) reasoner).prepareFlush();
+		lock.writeLock().lock();
+		try
+		{
+			reasoner.flush();
+			invalidationCount.incrementAndGet();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
 	}
 
 	public List<OWLOntologyChange> getPendingChanges()
@@ -276,11 +377,18 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	public OWLOntology getRootOntology()
 	{
 		if (getRootOntologyCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getRootOntologyCache == null)
 					getRootOntologyCache = reasoner.getRootOntology();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getRootOntologyCache;
 	}
 
@@ -354,7 +462,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	{
 		if (getTopClassNodeCache == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				if (getTopClassNodeCache == null)
 				{
@@ -363,6 +472,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getTopClassNode Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return getTopClassNodeCache;
 	}
@@ -372,7 +485,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLClass> result = getBottomClassNodeCache;
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getBottomClassNodeCache;
 				if (result == null)
@@ -383,6 +497,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getBottomClassNode Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -397,7 +515,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getSubClassesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSubClassesCache.get(candidate);
 				if (result == null)
@@ -408,6 +527,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSubClasses Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -422,7 +545,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getSuperClassesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSuperClassesCache.get(candidate);
 				if (result == null)
@@ -433,6 +557,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSuperClasses Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -445,7 +573,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLClass> result = getEquivalentClassesCache.get(ce);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getEquivalentClassesCache.get(ce);
 				if (result == null)
@@ -456,6 +585,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getEquivalentClasses Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -467,7 +600,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getDisjointClassesCache.get(ce);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDisjointClassesCache.get(ce);
 				if (result == null)
@@ -478,6 +612,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDisjointClasses Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -487,7 +625,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLObjectPropertyExpression> result = getTopObjectPropertyNodeCache;
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getTopObjectPropertyNodeCache;
 				if (result == null)
@@ -498,6 +637,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getTopObjectPropertyNode Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -507,7 +650,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLObjectPropertyExpression> result = getBottomObjectPropertyNodeCache;
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getBottomObjectPropertyNodeCache;
 				if (result == null)
@@ -518,6 +662,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getBottomObjectPropertyNode Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -532,7 +680,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLObjectPropertyExpression> result = getSubObjectPropertiesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSubObjectPropertiesCache.get(candidate);
 				if (result == null)
@@ -543,6 +692,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSubObjectProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -557,7 +710,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLObjectPropertyExpression> result = getSuperObjectPropertiesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSuperObjectPropertiesCache.get(candidate);
 				if (result == null)
@@ -568,6 +722,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSuperObjectProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -580,7 +738,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLObjectPropertyExpression> result = getEquivalentObjectPropertiesCache.get(pe);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getEquivalentObjectPropertiesCache.get(pe);
 				if (result == null)
@@ -591,6 +750,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getEquivalentObjectProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -603,7 +766,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLObjectPropertyExpression> result = getDisjointObjectPropertiesCache.get(pe);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDisjointObjectPropertiesCache.get(pe);
 				if (result == null)
@@ -614,6 +778,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDisjointObjectProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -626,7 +794,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLObjectPropertyExpression> result = getInverseObjectPropertiesCache.get(pe);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getInverseObjectPropertiesCache.get(pe);
 				if (result == null)
@@ -637,6 +806,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getInverseObjectProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -651,7 +824,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getObjectPropertyDomainsCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getObjectPropertyDomainsCache.get(candidate);
 				if (result == null)
@@ -662,6 +836,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getObjectPropertyDomains Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -676,7 +854,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getObjectPropertyRangesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getObjectPropertyRangesCache.get(candidate);
 				if (result == null)
@@ -687,6 +866,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getObjectPropertyRanges Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -694,22 +877,36 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	public Node<OWLDataProperty> getTopDataPropertyNode()
 	{
 		if (getTopDataPropertyNodeCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getTopDataPropertyNodeCache == null)
 					getTopDataPropertyNodeCache = reasoner.getTopDataPropertyNode();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getTopDataPropertyNodeCache;
 	}
 
 	public Node<OWLDataProperty> getBottomDataPropertyNode()
 	{
 		if (getBottomDataPropertyNodeCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getBottomDataPropertyNodeCache == null)
 					getBottomDataPropertyNodeCache = reasoner.getBottomDataPropertyNode();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getBottomDataPropertyNodeCache;
 	}
 
@@ -723,7 +920,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLDataProperty> result = getSubDataPropertiesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSubDataPropertiesCache.get(candidate);
 				if (result == null)
@@ -734,6 +932,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSubDataProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -748,7 +950,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLDataProperty> result = getSuperDataPropertiesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSuperDataPropertiesCache.get(candidate);
 				if (result == null)
@@ -759,6 +962,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSuperDataProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -770,7 +977,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLDataProperty> result = getEquivalentDataPropertiesCache.get(pe);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getEquivalentDataPropertiesCache.get(pe);
 				if (result == null)
@@ -781,6 +989,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getEquivalentDataProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -793,7 +1005,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLDataProperty> result = getDisjointDataPropertiesCache.get(pe);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDisjointDataPropertiesCache.get(pe);
 				if (result == null)
@@ -804,6 +1017,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDisjointDataProperties Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -818,7 +1035,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getDataPropertyDomainsCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDataPropertyDomainsCache.get(candidate);
 				if (result == null)
@@ -829,6 +1047,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDataPropertyDomains Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -845,17 +1067,23 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLClass> result = getTypesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getTypesCache.get(candidate);
 				if (result == null)
 				{
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getTypes " + ind);
 					result = reasoner.getTypes(ind, direct);
-					getTypesCache.putIfAbsent(candidate, result);
+					if (getTypesCache.putIfAbsent(candidate, result) == null)
+						dependencies.record("getTypesCache", getTypesCache, candidate);
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getTypes Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -873,17 +1101,23 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLNamedIndividual> result = getInstancesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getInstancesCache.get(candidate);
 				if (result == null)
 				{
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getInstances " + ce);
 					result = reasoner.getInstances(ce, direct);
-					getInstancesCache.putIfAbsent(candidate, result);
+					if (getInstancesCache.putIfAbsent(candidate, result) == null)
+						dependencies.record("getInstancesCache", getInstancesCache, candidate);
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getInstances Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -902,17 +1136,23 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 				.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getObjectPropertyValuesCache.get(candidate);
 				if (result == null)
 				{
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getObjectPropertyValues " + ind + " " + pe);
 					result = reasoner.getObjectPropertyValues(ind, pe);
-					getObjectPropertyValuesCache.putIfAbsent(candidate, result);
+					if (getObjectPropertyValuesCache.putIfAbsent(candidate, result) == null)
+						dependencies.record("getObjectPropertyValuesCache", getObjectPropertyValuesCache, candidate);
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getObjectPropertyValues Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -930,17 +1170,23 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Set<OWLLiteral> result = getDataPropertyValuesCache.get(candidate);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDataPropertyValuesCache.get(candidate);
 				if (result == null)
 				{
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDataPropertyValues " + ind + " " + pe);
 					result = reasoner.getDataPropertyValues(ind, pe);
-					getDataPropertyValuesCache.putIfAbsent(candidate, result);
+					if (getDataPropertyValuesCache.putIfAbsent(candidate, result) == null)
+						dependencies.record("getDataPropertyValuesCache", getDataPropertyValuesCache, candidate);
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDataPropertyValues Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -952,7 +1198,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		Node<OWLNamedIndividual> result = getSameIndividualsCache.get(ind);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getSameIndividualsCache.get(ind);
 				if (result == null)
@@ -963,6 +1210,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getSameIndividuals Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -975,7 +1226,8 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		NodeSet<OWLNamedIndividual> result = getDifferentIndividualsCache.get(ind);
 		if (result == null)
 		{
-			synchronized (reasoner)
+			lock.readLock().lock();
+			try
 			{
 				result = getDifferentIndividualsCache.get(ind);
 				if (result == null)
@@ -986,6 +1238,10 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 					if (DBG_CACHE_MISS)	ThreadLocalStopwatch.getWatch().time("CR.getDifferentIndividuals Done.");
 				}
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
 		}
 		return result;
 	}
@@ -993,33 +1249,54 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 	public long getTimeOut()
 	{
 		if (getTimeOutCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getTimeOutCache == null)
 					getTimeOutCache = reasoner.getTimeOut();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getTimeOutCache;
 	}
 
 	public FreshEntityPolicy getFreshEntityPolicy()
 	{
 		if (getFreshEntityPolicyCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getFreshEntityPolicyCache == null)
 					getFreshEntityPolicyCache = reasoner.getFreshEntityPolicy();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getFreshEntityPolicyCache;
 	}
 
 	public IndividualNodeSetPolicy getIndividualNodeSetPolicy()
 	{
 		if (getIndividualNodeSetPolicyCache == null)
-			synchronized (reasoner)
+		{
+			lock.readLock().lock();
+			try
 			{
 				if (getIndividualNodeSetPolicyCache == null)
 					getIndividualNodeSetPolicyCache = reasoner.getIndividualNodeSetPolicy();
 			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
 		return getIndividualNodeSetPolicyCache;
 	}
 
@@ -1169,51 +1446,373 @@ public class CachedReasoner implements OWLReasoner, Wrapper<OWLReasoner>
 		return GenUtils.ok().with(Json.object("populateGetInstancesCache nrOfProcessed", i));
 	}
 
+	/**
+	 * Applies the pending changes of the buffering reasoner and evicts only the cached answers that depend on them.<br>
+	 * <br>
+	 * Assertion (ABox) changes evict, per change, the entries whose query mentions an entity of the changed axiom,
+	 * a type of a changed individual before or after the change, or a super, equivalent, inverse or chain property of
+	 * a changed property. Because complex class definitions can classify other individuals differently, the types cache
+	 * and instance queries over defined classes are also evicted if the ontology has such definitions.
+	 * Same and different individual answers are always evicted.<br>
+	 * Class and property hierarchy answers do not depend on assertions and are kept.<br>
+	 * <br>
+	 * The whole cache is cleared, if selective invalidation is disabled, the reasoner is not buffering,
+	 * or a change is a TBox/RBox, import, same or different individuals change or mentions an individual used in TBox or RBox.
+	 * 
+	 * @return an invalidation report with the number of evicted entries by cache for each change.
+	 */
+	public Json flushAndInvalidate()
+	{
+		if (reasoner instanceof CopyOnWriteReasoner)
+			((CopyOnWriteReasoner) reasoner).prepareFlush();
+		lock.writeLock().lock();
+		try
+		{
+			long start = System.currentTimeMillis();
+			List<OWLOntologyChange> changes = new ArrayList<OWLOntologyChange>(reasoner.getPendingChanges());
+			String fullClearReason = USE_SELECTIVE_INVALIDATION ? fullClearReason(changes) : "selective invalidation disabled";
+			Json report = Json.object()
+				.set("time", start)
+				.set("changes", changes.size());
+			List<Set<OWLEntity>> affectedByChange = new ArrayList<Set<OWLEntity>>();
+			if (fullClearReason == null)
+			{
+				for (OWLOntologyChange change : changes)
+				{
+					Set<OWLEntity> affected = new HashSet<OWLEntity>();
+					if (change.isAxiomChange() && change.getAxiom().isLogicalAxiom())
+					{
+						affected.addAll(change.getAxiom().getSignature());
+						addTypesOfIndividuals(affected);
+					}
+					affectedByChange.add(affected);
+				}
+			}
+			if (getBufferingMode() == BufferingMode.BUFFERING)
+				reasoner.flush();
+			invalidationCount.incrementAndGet();
+			if (fullClearReason == null)
+			{
+				Json changeReports = Json.array();
+				int evictedTotal = 0;
+				boolean assertionsChanged = false;
+				for (int i = 0; i < changes.size(); i++)
+				{
+					Set<OWLEntity> affected = affectedByChange.get(i);
+					if (affected.isEmpty())
+						continue;
+					assertionsChanged = true;
+					addTypesOfIndividuals(affected);
+					addDependentProperties(affected);
+					Map<String, Integer> evicted = dependencies.evict(affected, null);
+					evictedTotal += sum(evicted);
+					if (i < MAX_REPORTED_CHANGES)
+						changeReports.add(Json.object()
+							.set("change", changes.get(i).toString())
+							.set("affectedEntities", affected.size())
+							.set("evicted", Json.make(evicted)));
+				}
+				Map<String, Integer> evicted = new HashMap<String, Integer>();
+				if (assertionsChanged)
+				{
+					evicted.put("getSameIndividualsCache", dependencies.evictAll(getSameIndividualsCache));
+					evicted.put("getDifferentIndividualsCache", dependencies.evictAll(getDifferentIndividualsCache));
+					Set<OWLClass> defined = getDefinedClassClosure();
+					if (!defined.isEmpty())
+					{
+						evicted.put("getTypesCache", dependencies.evictAll(getTypesCache));
+						Set<ConcurrentHashMap<?, ?>> instances = new HashSet<ConcurrentHashMap<?, ?>>();
+						instances.add(getInstancesCache);
+						Integer count = dependencies.evict(defined, instances).get("getInstancesCache");
+						evicted.put("getInstancesCache", count == null ? 0 : count);
+					}
+				}
+				evictedTotal += sum(evicted);
+				report.set("fullClear", false)
+					.set("evictedByChange", changeReports)
+					.set("evictedByChangeSet", Json.make(evicted))
+					.set("evictedTotal", evictedTotal);
+			}
+			else
+			{
+				report.set("fullClear", true)
+					.set("fullClearReason", fullClearReason)
+					.set("evictedTotal", getTotalCacheEntryCount());
+				clearCache();
+			}
+			report.set("remainingEntries", getTotalCacheEntryCount())
+				.set("durationMs", System.currentTimeMillis() - start);
+			synchronized (invalidationReports)
+			{
+				invalidationReports.addFirst(report);
+				if (invalidationReports.size() > MAX_INVALIDATION_REPORTS)
+					invalidationReports.removeLast();
+			}
+			ThreadLocalStopwatch.getWatch().time("CR.flushAndInvalidate changes: " + changes.size() 
+					+ " evicted: " + report.at("evictedTotal") 
+					+ (fullClearReason != null ? " full clear: " + fullClearReason : ""));
+			return report;
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the most recent invalidation reports, newest first.
+	 */
+	public Json getInvalidationReports()
+	{
+		synchronized (invalidationReports)
+		{
+			return Json.make(new ArrayList<Json>(invalidationReports));
+		}
+	}
+
+	/**
+	 * @return null if changes can be invalidated selectively, otherwise the reason for a full clear.
+	 */
+	private String fullClearReason(List<OWLOntologyChange> changes)
+	{
+		if (getBufferingMode() != BufferingMode.BUFFERING)
+			return "reasoner is not buffering, changes unknown";
+		if (changes.size() > MAX_SELECTIVE_CHANGES)
+			return "more than " + MAX_SELECTIVE_CHANGES + " changes";
+		for (OWLOntologyChange change : changes)
+		{
+			if (change.isImportChange())
+				return "import change " + change;
+			if (!change.isAxiomChange())
+				continue;
+			OWLAxiom axiom = change.getAxiom();
+			if (!axiom.isLogicalAxiom())
+				continue;
+			if (!axiom.isOfType(AxiomType.ABoxAxiomTypes))
+				return "TBox or RBox change " + change;
+			if (axiom.isOfType(AxiomType.SAME_INDIVIDUAL, AxiomType.DIFFERENT_INDIVIDUALS))
+				return "same or different individuals change " + change;
+			for (OWLNamedIndividual ind : axiom.getIndividualsInSignature())
+				if (getTBoxIndividuals().contains(ind))
+					return "individual used in TBox or RBox " + ind;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the inferred types of all individuals in affected, as the underlying reasoner currently sees them.
+	 */
+	private void addTypesOfIndividuals(Set<OWLEntity> affected)
+	{
+		for (OWLEntity e : new ArrayList<OWLEntity>(affected))
+		{
+			if (!e.isOWLNamedIndividual())
+				continue;
+			try
+			{
+				affected.addAll(reasoner.getTypes(e.asOWLNamedIndividual(), false).getFlattened());
+			}
+			catch (FreshEntitiesException ex)
+			{
+				// new individual, no types before the change
+			}
+		}
+	}
+
+	/**
+	 * Adds super, equivalent and inverse properties of properties in affected
+	 * and the super property of chains using one of them.
+	 */
+	private void addDependentProperties(Set<OWLEntity> affected)
+	{
+		Set<OWLObjectProperty> objectProperties = new HashSet<OWLObjectProperty>();
+		for (OWLEntity e : new ArrayList<OWLEntity>(affected))
+		{
+			if (e.isOWLObjectProperty())
+			{
+				OWLObjectProperty p = e.asOWLObjectProperty();
+				objectProperties.add(p);
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getSuperObjectProperties(p, false)));
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getEquivalentObjectProperties(p)));
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getInverseObjectProperties(p)));
+			}
+			else if (e.isOWLDataProperty())
+			{
+				OWLDataProperty p = e.asOWLDataProperty();
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getSuperDataProperties(p, false)));
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getEquivalentDataProperties(p)));
+			}
+		}
+		if (objectProperties.isEmpty())
+			return;
+		for (OWLSubPropertyChainOfAxiom chain : getRootOntology().getAxioms(AxiomType.SUB_PROPERTY_CHAIN_OF, true))
+			if (!Collections.disjoint(chain.getObjectPropertiesInSignature(), objectProperties))
+			{
+				affected.addAll(chain.getSuperProperty().getSignature());
+				affected.addAll(CacheDependencyIndex.signature(reasoner.getSuperObjectProperties(chain.getSuperProperty(), false)));
+			}
+	}
+
+	private Set<OWLClass> getDefinedClassClosure()
+	{
+		Set<OWLClass> result = definedClassClosure;
+		if (result == null)
+		{
+			Set<OWLClass> defined = new HashSet<OWLClass>();
+			OWLOntology root = getRootOntology();
+			for (OWLEquivalentClassesAxiom axiom : root.getAxioms(AxiomType.EQUIVALENT_CLASSES, true))
+				for (OWLClassExpression ce : axiom.getClassExpressions())
+					if (ce.isAnonymous())
+					{
+						defined.addAll(axiom.getNamedClasses());
+						break;
+					}
+			for (OWLSubClassOfAxiom axiom : root.getAxioms(AxiomType.SUBCLASS_OF, true))
+				if (axiom.isGCI())
+					defined.addAll(axiom.getSuperClass().getClassesInSignature());
+			result = new HashSet<OWLClass>(defined);
+			for (OWLClass c : defined)
+				result.addAll(reasoner.getSuperClasses(c, false).getFlattened());
+			definedClassClosure = result;
+		}
+		return result;
+	}
+
+	private Set<OWLNamedIndividual> getTBoxIndividuals()
+	{
+		Set<OWLNamedIndividual> result = tboxIndividuals;
+		if (result == null)
+		{
+			result = new HashSet<OWLNamedIndividual>();
+			OWLOntology root = getRootOntology();
+			for (OWLAxiom axiom : root.getTBoxAxioms(true))
+				result.addAll(axiom.getIndividualsInSignature());
+			for (OWLAxiom axiom : root.getRBoxAxioms(true))
+				result.addAll(axiom.getIndividualsInSignature());
+			tboxIndividuals = result;
+		}
+		return result;
+	}
+
+	private static int sum(Map<String, Integer> counts)
+	{
+		int result = 0;
+		for (Integer count : counts.values())
+			result += count;
+		return result;
+	}
+
 	
 
 	/**
 
 	/**
-	 * Clears the cache
+	 * Clears the cache under the write lock, waiting for cache misses in progress, so that none of them
+	 * adds an answer computed before the clear. Must not be called while holding the read lock.
 	 */
 	public void clearCache()
 	{
-		getReasonerNameCache = null;
-		getReasonerVersionChache = null; 
-		getBufferingModeCache = null;
-		getRootOntologyCache = null; 
-		getTopClassNodeCache = null;
-		getBottomClassNodeCache = null;
-		getSubClassesCache.clear();
-		getSuperClassesCache.clear();
-		getEquivalentClassesCache.clear();
-		getDisjointClassesCache.clear();
-		getTopObjectPropertyNodeCache = null;
-		getBottomObjectPropertyNodeCache = null;
-		getSubObjectPropertiesCache.clear();
-		getSuperObjectPropertiesCache.clear();
-		getEquivalentObjectPropertiesCache.clear();
-		getDisjointObjectPropertiesCache.clear();
-		getInverseObjectPropertiesCache.clear();
-		getObjectPropertyDomainsCache.clear();
-		getObjectPropertyRangesCache.clear();
-		getTopDataPropertyNodeCache = null;
-		getBottomDataPropertyNodeCache = null;
-		getSubDataPropertiesCache.clear();
-		getSuperDataPropertiesCache.clear();
-		getEquivalentDataPropertiesCache.clear();
-		getDisjointDataPropertiesCache.clear();
-		getDataPropertyDomainsCache.clear();
-		getTypesCache.clear();
-		getInstancesCache.clear();
-		getObjectPropertyValuesCache.clear();
-		getDataPropertyValuesCache.clear();
-		getSameIndividualsCache.clear();
-		getDifferentIndividualsCache.clear();
-		getTimeOutCache = null;
-		getFreshEntityPolicyCache = null;
-		getIndividualNodeSetPolicyCache = null;
-		ThreadLocalStopwatch.getWatch().time("-> CACHED_REASONER CACHE CLEARED! <-");
+		lock.writeLock().lock();
+		try
+		{
+			getReasonerNameCache = null;
+			getReasonerVersionChache = null; 
+			getBufferingModeCache = null;
+			getRootOntologyCache = null; 
+			getTopClassNodeCache = null;
+			getBottomClassNodeCache = null;
+			getSubClassesCache.clear();
+			getSuperClassesCache.clear();
+			getEquivalentClassesCache.clear();
+			getDisjointClassesCache.clear();
+			getTopObjectPropertyNodeCache = null;
+			getBottomObjectPropertyNodeCache = null;
+			getSubObjectPropertiesCache.clear();
+			getSuperObjectPropertiesCache.clear();
+			getEquivalentObjectPropertiesCache.clear();
+			getDisjointObjectPropertiesCache.clear();
+			getInverseObjectPropertiesCache.clear();
+			getObjectPropertyDomainsCache.clear();
+			getObjectPropertyRangesCache.clear();
+			getTopDataPropertyNodeCache = null;
+			getBottomDataPropertyNodeCache = null;
+			getSubDataPropertiesCache.clear();
+			getSuperDataPropertiesCache.clear();
+			getEquivalentDataPropertiesCache.clear();
+			getDisjointDataPropertiesCache.clear();
+			getDataPropertyDomainsCache.clear();
+			getTypesCache.clear();
+			getInstancesCache.clear();
+			getObjectPropertyValuesCache.clear();
+			getDataPropertyValuesCache.clear();
+			getSameIndividualsCache.clear();
+			getDifferentIndividualsCache.clear();
+			getTimeOutCache = null;
+			getFreshEntityPolicyCache = null;
+			getIndividualNodeSetPolicyCache = null;
+			dependencies.clear();
+			definedClassClosure = null;
+			tboxIndividuals = null;
+			invalidationCount.incrementAndGet();
+			ThreadLocalStopwatch.getWatch().time("-> CACHED_REASONER CACHE CLEARED! <-");
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Cache misses are computed under the read lock, the reasoner is flushed and caches are invalidated under the write lock.
+	 */
+	ReentrantReadWriteLock getLock()
+	{
+		return lock;
+	}
+
+	/**
+	 * Answers computed outside of this reasoner may only be added while this count has not changed
+	 * since they were computed.
+	 */
+	long getInvalidationCount()
+	{
+		return invalidationCount.get();
+	}
+
+	/**
+	 * @return the caches included in a CachedReasonerSnapshot by name.
+	 */
+	Map<String, ConcurrentHashMap<?, ?>> getSnapshotCaches()
+	{
+		Map<String, ConcurrentHashMap<?, ?>> result = new LinkedHashMap<String, ConcurrentHashMap<?, ?>>();
+		result.put("getSubClassesCache", getSubClassesCache);
+		result.put("getSuperClassesCache", getSuperClassesCache);
+		result.put("getEquivalentClassesCache", getEquivalentClassesCache);
+		result.put("getTypesCache", getTypesCache);
+		result.put("getInstancesCache", getInstancesCache);
+		result.put("getObjectPropertyValuesCache", getObjectPropertyValuesCache);
+		result.put("getDataPropertyValuesCache", getDataPropertyValuesCache);
+		return result;
+	}
+
+	/**
+	 * Puts an answer restored from a snapshot into a snapshot cache, if absent.
+	 * Caller must hold the write lock of getLock().
+	 * 
+	 * @return true if the answer was added.
+	 */
+	@SuppressWarnings("unchecked")
+	boolean restore(String cacheName, Object key, Object value)
+	{
+		ConcurrentHashMap<Object, Object> cache = (ConcurrentHashMap<Object, Object>) getSnapshotCaches().get(cacheName);
+		if (cache == null)
+			throw new IllegalArgumentException("Not a snapshot cache: " + cacheName);
+		if (cache.putIfAbsent(key, value) != null)
+			return false;
+		if (cacheName.equals("getTypesCache") || cacheName.equals("getInstancesCache") 
+				|| cacheName.equals("getObjectPropertyValuesCache") || cacheName.equals("getDataPropertyValuesCache"))
+			dependencies.record(cacheName, cache, key);
+		return true;
 	}
 
 	@Override
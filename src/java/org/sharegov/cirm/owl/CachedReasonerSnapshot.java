@@ -0,0 +1,682 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import mjson.Json;
+
+import org.hypergraphdb.util.Pair;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLClassNodeSet;
+import org.semanticweb.owlapi.reasoner.impl.OWLNamedIndividualNode;
+import org.semanticweb.owlapi.reasoner.impl.OWLNamedIndividualNodeSet;
+import org.semanticweb.owlapi.util.DefaultPrefixManager;
+import org.semanticweb.owlapi.util.Version;
+import org.sharegov.cirm.OWL;
+import org.sharegov.cirm.utils.DLQueryParser;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+import uk.ac.manchester.cs.owl.owlapi.mansyntaxrenderer.ManchesterOWLSyntaxOWLObjectRendererImpl;
+
+/**
+ * A compact on disk snapshot of the computed answers of a CachedReasoner (class hierarchy, types, instances and
+ * property values), so a restarted server can serve from a warm cache instead of repeating the Pellet queries.<br>
+ * <br>
+ * The snapshot is tagged with a fingerprint of the reasoner and the axioms of the root ontology's import closure.
+ * It is only loaded if the fingerprint still matches and the reasoner has no pending changes; a snapshot of a changed
+ * ontology is deleted.<br>
+ * <br>
+ * Format (gzip): magic, format version, fingerprint, creation time, IRI table, then per cache its name, entry count and
+ * entries, with IRIs as table indices. Anonymous class expressions are stored in Manchester syntax; entries whose
+ * expression does not parse back to an equal expression, and object property values of inverse properties, are skipped.
+ * So are entries with an expression or literal longer than MAX_UTF_LENGTH, which may not fit a writeUTF string.
+ */
+public class CachedReasonerSnapshot
+{
+	public static final int MAGIC = 0x43524353;
+	public static final int FORMAT_VERSION = 1;
+	/**
+	 * Characters of a string stored with writeUTF; 3 bytes per char stay below its 65535 byte limit.
+	 */
+	public static final int MAX_UTF_LENGTH = 16000;
+
+	private static final byte NAMED = 0;
+	private static final byte ANONYMOUS = 1;
+
+	private final CachedReasoner reasoner;
+	private final File file;
+	private volatile Json lastSave = Json.nil();
+	private volatile Json lastLoad = Json.nil();
+
+	public CachedReasonerSnapshot(CachedReasoner reasoner, File file)
+	{
+		this.reasoner = reasoner;
+		this.file = file;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Computes a fingerprint of the reasoner and all axioms of its root ontology's import closure.
+	 * The axiom part is independent of axiom order and of blank node ids.
+	 */
+	public static String fingerprint(CachedReasoner reasoner)
+	{
+		OWLOntology root = reasoner.getRootOntology();
+		List<OWLOntology> closure = new ArrayList<OWLOntology>(root.getImportsClosure());
+		Collections.sort(closure, new Comparator<OWLOntology>() {
+			public int compare(OWLOntology o1, OWLOntology o2)
+			{
+				return o1.getOntologyID().toString().compareTo(o2.getOntologyID().toString());
+			}
+		});
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			Version version = reasoner.getReasonerVersion();
+			digest.update((reasoner.getReasonerName() + " " + version.getMajor() + "." + version.getMinor() + "."
+					+ version.getPatch() + "." + version.getBuild()).getBytes("UTF-8"));
+			for (OWLOntology o : closure)
+			{
+				long sum = 0;
+				long xor = 0;
+				int count = 0;
+				for (OWLAxiom axiom : o.getAxioms())
+				{
+					String axiomString = axiom.toString();
+					if (axiomString.contains("_:"))
+						axiomString = axiomString.replaceAll("_:[A-Za-z0-9]+", "_:");
+					long h = fnv64(axiomString);
+					sum += h;
+					xor ^= h * 0x9E3779B97F4A7C15L;
+					count++;
+				}
+				digest.update((o.getOntologyID().toString() + " " + count + " " + sum + " " + xor).getBytes("UTF-8"));
+			}
+			StringBuilder result = new StringBuilder();
+			for (byte b : digest.digest())
+				result.append(String.format("%02x", b));
+			return result.toString();
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static long fnv64(String s)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++)
+		{
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Writes the current answers of the snapshot caches to the snapshot file, replacing it.
+	 *
+	 * @return save statistics.
+	 * @throws IllegalStateException if the reasoner has pending changes.
+	 */
+	public Json save()
+	{
+		long start = System.currentTimeMillis();
+		String fingerprint;
+		Map<String, List<Map.Entry<?, ?>>> entries = new LinkedHashMap<String, List<Map.Entry<?, ?>>>();
+		reasoner.getLock().writeLock().lock();
+		try
+		{
+			if (!reasoner.getPendingChanges().isEmpty())
+				throw new IllegalStateException("Reasoner has pending changes, synchronize the reasoner before saving a snapshot.");
+			fingerprint = fingerprint(reasoner);
+			for (Map.Entry<String, ConcurrentHashMap<?, ?>> cache : reasoner.getSnapshotCaches().entrySet())
+				entries.put(cache.getKey(), new ArrayList<Map.Entry<?, ?>>(cache.getValue().entrySet()));
+		}
+		finally
+		{
+			reasoner.getLock().writeLock().unlock();
+		}
+		Encoder encoder = new Encoder(reasoner.getRootOntology());
+		Json counts = Json.object();
+		int written = 0;
+		try
+		{
+			ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+			DataOutputStream body = new DataOutputStream(bodyBytes);
+			body.writeInt(entries.size());
+			for (Map.Entry<String, List<Map.Entry<?, ?>>> cache : entries.entrySet())
+			{
+				ByteArrayOutputStream cacheBytes = new ByteArrayOutputStream();
+				DataOutputStream cacheOut = new DataOutputStream(cacheBytes);
+				int count = 0;
+				for (Map.Entry<?, ?> entry : cache.getValue())
+				{
+					ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+					if (encoder.writeEntry(cache.getKey(), entry.getKey(), entry.getValue(), new DataOutputStream(entryBytes)))
+					{
+						entryBytes.writeTo(cacheOut);
+						count++;
+					}
+				}
+				cacheOut.flush();
+				body.writeUTF(cache.getKey());
+				body.writeInt(count);
+				cacheBytes.writeTo(body);
+				counts.set(cache.getKey(), count);
+				written += count;
+			}
+			body.flush();
+			File tmp = new File(file.getPath() + ".tmp");
+			if (file.getParentFile() != null)
+				file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(fingerprint);
+				out.writeLong(start);
+				out.writeInt(encoder.iris.size());
+				for (String iri : encoder.iris)
+					out.writeUTF(iri);
+				bodyBytes.writeTo(out);
+			}
+			finally
+			{
+				out.close();
+			}
+			if (file.exists() && !file.delete())
+				throw new IOException("Could not replace " + file);
+			if (!tmp.renameTo(file))
+				throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		Json result = Json.object()
+			.set("file", file.getPath())
+			.set("fingerprint", fingerprint)
+			.set("entries", written)
+			.set("entriesByCache", counts)
+			.set("skipped", encoder.skipped)
+			.set("bytes", file.length())
+			.set("durationMs", System.currentTimeMillis() - start);
+		lastSave = result;
+		ThreadLocalStopwatch.getWatch().time("CachedReasonerSnapshot saved " + written + " entries, skipped " + encoder.skipped);
+		return result;
+	}
+
+	/**
+	 * Loads the snapshot into the cached reasoner, if it exists and its fingerprint matches the current ontologies.
+	 * A snapshot with another fingerprint or format is deleted.
+	 *
+	 * @return load statistics; status is one of loaded, missing, discarded, pendingChanges or invalidated,
+	 * if the reasoner was flushed while the fingerprint was computed.
+	 */
+	public Json load()
+	{
+		long start = System.currentTimeMillis();
+		Json result = Json.object().set("file", file.getPath());
+		if (!file.exists())
+			return lastLoad = result.set("status", "missing");
+		String fingerprint;
+		Map<String, List<Object[]>> entries = new LinkedHashMap<String, List<Object[]>>();
+		int skipped = 0;
+		try
+		{
+			DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+			try
+			{
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				{
+					in.close();
+					discard();
+					return lastLoad = result.set("status", "discarded").set("reason", "unknown format");
+				}
+				fingerprint = in.readUTF();
+				result.set("created", in.readLong());
+				Decoder decoder = new Decoder(reasoner.getRootOntology());
+				int iriCount = in.readInt();
+				for (int i = 0; i < iriCount; i++)
+					decoder.iris.add(IRI.create(in.readUTF()));
+				int caches = in.readInt();
+				for (int c = 0; c < caches; c++)
+				{
+					String cacheName = in.readUTF();
+					int count = in.readInt();
+					List<Object[]> cacheEntries = new ArrayList<Object[]>(count);
+					for (int i = 0; i < count; i++)
+					{
+						Object[] entry = decoder.readEntry(cacheName, in);
+						if (entry != null)
+							cacheEntries.add(entry);
+					}
+					entries.put(cacheName, cacheEntries);
+				}
+				skipped = decoder.skipped;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("CachedReasonerSnapshot: could not read " + file + " " + e);
+			discard();
+			return lastLoad = result.set("status", "discarded").set("reason", e.toString());
+		}
+		// fingerprinting all axioms is slow, do not block the reasoner while it runs
+		long invalidationCount = reasoner.getInvalidationCount();
+		if (!reasoner.getPendingChanges().isEmpty())
+			return lastLoad = result.set("status", "pendingChanges");
+		String current = fingerprint(reasoner);
+		if (!current.equals(fingerprint))
+		{
+			discard();
+			return lastLoad = result.set("status", "discarded").set("reason", "ontology changed")
+					.set("fingerprint", fingerprint).set("currentFingerprint", current);
+		}
+		int restored = 0;
+		reasoner.getLock().writeLock().lock();
+		try
+		{
+			if (!reasoner.getPendingChanges().isEmpty())
+				return lastLoad = result.set("status", "pendingChanges");
+			if (reasoner.getInvalidationCount() != invalidationCount)
+				return lastLoad = result.set("status", "invalidated");
+			for (Map.Entry<String, List<Object[]>> cache : entries.entrySet())
+				for (Object[] entry : cache.getValue())
+					if (reasoner.restore(cache.getKey(), entry[0], entry[1]))
+						restored++;
+		}
+		finally
+		{
+			reasoner.getLock().writeLock().unlock();
+		}
+		result.set("status", "loaded")
+			.set("fingerprint", fingerprint)
+			.set("entries", restored)
+			.set("skipped", skipped)
+			.set("durationMs", System.currentTimeMillis() - start);
+		ThreadLocalStopwatch.getWatch().time("CachedReasonerSnapshot loaded " + restored + " entries.");
+		return lastLoad = result;
+	}
+
+	/**
+	 * Loads the snapshot in a daemon thread; answers are served from the cache as soon as they are restored.
+	 */
+	public Thread loadInBackground()
+	{
+		Thread t = new Thread("CachedReasonerSnapshot load") {
+			public void run()
+			{
+				try
+				{
+					load();
+				}
+				catch (Throwable t)
+				{
+					System.err.println("CachedReasonerSnapshot: load failed " + t);
+					t.printStackTrace(System.err);
+					lastLoad = Json.object("status", "failed", "reason", t.toString());
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.setPriority(Thread.NORM_PRIORITY - 1);
+		t.start();
+		return t;
+	}
+
+	private void discard()
+	{
+		if (file.exists() && !file.delete())
+			System.err.println("CachedReasonerSnapshot: could not delete " + file);
+	}
+
+	public Json getStatus()
+	{
+		return Json.object()
+			.set("file", file.getPath())
+			.set("exists", file.exists())
+			.set("bytes", file.length())
+			.set("lastSave", lastSave)
+			.set("lastLoad", lastLoad);
+	}
+
+	/**
+	 * Kind of key and value of each snapshot cache.
+	 */
+	private static boolean classKey(String cacheName)
+	{
+		return cacheName.equals("getSubClassesCache") || cacheName.equals("getSuperClassesCache")
+				|| cacheName.equals("getInstancesCache");
+	}
+
+	private static class Encoder
+	{
+		final List<String> iris = new ArrayList<String>();
+		final Map<IRI, Integer> index = new HashMap<IRI, Integer>();
+		final OWLOntology root;
+		ManchesterOWLSyntaxOWLObjectRendererImpl renderer = null;
+		DLQueryParser parser = null;
+		int skipped = 0;
+
+		Encoder(OWLOntology root)
+		{
+			this.root = root;
+		}
+
+		/**
+		 * @return false if the entry cannot be encoded and was skipped.
+		 */
+		@SuppressWarnings("unchecked")
+		boolean writeEntry(String cacheName, Object key, Object value, DataOutputStream out) throws IOException
+		{
+			if (classKey(cacheName) || cacheName.equals("getTypesCache"))
+			{
+				Pair<Boolean, ?> pair = (Pair<Boolean, ?>) key;
+				out.writeBoolean(pair.getFirst());
+				if (pair.getSecond() instanceof OWLClassExpression)
+				{
+					if (!writeClassExpression((OWLClassExpression) pair.getSecond(), out))
+						return false;
+				}
+				else
+					writeIRI(((OWLNamedIndividual) pair.getSecond()).getIRI(), out);
+				writeNodeSet((NodeSet<? extends OWLEntity>) value, out);
+			}
+			else if (cacheName.equals("getEquivalentClassesCache"))
+			{
+				if (!writeClassExpression((OWLClassExpression) key, out))
+					return false;
+				writeNode((Node<? extends OWLEntity>) value, out);
+			}
+			else if (cacheName.equals("getObjectPropertyValuesCache"))
+			{
+				Pair<OWLNamedIndividual, OWLObjectPropertyExpression> pair = (Pair<OWLNamedIndividual, OWLObjectPropertyExpression>) key;
+				if (pair.getSecond().isAnonymous())
+				{
+					skipped++;
+					return false;
+				}
+				writeIRI(pair.getFirst().getIRI(), out);
+				writeIRI(pair.getSecond().asOWLObjectProperty().getIRI(), out);
+				writeNodeSet((NodeSet<? extends OWLEntity>) value, out);
+			}
+			else if (cacheName.equals("getDataPropertyValuesCache"))
+			{
+				Pair<OWLNamedIndividual, OWLDataProperty> pair = (Pair<OWLNamedIndividual, OWLDataProperty>) key;
+				writeIRI(pair.getFirst().getIRI(), out);
+				writeIRI(pair.getSecond().getIRI(), out);
+				Set<OWLLiteral> literals = (Set<OWLLiteral>) value;
+				out.writeInt(literals.size());
+				for (OWLLiteral literal : literals)
+					if (literal.getLiteral().length() > MAX_UTF_LENGTH)
+					{
+						skipped++;
+						return false;
+					}
+				for (OWLLiteral literal : literals)
+				{
+					out.writeUTF(literal.getLiteral());
+					out.writeBoolean(literal.hasLang());
+					if (literal.hasLang())
+						out.writeUTF(literal.getLang());
+					else
+						writeIRI(literal.getDatatype().getIRI(), out);
+				}
+			}
+			else
+				throw new IllegalArgumentException("Not a snapshot cache: " + cacheName);
+			return true;
+		}
+
+		boolean writeClassExpression(OWLClassExpression ce, DataOutputStream out) throws IOException
+		{
+			if (!ce.isAnonymous())
+			{
+				out.writeByte(NAMED);
+				writeIRI(ce.asOWLClass().getIRI(), out);
+				return true;
+			}
+			String manchester;
+			try
+			{
+				if (renderer == null)
+				{
+					renderer = new ManchesterOWLSyntaxOWLObjectRendererImpl();
+					renderer.setShortFormProvider((DefaultPrefixManager) OWL.prefixManager());
+					parser = DLQueryParser.getParser(root, (DefaultPrefixManager) OWL.prefixManager());
+				}
+				manchester = renderer.render(ce);
+				if (manchester.length() > MAX_UTF_LENGTH || !ce.equals(parser.parseClassExpression(manchester)))
+				{
+					skipped++;
+					return false;
+				}
+			}
+			catch (Exception e)
+			{
+				skipped++;
+				return false;
+			}
+			out.writeByte(ANONYMOUS);
+			out.writeUTF(manchester);
+			return true;
+		}
+
+		void writeNodeSet(NodeSet<? extends OWLEntity> nodes, DataOutputStream out) throws IOException
+		{
+			out.writeInt(nodes.getNodes().size());
+			for (Node<? extends OWLEntity> node : nodes)
+				writeNode(node, out);
+		}
+
+		void writeNode(Node<? extends OWLEntity> node, DataOutputStream out) throws IOException
+		{
+			out.writeInt(node.getSize());
+			for (OWLEntity e : node)
+				writeIRI(e.getIRI(), out);
+		}
+
+		void writeIRI(IRI iri, DataOutputStream out) throws IOException
+		{
+			Integer i = index.get(iri);
+			if (i == null)
+			{
+				i = iris.size();
+				iris.add(iri.toString());
+				index.put(iri, i);
+			}
+			out.writeInt(i);
+		}
+	}
+
+	private static class Decoder
+	{
+		final List<IRI> iris = new ArrayList<IRI>();
+		final OWLOntology root;
+		final OWLDataFactory df;
+		DLQueryParser parser = null;
+		int skipped = 0;
+
+		Decoder(OWLOntology root)
+		{
+			this.root = root;
+			this.df = root.getOWLOntologyManager().getOWLDataFactory();
+		}
+
+		/**
+		 * @return key and value, null if the key expression no longer parses.
+		 */
+		Object[] readEntry(String cacheName, DataInputStream in) throws IOException
+		{
+			Object key;
+			Object value;
+			if (classKey(cacheName))
+			{
+				boolean direct = in.readBoolean();
+				OWLClassExpression ce = readClassExpression(in);
+				key = new Pair<Boolean, OWLClassExpression>(direct, ce);
+				value = cacheName.equals("getInstancesCache") ? readIndividualNodeSet(in) : readClassNodeSet(in);
+				if (ce == null)
+					return null;
+			}
+			else if (cacheName.equals("getTypesCache"))
+			{
+				boolean direct = in.readBoolean();
+				key = new Pair<Boolean, OWLNamedIndividual>(direct, df.getOWLNamedIndividual(readIRI(in)));
+				value = readClassNodeSet(in);
+			}
+			else if (cacheName.equals("getEquivalentClassesCache"))
+			{
+				OWLClassExpression ce = readClassExpression(in);
+				key = ce;
+				value = readClassNode(in);
+				if (ce == null)
+					return null;
+			}
+			else if (cacheName.equals("getObjectPropertyValuesCache"))
+			{
+				key = new Pair<OWLNamedIndividual, OWLObjectPropertyExpression>(df.getOWLNamedIndividual(readIRI(in)),
+						df.getOWLObjectProperty(readIRI(in)));
+				value = readIndividualNodeSet(in);
+			}
+			else if (cacheName.equals("getDataPropertyValuesCache"))
+			{
+				key = new Pair<OWLNamedIndividual, OWLDataProperty>(df.getOWLNamedIndividual(readIRI(in)),
+						df.getOWLDataProperty(readIRI(in)));
+				int count = in.readInt();
+				Set<OWLLiteral> literals = new HashSet<OWLLiteral>();
+				for (int i = 0; i < count; i++)
+				{
+					String lexical = in.readUTF();
+					if (in.readBoolean())
+						literals.add(df.getOWLLiteral(lexical, in.readUTF()));
+					else
+						literals.add(df.getOWLLiteral(lexical, df.getOWLDatatype(readIRI(in))));
+				}
+				value = literals;
+			}
+			else
+				throw new IOException("Unknown snapshot cache: " + cacheName);
+			return new Object[] { key, value };
+		}
+
+		OWLClassExpression readClassExpression(DataInputStream in) throws IOException
+		{
+			if (in.readByte() == NAMED)
+				return df.getOWLClass(readIRI(in));
+			String manchester = in.readUTF();
+			try
+			{
+				if (parser == null)
+					parser = DLQueryParser.getParser(root, (DefaultPrefixManager) OWL.prefixManager());
+				return parser.parseClassExpression(manchester);
+			}
+			catch (Exception e)
+			{
+				skipped++;
+				return null;
+			}
+		}
+
+		NodeSet<OWLClass> readClassNodeSet(DataInputStream in) throws IOException
+		{
+			int count = in.readInt();
+			Set<Node<OWLClass>> nodes = new HashSet<Node<OWLClass>>();
+			for (int i = 0; i < count; i++)
+				nodes.add(readClassNode(in));
+			return new OWLClassNodeSet(nodes);
+		}
+
+		Node<OWLClass> readClassNode(DataInputStream in) throws IOException
+		{
+			int count = in.readInt();
+			Set<OWLClass> entities = new HashSet<OWLClass>();
+			for (int i = 0; i < count; i++)
+				entities.add(df.getOWLClass(readIRI(in)));
+			return new OWLClassNode(entities);
+		}
+
+		NodeSet<OWLNamedIndividual> readIndividualNodeSet(DataInputStream in) throws IOException
+		{
+			int count = in.readInt();
+			Set<Node<OWLNamedIndividual>> nodes = new HashSet<Node<OWLNamedIndividual>>();
+			for (int i = 0; i < count; i++)
+			{
+				int size = in.readInt();
+				Set<OWLNamedIndividual> entities = new HashSet<OWLNamedIndividual>();
+				for (int j = 0; j < size; j++)
+					entities.add(df.getOWLNamedIndividual(readIRI(in)));
+				nodes.add(new OWLNamedIndividualNode(entities));
+			}
+			return new OWLNamedIndividualNodeSet(nodes);
+		}
+
+		IRI readIRI(DataInputStream in) throws IOException
+		{
+			int i = in.readInt();
+			if (i < 0 || i >= iris.size())
+				throw new IOException("Invalid IRI index " + i);
+			return iris.get(i);
+		}
+	}
+}
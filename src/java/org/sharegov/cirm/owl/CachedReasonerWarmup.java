@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.hypergraphdb.util.Pair;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.util.DefaultPrefixManager;
+import org.sharegov.cirm.OWL;
+import org.sharegov.cirm.utils.DLQueryParser;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Populates the getInstances cache of a CachedReasoner with a set of warmup queries in parallel.<br>
+ * <br>
+ * The queries are split across a pool of worker threads. With more than one thread, each worker creates its own
+ * reasoner copy for the root ontology, so queries do not serialize on the synchronized reasoner, and merges its answers
+ * into the shared cache. Answers are only merged as long as the cached reasoner was not flushed or invalidated
+ * since the warmup started; otherwise the warmup stops, as the copies no longer reflect the ontology.
+ * With one thread, the queries run against the cached reasoner itself.<br>
+ * <br>
+ * Each copy costs the memory and initialization time of a reasoner, so the number of threads should be limited
+ * to the cores and heap available.
+ */
+public class CachedReasonerWarmup
+{
+	public static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+	private final CachedReasoner cache;
+	private final OWLReasonerFactory factory;
+	private final int threads;
+
+	private volatile List<Pair<Boolean, OWLClassExpression>> queries = Collections.emptyList();
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger alreadyCached = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger merged = new AtomicInteger();
+	private final AtomicLong queryNanos = new AtomicLong();
+	private final List<Json> timings = Collections.synchronizedList(new ArrayList<Json>());
+	private final List<Json> workers = Collections.synchronizedList(new ArrayList<Json>());
+	private volatile long startInvalidationCount;
+	private volatile long started = 0;
+	private volatile long finished = 0;
+	private volatile String stopReason = null;
+
+	/**
+	 * @param cache the shared cached reasoner
+	 * @param factory creates the reasoner copies, e.g. OntologyLoader.getReasonerFactory()
+	 * @param threads number of worker threads, each with its own reasoner copy if > 1.
+	 */
+	public CachedReasonerWarmup(CachedReasoner cache, OWLReasonerFactory factory, int threads)
+	{
+		if (threads < 1) throw new IllegalArgumentException("threads must be >= 1, was " + threads);
+		this.cache = cache;
+		this.factory = factory;
+		this.threads = threads;
+	}
+
+	/**
+	 * Parses warmup queries in the format of populateGetInstancesCache, an array of objects
+	 * e.g. "direct":false, "classExpression":"mdc:City_Organization and (mdc:hasParentAgency value mdc:City_of_South_Miami)".
+	 * Queries that do not parse are reported and skipped.
+	 */
+	public List<Pair<Boolean, OWLClassExpression>> parse(Json queries)
+	{
+		if (!queries.isArray()) throw new IllegalArgumentException("Needs to be array");
+		DLQueryParser p = DLQueryParser.getParser(cache.getRootOntology(), (DefaultPrefixManager) OWL.prefixManager());
+		List<Pair<Boolean, OWLClassExpression>> result = new ArrayList<Pair<Boolean, OWLClassExpression>>();
+		for (Json query : queries.asJsonList())
+		{
+			try
+			{
+				result.add(new Pair<Boolean, OWLClassExpression>(query.at("direct").asBoolean(),
+						p.parseClassExpression(query.at("classExpression").asString())));
+			}
+			catch (Exception e)
+			{
+				failed.incrementAndGet();
+				timings.add(Json.object("query", query, "error", e.toString()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Runs all queries and waits until they are done.
+	 *
+	 * @return the warmup report, see getProgress.
+	 */
+	public Json run(List<Pair<Boolean, OWLClassExpression>> queries)
+	{
+		cache.getLock().writeLock().lock();
+		try
+		{
+			if (!cache.getPendingChanges().isEmpty())
+				throw new IllegalStateException("Reasoner has pending changes, synchronize the reasoner before warmup.");
+			startInvalidationCount = cache.getInvalidationCount();
+		}
+		finally
+		{
+			cache.getLock().writeLock().unlock();
+		}
+		this.queries = queries;
+		started = System.currentTimeMillis();
+		ThreadLocalStopwatch.startTop("START CachedReasonerWarmup queries: " + queries.size() + " threads: " + threads);
+		List<Thread> pool = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++)
+		{
+			Thread t = new Thread(new Worker(i), "CachedReasonerWarmup " + i);
+			t.setDaemon(true);
+			t.start();
+			pool.add(t);
+		}
+		try
+		{
+			for (Thread t : pool)
+				t.join();
+		}
+		catch (InterruptedException e)
+		{
+			stopReason = "interrupted";
+			Thread.currentThread().interrupt();
+		}
+		finished = System.currentTimeMillis();
+		Json result = getProgress();
+		ThreadLocalStopwatch.stop("END CachedReasonerWarmup done: " + done.get() + " failed: " + failed.get()
+				+ (stopReason != null ? " stopped: " + stopReason : ""));
+		return result;
+	}
+
+	/**
+	 * @return progress and, once finished, per query timings: total, done, alreadyCached, failed, merged, elapsedMs,
+	 * sumQueryMs, speedup (sum of query time / elapsed time), workers, timings.
+	 */
+	public Json getProgress()
+	{
+		long end = finished > 0 ? finished : System.currentTimeMillis();
+		long elapsed = started > 0 ? end - started : 0;
+		long sumQueryMs = queryNanos.get() / 1000000;
+		Json result = Json.object()
+			.set("threads", threads)
+			.set("running", started > 0 && finished == 0)
+			.set("total", queries.size())
+			.set("done", done.get())
+			.set("alreadyCached", alreadyCached.get())
+			.set("failed", failed.get())
+			.set("merged", merged.get())
+			.set("elapsedMs", elapsed)
+			.set("sumQueryMs", sumQueryMs)
+			.set("speedup", elapsed > 0 ? Math.round(100.0 * sumQueryMs / elapsed) / 100.0 : 0);
+		if (stopReason != null)
+			result.set("stopped", stopReason);
+		synchronized (workers)
+		{
+			result.set("workers", Json.make(new ArrayList<Json>(workers)));
+		}
+		if (finished > 0)
+			synchronized (timings)
+			{
+				result.set("timings", Json.make(new ArrayList<Json>(timings)));
+			}
+		return result;
+	}
+
+	private class Worker implements Runnable
+	{
+		final int id;
+
+		Worker(int id)
+		{
+			this.id = id;
+		}
+
+		public void run()
+		{
+			OWLReasoner reasoner = cache;
+			long copyMs = 0;
+			int count = 0;
+			try
+			{
+				if (threads > 1)
+				{
+					long t0 = System.currentTimeMillis();
+					reasoner = factory.createReasoner(cache.getRootOntology());
+					copyMs = System.currentTimeMillis() - t0;
+				}
+				int i;
+				while (stopReason == null && (i = next.getAndIncrement()) < queries.size())
+				{
+					runQuery(reasoner, i);
+					count++;
+				}
+			}
+			catch (Throwable t)
+			{
+				System.err.println("CachedReasonerWarmup worker " + id + " failed: " + t);
+				t.printStackTrace(System.err);
+			}
+			finally
+			{
+				if (reasoner != cache)
+					reasoner.dispose();
+				workers.add(Json.object("worker", id, "copyMs", copyMs, "queries", count));
+			}
+		}
+
+		private void runQuery(OWLReasoner reasoner, int i)
+		{
+			Pair<Boolean, OWLClassExpression> query = queries.get(i);
+			if (cache.getSnapshotCaches().get("getInstancesCache").containsKey(query))
+			{
+				alreadyCached.incrementAndGet();
+				done.incrementAndGet();
+				return;
+			}
+			long t0 = System.nanoTime();
+			try
+			{
+				NodeSet<OWLNamedIndividual> result = reasoner.getInstances(query.getSecond(), query.getFirst());
+				long nanos = System.nanoTime() - t0;
+				queryNanos.addAndGet(nanos);
+				if (reasoner != cache)
+					merge(query, result);
+				timings.add(Json.object("query", i, "classExpression", query.getSecond().toString(),
+						"direct", query.getFirst(), "ms", nanos / 1000000, "instances", result.getNodes().size(), "worker", id));
+			}
+			catch (Exception e)
+			{
+				failed.incrementAndGet();
+				timings.add(Json.object("query", i, "classExpression", query.getSecond().toString(), "error", e.toString()));
+			}
+			int d = done.incrementAndGet();
+			if (d % Math.max(1, queries.size() / 10) == 0)
+				ThreadLocalStopwatch.now("CachedReasonerWarmup " + d + " of " + queries.size());
+		}
+
+		private void merge(Pair<Boolean, OWLClassExpression> query, NodeSet<OWLNamedIndividual> result)
+		{
+			cache.getLock().writeLock().lock();
+			try
+			{
+				if (cache.getInvalidationCount() != startInvalidationCount || !cache.getPendingChanges().isEmpty())
+				{
+					stopReason = "ontology changed during warmup";
+					return;
+				}
+				if (cache.restore("getInstancesCache", query, result))
+					merged.incrementAndGet();
+			}
+			finally
+			{
+				cache.getLock().writeLock().unlock();
+			}
+		}
+	}
+}
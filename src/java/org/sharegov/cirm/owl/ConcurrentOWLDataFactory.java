@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnnotationProperty;
+import org.semanticweb.owlapi.model.OWLAnonymousIndividual;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDatatype;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLAnnotationPropertyImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLClassImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryInternals;
+import uk.ac.manchester.cs.owl.owlapi.OWLDataPropertyImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLDatatypeImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLNamedIndividualImpl;
+import uk.ac.manchester.cs.owl.owlapi.OWLObjectPropertyImpl;
+
+/**
+ * A thread safe OWLDataFactory without a global lock.<br>
+ * <br>
+ * The only shared state of OWLDataFactoryImpl are the weak hash maps that intern entities by IRI; all other
+ * objects are created new on each call. This factory interns entities in concurrent maps of weak references instead,
+ * so like in OWLDataFactoryImpl an entity is only kept while it is in use. Interning only saves memory,
+ * entities are equal by IRI. purge clears the maps.
+ */
+public class ConcurrentOWLDataFactory extends OWLDataFactoryImpl
+{
+	/**
+	 * Anonymous node ids come from a static counter, that is not thread safe.
+	 */
+	private static final Object ANONYMOUS_INDIVIDUAL_LOCK = new Object();
+
+	public ConcurrentOWLDataFactory()
+	{
+		data = new ConcurrentInternals(this);
+	}
+
+	@Override
+	public OWLAnonymousIndividual getOWLAnonymousIndividual()
+	{
+		synchronized (ANONYMOUS_INDIVIDUAL_LOCK)
+		{
+			return super.getOWLAnonymousIndividual();
+		}
+	}
+
+	/**
+	 * @return the number of interned entities of all types that were not yet garbage collected.
+	 */
+	public int getInternedCount()
+	{
+		return ((ConcurrentInternals) data).size();
+	}
+
+	/**
+	 * Interns entities of one type by IRI without keeping them reachable.
+	 * Entries of collected entities are removed on the next call.
+	 */
+	static class WeakInterner<E>
+	{
+		private final ConcurrentHashMap<IRI, EntityReference<E>> entities = new ConcurrentHashMap<IRI, EntityReference<E>>();
+		private final ReferenceQueue<E> collected = new ReferenceQueue<E>();
+
+		static class EntityReference<E> extends WeakReference<E>
+		{
+			final IRI iri;
+
+			EntityReference(IRI iri, E entity, ReferenceQueue<E> queue)
+			{
+				super(entity, queue);
+				this.iri = iri;
+			}
+		}
+
+		E get(IRI iri)
+		{
+			expunge();
+			EntityReference<E> ref = entities.get(iri);
+			return ref != null ? ref.get() : null;
+		}
+
+		E intern(IRI iri, E entity)
+		{
+			EntityReference<E> ref = new EntityReference<E>(iri, entity, collected);
+			while (true)
+			{
+				EntityReference<E> existing = entities.putIfAbsent(iri, ref);
+				if (existing == null)
+					return entity;
+				E result = existing.get();
+				if (result != null)
+					return result;
+				if (entities.replace(iri, existing, ref))
+					return entity;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void expunge()
+		{
+			Reference<? extends E> ref;
+			while ((ref = collected.poll()) != null)
+				entities.remove(((EntityReference<E>) ref).iri, ref);
+		}
+
+		void clear()
+		{
+			entities.clear();
+		}
+
+		int size()
+		{
+			expunge();
+			return entities.size();
+		}
+	}
+
+	static class ConcurrentInternals implements OWLDataFactoryInternals
+	{
+		private final OWLDataFactory factory;
+		private final WeakInterner<OWLClass> classes = new WeakInterner<OWLClass>();
+		private final WeakInterner<OWLObjectProperty> objectProperties = new WeakInterner<OWLObjectProperty>();
+		private final WeakInterner<OWLDataProperty> dataProperties = new WeakInterner<OWLDataProperty>();
+		private final WeakInterner<OWLNamedIndividual> individuals = new WeakInterner<OWLNamedIndividual>();
+		private final WeakInterner<OWLDatatype> datatypes = new WeakInterner<OWLDatatype>();
+		private final WeakInterner<OWLAnnotationProperty> annotationProperties = new WeakInterner<OWLAnnotationProperty>();
+
+		ConcurrentInternals(OWLDataFactory factory)
+		{
+			this.factory = factory;
+		}
+
+		public OWLClass getOWLClass(IRI iri)
+		{
+			OWLClass result = classes.get(iri);
+			return result != null ? result : classes.intern(iri, new OWLClassImpl(factory, iri));
+		}
+
+		public OWLObjectProperty getOWLObjectProperty(IRI iri)
+		{
+			OWLObjectProperty result = objectProperties.get(iri);
+			return result != null ? result : objectProperties.intern(iri, new OWLObjectPropertyImpl(factory, iri));
+		}
+
+		public OWLDataProperty getOWLDataProperty(IRI iri)
+		{
+			OWLDataProperty result = dataProperties.get(iri);
+			return result != null ? result : dataProperties.intern(iri, new OWLDataPropertyImpl(factory, iri));
+		}
+
+		public OWLNamedIndividual getOWLNamedIndividual(IRI iri)
+		{
+			OWLNamedIndividual result = individuals.get(iri);
+			return result != null ? result : individuals.intern(iri, new OWLNamedIndividualImpl(factory, iri));
+		}
+
+		public OWLDatatype getOWLDatatype(IRI iri)
+		{
+			OWLDatatype result = datatypes.get(iri);
+			return result != null ? result : datatypes.intern(iri, new OWLDatatypeImpl(factory, iri));
+		}
+
+		public OWLAnnotationProperty getOWLAnnotationProperty(IRI iri)
+		{
+			OWLAnnotationProperty result = annotationProperties.get(iri);
+			return result != null ? result : annotationProperties.intern(iri, new OWLAnnotationPropertyImpl(factory, iri));
+		}
+
+		public void purge()
+		{
+			classes.clear();
+			objectProperties.clear();
+			dataProperties.clear();
+			individuals.clear();
+			datatypes.clear();
+			annotationProperties.clear();
+		}
+
+		int size()
+		{
+			return classes.size() + objectProperties.size() + dataProperties.size() 
+					+ individuals.size() + datatypes.size() + annotationProperties.size();
+		}
+	}
+}
@@ -0,0 +1,1102 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.AddAxiom;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+import org.semanticweb.owlapi.reasoner.AxiomNotInProfileException;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.ClassExpressionNotInProfileException;
+import org.semanticweb.owlapi.reasoner.FreshEntitiesException;
+import org.semanticweb.owlapi.reasoner.FreshEntityPolicy;
+import org.semanticweb.owlapi.reasoner.InconsistentOntologyException;
+import org.semanticweb.owlapi.reasoner.IndividualNodeSetPolicy;
+import org.semanticweb.owlapi.reasoner.InferenceType;
+import org.semanticweb.owlapi.reasoner.Node;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
+import org.semanticweb.owlapi.reasoner.ReasonerInterruptedException;
+import org.semanticweb.owlapi.reasoner.TimeOutException;
+import org.semanticweb.owlapi.reasoner.UnsupportedEntailmentTypeException;
+import org.semanticweb.owlapi.util.Version;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * A thread safe reasoner that publishes classified reasoner snapshots instead of synchronizing all method calls.<br>
+ * <br>
+ * A snapshot is a set of reasoner copies created for the root ontology, classified before the snapshot is published.
+ * The copies are buffering reasoners that are never flushed, so a snapshot does not change once published.
+ * Readers get the current snapshot by a volatile read and do not synchronize with flushes: ontology changes are
+ * collected as pending changes; flush builds and classifies a new snapshot while readers keep using the
+ * current one, and then swaps it in. A replaced snapshot is disposed when its last query has finished.<br>
+ * <br>
+ * Reasoners like Pellet change internal state while answering queries, so a copy answers one query at a time.
+ * A query uses a free copy of the snapshot, preferring the same copy for a thread; it only waits if all copies are busy.
+ * A slow query therefore only blocks one copy, not the whole server. Each copy costs the memory of a reasoner,
+ * so the number of copies should be limited to the cores and heap available.<br>
+ * <br>
+ * Callers that need to keep an exclusive lock while the ontology is flushed (e.g. CachedReasoner.flushAndInvalidate)
+ * should call prepareFlush first, which builds the next snapshot without swapping it in.
+ */
+public class CopyOnWriteReasoner implements OWLReasoner, Wrapper<OWLReasoner>, OWLOntologyChangeListener
+{
+	public static final int DEFAULT_COPIES = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+	/**
+	 * Inferences computed for each copy before a snapshot is published.
+	 */
+	public static volatile InferenceType[] PRECOMPUTE = { InferenceType.CLASS_HIERARCHY };
+
+	/**
+	 * A snapshot is rebuilt at most this many times, if the ontology keeps changing while it is built.
+	 * The last one is published and the newer changes stay pending.
+	 */
+	public static final int MAX_REBUILDS = 3;
+
+	private final OWLReasonerFactory factory;
+	private final OWLOntology root;
+	private final int copies;
+
+	private volatile Snapshot current;
+
+	/**
+	 * Guards pendingChanges and changeCount.
+	 */
+	private final Object changeLock = new Object();
+	private final LinkedList<OWLOntologyChange> pendingChanges = new LinkedList<OWLOntologyChange>();
+	private long changeCount = 0;
+
+	/**
+	 * Guards building, publishing and prepared.
+	 */
+	private final Object flushLock = new Object();
+	private Snapshot prepared = null;
+
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong contendedQueries = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong swaps = new AtomicLong();
+	private volatile long lastBuildMs = 0;
+
+	/**
+	 * Creates a copy on write reasoner and builds its first snapshot.
+	 * 
+	 * @param factory creates the reasoner copies.
+	 * @param ontology the root ontology.
+	 * @param copies number of reasoner copies per snapshot.
+	 * @return
+	 */
+	public static CopyOnWriteReasoner copyOnWriteReasoner(OWLReasonerFactory factory, OWLOntology ontology, int copies)
+	{
+		if (copies < 1) throw new IllegalArgumentException("copies must be >= 1, was " + copies);
+		CopyOnWriteReasoner reasoner = new CopyOnWriteReasoner(factory, ontology, copies);
+		ontology.getOWLOntologyManager().addOntologyChangeListener(reasoner);
+		reasoner.current = reasoner.build(0);
+		return reasoner;
+	}
+
+	private CopyOnWriteReasoner(OWLReasonerFactory factory, OWLOntology ontology, int copies)
+	{
+		this.factory = factory;
+		this.root = ontology;
+		this.copies = copies;
+	}
+
+	/**
+	 * A query executed on one reasoner copy.
+	 */
+	static abstract class Query<T>
+	{
+		public abstract T run(OWLReasoner reasoner);
+	}
+
+	/**
+	 * Classified reasoner copies for one state of the ontology.
+	 */
+	class Snapshot
+	{
+		final OWLReasoner[] reasoners;
+		final ReentrantLock[] locks;
+		/**
+		 * Number of ontology changes included.
+		 */
+		final long changeCount;
+		final long created = System.currentTimeMillis();
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicBoolean disposed = new AtomicBoolean();
+		volatile boolean retired = false;
+
+		Snapshot(OWLReasoner[] reasoners, long changeCount)
+		{
+			this.reasoners = reasoners;
+			this.changeCount = changeCount;
+			locks = new ReentrantLock[reasoners.length];
+			for (int i = 0; i < locks.length; i++)
+				locks[i] = new ReentrantLock();
+		}
+
+		/**
+		 * @return false, if the snapshot was retired and must not be used.
+		 */
+		boolean enter()
+		{
+			active.incrementAndGet();
+			if (retired)
+			{
+				exit();
+				return false;
+			}
+			return true;
+		}
+
+		void exit()
+		{
+			if (active.decrementAndGet() == 0 && retired)
+				dispose();
+		}
+
+		/**
+		 * Disposes the copies once no query is using them anymore.
+		 */
+		void retire()
+		{
+			retired = true;
+			if (active.get() == 0)
+				dispose();
+		}
+
+		private void dispose()
+		{
+			if (disposed.compareAndSet(false, true))
+				for (OWLReasoner reasoner : reasoners)
+					reasoner.dispose();
+		}
+
+		<T> T call(Query<T> query)
+		{
+			queries.incrementAndGet();
+			int preferred = (int) (Thread.currentThread().getId() % reasoners.length);
+			for (int i = 0; i < reasoners.length; i++)
+			{
+				int k = (preferred + i) % reasoners.length;
+				if (locks[k].tryLock())
+				{
+					try
+					{
+						return query.run(reasoners[k]);
+					}
+					finally
+					{
+						locks[k].unlock();
+					}
+				}
+			}
+			long start = System.nanoTime();
+			locks[preferred].lock();
+			try
+			{
+				contendedQueries.incrementAndGet();
+				waitNanos.addAndGet(System.nanoTime() - start);
+				return query.run(reasoners[preferred]);
+			}
+			finally
+			{
+				locks[preferred].unlock();
+			}
+		}
+
+		void callAll(Query<?> query)
+		{
+			for (int i = 0; i < reasoners.length; i++)
+			{
+				locks[i].lock();
+				try
+				{
+					query.run(reasoners[i]);
+				}
+				finally
+				{
+					locks[i].unlock();
+				}
+			}
+		}
+	}
+
+	private <T> T call(Query<T> query)
+	{
+		while (true)
+		{
+			Snapshot snapshot = current;
+			if (snapshot == null)
+				throw new IllegalStateException("CopyOnWriteReasoner was disposed.");
+			if (!snapshot.enter())
+				continue;
+			try
+			{
+				return snapshot.call(query);
+			}
+			finally
+			{
+				snapshot.exit();
+			}
+		}
+	}
+
+	/**
+	 * Creates and classifies the copies of a new snapshot in parallel.
+	 * 
+	 * @param changeCount the number of changes the ontology had before building started.
+	 */
+	private Snapshot build(long changeCount)
+	{
+		long start = System.currentTimeMillis();
+		final OWLReasoner[] reasoners = new OWLReasoner[copies];
+		final Throwable[] errors = new Throwable[copies];
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < copies; i++)
+		{
+			final int k = i;
+			Thread t = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						reasoners[k] = factory.createReasoner(root);
+						reasoners[k].precomputeInferences(PRECOMPUTE);
+					}
+					catch (Throwable t)
+					{
+						errors[k] = t;
+					}
+				}
+			}, "CopyOnWriteReasoner build " + i);
+			t.setDaemon(true);
+			t.start();
+			threads.add(t);
+		}
+		Throwable error = null;
+		try
+		{
+			for (Thread t : threads)
+				t.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			error = e;
+		}
+		for (Throwable t : errors)
+			if (error == null && t != null)
+				error = t;
+		if (error != null)
+		{
+			for (Thread t : threads)
+				if (t.isAlive())
+					t.interrupt();
+			for (OWLReasoner reasoner : reasoners)
+				if (reasoner != null)
+					reasoner.dispose();
+			throw new RuntimeException("CopyOnWriteReasoner failed to build snapshot", error);
+		}
+		lastBuildMs = System.currentTimeMillis() - start;
+		ThreadLocalStopwatch.getWatch().time("CopyOnWriteReasoner built snapshot copies: " + copies 
+				+ " changes: " + changeCount + " in " + lastBuildMs + "ms");
+		return new Snapshot(reasoners, changeCount);
+	}
+
+	private long getChangeCount()
+	{
+		synchronized (changeLock)
+		{
+			return changeCount;
+		}
+	}
+
+	/**
+	 * Publishes a snapshot and removes the changes it includes from the pending changes.
+	 * Caller must hold flushLock.
+	 */
+	private void publish(Snapshot next)
+	{
+		Snapshot previous = current;
+		synchronized (changeLock)
+		{
+			for (long i = previous.changeCount; i < next.changeCount; i++)
+				pendingChanges.removeFirst();
+			current = next;
+		}
+		swaps.incrementAndGet();
+		previous.retire();
+	}
+
+	/**
+	 * Builds the snapshot for the pending changes without publishing it, so that a following flush
+	 * only needs to swap it in. Queries are not blocked. Does nothing if there are no pending changes.
+	 */
+	public void prepareFlush()
+	{
+		synchronized (flushLock)
+		{
+			Snapshot snapshot = current;
+			if (snapshot == null)
+				throw new IllegalStateException("CopyOnWriteReasoner was disposed.");
+			long target = getChangeCount();
+			if (target == snapshot.changeCount || (prepared != null && prepared.changeCount == target))
+				return;
+			if (prepared != null)
+				prepared.retire();
+			prepared = null;
+			Snapshot next = build(target);
+			if (getChangeCount() == target)
+				prepared = next;
+			else
+				next.retire();
+		}
+	}
+
+	/**
+	 * Builds a snapshot for all pending changes, unless prepareFlush already did, and swaps it in.
+	 * Queries are not blocked while the snapshot is built. 
+	 */
+	public void flush()
+	{
+		synchronized (flushLock)
+		{
+			for (int attempt = 1; ; attempt++)
+			{
+				Snapshot snapshot = current;
+				if (snapshot == null)
+					throw new IllegalStateException("CopyOnWriteReasoner was disposed.");
+				long target = getChangeCount();
+				if (target == snapshot.changeCount)
+					return;
+				Snapshot next = null;
+				if (prepared != null && prepared.changeCount == target)
+					next = prepared;
+				else if (prepared != null)
+					prepared.retire();
+				prepared = null;
+				if (next == null)
+					next = build(target);
+				if (getChangeCount() != target && attempt < MAX_REBUILDS)
+				{
+					next.retire();
+					continue;
+				}
+				publish(next);
+				return;
+			}
+		}
+	}
+
+	public void ontologiesChanged(List<? extends OWLOntologyChange> changes)
+	{
+		Set<OWLOntology> closure = root.getImportsClosure();
+		synchronized (changeLock)
+		{
+			for (OWLOntologyChange change : changes)
+				if (closure.contains(change.getOntology()))
+				{
+					pendingChanges.add(change);
+					changeCount++;
+				}
+		}
+	}
+
+	/**
+	 * @return copies, queries, contended queries (all copies were busy) and the time waited for a copy,
+	 * the number of published snapshots and the time the last one took to build.
+	 */
+	public Json getStatistics()
+	{
+		Snapshot snapshot = current;
+		return Json.object()
+			.set("copies", copies)
+			.set("queries", queries.get())
+			.set("contendedQueries", contendedQueries.get())
+			.set("waitMs", waitNanos.get() / 1000000)
+			.set("swaps", swaps.get())
+			.set("lastBuildMs", lastBuildMs)
+			.set("snapshotCreated", snapshot != null ? snapshot.created : 0)
+			.set("pendingChanges", getPendingChanges().size());
+	}
+
+	public String getReasonerName()
+	{
+		return call(new Query<String>()
+		{
+			public String run(OWLReasoner reasoner)
+			{
+				return reasoner.getReasonerName();
+			}
+		});
+	}
+
+	public Version getReasonerVersion()
+	{
+		return call(new Query<Version>()
+		{
+			public Version run(OWLReasoner reasoner)
+			{
+				return reasoner.getReasonerVersion();
+			}
+		});
+	}
+
+	public BufferingMode getBufferingMode()
+	{
+		return BufferingMode.BUFFERING;
+	}
+
+	public List<OWLOntologyChange> getPendingChanges()
+	{
+		synchronized (changeLock)
+		{
+			return new ArrayList<OWLOntologyChange>(pendingChanges);
+		}
+	}
+
+	public Set<OWLAxiom> getPendingAxiomAdditions()
+	{
+		Set<OWLAxiom> result = new HashSet<OWLAxiom>();
+		for (OWLOntologyChange change : getPendingChanges())
+			if (change instanceof AddAxiom)
+				result.add(change.getAxiom());
+		return result;
+	}
+
+	public Set<OWLAxiom> getPendingAxiomRemovals()
+	{
+		Set<OWLAxiom> result = new HashSet<OWLAxiom>();
+		for (OWLOntologyChange change : getPendingChanges())
+			if (change instanceof RemoveAxiom)
+				result.add(change.getAxiom());
+		return result;
+	}
+
+	public OWLOntology getRootOntology()
+	{
+		return root;
+	}
+
+	/**
+	 * Interrupts the queries running on the current snapshot.
+	 */
+	public void interrupt()
+	{
+		Snapshot snapshot = current;
+		if (snapshot != null)
+			for (OWLReasoner reasoner : snapshot.reasoners)
+				reasoner.interrupt();
+	}
+
+	/**
+	 * Precomputes the inferences on all copies of the current snapshot.
+	 */
+	public void precomputeInferences(final InferenceType... inferenceTypes)
+			throws ReasonerInterruptedException, TimeOutException,
+			InconsistentOntologyException
+	{
+		Snapshot snapshot = current;
+		if (snapshot == null)
+			throw new IllegalStateException("CopyOnWriteReasoner was disposed.");
+		if (!snapshot.enter())
+		{
+			precomputeInferences(inferenceTypes);
+			return;
+		}
+		try
+		{
+			snapshot.callAll(new Query<Object>()
+			{
+				public Object run(OWLReasoner reasoner)
+				{
+					reasoner.precomputeInferences(inferenceTypes);
+					return null;
+				}
+			});
+		}
+		finally
+		{
+			snapshot.exit();
+		}
+	}
+
+	public boolean isPrecomputed(final InferenceType inferenceType)
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isPrecomputed(inferenceType);
+			}
+		});
+	}
+
+	public Set<InferenceType> getPrecomputableInferenceTypes()
+	{
+		return call(new Query<Set<InferenceType>>()
+		{
+			public Set<InferenceType> run(OWLReasoner reasoner)
+			{
+				return reasoner.getPrecomputableInferenceTypes();
+			}
+		});
+	}
+
+	public boolean isConsistent()
+			throws ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isConsistent();
+			}
+		});
+	}
+
+	public boolean isSatisfiable(final OWLClassExpression classExpression)
+			throws ReasonerInterruptedException, TimeOutException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			InconsistentOntologyException
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isSatisfiable(classExpression);
+			}
+		});
+	}
+
+	public Node<OWLClass> getUnsatisfiableClasses()
+			throws ReasonerInterruptedException, TimeOutException,
+			InconsistentOntologyException
+	{
+		return call(new Query<Node<OWLClass>>()
+		{
+			public Node<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getUnsatisfiableClasses();
+			}
+		});
+	}
+
+	public boolean isEntailed(final OWLAxiom axiom)
+			throws ReasonerInterruptedException,
+			UnsupportedEntailmentTypeException, TimeOutException,
+			AxiomNotInProfileException, FreshEntitiesException,
+			InconsistentOntologyException
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isEntailed(axiom);
+			}
+		});
+	}
+
+	public boolean isEntailed(final Set<? extends OWLAxiom> axioms)
+			throws ReasonerInterruptedException,
+			UnsupportedEntailmentTypeException, TimeOutException,
+			AxiomNotInProfileException, FreshEntitiesException,
+			InconsistentOntologyException
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isEntailed(axioms);
+			}
+		});
+	}
+
+	public boolean isEntailmentCheckingSupported(final AxiomType<?> axiomType)
+	{
+		return call(new Query<Boolean>()
+		{
+			public Boolean run(OWLReasoner reasoner)
+			{
+				return reasoner.isEntailmentCheckingSupported(axiomType);
+			}
+		});
+	}
+
+	public Node<OWLClass> getTopClassNode()
+	{
+		return call(new Query<Node<OWLClass>>()
+		{
+			public Node<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getTopClassNode();
+			}
+		});
+	}
+
+	public Node<OWLClass> getBottomClassNode()
+	{
+		return call(new Query<Node<OWLClass>>()
+		{
+			public Node<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getBottomClassNode();
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getSubClasses(final OWLClassExpression ce, final boolean direct) throws ReasonerInterruptedException,
+			TimeOutException, FreshEntitiesException,
+			InconsistentOntologyException, ClassExpressionNotInProfileException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSubClasses(ce, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getSuperClasses(final OWLClassExpression ce, final boolean direct)
+			throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSuperClasses(ce, direct);
+			}
+		});
+	}
+
+	public Node<OWLClass> getEquivalentClasses(final OWLClassExpression ce) throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<Node<OWLClass>>()
+		{
+			public Node<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getEquivalentClasses(ce);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getDisjointClasses(final OWLClassExpression ce) throws ReasonerInterruptedException,
+			TimeOutException, FreshEntitiesException,
+			InconsistentOntologyException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDisjointClasses(ce);
+			}
+		});
+	}
+
+	public Node<OWLObjectPropertyExpression> getTopObjectPropertyNode()
+	{
+		return call(new Query<Node<OWLObjectPropertyExpression>>()
+		{
+			public Node<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getTopObjectPropertyNode();
+			}
+		});
+	}
+
+	public Node<OWLObjectPropertyExpression> getBottomObjectPropertyNode()
+	{
+		return call(new Query<Node<OWLObjectPropertyExpression>>()
+		{
+			public Node<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getBottomObjectPropertyNode();
+			}
+		});
+	}
+
+	public NodeSet<OWLObjectPropertyExpression> getSubObjectProperties(final OWLObjectPropertyExpression pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLObjectPropertyExpression>>()
+		{
+			public NodeSet<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSubObjectProperties(pe, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLObjectPropertyExpression> getSuperObjectProperties(final OWLObjectPropertyExpression pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLObjectPropertyExpression>>()
+		{
+			public NodeSet<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSuperObjectProperties(pe, direct);
+			}
+		});
+	}
+
+	public Node<OWLObjectPropertyExpression> getEquivalentObjectProperties(final OWLObjectPropertyExpression pe)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<Node<OWLObjectPropertyExpression>>()
+		{
+			public Node<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getEquivalentObjectProperties(pe);
+			}
+		});
+	}
+
+	public NodeSet<OWLObjectPropertyExpression> getDisjointObjectProperties(final OWLObjectPropertyExpression pe)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLObjectPropertyExpression>>()
+		{
+			public NodeSet<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDisjointObjectProperties(pe);
+			}
+		});
+	}
+
+	public Node<OWLObjectPropertyExpression> getInverseObjectProperties(final OWLObjectPropertyExpression pe)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<Node<OWLObjectPropertyExpression>>()
+		{
+			public Node<OWLObjectPropertyExpression> run(OWLReasoner reasoner)
+			{
+				return reasoner.getInverseObjectProperties(pe);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getObjectPropertyDomains(final OWLObjectPropertyExpression pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getObjectPropertyDomains(pe, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getObjectPropertyRanges(final OWLObjectPropertyExpression pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getObjectPropertyRanges(pe, direct);
+			}
+		});
+	}
+
+	public Node<OWLDataProperty> getTopDataPropertyNode()
+	{
+		return call(new Query<Node<OWLDataProperty>>()
+		{
+			public Node<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getTopDataPropertyNode();
+			}
+		});
+	}
+
+	public Node<OWLDataProperty> getBottomDataPropertyNode()
+	{
+		return call(new Query<Node<OWLDataProperty>>()
+		{
+			public Node<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getBottomDataPropertyNode();
+			}
+		});
+	}
+
+	public NodeSet<OWLDataProperty> getSubDataProperties(final OWLDataProperty pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLDataProperty>>()
+		{
+			public NodeSet<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSubDataProperties(pe, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLDataProperty> getSuperDataProperties(final OWLDataProperty pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLDataProperty>>()
+		{
+			public NodeSet<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSuperDataProperties(pe, direct);
+			}
+		});
+	}
+
+	public Node<OWLDataProperty> getEquivalentDataProperties(final OWLDataProperty pe) throws InconsistentOntologyException,
+			FreshEntitiesException, ReasonerInterruptedException,
+			TimeOutException
+	{
+		return call(new Query<Node<OWLDataProperty>>()
+		{
+			public Node<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getEquivalentDataProperties(pe);
+			}
+		});
+	}
+
+	public NodeSet<OWLDataProperty> getDisjointDataProperties(final OWLDataPropertyExpression pe) throws InconsistentOntologyException,
+			FreshEntitiesException, ReasonerInterruptedException,
+			TimeOutException
+	{
+		return call(new Query<NodeSet<OWLDataProperty>>()
+		{
+			public NodeSet<OWLDataProperty> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDisjointDataProperties(pe);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getDataPropertyDomains(final OWLDataProperty pe, final boolean direct)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDataPropertyDomains(pe, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLClass> getTypes(final OWLNamedIndividual ind, final boolean direct) throws InconsistentOntologyException,
+			FreshEntitiesException, ReasonerInterruptedException,
+			TimeOutException
+	{
+		return call(new Query<NodeSet<OWLClass>>()
+		{
+			public NodeSet<OWLClass> run(OWLReasoner reasoner)
+			{
+				return reasoner.getTypes(ind, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLNamedIndividual> getInstances(final OWLClassExpression ce, final boolean direct)
+			throws InconsistentOntologyException,
+			ClassExpressionNotInProfileException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLNamedIndividual>>()
+		{
+			public NodeSet<OWLNamedIndividual> run(OWLReasoner reasoner)
+			{
+				return reasoner.getInstances(ce, direct);
+			}
+		});
+	}
+
+	public NodeSet<OWLNamedIndividual> getObjectPropertyValues(final OWLNamedIndividual ind, final OWLObjectPropertyExpression pe)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<NodeSet<OWLNamedIndividual>>()
+		{
+			public NodeSet<OWLNamedIndividual> run(OWLReasoner reasoner)
+			{
+				return reasoner.getObjectPropertyValues(ind, pe);
+			}
+		});
+	}
+
+	public Set<OWLLiteral> getDataPropertyValues(final OWLNamedIndividual ind, final OWLDataProperty pe)
+			throws InconsistentOntologyException, FreshEntitiesException,
+			ReasonerInterruptedException, TimeOutException
+	{
+		return call(new Query<Set<OWLLiteral>>()
+		{
+			public Set<OWLLiteral> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDataPropertyValues(ind, pe);
+			}
+		});
+	}
+
+	public Node<OWLNamedIndividual> getSameIndividuals(final OWLNamedIndividual ind) throws InconsistentOntologyException,
+			FreshEntitiesException, ReasonerInterruptedException,
+			TimeOutException
+	{
+		return call(new Query<Node<OWLNamedIndividual>>()
+		{
+			public Node<OWLNamedIndividual> run(OWLReasoner reasoner)
+			{
+				return reasoner.getSameIndividuals(ind);
+			}
+		});
+	}
+
+	public NodeSet<OWLNamedIndividual> getDifferentIndividuals(final OWLNamedIndividual ind) throws InconsistentOntologyException,
+			FreshEntitiesException, ReasonerInterruptedException,
+			TimeOutException
+	{
+		return call(new Query<NodeSet<OWLNamedIndividual>>()
+		{
+			public NodeSet<OWLNamedIndividual> run(OWLReasoner reasoner)
+			{
+				return reasoner.getDifferentIndividuals(ind);
+			}
+		});
+	}
+
+	public long getTimeOut()
+	{
+		return call(new Query<Long>()
+		{
+			public Long run(OWLReasoner reasoner)
+			{
+				return reasoner.getTimeOut();
+			}
+		});
+	}
+
+	public FreshEntityPolicy getFreshEntityPolicy()
+	{
+		return call(new Query<FreshEntityPolicy>()
+		{
+			public FreshEntityPolicy run(OWLReasoner reasoner)
+			{
+				return reasoner.getFreshEntityPolicy();
+			}
+		});
+	}
+
+	public IndividualNodeSetPolicy getIndividualNodeSetPolicy()
+	{
+		return call(new Query<IndividualNodeSetPolicy>()
+		{
+			public IndividualNodeSetPolicy run(OWLReasoner reasoner)
+			{
+				return reasoner.getIndividualNodeSetPolicy();
+			}
+		});
+	}
+
+
+	public void dispose()
+	{
+		root.getOWLOntologyManager().removeOntologyChangeListener(this);
+		synchronized (flushLock)
+		{
+			if (prepared != null)
+				prepared.retire();
+			prepared = null;
+			Snapshot snapshot = current;
+			current = null;
+			if (snapshot != null)
+				snapshot.retire();
+		}
+	}
+
+	/**
+	 * @return the first copy of the current snapshot.
+	 */
+	@Override
+	public OWLReasoner unwrap()
+	{
+		Snapshot snapshot = current;
+		if (snapshot == null)
+			throw new IllegalStateException("CopyOnWriteReasoner was disposed.");
+		return snapshot.reasoners[0];
+	}
+
+	/**
+	 * This method exposes the first copy of the current snapshot for situations where
+	 * implementation specific reasoner functionality is needed. It's use is
+	 * highly discouraged, as the copy may be used by concurrent queries and is disposed
+	 * after the next flush.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public OWLReasoner unwrapAll()
+	{
+		OWLReasoner reasoner = unwrap();
+		if (reasoner instanceof Wrapper<?>)
+		{
+			return ((Wrapper<OWLReasoner>) reasoner).unwrapAll();
+		}
+		else
+		{
+			return reasoner;
+		}
+	}
+}
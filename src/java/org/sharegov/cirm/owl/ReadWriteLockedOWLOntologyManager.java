@@ -0,0 +1,1080 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.semanticweb.owlapi.io.OWLOntologyDocumentSource;
+import org.semanticweb.owlapi.io.OWLOntologyDocumentTarget;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.ImpendingOWLOntologyChangeListener;
+import org.semanticweb.owlapi.model.MissingImportListener;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLImportsDeclaration;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyChange;
+import org.semanticweb.owlapi.model.OWLOntologyChangeBroadcastStrategy;
+import org.semanticweb.owlapi.model.OWLOntologyChangeListener;
+import org.semanticweb.owlapi.model.OWLOntologyChangeProgressListener;
+import org.semanticweb.owlapi.model.OWLOntologyChangesVetoedListener;
+import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.OWLOntologyFactory;
+import org.semanticweb.owlapi.model.OWLOntologyFormat;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.semanticweb.owlapi.model.OWLOntologyIRIMapper;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderConfiguration;
+import org.semanticweb.owlapi.model.OWLOntologyLoaderListener;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLOntologyRenameException;
+import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.model.OWLOntologyStorer;
+import org.semanticweb.owlapi.model.UnknownOWLOntologyException;
+import org.semanticweb.owlapi.model.UnloadableImportException;
+
+/**
+ * ReadWriteLockedOWLOntologyManager wraps any OWLOntologyManager for thread safe access with a read/write lock.<br>
+ * <br>
+ * Queries (getOntology, contains, getImports, saveOntology, ...) take the read lock and run concurrently.
+ * Changes, loading, creating and removing ontologies, and changes to mappers, factories and listeners take the write lock.
+ * getImportsClosure also takes the write lock, as the wrapped manager caches imports closures.
+ * Writers also synchronize on this manager, so that callers synchronizing on the manager for a sequence 
+ * of calls still exclude all modifications.
+ * 
+ *
+ */
+@SuppressWarnings("deprecation")
+public class ReadWriteLockedOWLOntologyManager implements OWLOntologyManager
+{
+
+	OWLOntologyManager manager;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	public static ReadWriteLockedOWLOntologyManager readWriteLockedManager(
+			OWLOntologyManager manager)
+	{
+		if (manager instanceof ReadWriteLockedOWLOntologyManager || manager instanceof SynchronizedOWLOntologyManager)
+		{
+			throw new IllegalStateException(
+					"read write locked manager called with already thread safe manager: "
+							+ manager);
+		}
+		return new ReadWriteLockedOWLOntologyManager(manager);
+	}
+
+	ReadWriteLockedOWLOntologyManager(OWLOntologyManager manager)
+	{
+		this.manager = manager;
+	}
+
+	public OWLOntologyManager getWrappedOWLOntologyManager()
+	{
+		return manager;
+	}
+
+	public OWLDataFactory getOWLDataFactory()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOWLDataFactory();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<OWLOntology> getOntologies()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntologies();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<OWLOntology> getOntologies(OWLAxiom axiom)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntologies(axiom);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<OWLOntology> getVersions(IRI ontology)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getVersions(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean contains(IRI ontologyIRI)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.contains(ontologyIRI);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean contains(OWLOntologyID id)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.contains(id);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public OWLOntology getOntology(IRI ontologyIRI)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntology(ontologyIRI);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public OWLOntology getOntology(OWLOntologyID ontologyID)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntology(ontologyID);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public OWLOntology getImportedOntology(
+			OWLImportsDeclaration declaration)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getImportedOntology(declaration);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<OWLOntology> getDirectImports(OWLOntology ontology)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getDirectImports(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<OWLOntology> getImports(OWLOntology ontology)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getImports(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized Set<OWLOntology> getImportsClosure(OWLOntology ontology)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.getImportsClosure(ontology);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public List<OWLOntology> getSortedImportsClosure(
+			OWLOntology ontology)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getSortedImportsClosure(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> applyChanges(
+			List<? extends OWLOntologyChange> changes)
+			throws OWLOntologyRenameException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.applyChanges(changes);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> addAxioms(OWLOntology ont,
+			Set<? extends OWLAxiom> axioms)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.addAxioms(ont, axioms);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> addAxiom(OWLOntology ont,
+			OWLAxiom axiom)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.addAxiom(ont, axiom);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> removeAxiom(OWLOntology ont,
+			OWLAxiom axiom)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.removeAxiom(ont, axiom);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> removeAxioms(OWLOntology ont,
+			Set<? extends OWLAxiom> axioms)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.removeAxioms(ont, axioms);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized List<OWLOntologyChange> applyChange(
+			OWLOntologyChange change) throws OWLOntologyRenameException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.applyChange(change);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology()
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(Set<OWLAxiom> axioms)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(axioms);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(Set<OWLAxiom> axioms,
+			IRI ontologyIRI) throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(axioms, ontologyIRI);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(IRI ontologyIRI)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(ontologyIRI);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(OWLOntologyID ontologyID)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(ontologyID);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(IRI ontologyIRI,
+			Set<OWLOntology> ontologies, boolean copyLogicalAxiomsOnly)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(ontologyIRI, ontologies,
+					copyLogicalAxiomsOnly);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology createOntology(IRI ontologyIRI,
+			Set<OWLOntology> ontologies) throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.createOntology(ontologyIRI, ontologies);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntology(IRI ontologyIRI)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntology(ontologyIRI);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntologyFromOntologyDocument(
+			IRI documentIRI) throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntologyFromOntologyDocument(documentIRI);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntologyFromOntologyDocument(File file)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntologyFromOntologyDocument(file);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntologyFromOntologyDocument(
+			InputStream inputStream) throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntologyFromOntologyDocument(inputStream);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntologyFromOntologyDocument(
+			OWLOntologyDocumentSource documentSource)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntologyFromOntologyDocument(documentSource);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized OWLOntology loadOntologyFromOntologyDocument(
+			OWLOntologyDocumentSource documentSource,
+			OWLOntologyLoaderConfiguration config)
+			throws OWLOntologyCreationException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			return manager.loadOntologyFromOntologyDocument(documentSource, config);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntology(OWLOntology ontology)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntology(ontology);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public IRI getOntologyDocumentIRI(OWLOntology ontology)
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntologyDocumentIRI(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized void setOntologyDocumentIRI(OWLOntology ontology,
+			IRI documentIRI) throws UnknownOWLOntologyException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.setOntologyDocumentIRI(ontology, documentIRI);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public OWLOntologyFormat getOntologyFormat(OWLOntology ontology)
+			throws UnknownOWLOntologyException
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntologyFormat(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized void setOntologyFormat(OWLOntology ontology,
+			OWLOntologyFormat ontologyFormat)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.setOntologyFormat(ontology, ontologyFormat);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology, IRI documentIRI)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, documentIRI);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OutputStream outputStream) throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, outputStream);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OWLOntologyFormat ontologyFormat)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, ontologyFormat);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OWLOntologyFormat ontologyFormat, IRI documentIRI)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, ontologyFormat, documentIRI);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OWLOntologyFormat ontologyFormat, OutputStream outputStream)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, ontologyFormat, outputStream);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OWLOntologyDocumentTarget documentTarget)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, documentTarget);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public void saveOntology(OWLOntology ontology,
+			OWLOntologyFormat ontologyFormat,
+			OWLOntologyDocumentTarget documentTarget)
+			throws OWLOntologyStorageException
+	{
+		lock.readLock().lock();
+		try
+		{
+			manager.saveOntology(ontology, ontologyFormat, documentTarget);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized void addIRIMapper(OWLOntologyIRIMapper mapper)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addIRIMapper(mapper);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeIRIMapper(OWLOntologyIRIMapper mapper)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeIRIMapper(mapper);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void clearIRIMappers()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.clearIRIMappers();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyFactory(OWLOntologyFactory factory)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyFactory(factory);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyFactory(OWLOntologyFactory factory)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyFactory(factory);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public Collection<OWLOntologyFactory> getOntologyFactories()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.getOntologyFactories();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyStorer(OWLOntologyStorer storer)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyStorer(storer);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyStorer(OWLOntologyStorer storer)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyStorer(storer);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyChangeListener(
+			OWLOntologyChangeListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyChangeListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyChangeListener(
+			OWLOntologyChangeListener listener,
+			OWLOntologyChangeBroadcastStrategy strategy)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyChangeListener(listener, strategy);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addImpendingOntologyChangeListener(
+			ImpendingOWLOntologyChangeListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addImpendingOntologyChangeListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeImpendingOntologyChangeListener(
+			ImpendingOWLOntologyChangeListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeImpendingOntologyChangeListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyChangesVetoedListener(
+			OWLOntologyChangesVetoedListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyChangesVetoedListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyChangesVetoedListener(
+			OWLOntologyChangesVetoedListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyChangesVetoedListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void setDefaultChangeBroadcastStrategy(
+			OWLOntologyChangeBroadcastStrategy strategy)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.setDefaultChangeBroadcastStrategy(strategy);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyChangeListener(
+			OWLOntologyChangeListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyChangeListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void makeLoadImportRequest(
+			OWLImportsDeclaration declaration) throws UnloadableImportException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.makeLoadImportRequest(declaration);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void makeLoadImportRequest(
+			OWLImportsDeclaration declaration,
+			OWLOntologyLoaderConfiguration configuration)
+			throws UnloadableImportException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.makeLoadImportRequest(declaration, configuration);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void setSilentMissingImportsHandling(boolean b)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.setSilentMissingImportsHandling(b);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean isSilentMissingImportsHandling()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return manager.isSilentMissingImportsHandling();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	public synchronized void addMissingImportListener(
+			MissingImportListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addMissingImportListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeMissingImportListener(
+			MissingImportListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeMissingImportListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyLoaderListener(
+			OWLOntologyLoaderListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyLoaderListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyLoaderListener(
+			OWLOntologyLoaderListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyLoaderListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void addOntologyChangeProgessListener(
+			OWLOntologyChangeProgressListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.addOntologyChangeProgessListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	public synchronized void removeOntologyChangeProgessListener(
+			OWLOntologyChangeProgressListener listener)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			manager.removeOntologyChangeProgessListener(listener);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+}
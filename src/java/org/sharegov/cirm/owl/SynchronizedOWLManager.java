@@ -16,6 +16,7 @@
 package org.sharegov.cirm.owl;
 
 import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 
 import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
@@ -30,8 +31,17 @@ import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
  */
 public class SynchronizedOWLManager
 {
+	/**
+	 * If true, the data factory is a ConcurrentOWLDataFactory, otherwise a SynchronizedOWLDataFactory.
+	 */
+	public static boolean CONCURRENT_DATA_FACTORY = true;
+
+	/**
+	 * If true, managers are wrapped in a ReadWriteLockedOWLOntologyManager, otherwise in a SynchronizedOWLOntologyManager.
+	 */
+	public static boolean READ_WRITE_LOCKED_MANAGERS = true;
 
-	private static volatile SynchronizedOWLDataFactory dataFactoryInstance;
+	private static volatile OWLDataFactory dataFactoryInstance;
 
 	/**
 	 * Creates an OWL ontology manager that is configured with standard parsers,
@@ -39,7 +49,7 @@ public class SynchronizedOWLManager
 	 * 
 	 * @return The new manager.
 	 */
-	public static SynchronizedOWLOntologyManager createOWLOntologyManager()
+	public static OWLOntologyManager createOWLOntologyManager()
 	{
 		return createOWLOntologyManager(getOWLDataFactory());
 	}
@@ -56,16 +66,43 @@ public class SynchronizedOWLManager
 	 *            reference to.
 	 * @return The manager.
 	 */
-	private static SynchronizedOWLOntologyManager createOWLOntologyManager(
-			SynchronizedOWLDataFactory dataFactory)
+	private static OWLOntologyManager createOWLOntologyManager(
+			OWLDataFactory dataFactory)
 	{
 		// Create the ontology manager and add ontology factories, mappers and
 		// storers
 		// causes non thread safe static initialization of OWLManager.
 		OWLOntologyManager ontologyManager = OWLManager
 				.createOWLOntologyManager(dataFactory);
-		return SynchronizedOWLOntologyManager
-				.synchronizedManager(ontologyManager);
+		return threadSafeManager(ontologyManager);
+	}
+
+	/**
+	 * Wraps a manager for thread safe access.
+	 * 
+	 * @param manager
+	 * @return a ReadWriteLockedOWLOntologyManager or SynchronizedOWLOntologyManager.
+	 */
+	public static OWLOntologyManager threadSafeManager(OWLOntologyManager manager)
+	{
+		if (READ_WRITE_LOCKED_MANAGERS)
+			return ReadWriteLockedOWLOntologyManager.readWriteLockedManager(manager);
+		else
+			return SynchronizedOWLOntologyManager.synchronizedManager(manager);
+	}
+
+	/**
+	 * @param manager
+	 * @return the manager wrapped by a thread safe manager, or manager.
+	 */
+	public static OWLOntologyManager unwrapThreadSafeManager(OWLOntologyManager manager)
+	{
+		if (manager instanceof ReadWriteLockedOWLOntologyManager)
+			return ((ReadWriteLockedOWLOntologyManager) manager).getWrappedOWLOntologyManager();
+		else if (manager instanceof SynchronizedOWLOntologyManager)
+			return ((SynchronizedOWLOntologyManager) manager).getWrappedOWLOntologyManager();
+		else
+			return manager;
 	}
 
 	/**
@@ -74,11 +111,14 @@ public class SynchronizedOWLManager
 	 * 
 	 * @return The thread safe OWLDataFactory singleton instance.
 	 */
-	public static synchronized SynchronizedOWLDataFactory getOWLDataFactory()
+	public static synchronized OWLDataFactory getOWLDataFactory()
 	{
 		if (dataFactoryInstance == null)
 		{
-			dataFactoryInstance = SynchronizedOWLDataFactory
+			if (CONCURRENT_DATA_FACTORY)
+				dataFactoryInstance = new ConcurrentOWLDataFactory();
+			else
+				dataFactoryInstance = SynchronizedOWLDataFactory
 					.synchronizedFactory(OWLDataFactoryImpl.getInstance());
 		}
 		return dataFactoryInstance;
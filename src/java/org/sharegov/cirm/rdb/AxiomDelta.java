@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hypergraphdb.util.Pair;
+import org.semanticweb.owlapi.model.AxiomType;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLDataPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLPropertyExpression;
+
+/**
+ * The changes of the class, data and object property assertions of a business object ontology
+ * compared to a snapshot of the assertions taken when it was loaded or last saved.
+ *
+ * Changes are tracked per subject for classes and per subject and property for data and object properties,
+ * only for subjects still in the ontology. An individual is dirty, if it is the subject of a change or the
+ * object of a changed object property assertion (e.g. a newly related activity).
+ */
+class AxiomDelta
+{
+	private final Set<OWLAxiom> changedAxioms = new HashSet<OWLAxiom>();
+	private final Set<OWLIndividual> classChanged = new HashSet<OWLIndividual>();
+	private final Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> dataChanged = new HashSet<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>>();
+	private final Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> objectChanged = new HashSet<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>>();
+	private final Set<OWLIndividual> dirty = new HashSet<OWLIndividual>();
+
+	/**
+	 * @param snapshot the assertions as returned by assertionAxioms at load or last save time.
+	 * @param current the ontology to be saved.
+	 */
+	AxiomDelta(Set<OWLAxiom> snapshot, OWLOntology current)
+	{
+		Set<OWLAxiom> currentAxioms = assertionAxioms(current);
+		Set<OWLNamedIndividual> individuals = current.getIndividualsInSignature();
+		for (OWLAxiom a : currentAxioms)
+			if (!snapshot.contains(a))
+				addChange(a, individuals);
+		for (OWLAxiom a : snapshot)
+			if (!currentAxioms.contains(a))
+				addChange(a, individuals);
+	}
+
+	/**
+	 * @return all class, data property and object property assertions of the ontology.
+	 */
+	static Set<OWLAxiom> assertionAxioms(OWLOntology o)
+	{
+		Set<OWLAxiom> result = new HashSet<OWLAxiom>();
+		result.addAll(o.getAxioms(AxiomType.CLASS_ASSERTION));
+		result.addAll(o.getAxioms(AxiomType.DATA_PROPERTY_ASSERTION));
+		result.addAll(o.getAxioms(AxiomType.OBJECT_PROPERTY_ASSERTION));
+		return result;
+	}
+
+	private void addChange(OWLAxiom axiom, Set<OWLNamedIndividual> individuals)
+	{
+		if (axiom instanceof OWLClassAssertionAxiom)
+		{
+			OWLIndividual subject = ((OWLClassAssertionAxiom) axiom).getIndividual();
+			if (!individuals.contains(subject))
+				return;
+			classChanged.add(subject);
+			dirty.add(subject);
+		}
+		else if (axiom instanceof OWLDataPropertyAssertionAxiom)
+		{
+			OWLDataPropertyAssertionAxiom a = (OWLDataPropertyAssertionAxiom) axiom;
+			if (!individuals.contains(a.getSubject()))
+				return;
+			dataChanged.add(new Pair<OWLIndividual, OWLPropertyExpression<?, ?>>(a.getSubject(), a.getProperty()));
+			dirty.add(a.getSubject());
+		}
+		else if (axiom instanceof OWLObjectPropertyAssertionAxiom)
+		{
+			OWLObjectPropertyAssertionAxiom a = (OWLObjectPropertyAssertionAxiom) axiom;
+			if (!individuals.contains(a.getSubject()))
+				return;
+			objectChanged.add(new Pair<OWLIndividual, OWLPropertyExpression<?, ?>>(a.getSubject(), a.getProperty()));
+			dirty.add(a.getSubject());
+			if (individuals.contains(a.getObject()))
+				dirty.add(a.getObject());
+		}
+		else
+			return;
+		changedAxioms.add(axiom);
+	}
+
+	boolean isEmpty()
+	{
+		return changedAxioms.isEmpty();
+	}
+
+	/**
+	 * @return the number of added and removed assertions.
+	 */
+	int getChangedAxiomCount()
+	{
+		return changedAxioms.size();
+	}
+
+	boolean isDirty(OWLIndividual ind)
+	{
+		return dirty.contains(ind);
+	}
+
+	Set<OWLIndividual> getDirtyIndividuals()
+	{
+		return dirty;
+	}
+
+	boolean isClassChanged(OWLIndividual ind)
+	{
+		return classChanged.contains(ind);
+	}
+
+	Set<OWLIndividual> getClassChangedIndividuals()
+	{
+		return classChanged;
+	}
+
+	boolean isDataChanged(OWLIndividual subject, OWLPropertyExpression<?, ?> property)
+	{
+		return dataChanged.contains(new Pair<OWLIndividual, OWLPropertyExpression<?, ?>>(subject, property));
+	}
+
+	Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> getChangedDataKeys()
+	{
+		return dataChanged;
+	}
+
+	boolean isObjectChanged(OWLIndividual subject, OWLPropertyExpression<?, ?> property)
+	{
+		return objectChanged.contains(new Pair<OWLIndividual, OWLPropertyExpression<?, ?>>(subject, property));
+	}
+
+	Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> getChangedObjectKeys()
+	{
+		return objectChanged;
+	}
+}
@@ -0,0 +1,548 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.sharegov.cirm.BOntology;
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.utils.Ref;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Change feed over CIRM_BO_CHANGE, which BOChangeListener fills with one (BO_ID, CHANGE_DATE) row
+ * per business object save or delete.<br>
+ * <br>
+ * Change dates are assigned when a transaction writes, not when it commits, so they cannot order the feed:
+ * a long running transaction may commit a change dated behind changes a consumer already read. Changes are
+ * therefore read in CHANGE_SEQ order, a number assigned after commit: each read first sequences the committed 
+ * changes without CHANGE_SEQ in a transaction that updates the SEQUENCER row of CIRM_BO_CHANGE_CONSUMER. 
+ * Sequencing transactions are serialized by that row and continue after the last number it holds, so a change 
+ * committed late is numbered after all changes already visible to consumers.<br> 
+ * <br>
+ * A cursor is an opaque string from Change.getCursor(); null or empty starts at the oldest change. Consumers may
+ * store their cursor by name in CIRM_BO_CHANGE_CONSUMER and resume from it after a restart. Changes are read
+ * from the primary database, never from a read replica.<br>
+ * <br>
+ * Delivery is at least once: a consumer that fails before storing its cursor gets the same changes again.
+ *
+ * @see BOChangeListener
+ */
+public class BOChangeFeed
+{
+	public static final String CONSUMER_TABLE = "CIRM_BO_CHANGE_CONSUMER";
+
+	/**
+	 * Consumer name of the row holding the last assigned CHANGE_SEQ; not available to consumers.
+	 */
+	public static final String SEQUENCER = "_sequencer";
+
+	public static boolean DBG = false;
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int MAX_BATCH_SIZE = 5000;
+	public static final long POLL_INTERVAL_MS = 1000;
+	public static final int MAX_POLL_SECS = 60;
+
+	/**
+	 * Max number of changes sequenced per read.
+	 */
+	public static int SEQUENCE_BATCH_SIZE = 5000;
+
+	private static final String SELECT_CHANGES = "SELECT BO_ID, CHANGE_DATE, CHANGE_SEQ FROM " + BOChangeListener.CHANGE_TABLE
+			+ " WHERE CHANGE_SEQ > ? ORDER BY CHANGE_SEQ";
+
+	private static final String SELECT_UNSEQUENCED = "SELECT BO_ID, CHANGE_DATE FROM " + BOChangeListener.CHANGE_TABLE
+			+ " WHERE CHANGE_SEQ IS NULL ORDER BY CHANGE_DATE, BO_ID";
+	private static final String UPDATE_SEQUENCE = "UPDATE " + BOChangeListener.CHANGE_TABLE 
+			+ " SET CHANGE_SEQ = ? WHERE BO_ID = ? AND CHANGE_DATE = ?";
+	private static final String SELECT_SEQUENCER = "SELECT CHANGE_SEQ FROM " + CONSUMER_TABLE + " WHERE CONSUMER_NAME = ? FOR UPDATE";
+
+	private static final String SELECT_OFFSET = "SELECT CHANGE_SEQ FROM " + CONSUMER_TABLE + " WHERE CONSUMER_NAME = ?";
+	private static final String UPDATE_OFFSET = "UPDATE " + CONSUMER_TABLE + " SET CHANGE_SEQ = ?, UPDATED_DATE = ? WHERE CONSUMER_NAME = ?";
+	private static final String INSERT_OFFSET = "INSERT INTO " + CONSUMER_TABLE + " (CHANGE_SEQ, UPDATED_DATE, CONSUMER_NAME) VALUES (?,?,?)";
+
+	/**
+	 * One changed business object.
+	 */
+	public static class Change
+	{
+		private final long boid;
+		private final Timestamp changeDate;
+		private final long seq;
+		private Json bo;
+
+		public Change(long boid, Timestamp changeDate, long seq)
+		{
+			this.boid = boid;
+			this.changeDate = changeDate;
+			this.seq = seq;
+		}
+
+		public long getBoid()
+		{
+			return boid;
+		}
+
+		public Timestamp getChangeDate()
+		{
+			return changeDate;
+		}
+
+		/**
+		 * @return the position of the change in the feed.
+		 */
+		public long getSeq()
+		{
+			return seq;
+		}
+
+		/**
+		 * @return the serialized business object, if requested; null if not requested or if the
+		 * business object was deleted.
+		 */
+		public Json getBo()
+		{
+			return bo;
+		}
+
+		public String getCursor()
+		{
+			return cursor(seq);
+		}
+
+		public Json toJson()
+		{
+			Json result = Json.object()
+				.set("boid", boid)
+				.set("changeDate", changeDate.getTime())
+				.set("cursor", getCursor());
+			if (bo != null)
+				result.set("bo", bo);
+			return result;
+		}
+	}
+
+	private static final BOChangeFeed instance = new BOChangeFeed(Refs.defaultRelationalStoreExt);
+
+	public static BOChangeFeed get()
+	{
+		return instance;
+	}
+
+	private final Ref<RelationalStoreExt> storeRef;
+
+	BOChangeFeed(Ref<RelationalStoreExt> storeRef)
+	{
+		this.storeRef = storeRef;
+	}
+
+	/**
+	 * @return the cursor of the change with the given CHANGE_SEQ.
+	 */
+	public static String cursor(long seq)
+	{
+		return Long.toString(seq);
+	}
+
+	/**
+	 * Parses a cursor into the CHANGE_SEQ to read after.
+	 * @throws IllegalArgumentException if the cursor is malformed.
+	 */
+	static long parseCursor(String cursor)
+	{
+		if (cursor == null || cursor.isEmpty())
+			return 0;
+		try
+		{
+			long seq = Long.parseLong(cursor);
+			if (seq < 0)
+				throw new NumberFormatException(cursor);
+			return seq;
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Malformed change feed cursor: " + cursor);
+		}
+	}
+
+	/**
+	 * Sequences the committed changes, then reads the next batch of changes after cursor in one transaction.
+	 *
+	 * @param cursor the cursor of the last change seen, null or empty for the oldest.
+	 * @param limit max number of changes.
+	 * @param includeBo if true, each change carries the serialized business object, loaded with set based queries.
+	 * @return the changes, empty if there are none (yet).
+	 */
+	public List<Change> read(final String cursor, final int limit, final boolean includeBo)
+	{
+		if (limit < 1 || limit > MAX_BATCH_SIZE) throw new IllegalArgumentException("limit must be 1.." + MAX_BATCH_SIZE + ", was " + limit);
+		final long after = parseCursor(cursor);
+		if (DBG) ThreadLocalStopwatch.getWatch().time("BOChangeFeed.read after " + cursor + " limit " + limit);
+		sequence();
+		return storeRef.resolve().txn(new CirmTransaction<List<Change>>() {
+			public List<Change> call() throws Exception
+			{
+				List<Change> changes = selectChanges(after, limit);
+				if (includeBo && !changes.isEmpty())
+					addBusinessObjects(changes);
+				return changes;
+			}
+		});
+	}
+
+	/**
+	 * Assigns CHANGE_SEQ numbers after the last assigned one to up to SEQUENCE_BATCH_SIZE committed changes 
+	 * without one, in (CHANGE_DATE, BO_ID) order. 
+	 * 
+	 * @return the number of changes sequenced.
+	 */
+	public int sequence()
+	{
+		Integer sequenced = sequenceBatch();
+		if (sequenced == null)
+		{
+			createSequencer();
+			sequenced = sequenceBatch();
+		}
+		return sequenced;
+	}
+
+	/**
+	 * @return the number of changes sequenced, null if there is no SEQUENCER row.
+	 */
+	private Integer sequenceBatch()
+	{
+		return storeRef.resolve().txn(new CirmTransaction<Integer>() {
+			public Integer call() throws Exception
+			{
+				RelationalStoreExt store = storeRef.resolve();
+				// serializes sequencing transactions
+				Long last = selectLastSequence();
+				if (last == null)
+					return null;
+				List<Change> unsequenced = selectUnsequenced(SEQUENCE_BATCH_SIZE);
+				if (unsequenced.isEmpty())
+					return 0;
+				long seq = last;
+				updateSequence(unsequenced, seq);
+				seq += unsequenced.size();
+				Timestamp now = new Timestamp(store.getStoreTime().getTime());
+				updateOffset(UPDATE_OFFSET, SEQUENCER, seq, now);
+				if (DBG) ThreadLocalStopwatch.getWatch().time("BOChangeFeed.sequence " + unsequenced.size() + " changes up to " + seq);
+				return unsequenced.size();
+			}
+		});
+	}
+
+	/**
+	 * Creates the SEQUENCER row, which the schema scripts seed, in a database created without it.
+	 * A concurrent caller may create the row first, which fails this insert on the primary key and is ignored.
+	 */
+	void createSequencer()
+	{
+		try
+		{
+			storeRef.resolve().txn(new CirmTransaction<Object>() {
+				public Object call() throws Exception
+				{
+					Timestamp now = new Timestamp(storeRef.resolve().getStoreTime().getTime());
+					updateOffset(INSERT_OFFSET, SEQUENCER, 0, now);
+					return null;
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			if (!isDuplicateKey(e))
+				throw e;
+			if (DBG) ThreadLocalStopwatch.now("BOChangeFeed: sequencer created concurrently");
+		}
+	}
+
+	/**
+	 * Checks if a throwable is or is caused by a primary key or unique constraint violation 
+	 * (ORA-00001 or Postgres 23505).
+	 */
+	static boolean isDuplicateKey(Throwable t)
+	{
+		for (; t != null; t = t.getCause())
+		{
+			if (t instanceof SQLException)
+			{
+				SQLException e = (SQLException) t;
+				if ("23505".equals(e.getSQLState()) || (e.getErrorCode() == 1 && "23000".equals(e.getSQLState())))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the next batch of changes after cursor, waiting up to timeoutSecs for changes, if there are none.
+	 */
+	public List<Change> poll(String cursor, int limit, boolean includeBo, int timeoutSecs)
+	{
+		if (timeoutSecs < 0 || timeoutSecs > MAX_POLL_SECS) throw new IllegalArgumentException("timeoutSecs must be 0.." + MAX_POLL_SECS + ", was " + timeoutSecs);
+		long until = System.currentTimeMillis() + timeoutSecs * 1000L;
+		List<Change> changes = read(cursor, limit, includeBo);
+		while (changes.isEmpty() && System.currentTimeMillis() < until)
+		{
+			try
+			{
+				Thread.sleep(POLL_INTERVAL_MS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			changes = read(cursor, limit, includeBo);
+		}
+		return changes;
+	}
+
+	/**
+	 * Iterates all committed changes after cursor, reading batchSize changes per transaction.
+	 * The iteration ends when no more changes are available; it does not wait for new ones.
+	 */
+	public Iterator<Change> iterator(final String cursor, final int batchSize, final boolean includeBo)
+	{
+		return new Iterator<Change>() {
+			private String last = cursor;
+			private Iterator<Change> batch = null;
+			private boolean exhausted = false;
+
+			public boolean hasNext()
+			{
+				if (batch != null && batch.hasNext())
+					return true;
+				if (exhausted)
+					return false;
+				List<Change> changes = read(last, batchSize, includeBo);
+				exhausted = changes.size() < batchSize;
+				batch = changes.iterator();
+				return batch.hasNext();
+			}
+
+			public Change next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Change c = batch.next();
+				last = c.getCursor();
+				return c;
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return the stored cursor of consumer, null if the consumer has none.
+	 */
+	public String getOffset(final String consumer)
+	{
+		checkConsumer(consumer);
+		return storeRef.resolve().txn(new CirmTransaction<String>() {
+			public String call() throws Exception
+			{
+				Long seq = selectSequence(SELECT_OFFSET, consumer);
+				return seq == null ? null : cursor(seq);
+			}
+		});
+	}
+
+	/**
+	 * Stores cursor as the offset of consumer.
+	 */
+	public void commitOffset(final String consumer, final String cursor)
+	{
+		checkConsumer(consumer);
+		final long at = parseCursor(cursor);
+		storeRef.resolve().txn(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				RelationalStoreExt store = storeRef.resolve();
+				Timestamp now = new Timestamp(store.getStoreTime().getTime());
+				if (updateOffset(UPDATE_OFFSET, consumer, at, now) == 0)
+					updateOffset(INSERT_OFFSET, consumer, at, now);
+				return null;
+			}
+		});
+	}
+
+	private static void checkConsumer(String consumer)
+	{
+		if (consumer == null || consumer.isEmpty()) throw new IllegalArgumentException("consumer must not be empty");
+		if (consumer.equals(SEQUENCER)) throw new IllegalArgumentException("consumer name " + SEQUENCER + " is reserved");
+	}
+
+	private int updateOffset(String sql, String consumer, long seq, Timestamp now) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, seq);
+			stmt.setTimestamp(2, now);
+			stmt.setString(3, consumer);
+			return stmt.executeUpdate();
+		}
+		finally
+		{
+			store.close(stmt, conn);
+		}
+	}
+
+	/**
+	 * @return the CHANGE_SEQ of the row of consumer, null if there is none.
+	 */
+	private Long selectSequence(String sql, String consumer) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setString(1, consumer);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getLong(1) : null;
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	/**
+	 * Locks the sequencer row until the end of the transaction.
+	 * @return the last assigned CHANGE_SEQ, 0 if nothing was sequenced yet, null if there is no SEQUENCER row.
+	 */
+	private Long selectLastSequence() throws SQLException
+	{
+		return selectSequence(SELECT_SEQUENCER, SEQUENCER);
+	}
+
+	private List<Change> selectUnsequenced(int limit) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		List<Change> changes = new ArrayList<Change>(Math.min(limit, DEFAULT_BATCH_SIZE));
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(SELECT_UNSEQUENCED);
+			stmt.setMaxRows(limit);
+			rs = stmt.executeQuery();
+			while (rs.next())
+				changes.add(new Change(rs.getLong(1), rs.getTimestamp(2), 0));
+			return changes;
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	private void updateSequence(List<Change> unsequenced, long last) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(UPDATE_SEQUENCE);
+			for (Change c : unsequenced)
+			{
+				stmt.setLong(1, ++last);
+				stmt.setLong(2, c.boid);
+				stmt.setTimestamp(3, c.changeDate);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+		finally
+		{
+			store.close(stmt, conn);
+		}
+	}
+
+	private List<Change> selectChanges(long afterSeq, int limit) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		List<Change> changes = new ArrayList<Change>(Math.min(limit, DEFAULT_BATCH_SIZE));
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(SELECT_CHANGES);
+			stmt.setMaxRows(limit);
+			stmt.setLong(1, afterSeq);
+			rs = stmt.executeQuery();
+			while (rs.next())
+				changes.add(new Change(rs.getLong(1), rs.getTimestamp(2), rs.getLong(3)));
+			return changes;
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	private void addBusinessObjects(List<Change> changes)
+	{
+		Set<Long> boids = new LinkedHashSet<Long>();
+		for (Change c : changes)
+			boids.add(c.boid);
+		Map<Long, OWLOntology> ontologies = Refs.defaultPersister.resolve().getBusinessObjectOntologies(boids);
+		for (Change c : changes)
+		{
+			OWLOntology o = ontologies.get(c.boid);
+			if (o != null && BOntology.isValidBO(o.getOntologyID().getOntologyIRI()))
+				c.bo = new BOntology(o).toJSON();
+		}
+	}
+}
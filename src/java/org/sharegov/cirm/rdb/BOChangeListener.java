@@ -31,6 +31,11 @@ public class BOChangeListener implements RDBListener
 
 	public static final String CHANGE_TABLE = "CIRM_BO_CHANGE";
 	
+	/**
+	 * Register a BOChangeListener as RDBListener of the persister to fill the change table for BOChangeFeed.
+	 */
+	public static boolean CAPTURE_CHANGES = false;
+	
 	public static boolean DBG = true;
 	
 	@Override
@@ -52,6 +57,21 @@ public class BOChangeListener implements RDBListener
 			ThreadLocalStopwatch.getWatch().time("BOChangeListener.saveExecuting() END");
 	}
 
+	@Override
+	public void saveCompleted(RDBEvent e)
+	{
+	}
+
+	@Override
+	public void deleteExecuting(RDBEvent e)
+	{
+		OWLOntologyID ontologyId = e.getOntologyID();
+		if(ontologyId == null || ontologyId.isAnonymous())
+			return;
+		IRI boIRI = ontologyId.getOntologyIRI().resolve("#bo");
+		insertChangeTxn(OWL.parseIDFromBusinessOntologyIRI(boIRI));
+	}
+
 	@Override
 	public void loadExecuting(RDBEvent e)
 	{
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.sharegov.cirm.CirmTransactionLocal;
+
+/**
+ * Process wide LRU registry of the stored assertions of business object ontologies,
+ * as they were when an ontology was loaded or saved by the persister.
+ *
+ * A snapshot is bound to the ontology object it was taken for; it is not returned for
+ * another ontology with the same IRI, e.g. one created from json. Taking a snapshot for another
+ * object of the same IRI replaces the older one, so only the last loaded or saved object can be
+ * saved as delta.
+ *
+ * Snapshots put during a CirmTransaction become visible to other threads after the toplevel
+ * transaction succeeded and are dropped on retry or failure.
+ */
+public class BOSnapshots
+{
+	public static final int DEFAULT_MAX_SNAPSHOTS = 500;
+
+	private static class Snapshot
+	{
+		final WeakReference<OWLOntology> ontology;
+		final Set<OWLAxiom> axioms;
+
+		Snapshot(OWLOntology ontology, Set<OWLAxiom> axioms)
+		{
+			this.ontology = new WeakReference<OWLOntology>(ontology);
+			this.axioms = axioms;
+		}
+	}
+
+	private final int maxSnapshots;
+
+	/**
+	 * Access ordered, guarded by itself.
+	 */
+	private final LinkedHashMap<IRI, Snapshot> snapshots;
+
+	private final CirmTransactionLocal<Map<IRI, Snapshot>> pending = new CirmTransactionLocal<Map<IRI, Snapshot>>() {
+		protected Map<IRI, Snapshot> initialValue()
+		{
+			return new HashMap<IRI, Snapshot>();
+		}
+
+		protected void succeeded(Map<IRI, Snapshot> values)
+		{
+			synchronized (snapshots)
+			{
+				snapshots.putAll(values);
+			}
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public BOSnapshots(int maxSnapshots)
+	{
+		this.maxSnapshots = maxSnapshots;
+		snapshots = new LinkedHashMap<IRI, Snapshot>(maxSnapshots * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<IRI, Snapshot> eldest)
+			{
+				return size() > BOSnapshots.this.maxSnapshots
+						|| eldest.getValue().ontology.get() == null;
+			}
+		};
+	}
+
+	/**
+	 * Remembers the stored assertions of the ontology.
+	 *
+	 * @param on a business object ontology with an IRI.
+	 * @param axioms the class, data and object property assertions in stored form; not modified later.
+	 */
+	public void put(OWLOntology on, Set<OWLAxiom> axioms)
+	{
+		IRI iri = on.getOntologyID().getOntologyIRI();
+		if (iri == null)
+			return;
+		Snapshot s = new Snapshot(on, axioms);
+		Map<IRI, Snapshot> p = pending.get();
+		if (p == null)
+			synchronized (snapshots)
+			{
+				snapshots.put(iri, s);
+			}
+		else
+			p.put(iri, s);
+	}
+
+	/**
+	 * @return the stored assertions of exactly this ontology object or null, if there is no snapshot.
+	 */
+	public Set<OWLAxiom> get(OWLOntology on)
+	{
+		IRI iri = on.getOntologyID().getOntologyIRI();
+		Snapshot s = null;
+		if (iri != null)
+		{
+			Map<IRI, Snapshot> p = pending.peek();
+			if (p != null)
+				s = p.get(iri);
+			if (s == null)
+				synchronized (snapshots)
+				{
+					s = snapshots.get(iri);
+				}
+		}
+		if (s != null && s.ontology.get() == on)
+		{
+			hits.incrementAndGet();
+			return s.axioms;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Forgets the snapshot of an ontology IRI, e.g. after the business object was deleted.
+	 */
+	public void remove(IRI ontologyIRI)
+	{
+		Map<IRI, Snapshot> p = pending.peek();
+		if (p != null)
+			p.remove(ontologyIRI);
+		synchronized (snapshots)
+		{
+			snapshots.remove(ontologyIRI);
+		}
+	}
+
+	public void clear()
+	{
+		synchronized (snapshots)
+		{
+			snapshots.clear();
+		}
+	}
+
+	public int getSize()
+	{
+		synchronized (snapshots)
+		{
+			return snapshots.size();
+		}
+	}
+
+	public Json getStatistics()
+	{
+		long h = hits.get();
+		long m = misses.get();
+		return Json.object()
+			.set("size", getSize())
+			.set("hits", h)
+			.set("misses", m)
+			.set("hitRate", (h + m) == 0? 0 : (double) h / (h + m));
+	}
+}
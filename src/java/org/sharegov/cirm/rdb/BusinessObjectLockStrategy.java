@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mjson.Json;
+
+import org.sharegov.cirm.CirmTransaction;
+
+/**
+ * Locking strategy, that serializes toplevel transactions writing the same business object in this JVM,
+ * in addition to the DB lock escalation of SimpleDBLockStrategy.
+ *
+ * Before each execution, a lock for each business object id declared by CirmTransaction.addBusinessObjectId
+ * is acquired and it is released after commit or rollback. Concurrent writers of the same business object
+ * on one node therefore wait for each other instead of failing serialization, rolling back and sleeping
+ * before a retry. Locks are striped by boid, so memory does not grow with the number of business objects;
+ * unrelated business objects sharing a stripe only wait for each other.
+ *
+ * Stripes are always acquired in ascending order, so transactions with several business objects
+ * cannot deadlock. A stripe not acquired within lockTimeoutSecs is skipped, the transaction then relies
+ * on DB serialization as without this strategy.
+ *
+ * Business objects the store finds a transaction saving during execution (see businessObjectAdded) are locked
+ * without waiting. If another transaction holds the stripe, a retry is requested, so the next execution
+ * waits for it in order before it starts.
+ */
+public class BusinessObjectLockStrategy extends SimpleDBLockStrategy
+{
+	public static final int DEFAULT_STRIPES = 256;
+	public static final double DEFAULT_LOCK_TIMEOUT_SECS = 30;
+
+	private final ReentrantLock[] stripes;
+	private volatile double lockTimeoutSecs = DEFAULT_LOCK_TIMEOUT_SECS;
+
+	/**
+	 * Stripes held by the toplevel transaction executing on this thread in acquisition order.
+	 */
+	private final ThreadLocal<List<ReentrantLock>> held = new ThreadLocal<List<ReentrantLock>>();
+
+	private final AtomicLong acquisitions = new AtomicLong();
+	private final AtomicLong contentions = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public BusinessObjectLockStrategy()
+	{
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param nrOfStripes the number of locks shared by all business objects.
+	 */
+	public BusinessObjectLockStrategy(int nrOfStripes)
+	{
+		if (nrOfStripes < 1) throw new IllegalArgumentException("nrOfStripes must be >=1, was " + nrOfStripes);
+		stripes = new ReentrantLock[nrOfStripes];
+		for (int i = 0; i < nrOfStripes; i++)
+			stripes[i] = new ReentrantLock();
+	}
+
+	/**
+	 * Acquires the stripes of all business objects declared by the transaction in ascending stripe order.
+	 */
+	@Override
+	public void beforeExecution(CirmTransaction<?> t)
+	{
+		SortedSet<Long> boids = t.getBusinessObjectIds();
+		if (boids.isEmpty())
+			return;
+		if (held.get() != null)
+			throw new IllegalStateException("Business object locks still held by this thread for " + t);
+		SortedSet<Integer> stripeIndices = new TreeSet<Integer>();
+		for (Long boid : boids)
+			stripeIndices.add(stripeIndex(boid));
+		List<ReentrantLock> locks = new ArrayList<ReentrantLock>(stripeIndices.size());
+		held.set(locks);
+		long timeoutNanos = (long) (lockTimeoutSecs * 1000000000L);
+		for (Integer i : stripeIndices)
+		{
+			ReentrantLock lock = stripes[i];
+			acquisitions.incrementAndGet();
+			if (lock.tryLock())
+			{
+				locks.add(lock);
+				continue;
+			}
+			contentions.incrementAndGet();
+			long start = System.nanoTime();
+			boolean acquired;
+			try
+			{
+				acquired = lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted waiting for business object lock " + t.getBusinessObjectIds(), e);
+			}
+			finally
+			{
+				recordWait(System.nanoTime() - start);
+			}
+			if (acquired)
+				locks.add(lock);
+			else
+			{
+				timeouts.incrementAndGet();
+				System.err.println("BusinessObjectLockStrategy: lock timeout after " + lockTimeoutSecs
+						+ " secs for business objects " + boids + ", continuing without in process lock.");
+			}
+		}
+	}
+
+	/**
+	 * Releases all stripes acquired by beforeExecution on this thread.
+	 */
+	@Override
+	public void afterExecution(CirmTransaction<?> t)
+	{
+		List<ReentrantLock> locks = held.get();
+		if (locks == null)
+			return;
+		held.remove();
+		for (int i = locks.size() - 1; i >= 0; i--)
+			locks.get(i).unlock();
+	}
+
+	/**
+	 * Locks the stripe of a business object found during execution, if it is free, 
+	 * or requests a retry of the transaction, which then acquires it in beforeExecution.
+	 */
+	@Override
+	public void businessObjectAdded(CirmTransaction<?> t, long boid)
+	{
+		List<ReentrantLock> locks = held.get();
+		if (locks == null)
+		{
+			locks = new ArrayList<ReentrantLock>(1);
+			held.set(locks);
+		}
+		ReentrantLock lock = stripes[stripeIndex(boid)];
+		if (locks.contains(lock))
+			return;
+		acquisitions.incrementAndGet();
+		if (lock.tryLock())
+			locks.add(lock);
+		else
+		{
+			contentions.incrementAndGet();
+			t.requestRetry();
+		}
+	}
+
+	int stripeIndex(long boid)
+	{
+		long h = boid * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 33) % stripes.length);
+	}
+
+	private void recordWait(long nanos)
+	{
+		totalWaitNanos.addAndGet(nanos);
+		long max = maxWaitNanos.get();
+		while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos))
+			max = maxWaitNanos.get();
+	}
+
+	public int getNrOfStripes()
+	{
+		return stripes.length;
+	}
+
+	public double getLockTimeoutSecs()
+	{
+		return lockTimeoutSecs;
+	}
+
+	public void setLockTimeoutSecs(double lockTimeoutSecs)
+	{
+		if (lockTimeoutSecs < 0) throw new IllegalArgumentException("lockTimeoutSecs must be >=0, was " + lockTimeoutSecs);
+		this.lockTimeoutSecs = lockTimeoutSecs;
+	}
+
+	/**
+	 * @return lock acquisition and wait time statistics since creation.
+	 */
+	public Json getStatistics()
+	{
+		long c = contentions.get();
+		long waitNanos = totalWaitNanos.get();
+		return Json.object()
+			.set("acquisitions", acquisitions.get())
+			.set("contentions", c)
+			.set("timeouts", timeouts.get())
+			.set("totalWaitMs", waitNanos / 1000000)
+			.set("avgContendedWaitMs", c == 0? 0 : (double) waitNanos / c / 1000000.0)
+			.set("maxWaitMs", maxWaitNanos.get() / 1000000);
+	}
+}
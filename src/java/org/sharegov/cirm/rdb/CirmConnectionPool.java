@@ -0,0 +1,605 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import mjson.Json;
+
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Connection pool on top of an unpooled DataSource, selected in a data source description by
+ * hasPoolImplementation "cirm" together with usesPool.
+ *
+ * Borrowing is fair: a fair semaphore with maxSize permits orders waiting threads and a borrower
+ * gets an SQLException after borrowTimeoutSecs. The most recently returned idle connection is reused first,
+ * optionally validated by Connection.isValid and replaced if invalid. Connections idle longer than idleTimeoutSecs
+ * are closed down to minSize.
+ *
+ * Each borrowed connection remembers the borrowing thread and CirmTransaction. Connections held longer
+ * than leakThresholdSecs are reported once as probable leaks with the transaction, its state and the borrow
+ * stack if DBG_LEAK_STACKS is set. Borrowed connections whose physical connection was closed directly
+ * (e.g. discarded by ThreadLocalConnection) are reclaimed.
+ *
+ * Each physical connection has a StatementCache of ThreadLocalConnection.STATEMENT_CACHE_SIZE statements,
+ * which is kept while the connection is idle and closed with the connection.
+ *
+ * Gauges and counters are available through getStatistics.
+ */
+public class CirmConnectionPool implements DataSource
+{
+	public static boolean DBG = false;
+
+	/**
+	 * Capture the stack of each borrow to report it with a leak; costly.
+	 */
+	public static boolean DBG_LEAK_STACKS = false;
+
+	public static final int DEFAULT_LEAK_THRESHOLD_SECS = 600;
+	public static final int HOUSEKEEPING_INTERVAL_SECS = 15;
+	public static final int VALIDATION_TIMEOUT_SECS = 5;
+
+	/**
+	 * Number of most recent borrow wait times used for percentiles.
+	 */
+	static final int WAIT_SAMPLES = 1024;
+
+	private static final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "CirmConnectionPool housekeeping");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Implemented by connections handed out by this pool.
+	 */
+	public interface PooledConnection
+	{
+		/**
+		 * Closes the physical connection instead of returning it to the pool.
+		 */
+		void discard();
+
+		/**
+		 * @return the statement cache of the physical connection, which outlives this borrow; 
+		 * null if disabled.
+		 */
+		StatementCache getStatementCache();
+	}
+
+	private static class Idle
+	{
+		final Connection physical;
+		final StatementCache statementCache;
+		final long returnedAtMs;
+
+		Idle(Connection physical, StatementCache statementCache)
+		{
+			this.physical = physical;
+			this.statementCache = statementCache;
+			this.returnedAtMs = System.currentTimeMillis();
+		}
+	}
+
+	private class Borrowed implements InvocationHandler
+	{
+		final Connection physical;
+		final StatementCache statementCache;
+		final long borrowedAtMs = System.currentTimeMillis();
+		final String threadName = Thread.currentThread().getName();
+		final CirmTransaction<?> transaction = CirmTransaction.get();
+		final Exception borrowStack = DBG_LEAK_STACKS? new Exception("Borrowed here") : null;
+		volatile boolean leakReported = false;
+		private final AtomicInteger closed = new AtomicInteger(0);
+
+		Borrowed(Idle i)
+		{
+			this.physical = i.physical;
+			this.statementCache = i.statementCache;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("close") && (args == null || args.length == 0))
+			{
+				giveBack(this, false);
+				return null;
+			}
+			else if (name.equals("discard"))
+			{
+				giveBack(this, true);
+				return null;
+			}
+			else if (name.equals("getStatementCache"))
+				return statementCache;
+			else if (name.equals("isClosed"))
+				return closed.get() != 0 || physical.isClosed();
+			else if (name.equals("equals"))
+				return proxy == args[0];
+			else if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			else if (name.equals("toString"))
+				return "Pooled(" + physical + ")";
+			if (closed.get() != 0)
+				throw new SQLException("Connection was returned to " + CirmConnectionPool.this.name);
+			try
+			{
+				return method.invoke(physical, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+
+		boolean markClosed()
+		{
+			return closed.compareAndSet(0, 1);
+		}
+
+		Json toJson()
+		{
+			return Json.object()
+				.set("borrowedSecs", (System.currentTimeMillis() - borrowedAtMs) / 1000)
+				.set("thread", threadName)
+				.set("transaction", transaction == null? null : transaction.toString())
+				.set("transactionState", transaction == null? null : transaction.getState().name());
+		}
+	}
+
+	private final String name;
+	private final DataSource unpooled;
+	private final int minSize;
+	private final int maxSize;
+	private final int borrowTimeoutSecs;
+	private final boolean validateOnBorrow;
+	private final int idleTimeoutSecs;
+	private volatile int leakThresholdSecs = DEFAULT_LEAK_THRESHOLD_SECS;
+
+	private final Semaphore permits;
+	private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<Idle>();
+	private final Map<Borrowed, Boolean> borrowed = new ConcurrentHashMap<Borrowed, Boolean>();
+	private final ScheduledFuture<?> housekeeping;
+	private volatile boolean shutdown = false;
+
+	private final long[] waitSamplesNanos = new long[WAIT_SAMPLES];
+	private final AtomicLong waitSampleCount = new AtomicLong();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong borrowTimeouts = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong validationFailures = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+	private final AtomicLong reclaimed = new AtomicLong();
+
+	/**
+	 * @param name for logging and statistics.
+	 * @param unpooled creates the physical connections.
+	 */
+	public CirmConnectionPool(String name, DataSource unpooled, int minSize, int maxSize, int borrowTimeoutSecs,
+			boolean validateOnBorrow, int idleTimeoutSecs)
+	{
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size min " + minSize + " max " + maxSize);
+		if (borrowTimeoutSecs < 0) throw new IllegalArgumentException("borrowTimeoutSecs must be >=0, was " + borrowTimeoutSecs);
+		this.name = name;
+		this.unpooled = unpooled;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.borrowTimeoutSecs = borrowTimeoutSecs;
+		this.validateOnBorrow = validateOnBorrow;
+		this.idleTimeoutSecs = idleTimeoutSecs;
+		this.permits = new Semaphore(maxSize, true);
+		housekeeping = housekeeper.scheduleWithFixedDelay(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					housekeeping();
+				}
+				catch (Throwable t)
+				{
+					System.err.println(CirmConnectionPool.this.name + ": housekeeping failed " + t);
+				}
+			}
+		}, HOUSEKEEPING_INTERVAL_SECS, HOUSEKEEPING_INTERVAL_SECS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Creates a pool from a data source description; sizes and timeouts default to the RelationalStoreImpl pool constants.
+	 * Description properties: hasPoolMinSize, hasPoolMaxSize, hasPoolBorrowTimeoutSecs, hasPoolLeakThresholdSecs, hasPoolIdleTimeoutSecs.
+	 */
+	public static CirmConnectionPool create(Json description, DataSource unpooled)
+	{
+		CirmConnectionPool pool = new CirmConnectionPool("Cirm Pool for " + description.at("iri", description.at("hasUrl", "")).asString(),
+				unpooled,
+				intProperty(description, "hasPoolMinSize", RelationalStoreImpl.POOL_SIZE_INITIAL),
+				intProperty(description, "hasPoolMaxSize", RelationalStoreImpl.POOL_SIZE_MAX),
+				intProperty(description, "hasPoolBorrowTimeoutSecs", RelationalStoreImpl.POOL_CONNECTION_WAIT_TIMEOUT_SECS),
+				RelationalStoreImpl.POOL_CONNECTION_VALIDATE_ON_BORROW,
+				intProperty(description, "hasPoolIdleTimeoutSecs", RelationalStoreImpl.POOL_CONNECTION_INACTIVE_TIMEOUT_SECS));
+		pool.setLeakThresholdSecs(intProperty(description, "hasPoolLeakThresholdSecs", DEFAULT_LEAK_THRESHOLD_SECS));
+		try
+		{
+			pool.fillToMinSize();
+		}
+		catch (SQLException e)
+		{
+			pool.close();
+			throw new RuntimeException(pool.name + ": failed to create initial connections.", e);
+		}
+		if (DBG) ThreadLocalStopwatch.now("CirmConnectionPool: " + pool.name + " created " + pool.getStatistics());
+		return pool;
+	}
+
+	private static int intProperty(Json description, String property, int defaultValue)
+	{
+		if (!description.has(property))
+			return defaultValue;
+		Json v = description.at(property);
+		return v.isNumber()? v.asInteger() : Integer.parseInt(v.asString().trim());
+	}
+
+	public Connection getConnection() throws SQLException
+	{
+		if (shutdown) throw new SQLException(name + " is closed.");
+		long start = System.nanoTime();
+		boolean acquired;
+		try
+		{
+			acquired = permits.tryAcquire(borrowTimeoutSecs, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException(name + ": interrupted waiting for a connection.", e);
+		}
+		recordWait(System.nanoTime() - start);
+		if (!acquired)
+		{
+			borrowTimeouts.incrementAndGet();
+			throw new SQLException(name + ": no connection available after " + borrowTimeoutSecs + " secs. " + getStatistics());
+		}
+		try
+		{
+			Borrowed b = new Borrowed(takeIdleOrCreate());
+			borrowed.put(b, Boolean.TRUE);
+			borrows.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(CirmConnectionPool.class.getClassLoader(),
+					new Class<?>[] { Connection.class, PooledConnection.class }, b);
+		}
+		catch (SQLException e)
+		{
+			permits.release();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			permits.release();
+			throw e;
+		}
+	}
+
+	private Idle takeIdleOrCreate() throws SQLException
+	{
+		Idle i;
+		while ((i = idle.pollFirst()) != null)
+		{
+			if (!validateOnBorrow || isValid(i.physical))
+				return i;
+			validationFailures.incrementAndGet();
+			destroy(i.physical, i.statementCache);
+		}
+		return create();
+	}
+
+	private Idle create() throws SQLException
+	{
+		Connection physical = unpooled.getConnection();
+		created.incrementAndGet();
+		int cacheSize = ThreadLocalConnection.STATEMENT_CACHE_SIZE;
+		return new Idle(physical, cacheSize > 0? new StatementCache(physical, cacheSize) : null);
+	}
+
+	private boolean isValid(Connection physical)
+	{
+		try
+		{
+			return physical.isValid(VALIDATION_TIMEOUT_SECS);
+		}
+		catch (SQLFeatureNotSupportedException e)
+		{
+			return true;
+		}
+		catch (AbstractMethodError e)
+		{
+			// pre JDBC 4 driver
+			return true;
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+
+	private void giveBack(Borrowed b, boolean discard)
+	{
+		if (!b.markClosed())
+			return;
+		borrowed.remove(b);
+		if (b.statementCache != null)
+			b.statementCache.endUse();
+		try
+		{
+			boolean reusable = false;
+			if (!discard && !shutdown)
+				try
+				{
+					reusable = !b.physical.isClosed();
+					if (reusable && !b.physical.getAutoCommit())
+						b.physical.rollback();
+				}
+				catch (SQLException e)
+				{
+					reusable = false;
+				}
+			if (reusable && idle.size() + borrowed.size() < maxSize)
+				idle.offerFirst(new Idle(b.physical, b.statementCache));
+			else
+				destroy(b.physical, b.statementCache);
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+
+	private void destroy(Connection physical, StatementCache statementCache)
+	{
+		destroyed.incrementAndGet();
+		if (statementCache != null)
+			statementCache.closeAll();
+		try
+		{
+			if (!physical.isClosed())
+				physical.close();
+		}
+		catch (SQLException e)
+		{
+			System.err.println(name + ": failed to close connection " + e);
+		}
+	}
+
+	private void fillToMinSize() throws SQLException
+	{
+		while (!shutdown && idle.size() + borrowed.size() < minSize)
+		{
+			idle.offerLast(create());
+		}
+	}
+
+	/**
+	 * Reclaims borrowed connections closed directly, reports leaks, evicts idle connections and refills to minSize.
+	 */
+	void housekeeping()
+	{
+		long now = System.currentTimeMillis();
+		for (Borrowed b : borrowed.keySet())
+		{
+			boolean physicalClosed;
+			try
+			{
+				physicalClosed = b.physical.isClosed();
+			}
+			catch (SQLException e)
+			{
+				physicalClosed = true;
+			}
+			if (physicalClosed)
+			{
+				reclaimed.incrementAndGet();
+				giveBack(b, true);
+			}
+			else if (!b.leakReported && now - b.borrowedAtMs > leakThresholdSecs * 1000L)
+			{
+				b.leakReported = true;
+				leaks.incrementAndGet();
+				System.err.println(name + ": probable connection leak " + b.toJson());
+				if (b.borrowStack != null)
+					b.borrowStack.printStackTrace();
+			}
+		}
+		Iterator<Idle> it = idle.descendingIterator();
+		while (it.hasNext() && idle.size() + borrowed.size() > minSize)
+		{
+			Idle i = it.next();
+			if (now - i.returnedAtMs > idleTimeoutSecs * 1000L && idle.remove(i))
+				destroy(i.physical, i.statementCache);
+		}
+		try
+		{
+			fillToMinSize();
+		}
+		catch (SQLException e)
+		{
+			System.err.println(name + ": failed to refill to min size " + e);
+		}
+	}
+
+	/**
+	 * Closes idle connections and stops housekeeping; borrowed connections are closed when returned.
+	 */
+	public void close()
+	{
+		shutdown = true;
+		housekeeping.cancel(false);
+		Idle i;
+		while ((i = idle.pollFirst()) != null)
+			destroy(i.physical, i.statementCache);
+	}
+
+	private void recordWait(long nanos)
+	{
+		long n = waitSampleCount.getAndIncrement();
+		waitSamplesNanos[(int) (n % WAIT_SAMPLES)] = nanos;
+	}
+
+	/**
+	 * @param percentile 0 < percentile <= 100
+	 * @return the borrow wait time in ms at the percentile of the last WAIT_SAMPLES borrows.
+	 */
+	public double getBorrowWaitMs(double percentile)
+	{
+		int n = (int) Math.min(waitSampleCount.get(), WAIT_SAMPLES);
+		if (n == 0)
+			return 0;
+		long[] samples = Arrays.copyOf(waitSamplesNanos, n);
+		Arrays.sort(samples);
+		int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+		return samples[Math.max(0, Math.min(n - 1, index))] / 1000000.0;
+	}
+
+	public int getActive()
+	{
+		return borrowed.size();
+	}
+
+	public int getIdle()
+	{
+		return idle.size();
+	}
+
+	public int getWaiters()
+	{
+		return permits.getQueueLength();
+	}
+
+	public int getLeakThresholdSecs()
+	{
+		return leakThresholdSecs;
+	}
+
+	public void setLeakThresholdSecs(int leakThresholdSecs)
+	{
+		if (leakThresholdSecs < 1) throw new IllegalArgumentException("leakThresholdSecs must be >=1, was " + leakThresholdSecs);
+		this.leakThresholdSecs = leakThresholdSecs;
+	}
+
+	/**
+	 * @return live gauges, counters since creation and the borrowed connections held longer than the leak threshold.
+	 */
+	public Json getStatistics()
+	{
+		long now = System.currentTimeMillis();
+		Json leaking = Json.array();
+		for (Borrowed b : borrowed.keySet())
+			if (now - b.borrowedAtMs > leakThresholdSecs * 1000L)
+				leaking.add(b.toJson());
+		return Json.object()
+			.set("name", name)
+			.set("active", getActive())
+			.set("idle", getIdle())
+			.set("waiters", getWaiters())
+			.set("minSize", minSize)
+			.set("maxSize", maxSize)
+			.set("borrowWaitP50Ms", getBorrowWaitMs(50))
+			.set("borrowWaitP99Ms", getBorrowWaitMs(99))
+			.set("borrows", borrows.get())
+			.set("borrowTimeouts", borrowTimeouts.get())
+			.set("created", created.get())
+			.set("destroyed", destroyed.get())
+			.set("validationFailures", validationFailures.get())
+			.set("leaks", leaks.get())
+			.set("reclaimed", reclaimed.get())
+			.set("leaking", leaking);
+	}
+
+	public Connection getConnection(String username, String password) throws SQLException
+	{
+		throw new SQLFeatureNotSupportedException(name + ": connections are pooled for the configured user only.");
+	}
+
+	public PrintWriter getLogWriter() throws SQLException
+	{
+		return unpooled.getLogWriter();
+	}
+
+	public void setLogWriter(PrintWriter out) throws SQLException
+	{
+		unpooled.setLogWriter(out);
+	}
+
+	public void setLoginTimeout(int seconds) throws SQLException
+	{
+		unpooled.setLoginTimeout(seconds);
+	}
+
+	public int getLoginTimeout() throws SQLException
+	{
+		return unpooled.getLoginTimeout();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException
+	{
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException
+	{
+		if (iface.isInstance(this))
+			return iface.cast(this);
+		return unpooled.unwrap(iface);
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException
+	{
+		return iface.isInstance(this) || unpooled.isWrapperFor(iface);
+	}
+
+	public String toString()
+	{
+		return name;
+	}
+}
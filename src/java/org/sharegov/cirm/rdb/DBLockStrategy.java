@@ -25,4 +25,27 @@ public interface DBLockStrategy
 	 * @return
 	 */
 	boolean isLockRequired(CirmTransaction<?> t);
+
+	/**
+	 * Called before each execution of a toplevel transaction, e.g. to acquire in process locks.
+	 * @param t
+	 */
+	void beforeExecution(CirmTransaction<?> t);
+
+	/**
+	 * Called after each execution of a toplevel transaction after commit or rollback, 
+	 * also if beforeExecution threw an exception.
+	 * @param t
+	 */
+	void afterExecution(CirmTransaction<?> t);
+
+	/**
+	 * Called during execution of a toplevel transaction, if it writes a business object 
+	 * that was not declared before execution (see CirmTransaction.addBusinessObjectId).
+	 * The id was already added to the transaction, so it is declared for further executions.
+	 * Must not block, as the transaction may hold DB locks already.
+	 * @param t
+	 * @param boid
+	 */
+	void businessObjectAdded(CirmTransaction<?> t, long boid);
 }
@@ -15,11 +15,24 @@
  ******************************************************************************/
 package org.sharegov.cirm.rdb;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import mjson.Json;
 
 import org.semanticweb.owlapi.model.IRI;
 import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.RequestScopeFilter;
 import org.sharegov.cirm.utils.Ref;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
 import javax.sql.DataSource;
 
 /**
@@ -27,16 +40,58 @@ import javax.sql.DataSource;
  * Create a {@link javax.sql.DataSource} based on an OWL description. The reference
  * is smart enough to recognize when the description value has changed and it recomputes the value. 
  * </p>
+ * <p>
+ * Optionally, the description lists read replicas by hasReadReplica, each described like the primary
+ * and of the same database type. Connections for read only transactions are then taken round-robin from
+ * healthy replicas; a replica failing to provide a connection is skipped for REPLICA_RETRY_SECS. 
+ * All others and reads of a client within READ_YOUR_WRITES_SECS after the client's last write use the primary.
+ * Clients are identified by the server, see {@link RequestScopeFilter#getClient()}. Reads of unidentified clients
+ * are never pinned to the primary and may miss a write for the replication lag.
+ * </p>
+ * <p>
+ * A pooled data source (usesPool) uses the pool of the DatabaseHook, or a {@link CirmConnectionPool}
+ * if hasPoolImplementation is "cirm".
+ * </p>
  * 
  * @author boris
  *
  */
 public class DataSourceRef implements Ref<DataSource>
 {
+	/**
+	 * Time a failed replica is not used.
+	 */
+	public static int REPLICA_RETRY_SECS = 30;
+
+	/**
+	 * Time after a client's write, in which the client's reads go to the primary to see the write despite replication lag.
+	 */
+	public static int READ_YOUR_WRITES_SECS = 10;
+
 	final Ref<Json> description;
 	volatile Json desc = null;
 	volatile DataSource value = null;
 	volatile DatabaseHook hook = null;
+	volatile List<Replica> replicas = Collections.emptyList();
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private final ConcurrentHashMap<String, Long> lastWriteByClient = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong replicaReads = new AtomicLong();
+	private final AtomicLong primaryReads = new AtomicLong();
+	private final AtomicLong pinnedReads = new AtomicLong();
+	private final AtomicLong replicaFailures = new AtomicLong();
+
+	static class Replica
+	{
+		final String name;
+		final DataSource dataSource;
+		volatile long downUntilMs = 0;
+
+		Replica(String name, DataSource dataSource)
+		{
+			this.name = name;
+			this.dataSource = dataSource;
+		}
+	}
 		
 	public DataSourceRef(Ref<Json> description)
 	{
@@ -66,6 +121,14 @@ public class DataSourceRef implements Ref<DataSource>
 	    return hook;
 	}
 	
+	/**
+	 * @return the current OWL description of the data source as Json.
+	 */
+	public Json getDescription()
+	{
+		return description.resolve();
+	}
+
 	public DataSource resolve()
 	{
 		if (value == null || description.resolve() != desc)
@@ -74,12 +137,182 @@ public class DataSourceRef implements Ref<DataSource>
 				if (value == null || description.resolve() != desc)
 				{
 					desc = description.resolve();
-		            if (desc.is("usesPool", true) || desc.is("usesPool", "true"))
-		                value = getHook().createPooledDataSource(desc);
-		            else
-		                value = getHook().createDataSource(desc);
+					closePools();
+		            value = createDataSource(desc);
+		            replicas = createReplicas(desc);
 			} 
 			}
 		return value;
 	}
+
+	private DataSource createDataSource(Json d)
+	{
+        if (d.is("usesPool", true) || d.is("usesPool", "true"))
+        {
+        	if (d.is("hasPoolImplementation", "cirm"))
+        		return CirmConnectionPool.create(d, getHook().createDataSource(d));
+        	else
+        		return getHook().createPooledDataSource(d);
+        }
+        else
+            return getHook().createDataSource(d);
+	}
+
+	/**
+	 * Closes CirmConnectionPools of a previous description.
+	 */
+	private void closePools()
+	{
+		if (value instanceof CirmConnectionPool)
+			((CirmConnectionPool) value).close();
+		for (Replica replica : replicas)
+			if (replica.dataSource instanceof CirmConnectionPool)
+				((CirmConnectionPool) replica.dataSource).close();
+	}
+
+	private List<Replica> createReplicas(Json d)
+	{
+		if (!d.has("hasReadReplica"))
+			return Collections.emptyList();
+		Json r = d.at("hasReadReplica");
+		List<Json> replicaDescriptions = r.isArray() ? r.asJsonList() : Collections.singletonList(r);
+		List<Replica> result = new ArrayList<Replica>();
+		for (Json replicaDesc : replicaDescriptions)
+		{
+			String name = replicaDesc.has("iri") ? replicaDesc.at("iri").asString() : replicaDesc.at("hasUrl").asString();
+			result.add(new Replica(name, createDataSource(replicaDesc)));
+		}
+		ThreadLocalStopwatch.now("DataSourceRef: " + result.size() + " read replicas for " + d.at("iri", ""));
+		return result;
+	}
+
+	/**
+	 * Sets the read replicas directly, replacing those of the description until it changes.
+	 */
+	public synchronized void setReplicas(List<DataSource> dataSources)
+	{
+		resolve();
+		List<Replica> result = new ArrayList<Replica>();
+		for (int i = 0; i < dataSources.size(); i++)
+			result.add(new Replica("replica" + i, dataSources.get(i)));
+		replicas = result;
+	}
+
+	public boolean hasReplicas()
+	{
+		resolve();
+		return !replicas.isEmpty();
+	}
+
+	/**
+	 * Returns a connection for a read only transaction from the next healthy replica or the primary,
+	 * if there is none or the client wrote within READ_YOUR_WRITES_SECS.
+	 * 
+	 * @param client the client reading as given by {@link RequestScopeFilter#getClient()} or null, if unknown.
+	 */
+	public Connection getReadOnlyConnection(String client) throws SQLException
+	{
+		DataSource primary = resolve();
+		List<Replica> current = replicas;
+		if (current.isEmpty())
+		{
+			primaryReads.incrementAndGet();
+			return primary.getConnection();
+		}
+		if (isPinnedToPrimary(client))
+		{
+			pinnedReads.incrementAndGet();
+			return primary.getConnection();
+		}
+		long now = System.currentTimeMillis();
+		int start = nextReplica.getAndIncrement();
+		for (int i = 0; i < current.size(); i++)
+		{
+			Replica replica = current.get(Math.abs((start + i) % current.size()));
+			if (replica.downUntilMs > now)
+				continue;
+			try
+			{
+				Connection conn = replica.dataSource.getConnection();
+				replica.downUntilMs = 0;
+				replicaReads.incrementAndGet();
+				return conn;
+			}
+			catch (SQLException e)
+			{
+				replicaFailures.incrementAndGet();
+				replica.downUntilMs = now + REPLICA_RETRY_SECS * 1000L;
+				ThreadLocalStopwatch.error("DataSourceRef: replica " + replica.name + " failed, not used for " 
+						+ REPLICA_RETRY_SECS + " secs: " + e);
+			}
+		}
+		primaryReads.incrementAndGet();
+		return primary.getConnection();
+	}
+
+	/**
+	 * Pins the client's reads to the primary for READ_YOUR_WRITES_SECS; to be called after the client's write committed.
+	 * @param client as given by {@link RequestScopeFilter#getClient()}; null is ignored.
+	 */
+	public void noteWrite(String client)
+	{
+		if (client == null || replicas.isEmpty())
+			return;
+		long now = System.currentTimeMillis();
+		lastWriteByClient.put(client, now);
+		if (lastWriteByClient.size() > 10000)
+			removeExpiredWrites(now);
+	}
+
+	private boolean isPinnedToPrimary(String client)
+	{
+		if (client == null)
+			return false;
+		Long lastWrite = lastWriteByClient.get(client);
+		if (lastWrite == null)
+			return false;
+		if (System.currentTimeMillis() - lastWrite < READ_YOUR_WRITES_SECS * 1000L)
+			return true;
+		lastWriteByClient.remove(client, lastWrite);
+		return false;
+	}
+
+	private void removeExpiredWrites(long now)
+	{
+		Iterator<Map.Entry<String, Long>> it = lastWriteByClient.entrySet().iterator();
+		while (it.hasNext())
+			if (now - it.next().getValue() >= READ_YOUR_WRITES_SECS * 1000L)
+				it.remove();
+	}
+
+	/**
+	 * @return the statistics of the primary and replica CirmConnectionPools; empty if none is used.
+	 */
+	public Json getPoolStatistics()
+	{
+		Json result = Json.object();
+		if (value instanceof CirmConnectionPool)
+			result.set("primary", ((CirmConnectionPool) value).getStatistics());
+		for (Replica replica : replicas)
+			if (replica.dataSource instanceof CirmConnectionPool)
+				result.set(replica.name, ((CirmConnectionPool) replica.dataSource).getStatistics());
+		return result;
+	}
+
+	/**
+	 * @return read routing statistics and replica health.
+	 */
+	public Json getReplicaStatistics()
+	{
+		long now = System.currentTimeMillis();
+		Json replicaStates = Json.array();
+		for (Replica replica : replicas)
+			replicaStates.add(Json.object("name", replica.name, "healthy", replica.downUntilMs <= now));
+		return Json.object()
+			.set("replicas", replicaStates)
+			.set("replicaReads", replicaReads.get())
+			.set("primaryReads", primaryReads.get())
+			.set("pinnedReads", pinnedReads.get())
+			.set("replicaFailures", replicaFailures.get());
+	}
 }
\ No newline at end of file
@@ -12,6 +12,10 @@ public interface DatabaseHook
 	DataSource createDataSource(Json description);
 	DataSource createPooledDataSource(Json description);
 	long nextSequence(Connection conn, String sequenceName)  throws SQLException;
+	/**
+	 * Fetches count values of the given sequence in one roundtrip.
+	 */
+	long[] nextSequenceBlock(Connection conn, String sequenceName, int count)  throws SQLException;
 	String nextSequenceClause(String sequenceName);
 	Date timeStamp(Connection conn)  throws SQLException;
 	String paginate(String sql, long minValue, long maxValue);
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
+import org.semanticweb.owlapi.model.OWLIndividual;
+import org.semanticweb.owlapi.model.OWLLiteral;
+import org.semanticweb.owlapi.model.OWLObjectPropertyExpression;
+
+/**
+ * Data of the mapped and the not mapped (vertical) schema that was read level by level 
+ * for a set of root individuals before the graphs of those individuals are traversed.
+ *
+ * Mapped rows are kept by (table, primary key value) and relationship rows by (relationship, parent key value).
+ * A relationship that was prefetched for a parent key returns an empty list if there were no rows,
+ * null is returned if the row or relationship was not prefetched and needs to be queried.
+ * 
+ * Vertical schema data is kept by subject id; use containsSubject to check if a subject was prefetched.
+ *
+ * @see RelationalStoreImpl#prefetchGraph
+ */
+public class GraphPrefetch
+{
+	private final Map<String, Map<Long, MappedRow>> rowsByTable = new HashMap<String, Map<Long, MappedRow>>();
+	private final Map<String, Map<Long, List<MappedRow>>> rowsByRelationship = new HashMap<String, Map<Long, List<MappedRow>>>();
+	private final Set<Long> subjects = new HashSet<Long>();
+	private final Map<Long, Map<OWLObjectPropertyExpression, Set<OWLIndividual>>> objectProperties = new HashMap<Long, Map<OWLObjectPropertyExpression, Set<OWLIndividual>>>();
+	private final Map<Long, Map<OWLDataPropertyExpression, Set<OWLLiteral>>> dataProperties = new HashMap<Long, Map<OWLDataPropertyExpression, Set<OWLLiteral>>>();
+	private final Map<Long, Set<OWLClass>> classes = new HashMap<Long, Set<OWLClass>>();
+	private int queryCount = 0;
+	private int levelCount = 0;
+
+	public MappedRow getRow(String table, long primaryKeyValue)
+	{
+		Map<Long, MappedRow> rows = rowsByTable.get(table);
+		return rows == null ? null : rows.get(primaryKeyValue);
+	}
+
+	public List<MappedRow> getRelationshipRows(String relationship, long parentKeyValue)
+	{
+		Map<Long, List<MappedRow>> rows = rowsByRelationship.get(relationship);
+		return rows == null ? null : rows.get(parentKeyValue);
+	}
+
+	public boolean containsRow(String table, long primaryKeyValue)
+	{
+		return getRow(table, primaryKeyValue) != null;
+	}
+
+	void putRow(String table, long primaryKeyValue, MappedRow row)
+	{
+		Map<Long, MappedRow> rows = rowsByTable.get(table);
+		if (rows == null)
+		{
+			rows = new HashMap<Long, MappedRow>();
+			rowsByTable.put(table, rows);
+		}
+		rows.put(primaryKeyValue, row);
+	}
+
+	/**
+	 * Marks the relationship as prefetched for all given parent key values.
+	 */
+	void putRelationshipParents(String relationship, Iterable<Long> parentKeyValues)
+	{
+		Map<Long, List<MappedRow>> rows = rowsByRelationship.get(relationship);
+		if (rows == null)
+		{
+			rows = new HashMap<Long, List<MappedRow>>();
+			rowsByRelationship.put(relationship, rows);
+		}
+		for (Long parentKeyValue : parentKeyValues)
+			if (!rows.containsKey(parentKeyValue))
+				rows.put(parentKeyValue, Collections.<MappedRow>emptyList());
+	}
+
+	void addRelationshipRow(String relationship, long parentKeyValue, MappedRow row)
+	{
+		Map<Long, List<MappedRow>> rows = rowsByRelationship.get(relationship);
+		List<MappedRow> parentRows = rows.get(parentKeyValue);
+		if (parentRows == null || parentRows.isEmpty())
+		{
+			parentRows = new ArrayList<MappedRow>();
+			rows.put(parentKeyValue, parentRows);
+		}
+		parentRows.add(row);
+	}
+
+	public boolean containsSubject(long subject)
+	{
+		return subjects.contains(subject);
+	}
+
+	/**
+	 * @return the current object property values of a prefetched subject, never null.
+	 */
+	public Map<OWLObjectPropertyExpression, Set<OWLIndividual>> getObjectProperties(long subject)
+	{
+		Map<OWLObjectPropertyExpression, Set<OWLIndividual>> result = objectProperties.get(subject);
+		if (result == null)
+			result = new HashMap<OWLObjectPropertyExpression, Set<OWLIndividual>>();
+		return result;
+	}
+
+	/**
+	 * @return the current data property values of a prefetched subject, never null.
+	 */
+	public Map<OWLDataPropertyExpression, Set<OWLLiteral>> getDataProperties(long subject)
+	{
+		Map<OWLDataPropertyExpression, Set<OWLLiteral>> result = dataProperties.get(subject);
+		if (result == null)
+			result = new HashMap<OWLDataPropertyExpression, Set<OWLLiteral>>();
+		return result;
+	}
+
+	/**
+	 * @return the current classes of a prefetched subject, never null.
+	 */
+	public Set<OWLClass> getClasses(long subject)
+	{
+		Set<OWLClass> result = classes.get(subject);
+		if (result == null)
+			result = new HashSet<OWLClass>();
+		return result;
+	}
+
+	void putSubjects(Iterable<Long> subjectIds)
+	{
+		for (Long subject : subjectIds)
+			subjects.add(subject);
+	}
+
+	void addObjectProperty(long subject, OWLObjectPropertyExpression property, OWLIndividual value)
+	{
+		Map<OWLObjectPropertyExpression, Set<OWLIndividual>> values = objectProperties.get(subject);
+		if (values == null)
+		{
+			values = new HashMap<OWLObjectPropertyExpression, Set<OWLIndividual>>();
+			objectProperties.put(subject, values);
+		}
+		Set<OWLIndividual> propertyValues = values.get(property);
+		if (propertyValues == null)
+		{
+			propertyValues = new HashSet<OWLIndividual>();
+			values.put(property, propertyValues);
+		}
+		propertyValues.add(value);
+	}
+
+	void addDataProperty(long subject, OWLDataPropertyExpression property, OWLLiteral value)
+	{
+		Map<OWLDataPropertyExpression, Set<OWLLiteral>> values = dataProperties.get(subject);
+		if (values == null)
+		{
+			values = new HashMap<OWLDataPropertyExpression, Set<OWLLiteral>>();
+			dataProperties.put(subject, values);
+		}
+		Set<OWLLiteral> propertyValues = values.get(property);
+		if (propertyValues == null)
+		{
+			propertyValues = new HashSet<OWLLiteral>();
+			values.put(property, propertyValues);
+		}
+		propertyValues.add(value);
+	}
+
+	void addClass(long subject, OWLClass c)
+	{
+		Set<OWLClass> subjectClasses = classes.get(subject);
+		if (subjectClasses == null)
+		{
+			subjectClasses = new HashSet<OWLClass>();
+			classes.put(subject, subjectClasses);
+		}
+		subjectClasses.add(c);
+	}
+
+	void queryExecuted()
+	{
+		queryCount++;
+	}
+
+	void levelRead()
+	{
+		levelCount++;
+	}
+
+	/**
+	 * @return the number of queries executed to prefetch.
+	 */
+	public int getQueryCount()
+	{
+		return queryCount;
+	}
+
+	public int getLevelCount()
+	{
+		return levelCount;
+	}
+}
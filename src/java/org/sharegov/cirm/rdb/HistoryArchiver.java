@@ -0,0 +1,470 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_CLASSIFICATION;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_DATA_PROPERTY;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_OBJECT_PROPERTY;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.utils.Ref;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Moves closed rows (TO_DATE set) of the vertical tables CIRM_CLASSIFICATION, CIRM_OWL_DATA_PROPERTY and
+ * CIRM_OWL_OBJECT_PROPERTY into history tables of the same structure (table name + _HIST), so that current
+ * state reads (TO_DATE IS NULL) work on tables that only grow with the number of current rows.<br>
+ * <br>
+ * Archival moves all rows closed before a cutoff date, in batches of SUBJECT ranges, one transaction per batch,
+ * sleeping between batches. Progress is stored in CIRM_HIST_ARCHIVE_STATE, an interrupted run resumes at the
+ * last completed batch.<br>
+ * <br>
+ * Versioned reads (e.g. RelationalStoreImpl.selectClass(subject, version,...)) union the history tables,
+ * if the version is before the watermark, the highest published cutoff. Rows closed at or after the watermark
+ * are never archived, so reads of recent versions and all current state reads stay on the hot tables.
+ * A new cutoff is published WATERMARK_REFRESH_MS before the first row is moved, so all servers read
+ * the new watermark before they could miss a moved row.<br>
+ * <br>
+ * Requires the history tables and state table (see schema_*.sql); nothing is read or written unless ENABLED.
+ */
+public class HistoryArchiver
+{
+	public static final String HIST = "_HIST";
+	public static final String STATE_TABLE = "CIRM_HIST_ARCHIVE_STATE";
+
+	/**
+	 * History tables exist; versioned reads and deletes with history include them.
+	 */
+	public static volatile boolean ENABLED = false;
+
+	public static boolean DBG = false;
+
+	public static final int DEFAULT_RETAIN_DAYS = 365;
+	public static final int DEFAULT_BATCH_SUBJECTS = 2000;
+	public static final long DEFAULT_THROTTLE_MS = 200;
+	public static long WATERMARK_REFRESH_MS = 60 * 1000;
+
+	/**
+	 * Archived table to its column list.
+	 */
+	private static final Map<String, String> COLUMNS = new LinkedHashMap<String, String>();
+	static
+	{
+		COLUMNS.put(TABLE_CLASSIFICATION, "SUBJECT, OWLCLASS, FROM_DATE, TO_DATE");
+		COLUMNS.put(TABLE_DATA_PROPERTY, "SUBJECT, PREDICATE, DATATYPE_ID, VALUE_ID, FROM_DATE, TO_DATE");
+		COLUMNS.put(TABLE_OBJECT_PROPERTY, "SUBJECT, PREDICATE, OBJECT, FROM_DATE, TO_DATE");
+	}
+
+	private static volatile Timestamp watermark = null;
+	private static volatile long watermarkReadAtMs = 0;
+
+	private static final HistoryArchiver instance = new HistoryArchiver(Refs.defaultRelationalStoreExt);
+
+	private final Ref<RelationalStoreExt> storeRef;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+	private volatile boolean stopRequested = false;
+	private final Map<String, AtomicLong> movedRows = new LinkedHashMap<String, AtomicLong>();
+	private volatile String lastError = null;
+
+	HistoryArchiver(Ref<RelationalStoreExt> storeRef)
+	{
+		this.storeRef = storeRef;
+		for (String table : COLUMNS.keySet())
+			movedRows.put(table, new AtomicLong());
+	}
+
+	public static HistoryArchiver get()
+	{
+		return instance;
+	}
+
+	// -------------------------------------------------------------------------
+	// READ SUPPORT
+	//
+
+	/**
+	 * Determines if a read of version might need archived rows.
+	 * @param version a version date or null for all versions.
+	 */
+	public static boolean readsHistory(Date version)
+	{
+		if (!ENABLED)
+			return false;
+		Timestamp w = getWatermark();
+		return w != null && (version == null || version.before(w));
+	}
+
+	/**
+	 * Returns the table or view, or a union with its history table, if a read of version needs it.
+	 * The union is a subquery, callers must alias it.
+	 */
+	public static String tableOrUnion(String table, Date version)
+	{
+		if (!readsHistory(version))
+			return table;
+		return "(SELECT * FROM " + table + " UNION ALL SELECT * FROM " + historyTable(table) + ")";
+	}
+
+	/**
+	 * @return the history table of a vertical table or the history view of VIEW_DATA_PROPERTY_VALUE.
+	 */
+	public static String historyTable(String table)
+	{
+		return table + HIST;
+	}
+
+	/**
+	 * Deletes all archived rows of the subjects inside the current transaction, on the connection of a
+	 * delete with history.
+	 */
+	public static void deleteHistory(Connection conn, String table, Collection<Long> subjects) throws SQLException
+	{
+		if (subjects.isEmpty())
+			return;
+		PreparedStatement stmt = null;
+		try
+		{
+			stmt = conn.prepareStatement("DELETE FROM " + historyTable(table) + " WHERE SUBJECT = ? ");
+			for (Long subject : subjects)
+			{
+				stmt.setLong(1, subject);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		}
+		finally
+		{
+			if (stmt != null)
+				stmt.close();
+		}
+	}
+
+	/**
+	 * @return the highest published cutoff, null if nothing was ever archived;
+	 * re-read at most every WATERMARK_REFRESH_MS.
+	 */
+	public static Timestamp getWatermark()
+	{
+		long now = System.currentTimeMillis();
+		if (now - watermarkReadAtMs > WATERMARK_REFRESH_MS)
+		{
+			watermark = selectWatermark();
+			watermarkReadAtMs = now;
+		}
+		return watermark;
+	}
+
+	private static Timestamp selectWatermark()
+	{
+		RelationalStoreExt store = Refs.defaultRelationalStoreExt.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement("SELECT MAX(CUTOFF_DATE) FROM " + STATE_TABLE);
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getTimestamp(1) : null;
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// ARCHIVAL
+	//
+
+	/**
+	 * Archives all rows closed more than retainDays ago. Resumes an interrupted run first.
+	 * Blocks until all tables are archived or stop is requested.
+	 * @return the number of rows moved.
+	 * @throws IllegalStateException if not ENABLED or an archival is already running.
+	 */
+	public long archive(int retainDays, int batchSubjects, long throttleMs)
+	{
+		if (!ENABLED) throw new IllegalStateException("HistoryArchiver not ENABLED");
+		if (retainDays < 1) throw new IllegalArgumentException("retainDays must be >= 1, was " + retainDays);
+		if (batchSubjects < 1) throw new IllegalArgumentException("batchSubjects must be >= 1, was " + batchSubjects);
+		if (!running.compareAndSet(false, true)) throw new IllegalStateException("Archival already running");
+		stopRequested = false;
+		lastError = null;
+		long moved = 0;
+		try
+		{
+			RelationalStore store = storeRef.resolve();
+			Timestamp cutoff = new Timestamp(store.getStoreTime().getTime() - retainDays * 24L * 3600 * 1000);
+			ThreadLocalStopwatch.startTop("START HistoryArchiver.archive cutoff " + cutoff);
+			for (String table : COLUMNS.keySet())
+			{
+				Object[] state = selectState(table);
+				if (state != null && state[2] == null)
+					moved += archive(table, (Timestamp) state[0], (Long) state[1], batchSubjects, throttleMs);
+				if (stopRequested)
+					break;
+				if (state == null || ((Timestamp) state[0]).before(cutoff))
+				{
+					publish(table, cutoff);
+					moved += archive(table, cutoff, -1, batchSubjects, throttleMs);
+				}
+				if (stopRequested)
+					break;
+			}
+			ThreadLocalStopwatch.stop("END HistoryArchiver.archive moved " + moved + (stopRequested ? " (stopped)" : ""));
+			return moved;
+		}
+		catch (RuntimeException e)
+		{
+			lastError = e.toString();
+			ThreadLocalStopwatch.fail("FAIL HistoryArchiver.archive " + e);
+			throw e;
+		}
+		finally
+		{
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Requests a running archival to stop after the current batch. It resumes with the next run.
+	 */
+	public void stop()
+	{
+		stopRequested = true;
+	}
+
+	public boolean isRunning()
+	{
+		return running.get();
+	}
+
+	/**
+	 * Stores the new cutoff, which makes it the watermark, and waits until all servers have read it.
+	 */
+	private void publish(final String table, final Timestamp cutoff)
+	{
+		storeRef.resolve().txn(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				if (updateState("UPDATE " + STATE_TABLE + " SET CUTOFF_DATE = ?, LAST_SUBJECT = ?, COMPLETED_DATE = NULL WHERE TABLE_NAME = ?",
+						cutoff, -1, table) == 0)
+					updateState("INSERT INTO " + STATE_TABLE + " (CUTOFF_DATE, LAST_SUBJECT, TABLE_NAME) VALUES (?,?,?)",
+						cutoff, -1, table);
+				return null;
+			}
+		});
+		watermarkReadAtMs = 0;
+		if (DBG) ThreadLocalStopwatch.now("HistoryArchiver published cutoff " + cutoff + " for " + table);
+		sleep(WATERMARK_REFRESH_MS);
+	}
+
+	private long archive(final String table, final Timestamp cutoff, long lastSubject, int batchSubjects, long throttleMs)
+	{
+		final String columns = COLUMNS.get(table);
+		final long maxSubject = storeRef.resolve().txn(new CirmTransaction<Long>() {
+			public Long call() throws Exception
+			{
+				return selectMaxSubject(table);
+			}
+		});
+		long moved = 0;
+		for (long from = lastSubject + 1; from <= maxSubject && !stopRequested; from += batchSubjects)
+		{
+			final long batchFrom = from;
+			final long batchTo = Math.min(maxSubject, from + batchSubjects - 1);
+			int rows = storeRef.resolve().txn(new CirmTransaction<Integer>() {
+				public Integer call() throws Exception
+				{
+					String where = " WHERE SUBJECT BETWEEN ? AND ? AND TO_DATE < ?";
+					int inserted = executeRange("INSERT INTO " + historyTable(table) + " (" + columns + ") SELECT "
+							+ columns + " FROM " + table + where, batchFrom, batchTo, cutoff);
+					int deleted = executeRange("DELETE FROM " + table + where, batchFrom, batchTo, cutoff);
+					if (inserted != deleted)
+						throw new IllegalStateException("HistoryArchiver " + table + " " + batchFrom + "-" + batchTo
+								+ " inserted " + inserted + " but deleted " + deleted);
+					updateState("UPDATE " + STATE_TABLE + " SET LAST_SUBJECT = ? WHERE CUTOFF_DATE = ? AND TABLE_NAME = ?",
+							batchTo, cutoff, table);
+					return deleted;
+				}
+			});
+			moved += rows;
+			movedRows.get(table).addAndGet(rows);
+			if (throttleMs > 0)
+				sleep(throttleMs);
+		}
+		if (!stopRequested)
+		{
+			storeRef.resolve().txn(new CirmTransaction<Object>() {
+				public Object call() throws Exception
+				{
+					RelationalStoreExt store = storeRef.resolve();
+					Connection conn = null;
+					PreparedStatement stmt = null;
+					try
+					{
+						conn = store.getConnection();
+						stmt = conn.prepareStatement("UPDATE " + STATE_TABLE + " SET COMPLETED_DATE = ? WHERE TABLE_NAME = ?");
+						stmt.setTimestamp(1, new Timestamp(store.getStoreTime().getTime()));
+						stmt.setString(2, table);
+						stmt.executeUpdate();
+						return null;
+					}
+					finally
+					{
+						store.close(stmt, conn);
+					}
+				}
+			});
+		}
+		if (DBG) ThreadLocalStopwatch.now("HistoryArchiver " + table + " moved " + moved);
+		return moved;
+	}
+
+	/**
+	 * @return cutoff, lastSubject, completed date of the table's archival, null if it was never archived.
+	 */
+	private Object[] selectState(final String table)
+	{
+		return storeRef.resolve().txn(new CirmTransaction<Object[]>() {
+			public Object[] call() throws Exception
+			{
+				RelationalStoreExt store = storeRef.resolve();
+				Connection conn = null;
+				PreparedStatement stmt = null;
+				ResultSet rs = null;
+				try
+				{
+					conn = store.getConnection();
+					stmt = conn.prepareStatement("SELECT CUTOFF_DATE, LAST_SUBJECT, COMPLETED_DATE FROM " + STATE_TABLE + " WHERE TABLE_NAME = ?");
+					stmt.setString(1, table);
+					rs = stmt.executeQuery();
+					return rs.next() ? new Object[] { rs.getTimestamp(1), rs.getLong(2), rs.getTimestamp(3) } : null;
+				}
+				finally
+				{
+					store.close(rs, stmt, conn);
+				}
+			}
+		});
+	}
+
+	private long selectMaxSubject(String table) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement("SELECT MAX(SUBJECT) FROM " + table);
+			rs = stmt.executeQuery();
+			return rs.next() && rs.getObject(1) != null ? rs.getLong(1) : -1;
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	private int executeRange(String sql, long from, long to, Timestamp cutoff) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, from);
+			stmt.setLong(2, to);
+			stmt.setTimestamp(3, cutoff);
+			return stmt.executeUpdate();
+		}
+		finally
+		{
+			store.close(stmt, conn);
+		}
+	}
+
+	private int updateState(String sql, Object p1, Object p2, String table) throws SQLException
+	{
+		RelationalStoreExt store = storeRef.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setObject(1, p1);
+			stmt.setObject(2, p2);
+			stmt.setString(3, table);
+			return stmt.executeUpdate();
+		}
+		finally
+		{
+			store.close(stmt, conn);
+		}
+	}
+
+	private void sleep(long ms)
+	{
+		try
+		{
+			Thread.sleep(ms);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			stopRequested = true;
+		}
+	}
+
+	public Json getStatistics()
+	{
+		Json moved = Json.object();
+		for (Map.Entry<String, AtomicLong> e : movedRows.entrySet())
+			moved.set(e.getKey(), e.getValue().get());
+		Timestamp w = watermark;
+		return Json.object()
+			.set("enabled", ENABLED)
+			.set("running", running.get())
+			.set("watermark", w == null ? null : w.toString())
+			.set("movedRows", moved)
+			.set("lastError", lastError);
+	}
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.sharegov.cirm.CirmTransactionLocal;
+
+/**
+ * Process wide bidirectional cache of CIRM_IRI id to entity (IRI and type) pairs.
+ *
+ * Meta entities (classes, properties, datatypes) never change once stored and are pinned,
+ * named individuals (mostly business objects) are kept in an LRU map of limited size.
+ *
+ * Pairs put during a CirmTransaction are only visible to the executing thread until
+ * the toplevel transaction succeeds. A retry discards them. Pairs put outside of a transaction
+ * are visible immediately.
+ *
+ * Updates or deletes of CIRM_IRI rows must call invalidate.
+ */
+public class IRIDictionary
+{
+	public static final int DEFAULT_MAX_INDIVIDUALS = 100000;
+
+	private static final IRIDictionary instance = new IRIDictionary(DEFAULT_MAX_INDIVIDUALS);
+
+	public static IRIDictionary get()
+	{
+		return instance;
+	}
+
+	private final Map<OWLEntity, Long> metaIds = new ConcurrentHashMap<OWLEntity, Long>();
+	private final Map<Long, OWLEntity> metaEntities = new ConcurrentHashMap<Long, OWLEntity>();
+
+	/**
+	 * Access ordered, guarded by itself; individualEntities is kept in sync.
+	 */
+	private final LinkedHashMap<OWLEntity, Long> individualIds;
+	private final Map<Long, OWLEntity> individualEntities = new HashMap<Long, OWLEntity>();
+	private volatile int maxIndividuals;
+
+	private final CirmTransactionLocal<PendingEntries> pending = new CirmTransactionLocal<PendingEntries>() {
+		protected PendingEntries initialValue()
+		{
+			return new PendingEntries();
+		}
+
+		protected void succeeded(PendingEntries p)
+		{
+			for (Long id : p.invalidatedIds)
+				remove(id);
+			for (Map.Entry<OWLEntity, Long> entry : p.ids.entrySet())
+				publish(entry.getKey(), entry.getValue());
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public IRIDictionary(int maxIndividuals)
+	{
+		this.maxIndividuals = maxIndividuals;
+		individualIds = new LinkedHashMap<OWLEntity, Long>(1024, 0.75f, true);
+	}
+
+	/**
+	 * @return the id of the entity or null, if not cached.
+	 */
+	public Long getId(OWLEntity e)
+	{
+		Long result = null;
+		PendingEntries p = pending.peek();
+		if (p != null)
+			result = p.ids.get(e);
+		if (result == null)
+		{
+			if (isPinned(e.getEntityType()))
+				result = metaIds.get(e);
+			else
+				synchronized (individualIds)
+				{
+					result = individualIds.get(e);
+				}
+		}
+		count(result != null);
+		return result;
+	}
+
+	/**
+	 * @return the entity with the id or null, if not cached.
+	 */
+	public OWLEntity getEntity(long id)
+	{
+		OWLEntity result = null;
+		PendingEntries p = pending.peek();
+		if (p != null)
+			result = p.entities.get(id);
+		if (result == null)
+			result = metaEntities.get(id);
+		if (result == null)
+			synchronized (individualIds)
+			{
+				result = individualEntities.get(id);
+				if (result != null)
+					individualIds.get(result); // access for LRU order
+			}
+		count(result != null);
+		return result;
+	}
+
+	/**
+	 * Caches an id entity pair that was read from or written to CIRM_IRI.
+	 * If a transaction is executing, the pair becomes visible to other threads after the
+	 * toplevel transaction succeeded.
+	 */
+	public void put(OWLEntity e, long id)
+	{
+		PendingEntries p = pending.get();
+		if (p == null)
+			publish(e, id);
+		else
+		{
+			p.ids.put(e, id);
+			p.entities.put(id, e);
+		}
+	}
+
+	/**
+	 * Removes the pair with the given id immediately and again after the current toplevel
+	 * transaction succeeded, so no other thread can re-cache the committed old value.
+	 */
+	public void invalidate(long id)
+	{
+		remove(id);
+		PendingEntries p = pending.get();
+		if (p != null)
+		{
+			OWLEntity e = p.entities.remove(id);
+			if (e != null)
+				p.ids.remove(e);
+			p.invalidatedIds.add(id);
+		}
+	}
+
+	public void clear()
+	{
+		metaIds.clear();
+		metaEntities.clear();
+		synchronized (individualIds)
+		{
+			individualIds.clear();
+			individualEntities.clear();
+		}
+	}
+
+	private boolean isPinned(EntityType<?> type)
+	{
+		return !EntityType.NAMED_INDIVIDUAL.equals(type);
+	}
+
+	private void count(boolean hit)
+	{
+		if (hit)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+	}
+
+	private void publish(OWLEntity e, long id)
+	{
+		if (isPinned(e.getEntityType()))
+		{
+			metaIds.put(e, id);
+			metaEntities.put(id, e);
+		}
+		else
+			synchronized (individualIds)
+			{
+				Long oldId = individualIds.put(e, id);
+				if (oldId != null && oldId != id)
+					individualEntities.remove(oldId);
+				individualEntities.put(id, e);
+				Iterator<Map.Entry<OWLEntity, Long>> eldest = individualIds.entrySet().iterator();
+				while (individualIds.size() > maxIndividuals && eldest.hasNext())
+				{
+					individualEntities.remove(eldest.next().getValue());
+					eldest.remove();
+					evictions.incrementAndGet();
+				}
+			}
+	}
+
+	private void remove(long id)
+	{
+		OWLEntity e = metaEntities.remove(id);
+		if (e != null)
+			metaIds.remove(e);
+		synchronized (individualIds)
+		{
+			e = individualEntities.remove(id);
+			if (e != null)
+				individualIds.remove(e);
+		}
+	}
+
+	/**
+	 * Entries of one execution of a toplevel transaction, published on success.
+	 */
+	private static class PendingEntries
+	{
+		final Map<OWLEntity, Long> ids = new HashMap<OWLEntity, Long>();
+		final Map<Long, OWLEntity> entities = new HashMap<Long, OWLEntity>();
+		final Set<Long> invalidatedIds = new HashSet<Long>();
+	}
+
+	public int getMaxIndividuals()
+	{
+		return maxIndividuals;
+	}
+
+	/**
+	 * Sets the maximum number of cached individuals. A smaller value takes effect on the next put.
+	 */
+	public void setMaxIndividuals(int maxIndividuals)
+	{
+		this.maxIndividuals = maxIndividuals;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	public int getMetaSize()
+	{
+		return metaIds.size();
+	}
+
+	public int getIndividualSize()
+	{
+		synchronized (individualIds)
+		{
+			return individualIds.size();
+		}
+	}
+
+	public Json getStatistics()
+	{
+		return Json.object()
+			.set("hits", getHitCount())
+			.set("misses", getMissCount())
+			.set("evictions", getEvictionCount())
+			.set("metaSize", getMetaSize())
+			.set("individualSize", getIndividualSize())
+			.set("maxIndividuals", getMaxIndividuals());
+	}
+}
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.sharegov.cirm.OWL.fullIri;
+import static org.sharegov.cirm.OWL.individual;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.sharegov.cirm.utils.Base64;
+
+/**
+ * Keyset (seek) pagination of a translated query.
+ *
+ * Instead of skipping all rows of earlier pages, a page starts after the last row of the previous page,
+ * identified by an opaque continuation token holding the sort value and id of that row. The query then
+ * orders by sort column and id and gets a predicate like (sortcol, id) > (?, ?), so the database can
+ * seek into an index on the sort column (e.g. created_date, case_number) and page N costs about
+ * the same as page 1.
+ *
+ * The predicate is expanded to sortcol > ? OR (sortcol = ? AND id > ?), as Oracle has no row value
+ * comparison, and respects the default null ordering of Oracle and Postgres (nulls last ascending, first descending).
+ *
+ * @see QueryTranslator#CONTINUATION_TOKEN
+ */
+public class Keyset
+{
+	private static final String TIMESTAMP = "t";
+	private static final String LONG = "n";
+	private static final String DOUBLE = "d";
+	private static final String STRING = "s";
+
+	private final String sortColumn;
+	private final String idColumn;
+	private final boolean descending;
+	private final int seekParameterCount;
+	private final List<String> seekTypes;
+	private Long lastId;
+	private Object lastSortValue;
+
+	private Keyset(String sortColumn, String idColumn, boolean descending, List<String> seekTypes)
+	{
+		this.sortColumn = sortColumn;
+		this.idColumn = idColumn;
+		this.descending = descending;
+		this.seekParameterCount = seekTypes.size();
+		this.seekTypes = seekTypes;
+	}
+
+	/**
+	 * Changes a translated query to keyset pagination, starting after the row of the token.
+	 * The page size is taken from the query's offset pagination, if any.
+	 *
+	 * @param token a continuation token or null or empty for the first page.
+	 * @throws IllegalArgumentException if the token is invalid or was issued for another sort order.
+	 */
+	public static Keyset apply(Query query, String token)
+	{
+		Keyset keyset = seek(query, token);
+		for (String type : keyset.seekTypes)
+			query.getStatement().getTypes().add(individual(fullIri(type)));
+		return keyset;
+	}
+
+	/**
+	 * Changes the sql and adds the seek parameter values of a translated query like {@link #apply(Query, String)},
+	 * but does not add the parameter types, which are individuals of the ontology.
+	 * The names of the types are available as {@link #getSeekTypes()}.
+	 */
+	static Keyset seek(Query query, String token)
+	{
+		Statement statement = query.getStatement();
+		Sql select = statement.getSql();
+		List<String> columns = select.COLUMNS();
+		if (columns.isEmpty())
+			throw new IllegalArgumentException("Keyset pagination needs an id column.");
+		if (select.orderBy.size() > 1)
+			throw new IllegalArgumentException("Keyset pagination supports only one sort column.");
+		String idColumn = columns.get(0);
+		String sortColumn = select.orderBy.isEmpty() ? idColumn : select.orderBy.get(0);
+		boolean descending = "DESC".equalsIgnoreCase(select.orderDirection.trim());
+		String predicate = null;
+		List<String> seekTypes = new ArrayList<String>();
+		if (token != null && !token.isEmpty())
+		{
+			Json t = decode(token);
+			if (!sortColumn.equals(t.at("sort").asString()) || descending != t.at("desc").asBoolean())
+				throw new IllegalArgumentException("Continuation token does not match the sort order of the query.");
+			String gt = descending ? " < " : " > ";
+			Long id = t.at("id").asLong();
+			if (sortColumn.equals(idColumn))
+			{
+				predicate = idColumn + gt + "?";
+				addParameter(statement, seekTypes, id, Concepts.INTEGER);
+			}
+			else if (t.at("value").isNull())
+			{
+				if (descending)
+					predicate = sortColumn + " IS NOT NULL OR " + idColumn + gt + "?";
+				else
+					predicate = sortColumn + " IS NULL AND " + idColumn + gt + "?";
+				addParameter(statement, seekTypes, id, Concepts.INTEGER);
+			}
+			else
+			{
+				predicate = sortColumn + gt + "?"
+						+ (descending ? "" : " OR " + sortColumn + " IS NULL")
+						+ " OR (" + sortColumn + " = ? AND " + idColumn + gt + "?)";
+				addSortParameter(statement, seekTypes, t);
+				addSortParameter(statement, seekTypes, t);
+				addParameter(statement, seekTypes, id, Concepts.INTEGER);
+			}
+		}
+		if (!sortColumn.equals(idColumn))
+			select.COLUMN(sortColumn);
+		select.KEYSET(idColumn, predicate);
+		if (select.pagination.containsKey("minValue") && select.pagination.containsKey("maxValue"))
+		{
+			long pageSize = Long.parseLong(select.pagination.get("maxValue"))
+					- Long.parseLong(select.pagination.get("minValue")) + 1;
+			select.PAGINATION("minValue", "1");
+			select.PAGINATION("maxValue", "" + pageSize);
+		}
+		Keyset keyset = new Keyset(sortColumn, idColumn, descending, seekTypes);
+		query.setKeyset(keyset);
+		return keyset;
+	}
+
+	/**
+	 * Removes keyset pagination from the query, e.g. to count all rows.
+	 */
+	public void clear(Query query)
+	{
+		Statement statement = query.getStatement();
+		List<Object> parameters = statement.getParameters();
+		List<OWLNamedIndividual> types = statement.getTypes();
+		for (int i = 0; i < seekParameterCount; i++)
+		{
+			parameters.remove(parameters.size() - 1);
+			// no types to remove, if the keyset was only seeked
+			if (types.size() > parameters.size())
+				types.remove(types.size() - 1);
+		}
+		statement.getSql().CLEAR_PAGINATION();
+		query.setKeyset(null);
+	}
+
+	/**
+	 * Forgets the last row, e.g. before the query is executed again.
+	 */
+	public void reset()
+	{
+		lastId = null;
+		lastSortValue = null;
+	}
+
+	/**
+	 * Remembers the current row of a resultset of the query as last row of the page.
+	 * The id must be the first, the sort value the second column.
+	 */
+	public void readRow(ResultSet rs) throws SQLException
+	{
+		lastId = rs.getLong(1);
+		if (sortColumn.equals(idColumn))
+			return;
+		ResultSetMetaData md = rs.getMetaData();
+		switch (md.getColumnType(2))
+		{
+			case Types.DATE:
+			case Types.TIMESTAMP:
+				lastSortValue = rs.getTimestamp(2);
+				break;
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.SMALLINT:
+				if (md.getScale(2) == 0)
+					lastSortValue = readLong(rs);
+				else
+					lastSortValue = readDouble(rs);
+				break;
+			case Types.DOUBLE:
+			case Types.FLOAT:
+			case Types.REAL:
+				lastSortValue = readDouble(rs);
+				break;
+			default:
+				lastSortValue = rs.getString(2);
+		}
+	}
+
+	private static Long readLong(ResultSet rs) throws SQLException
+	{
+		long l = rs.getLong(2);
+		return rs.wasNull() ? null : l;
+	}
+
+	private static Double readDouble(ResultSet rs) throws SQLException
+	{
+		double d = rs.getDouble(2);
+		return rs.wasNull() ? null : d;
+	}
+
+	/**
+	 * @return the token for the page after the last read row or null, if no row was read.
+	 */
+	public String getNextToken()
+	{
+		if (lastId == null)
+			return null;
+		Json t = Json.object("sort", sortColumn, "desc", descending, "id", lastId);
+		if (lastSortValue instanceof Timestamp)
+			t.set("type", TIMESTAMP).set("value", ((Timestamp) lastSortValue).getTime());
+		else if (lastSortValue instanceof Long)
+			t.set("type", LONG).set("value", lastSortValue);
+		else if (lastSortValue instanceof Double)
+			t.set("type", DOUBLE).set("value", lastSortValue.toString());
+		else if (lastSortValue != null)
+			t.set("type", STRING).set("value", lastSortValue.toString());
+		else
+			t.set("value", Json.nil());
+		try
+		{
+			return Base64.encode(t.toString().getBytes("UTF-8"), false);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public String getSortColumn()
+	{
+		return sortColumn;
+	}
+
+	public String getIdColumn()
+	{
+		return idColumn;
+	}
+
+	public boolean isDescending()
+	{
+		return descending;
+	}
+
+	/**
+	 * @return the Concepts names of the types of the seek parameters, in parameter order.
+	 */
+	List<String> getSeekTypes()
+	{
+		return seekTypes;
+	}
+
+	private static Json decode(String token)
+	{
+		try
+		{
+			Json t = Json.read(new String(Base64.decode(token), "UTF-8"));
+			if (!t.isObject() || !t.has("sort") || !t.has("desc") || !t.has("id") || !t.has("value"))
+				throw new IllegalArgumentException("Invalid continuation token: " + token);
+			return t;
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("Invalid continuation token: " + token, e);
+		}
+	}
+
+	private static void addSortParameter(Statement statement, List<String> types, Json t)
+	{
+		String type = t.has("type") ? t.at("type").asString() : null;
+		if (TIMESTAMP.equals(type))
+			addParameter(statement, types, new Timestamp(t.at("value").asLong()), Concepts.TIMESTAMP);
+		else if (LONG.equals(type))
+			addParameter(statement, types, t.at("value").asLong(), Concepts.INTEGER);
+		else if (DOUBLE.equals(type))
+			addParameter(statement, types, t.at("value").asString(), Concepts.DOUBLE);
+		else if (STRING.equals(type))
+			addParameter(statement, types, t.at("value").asString(), Concepts.VARCHAR);
+		else
+			throw new IllegalArgumentException("Invalid continuation token value type: " + type);
+	}
+
+	private static void addParameter(Statement statement, List<String> types, Object value, String type)
+	{
+		statement.getParameters().add(value);
+		types.add(type);
+	}
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.sharegov.cirm.CirmTransactionLocal;
+
+/**
+ * Process wide LRU cache of (value table, sql value) to value ID for the CIRM_OWL_DATA_VAL_* tables.
+ *
+ * Values are the sql values as returned by RelationalStoreImpl.getLiteralSqlValue; for CLOBs
+ * only the hash is used as key, as the CLOB table is looked up by VALUE_HASH.
+ *
+ * Values put during a CirmTransaction become visible to other threads after the toplevel
+ * transaction succeeded and are dropped on retry or failure.
+ * The cache is bounded by an estimated memory budget in bytes.
+ */
+public class LiteralValueCache
+{
+	public static final long DEFAULT_MEMORY_BUDGET_BYTES = 8 * 1024 * 1024;
+
+	/**
+	 * Rough per entry overhead of key, map entry and boxed value id.
+	 */
+	private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+	private static final LiteralValueCache instance = new LiteralValueCache(DEFAULT_MEMORY_BUDGET_BYTES);
+
+	public static LiteralValueCache get()
+	{
+		return instance;
+	}
+
+	private static final class Key
+	{
+		final String table;
+		final Object value;
+
+		Key(String table, Object value)
+		{
+			this.table = table;
+			if (value instanceof Map)
+				// CLOB: {hash -> value}
+				this.value = ((Map<?, ?>) value).keySet().iterator().next();
+			else
+				this.value = value;
+		}
+
+		int estimateSize()
+		{
+			if (value instanceof String)
+				return ENTRY_OVERHEAD_BYTES + 2 * ((String) value).length();
+			return ENTRY_OVERHEAD_BYTES;
+		}
+
+		public int hashCode()
+		{
+			return 31 * table.hashCode() + value.hashCode();
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return table.equals(k.table) && value.equals(k.value);
+		}
+	}
+
+	/**
+	 * Access ordered, guarded by itself.
+	 */
+	private final LinkedHashMap<Key, Long> valueIds = new LinkedHashMap<Key, Long>(1024, 0.75f, true);
+	private long estimatedBytes = 0;
+	private volatile long memoryBudgetBytes;
+
+	private final CirmTransactionLocal<Map<Key, Long>> pending = new CirmTransactionLocal<Map<Key, Long>>() {
+		protected Map<Key, Long> initialValue()
+		{
+			return new HashMap<Key, Long>();
+		}
+
+		protected void succeeded(Map<Key, Long> values)
+		{
+			publish(values);
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public LiteralValueCache(long memoryBudgetBytes)
+	{
+		this.memoryBudgetBytes = memoryBudgetBytes;
+	}
+
+	/**
+	 * @param table a data value table, e.g. RelationalStoreImpl.TABLE_DATA_VALUE_STRING
+	 * @param value a sql value
+	 * @return the value ID or null, if not cached.
+	 */
+	public Long getId(String table, Object value)
+	{
+		Key k = new Key(table, value);
+		Long result = null;
+		Map<Key, Long> p = pending.peek();
+		if (p != null)
+			result = p.get(k);
+		if (result == null)
+			synchronized (valueIds)
+			{
+				result = valueIds.get(k);
+			}
+		if (result != null)
+			hits.incrementAndGet();
+		else
+			misses.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Caches value IDs that were read from or inserted into the given table.
+	 * If a transaction is executing, they become visible to other threads after
+	 * the toplevel transaction succeeded.
+	 */
+	public void putAll(String table, Map<Object, Long> valueToId)
+	{
+		if (valueToId.isEmpty())
+			return;
+		Map<Key, Long> keyToId = new HashMap<Key, Long>(valueToId.size() * 2 + 1);
+		for (Map.Entry<Object, Long> entry : valueToId.entrySet())
+			keyToId.put(new Key(table, entry.getKey()), entry.getValue());
+		Map<Key, Long> p = pending.get();
+		if (p == null)
+			publish(keyToId);
+		else
+			p.putAll(keyToId);
+	}
+
+	private void publish(Map<Key, Long> keyToId)
+	{
+		synchronized (valueIds)
+		{
+			for (Map.Entry<Key, Long> entry : keyToId.entrySet())
+			{
+				if (valueIds.put(entry.getKey(), entry.getValue()) == null)
+					estimatedBytes += entry.getKey().estimateSize();
+			}
+			Iterator<Key> eldest = valueIds.keySet().iterator();
+			while (estimatedBytes > memoryBudgetBytes && eldest.hasNext())
+			{
+				estimatedBytes -= eldest.next().estimateSize();
+				eldest.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	public void clear()
+	{
+		synchronized (valueIds)
+		{
+			valueIds.clear();
+			estimatedBytes = 0;
+		}
+	}
+
+	public long getMemoryBudgetBytes()
+	{
+		return memoryBudgetBytes;
+	}
+
+	/**
+	 * Sets the memory budget. A smaller value takes effect on the next put.
+	 */
+	public void setMemoryBudgetBytes(long memoryBudgetBytes)
+	{
+		this.memoryBudgetBytes = memoryBudgetBytes;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	public int getSize()
+	{
+		synchronized (valueIds)
+		{
+			return valueIds.size();
+		}
+	}
+
+	public long getEstimatedBytes()
+	{
+		synchronized (valueIds)
+		{
+			return estimatedBytes;
+		}
+	}
+
+	public Json getStatistics()
+	{
+		return Json.object()
+			.set("hits", getHitCount())
+			.set("misses", getMissCount())
+			.set("evictions", getEvictionCount())
+			.set("size", getSize())
+			.set("estimatedBytes", getEstimatedBytes())
+			.set("memoryBudgetBytes", getMemoryBudgetBytes());
+	}
+}
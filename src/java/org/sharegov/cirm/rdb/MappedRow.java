@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.math.BigDecimal;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One row of a mapped table read into memory, so it can be used after the resultset moved on
+ * or was closed.
+ * Column names are case insensitive; if a resultset contains a column name twice (e.g. SELECT * of a join),
+ * the first column wins, as with ResultSet.getObject(String).
+ */
+public class MappedRow
+{
+	private final Map<String, Object> values;
+
+	private MappedRow(Map<String, Object> values)
+	{
+		this.values = values;
+	}
+
+	/**
+	 * Reads all columns of the current row of the given resultset.
+	 */
+	public static MappedRow read(ResultSet rs) throws SQLException
+	{
+		ResultSetMetaData md = rs.getMetaData();
+		int columnCount = md.getColumnCount();
+		Map<String, Object> values = new HashMap<String, Object>(columnCount * 2 + 1);
+		for (int i = 1; i <= columnCount; i++)
+		{
+			String column = md.getColumnLabel(i).toUpperCase();
+			if (!values.containsKey(column))
+				values.put(column, readValue(rs, i));
+		}
+		return new MappedRow(values);
+	}
+
+	/**
+	 * Reads a column value; CLOBs are read into a String, as the locator becomes invalid
+	 * when the resultset or statement is closed.
+	 */
+	private static Object readValue(ResultSet rs, int column) throws SQLException
+	{
+		Object value = rs.getObject(column);
+		if (value instanceof Clob)
+		{
+			Clob clob = (Clob) value;
+			try
+			{
+				value = clob.getSubString(1, (int) clob.length());
+			}
+			finally
+			{
+				clob.free();
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return the column value, may be null.
+	 * @throws SQLException if the row has no such column.
+	 */
+	public Object getObject(String column) throws SQLException
+	{
+		String key = column.toUpperCase();
+		if (!values.containsKey(key))
+			throw new SQLException("Invalid column name: " + column);
+		return values.get(key);
+	}
+
+	/**
+	 * @return the column value as Long or null, if the column value is null.
+	 */
+	public Long getLong(String column) throws SQLException
+	{
+		Object value = getObject(column);
+		if (value == null)
+			return null;
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		return Long.parseLong(value.toString().trim());
+	}
+
+	/**
+	 * @return the column value as String or null, if the column value is null.
+	 */
+	public String getString(String column) throws SQLException
+	{
+		Object value = getObject(column);
+		if (value == null)
+			return null;
+		if (value instanceof BigDecimal)
+			return ((BigDecimal) value).toPlainString();
+		return value.toString();
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups the mapped statements of all individuals of an ontology into JDBC batches by SQL.
+ *
+ * The statements are given in the order mergeMappedIndividual created them, which already
+ * respects foreign key dependencies (e.g. address, actor, request, activity). A statement joins
+ * the last earlier batch with the same SQL only if it may be executed before all statements in between:
+ * <ul>
+ * <li>none of them refers to a row id the statement refers to (e.g. the row it's foreign key points to),</li>
+ * <li>none of them is a DELETE on the statement's table and, for a DELETE, none of them is on it's table.</li>
+ * </ul>
+ * Otherwise it starts a new batch, so the execution order of dependent statements never changes.
+ * Statements of an unknown table are never moved and nothing is moved across them.
+ */
+class MappedStatementBatches
+{
+	private static class Batch
+	{
+		final String table;
+		final boolean delete;
+		final List<Statement> statements = new ArrayList<Statement>();
+		final Set<Long> ids = new HashSet<Long>();
+
+		Batch(String table, boolean delete)
+		{
+			this.table = table;
+			this.delete = delete;
+		}
+	}
+
+	/**
+	 * @param statementLists the statements of each individual in merge order.
+	 * @return batches in execution order, each batch contains statements with equal SQL.
+	 */
+	static List<List<Statement>> group(Collection<List<Statement>> statementLists)
+	{
+		List<Batch> batches = new ArrayList<Batch>();
+		Map<String, Integer> lastBatchBySql = new HashMap<String, Integer>();
+		for (List<Statement> statements : statementLists)
+		{
+			for (Statement s : statements)
+			{
+				String sql = s.getSql().SQL();
+				String table = table(s.getSql());
+				Set<Long> ids = ids(s);
+				boolean delete = s.getSql() instanceof Sql.Delete;
+				Integer last = lastBatchBySql.get(sql);
+				if (last != null && table != null && canMoveBefore(batches, last + 1, table, delete, ids))
+				{
+					Batch batch = batches.get(last);
+					batch.statements.add(s);
+					batch.ids.addAll(ids);
+				}
+				else
+				{
+					Batch batch = new Batch(table, delete);
+					batch.statements.add(s);
+					batch.ids.addAll(ids);
+					lastBatchBySql.put(sql, batches.size());
+					batches.add(batch);
+				}
+			}
+		}
+		List<List<Statement>> result = new ArrayList<List<Statement>>(batches.size());
+		for (Batch batch : batches)
+			result.add(batch.statements);
+		return result;
+	}
+
+	/**
+	 * @return true, if a statement of the table referring to the ids can be executed before all batches from index from.
+	 */
+	private static boolean canMoveBefore(List<Batch> batches, int from, String table, boolean delete, Set<Long> ids)
+	{
+		for (int i = from; i < batches.size(); i++)
+		{
+			Batch between = batches.get(i);
+			if (between.table == null || ((delete || between.delete) && between.table.equals(table)))
+				return false;
+			for (Long id : ids)
+				if (between.ids.contains(id))
+					return false;
+		}
+		return true;
+	}
+
+	private static String table(Sql sql)
+	{
+		if (sql.tables.isEmpty() || !(sql instanceof Sql.Insert || sql instanceof Sql.Update || sql instanceof Sql.Delete))
+			return null;
+		return sql.tables.get(0).keySet().iterator().next();
+	}
+
+	private static Set<Long> ids(Statement s)
+	{
+		Set<Long> result = new HashSet<Long>();
+		for (Object parameter : s.getParameters())
+			if (parameter instanceof DbId)
+				result.add(((DbId) parameter).getFirst());
+		return result;
+	}
+}
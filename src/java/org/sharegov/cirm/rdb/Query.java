@@ -29,6 +29,7 @@ public class Query
 	private OWLClass rootClass;
 	private Statement statement;
 	private Set<? extends OWLEntity> entities;
+	private Keyset keyset;
 	
 	public OWLClass getRootClass()
 	{
@@ -62,4 +63,15 @@ public class Query
 	{
 		this.entities = entities;
 	}
+	/**
+	 * @return the keyset pagination of this query or null, if not paginated by keyset.
+	 */
+	public Keyset getKeyset()
+	{
+		return keyset;
+	}
+	public void setKeyset(Keyset keyset)
+	{
+		this.keyset = keyset;
+	}
 }
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+/**
+ * Process wide LRU cache of translated query plans keyed by the normalized shape of a search pattern.
+ *
+ * A plan holds the translated select and its parameters, where parameters derived from
+ * literal values of the pattern are slots, so a pattern of the same shape only needs to bind
+ * its values. Shapes that cannot be bound (e.g. values inlined into the SQL) are cached as
+ * uncacheable and always translated.
+ *
+ * Must be cleared when the meta ontology or the relational mapping changes.
+ *
+ * @see QueryTranslator#translate(Json, RelationalStore)
+ */
+public class QueryPlanCache
+{
+	public static final int DEFAULT_MAX_PLANS = 500;
+
+	private static final QueryPlanCache instance = new QueryPlanCache(DEFAULT_MAX_PLANS);
+
+	public static QueryPlanCache get()
+	{
+		return instance;
+	}
+
+	/**
+	 * A parameter bound to argument arg of the literal with the given number.
+	 */
+	static final class Slot
+	{
+		final int literal;
+		final int arg;
+
+		Slot(int literal, int arg)
+		{
+			this.literal = literal;
+			this.arg = arg;
+		}
+	}
+
+	/**
+	 * A translated query, parameters are either values or Slots.
+	 * The select must not be modified; use newSql for a query.
+	 */
+	static final class Plan
+	{
+		final Sql sql;
+		final OWLClass rootClass;
+		final List<Object> parameters;
+		final List<OWLNamedIndividual> types;
+
+		Plan(Sql sql, OWLClass rootClass, List<Object> parameters, List<OWLNamedIndividual> types)
+		{
+			this.sql = sql;
+			this.rootClass = rootClass;
+			this.parameters = parameters;
+			this.types = types;
+		}
+
+		boolean isCacheable()
+		{
+			return sql != null;
+		}
+
+		Sql newSql()
+		{
+			return sql.COPY();
+		}
+	}
+
+	static final Plan UNCACHEABLE = new Plan(null, null,
+			Collections.emptyList(), Collections.<OWLNamedIndividual>emptyList());
+
+	/**
+	 * Access ordered, guarded by itself.
+	 */
+	private final LinkedHashMap<String, Plan> plans;
+	private volatile int maxPlans;
+
+	/**
+	 * Pattern key to true, if the key's values are literals.
+	 */
+	private final Map<String, Boolean> literalKeys = new ConcurrentHashMap<String, Boolean>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong uncacheable = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public QueryPlanCache(int maxPlans)
+	{
+		this.maxPlans = maxPlans;
+		plans = new LinkedHashMap<String, Plan>(64, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest)
+			{
+				if (size() > QueryPlanCache.this.maxPlans)
+				{
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the plan for the shape, UNCACHEABLE or null, if the shape is not cached.
+	 */
+	Plan getPlan(String shape)
+	{
+		Plan result;
+		synchronized (plans)
+		{
+			result = plans.get(shape);
+		}
+		if (result == null)
+			misses.incrementAndGet();
+		else if (result.isCacheable())
+			hits.incrementAndGet();
+		else
+			uncacheable.incrementAndGet();
+		return result;
+	}
+
+	void putPlan(String shape, Plan plan)
+	{
+		synchronized (plans)
+		{
+			plans.put(shape, plan);
+		}
+	}
+
+	/**
+	 * Counts a pattern that could not be normalized, e.g. because of a long value.
+	 */
+	void bypassed()
+	{
+		uncacheable.incrementAndGet();
+	}
+
+	Boolean isLiteralKey(String key)
+	{
+		return literalKeys.get(key);
+	}
+
+	void setLiteralKey(String key, boolean literal)
+	{
+		literalKeys.put(key, literal);
+	}
+
+	public void clear()
+	{
+		synchronized (plans)
+		{
+			plans.clear();
+		}
+		literalKeys.clear();
+	}
+
+	public int getMaxPlans()
+	{
+		return maxPlans;
+	}
+
+	/**
+	 * Sets the maximum number of cached plans. A smaller value takes effect on the next put.
+	 */
+	public void setMaxPlans(int maxPlans)
+	{
+		this.maxPlans = maxPlans;
+	}
+
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	public long getUncacheableCount()
+	{
+		return uncacheable.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @return hits / all translations or 0.
+	 */
+	public double getHitRate()
+	{
+		long h = getHitCount();
+		long all = h + getMissCount() + getUncacheableCount();
+		return all == 0? 0 : (double) h / all;
+	}
+
+	public int getSize()
+	{
+		synchronized (plans)
+		{
+			return plans.size();
+		}
+	}
+
+	public Json getStatistics()
+	{
+		return Json.object()
+			.set("hits", getHitCount())
+			.set("misses", getMissCount())
+			.set("uncacheable", getUncacheableCount())
+			.set("evictions", getEvictionCount())
+			.set("hitRate", getHitRate())
+			.set("size", getSize())
+			.set("maxPlans", getMaxPlans());
+	}
+}
@@ -31,6 +31,9 @@ import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_CLASSIFICATION;
 import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_IRI;
 import static org.sharegov.cirm.utils.GenUtils.pagination;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -75,8 +78,20 @@ public class QueryTranslator
 	 * Triggers output of incoming JSON, resulting SQL and actual parameters.
 	 */
 	public static boolean DBG = false;
+	/**
+	 * Use QueryPlanCache in translate.
+	 */
+	public static boolean USE_PLAN_CACHE = true;
+	/**
+	 * Pattern property for keyset pagination: "" for the first page, afterwards the token
+	 * returned with the previous page.
+	 * @see Keyset
+	 */
+	public static final String CONTINUATION_TOKEN = "continuationToken";
 	public static Pattern FUNCTIONS_PATTERN;
 	public static Pattern OPERATORS_PATTERN;
+	private static final String SLOT_PREFIX = "qtslot";
+	private static final Pattern SLOT_PATTERN = Pattern.compile(SLOT_PREFIX + "(\\d+)x(\\d+)");
 
 	public static final Map<Object, Operation> TRANSLATIONS = new HashMap<Object, Operation>()
 	{
@@ -360,8 +375,257 @@ public class QueryTranslator
 		}
 	}
 	
-	//Both mapping and noMapping query translate 
+	/**
+	 * Translates the pattern using a cached plan for patterns of the same shape, if possible.
+	 * Literal values of data properties are bound to the plan's parameters, all other 
+	 * values (types, IRIs, keywords, paging) are part of the shape.
+	 * If the pattern has a continuation token, the query is paginated by keyset.
+	 */
 	public Query translate(Json pattern, RelationalStore store) 
+	{
+		if (pattern.has(CONTINUATION_TOKEN))
+		{
+			pattern = pattern.dup();
+			Json token = pattern.atDel(CONTINUATION_TOKEN);
+			Query query = translate(pattern, store);
+			Keyset.apply(query, token.isString() ? token.asString() : null);
+			return query;
+		}
+		if (!USE_PLAN_CACHE || pattern.has("boid"))
+			return translateInt(pattern, store);
+		QueryPlanCache cache = QueryPlanCache.get();
+		OWLOntology ont = ontology();
+		StringBuilder shape = new StringBuilder();
+		List<String[]> literals = new ArrayList<String[]>();
+		Map<String, Integer> literalsByPath = new HashMap<String, Integer>();
+		if (!shape(ont, cache, null, pattern, "", shape, literals, literalsByPath))
+		{
+			cache.bypassed();
+			return translateInt(pattern, store);
+		}
+		String key = shape.toString();
+		QueryPlanCache.Plan plan = cache.getPlan(key);
+		if (plan != null)
+		{
+			if (plan.isCacheable())
+				return bind(plan, pattern, literals);
+			else
+				return translateInt(pattern, store);
+		}
+		Json slotted = slotted(null, pattern, "", literals, literalsByPath);
+		Query query = translateInt(pattern, store);
+		cache.putPlan(key, plan(query, slotted, literals, store));
+		return query;
+	}
+
+	/**
+	 * Appends the normalized shape of the value to shape and collects the arguments of 
+	 * all literal values in shape order.
+	 * @return false, if the pattern cannot use a cached plan.
+	 */
+	private boolean shape(OWLOntology ont, QueryPlanCache cache, String key, Json value, String path,
+			StringBuilder shape, List<String[]> literals, Map<String, Integer> literalsByPath)
+	{
+		if (value.isObject())
+		{
+			List<String> keys = new ArrayList<String>(value.asJsonMap().keySet());
+			Collections.sort(keys);
+			shape.append('{');
+			for (String k : keys)
+			{
+				shape.append(k).append(':');
+				if (!shape(ont, cache, k, value.at(k), path + "/" + k, shape, literals, literalsByPath))
+					return false;
+				shape.append(',');
+			}
+			shape.append('}');
+		}
+		else if (value.isArray())
+		{
+			shape.append('[');
+			for (int j = 0; j < value.asJsonList().size(); j++)
+			{
+				if (!shape(ont, cache, key, value.at(j), path + "[" + j + "]", shape, literals, literalsByPath))
+					return false;
+				shape.append(',');
+			}
+			shape.append(']');
+		}
+		else if (key != null && (value.isString() || value.isNumber()) && isLiteralKey(ont, cache, key)
+				&& !(value.isString() && value.asString().equals("*")))
+		{
+			String[] args;
+			if (value.isString())
+			{
+				String s = value.asString();
+				Matcher matcher = FUNCTIONS_PATTERN.matcher(s);
+				if (matcher.matches())
+				{
+					args = matcher.group(2).split(",");
+					shape.append("?").append(matcher.group(1)).append('/').append(args.length);
+				}
+				else
+				{
+					matcher = OPERATORS_PATTERN.matcher(s);
+					if (matcher.matches())
+					{
+						args = new String[] { matcher.group(2) };
+						shape.append("?").append(matcher.group(1));
+					}
+					else
+					{
+						args = new String[] { s };
+						shape.append("?s");
+					}
+				}
+			}
+			else
+			{
+				args = new String[] { value.getValue().toString() };
+				shape.append("?n");
+			}
+			for (String arg : args)
+				if (arg.isEmpty() || arg.length() > RelationalStoreImpl.VALUE_VARCHAR_SIZE)
+					return false;
+			literalsByPath.put(path, literals.size());
+			literals.add(args);
+		}
+		else
+			shape.append(value.toString());
+		return true;
+	}
+
+	private boolean isLiteralKey(OWLOntology ont, QueryPlanCache cache, String key)
+	{
+		Boolean result = cache.isLiteralKey(key);
+		if (result == null)
+		{
+			result = "literal".equals(key) || ont.isDeclared(dataProperty(fullIri(key)), true);
+			cache.setLiteralKey(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a copy of the value, where each literal value is replaced by slot markers
+	 * for it's arguments, keeping functions and operators.
+	 */
+	private Json slotted(String key, Json value, String path, List<String[]> literals, Map<String, Integer> literalsByPath)
+	{
+		if (value.isObject())
+		{
+			Json result = Json.object();
+			for (Map.Entry<String, Json> property : value.asJsonMap().entrySet())
+				result.set(property.getKey(), slotted(property.getKey(), property.getValue(), 
+						path + "/" + property.getKey(), literals, literalsByPath));
+			return result;
+		}
+		else if (value.isArray())
+		{
+			Json result = Json.array();
+			for (int j = 0; j < value.asJsonList().size(); j++)
+				result.add(slotted(key, value.at(j), path + "[" + j + "]", literals, literalsByPath));
+			return result;
+		}
+		Integer literal = literalsByPath.get(path);
+		if (literal == null)
+			return value.dup();
+		String[] args = literals.get(literal);
+		StringBuilder markers = new StringBuilder();
+		for (int arg = 0; arg < args.length; arg++)
+		{
+			if (arg > 0)
+				markers.append(',');
+			markers.append(SLOT_PREFIX).append(literal).append('x').append(arg);
+		}
+		if (value.isString())
+		{
+			Matcher matcher = FUNCTIONS_PATTERN.matcher(value.asString());
+			if (matcher.matches())
+				return Json.make(matcher.group(1) + "(" + markers + ")");
+			matcher = OPERATORS_PATTERN.matcher(value.asString());
+			if (matcher.matches())
+				return Json.make(matcher.group(1) + markers);
+		}
+		return Json.make(markers.toString());
+	}
+
+	/**
+	 * Creates a plan by translating the slotted pattern and comparing the result with the 
+	 * query translated from the original pattern. If both differ in more than the 
+	 * slots, e.g. because a value was inlined into the SQL, the shape is uncacheable.
+	 */
+	private QueryPlanCache.Plan plan(Query query, Json slotted, List<String[]> literals, RelationalStore store)
+	{
+		try
+		{
+			Query slottedQuery = translateInt(slotted, store);
+			Statement statement = query.getStatement();
+			Statement slottedStatement = slottedQuery.getStatement();
+			if (!statement.getSql().SQL().equals(slottedStatement.getSql().SQL())
+					|| !statement.getTypes().equals(slottedStatement.getTypes())
+					|| statement.getParameters().size() != slottedStatement.getParameters().size())
+				return QueryPlanCache.UNCACHEABLE;
+			List<Object> parameters = new ArrayList<Object>();
+			for (int i = 0; i < statement.getParameters().size(); i++)
+			{
+				Object parameter = statement.getParameters().get(i);
+				Object slottedParameter = slottedStatement.getParameters().get(i);
+				Matcher matcher = (slottedParameter instanceof String)? 
+						SLOT_PATTERN.matcher((String) slottedParameter) : null;
+				if (matcher != null && matcher.matches())
+				{
+					QueryPlanCache.Slot slot = new QueryPlanCache.Slot(
+							Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+					if (!bindSlot(slot, literals).equals(parameter))
+						return QueryPlanCache.UNCACHEABLE;
+					parameters.add(slot);
+				}
+				else if (parameter == null ? slottedParameter == null : parameter.equals(slottedParameter))
+					parameters.add(parameter);
+				else
+					return QueryPlanCache.UNCACHEABLE;
+			}
+			return new QueryPlanCache.Plan(slottedStatement.getSql(), query.getRootClass(), 
+					parameters, new ArrayList<OWLNamedIndividual>(statement.getTypes()));
+		}
+		catch (RuntimeException e)
+		{
+			if (DBG) System.out.println("Query plan not cacheable: " + e);
+			return QueryPlanCache.UNCACHEABLE;
+		}
+	}
+
+	private Query bind(QueryPlanCache.Plan plan, Json pattern, List<String[]> literals)
+	{
+		if(pattern.has("caseSensitive"))
+			pattern.atDel("caseSensitive");
+		Statement statement = new Statement();
+		statement.setSql(plan.newSql());
+		for (Object parameter : plan.parameters)
+		{
+			if (parameter instanceof QueryPlanCache.Slot)
+				statement.getParameters().add(bindSlot((QueryPlanCache.Slot) parameter, literals));
+			else
+				statement.getParameters().add(parameter);
+		}
+		statement.getTypes().addAll(plan.types);
+		Query query = new Query();
+		query.setStatement(statement);
+		query.setPattern(pattern);
+		query.setRootClass(plan.rootClass);
+		if (DBG) System.out.println("Result (cached plan): \r\n " + query.getStatement().getSql().SQL());
+		if (DBG) System.out.println("parameters: \r\n " + query.getStatement().getParameters());
+		return query;
+	}
+
+	private String bindSlot(QueryPlanCache.Slot slot, List<String[]> literals)
+	{
+		return toParameterString(true, literals.get(slot.literal)[slot.arg], true);
+	}
+
+	//Both mapping and noMapping query translate 
+	private Query translateInt(Json pattern, RelationalStore store) 
 	{
 		if (DBG) System.out.println("translate \r\n:" + pattern);
 		boolean caseSensitive = true; //Default case sensitive set to true;
@@ -440,6 +704,7 @@ public class QueryTranslator
 		{
 			columnIRI = columnIriPK(table);
 			columns = columnMapping(table);
+			boolean projected = boid == null && SRSearchProjection.USE_FOR_SEARCH && coveredBySRSearchProjection(ont, pattern, table, columns);
 			if(!columnIRI.isEmpty()) 
 			{
 				column = columnIRI.iterator().next().getIRI();
@@ -447,7 +712,7 @@ public class QueryTranslator
 				if(boid != null)
 					select.WHERE(column.getFragment()).EQUALS(boid.getValue().toString());
 			}
-			select.FROM(table.getIRI().getFragment());
+			select.FROM(projected ? SR_SEARCH_PROJECTION_FROM : table.getIRI().getFragment());
 			
 			List<String> owlClassTypeList = new LinkedList<String>();
 			if(type.isArray())
@@ -459,9 +724,13 @@ public class QueryTranslator
 			{
 				owlClassTypeList.add(type.asString());
 			}
+			if(projected)
+			{
+				whereSRSearchProjectionType(select, statement, owlClassTypeList);
+			}
 			//Join on CIRM_CLASSIFICATION table if type is present.
 			//if(!type.asString().equals("legacy:ServiceCase") && column != null) 
-			if(!owlClassTypeList.contains("legacy:ServiceCase") && column != null) 
+			else if(!owlClassTypeList.contains("legacy:ServiceCase") && column != null) 
 			{
 				select.JOIN(TABLE_CLASSIFICATION).ON(TABLE_CLASSIFICATION+".SUBJECT", column.getFragment());
 				if(owlClassTypeList.size() == 1)
@@ -619,6 +888,99 @@ public class QueryTranslator
 		return query;
 	}
 
+	/**
+	 * Mapped columns of CIRM_SR_REQUESTS that are also columns of the SR search projection.
+	 */
+	private static final Set<String> SR_SEARCH_PROJECTION_CRITERIA = new HashSet<String>(
+			Arrays.asList("SR_REQUEST_ID", "SR_STATUS", "CREATED_DATE", "CASE_NUMBER"));
+
+	/**
+	 * The SR search projection aliased as CIRM_SR_REQUESTS: mapped column fragments are qualified by their table
+	 * (e.g. CIRM_SR_REQUESTS.SR_STATUS) and resolve to the projection columns of the same name.
+	 */
+	static final String SR_SEARCH_PROJECTION_FROM = SRSearchProjection.TABLE + " CIRM_SR_REQUESTS";
+
+	/**
+	 * Restricts a query on the SR search projection to the given types. Projection rows carry the current 
+	 * type iri, no join on CIRM_CLASSIFICATION is needed.
+	 */
+	static void whereSRSearchProjectionType(Sql select, Statement statement, List<String> owlClassTypeList)
+	{
+		if(owlClassTypeList.contains("legacy:ServiceCase"))
+			return;
+		if(owlClassTypeList.size() == 1)
+		{
+			select.WHERE("CIRM_SR_REQUESTS.TYPE").EQUALS("?");
+			statement.getParameters().add(fullIri(owlClassTypeList.get(0)).toString());
+			statement.getTypes().add(individual(fullIri(Concepts.VARCHAR)));
+		}
+		else
+		{
+			Set<String> iriSet = new HashSet<String>();
+			for(String owlClassStr : owlClassTypeList)
+				iriSet.add("'" + fullIri(owlClassStr).toString().replace("'", "''") + "'");
+			select.WHERE("CIRM_SR_REQUESTS.TYPE").IN(iriSet.toArray(new String[iriSet.size()]));
+		}
+	}
+
+	/**
+	 * @return the projection column of a mapped CIRM_SR_REQUESTS column without the table prefix 
+	 * or null, if the column is of another table or not in the projection.
+	 */
+	static String srSearchProjectionColumn(OWLNamedIndividual column)
+	{
+		if(column == null)
+			return null;
+		String fragment = column.getIRI().getFragment();
+		if(fragment == null || !fragment.startsWith("CIRM_SR_REQUESTS."))
+			return null;
+		String name = fragment.substring("CIRM_SR_REQUESTS.".length());
+		return SR_SEARCH_PROJECTION_CRITERIA.contains(name) ? name : null;
+	}
+
+	/**
+	 * Determines if a service request pattern can be answered from the SR search projection alone:
+	 * each criterion and sortBy must be a mapped column of CIRM_SR_REQUESTS that the projection carries, 
+	 * besides type and paging keywords. 
+	 */
+	static boolean coveredBySRSearchProjection(OWLOntology ont, Json pattern, OWLNamedIndividual table,
+			Map<OWLProperty<?, ?>, OWLNamedIndividual> columns)
+	{
+		if(!"CIRM_SR_REQUESTS".equals(table.getIRI().getFragment()) || !pattern.has("type"))
+			return false;
+		for(Entry<String,Json> property : pattern.asJsonMap().entrySet())
+		{
+			String key = property.getKey();
+			Json value = property.getValue();
+			if(key.equals("type") || value.isNull())
+				continue;
+			OWLNamedIndividual c = null;
+			if(ont.isDeclared(objectProperty(fullIri(key)), true))
+			{
+				c = columns.get(objectProperty(fullIri(key)));
+				if(value.isObject() && !value.has("iri"))
+					return false;
+			}
+			else if(ont.isDeclared(dataProperty(fullIri(key)), true))
+				c = columns.get(dataProperty(fullIri(key)));
+			else if(ont.containsIndividualInSignature(fullIri(key), true))
+				return false;
+			else if(key.equals("sortBy"))
+			{
+				if(value.asString().equals("boid"))
+					continue;
+				c = columns.get(dataProperty(fullIri(value.asString())));
+				if(c == null)
+					c = columns.get(objectProperty(fullIri(value.asString())));
+			}
+			else if(key.equals("sortDirection") || key.equals("currentPage") || key.equals("itemsPerPage"))
+				continue;
+			if(srSearchProjectionColumn(c) == null)
+				return false;
+		}
+		return true;
+	}
+
 	private void miscQuery(Sql select, Statement statement, 
 			Entry<String,Json> property, Set<OWLNamedIndividual> columnIRI, 
 			Map<OWLProperty<?, ?>, OWLNamedIndividual> columns, Json paginationCriteria, Json paginationJson, 
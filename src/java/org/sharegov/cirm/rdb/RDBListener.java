@@ -25,6 +25,18 @@ public interface RDBListener extends EventListener
 	 */
 	void saveExecuting(RDBEvent e);
 	
+	/**
+	 * An ontology was written to RDB inside a transaction that might fail 
+	 * @param e
+	 */
+	void saveCompleted(RDBEvent e);
+	
+	/**
+	 * An ontology shelve or delete is executing inside a transaction that might fail 
+	 * @param e
+	 */
+	void deleteExecuting(RDBEvent e);
+	
 	/**
 	 * A ontology load from RDB is executing inside a transaction that might fail 
 	 * @param e
@@ -248,6 +248,8 @@ public class RelationalOWLMapper
 		tableColumns = null;
 		// clear the jena inf model
 		jenaInfModel = null;
+		// translated queries depend on the mapping
+		QueryPlanCache.get().clear();
 	}
 	
 	protected boolean isClearedCache() 
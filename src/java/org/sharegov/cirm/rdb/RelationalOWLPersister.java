@@ -20,6 +20,7 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +32,7 @@ import org.hypergraphdb.util.Pair;
 import org.semanticweb.owlapi.model.AddAxiom;
 import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLDataFactory;
 import org.semanticweb.owlapi.model.OWLDataPropertyExpression;
@@ -54,6 +56,10 @@ public class RelationalOWLPersister
 {
 	public static boolean DBG = true;
 	public static boolean DBG_AXIOMS = false;
+	/**
+	 * Save business object ontologies loaded or saved before by writing only changed axioms.
+	 */
+	public static boolean USE_DELTA_SAVE = true;
 
 	private IRI connectionInfo;
 	private volatile RelationalStoreExt store = null;
@@ -62,6 +68,7 @@ public class RelationalOWLPersister
 	private volatile OntologyTransformer transformer = null;
 
 	private final ConcurrentLinkedQueue<RDBListener> rdbListeners = new ConcurrentLinkedQueue<RDBListener>(); 
+	private final BOSnapshots snapshots = new BOSnapshots(BOSnapshots.DEFAULT_MAX_SNAPSHOTS);
 	private DataSourceRef dataSource = null;
 	
 	private void createStore()
@@ -141,6 +148,10 @@ public class RelationalOWLPersister
 		this.connectionInfo = connectionInfo;
 		createStore();
 		transformer = Refs.ontologyTransformer.resolve();
+		if (BOChangeListener.CAPTURE_CHANGES)
+			addRDBListener(new BOChangeListener());
+		if (SRSearchProjection.MAINTAIN)
+			addRDBListener(SRSearchProjection.get());
 	}
 
 	public IRI getConnectionInfo()
@@ -167,6 +178,14 @@ public class RelationalOWLPersister
 	 *            the named indiviual to read.
 	 */
 	public void readIndividualData(final OWLOntology on, final OWLNamedIndividual ind)
+	{
+		readIndividualData(on, ind, false);
+	}
+
+	/**
+	 * @param snapshot true to remember the stored assertions of the ontology for a delta save.
+	 */
+	private void readIndividualData(final OWLOntology on, final OWLNamedIndividual ind, boolean snapshot)
 	{
 		ThreadLocalStopwatch stopwatch = ThreadLocalStopwatch.getWatch();
 		if (DBG)
@@ -180,6 +199,8 @@ public class RelationalOWLPersister
 				return null;
 			}
 		});
+		if (snapshot && USE_DELTA_SAVE)
+			snapshots.put(on, AxiomDelta.assertionAxioms(on));
 		transformer.reverseTransform(on);
 		if (DBG)
 			stopwatch.time("END readIndividualData(" + ind + ")");
@@ -385,7 +406,7 @@ public class RelationalOWLPersister
 					+ ontology.getOntologyID() + ") ");
 		}
 		final OWLOntology optimizedOntology = transformer.transform(ontology);
-		store.txn(new CirmTransaction<Object>()
+		CirmTransaction<Object> save = new CirmTransaction<Object>()
 		{
 			@Override
 			public Object call() throws Exception
@@ -401,11 +422,28 @@ public class RelationalOWLPersister
 					boObj = null;
 				fireRDBSave(ontology);
 				//TODO revmoc
-				getStoreExt().merge(optimizedOntology, boObj);
+				Set<OWLAxiom> snapshot = USE_DELTA_SAVE ? snapshots.get(ontology) : null;
+				if (snapshot != null && boObj != null && boObj.isExisting())
+					getStoreExt().mergeDelta(optimizedOntology, boObj, snapshot);
+				else
+					getStoreExt().merge(optimizedOntology, boObj);
+				if (USE_DELTA_SAVE && boObj != null)
+					snapshots.put(ontology, AxiomDelta.assertionAxioms(optimizedOntology));
+				fireRDBSaveCompleted(ontology);
 				// Commit, rollback, close txn implicit
 				return null;
 			}
-		});
+		};
+		// the saved business object orders and serializes the toplevel transaction
+		if (!ontology.getOntologyID().isAnonymous())
+		{
+			long boid = OWL.parseIDFromBusinessOntologyIRI(ontology.getOntologyID().getOntologyIRI().resolve("#bo"));
+			if (CirmTransaction.isExecutingOnThisThread())
+				store.declareBusinessObjectWrite(boid);
+			else
+				save.addBusinessObjectId(boid);
+		}
+		store.txn(save);
 		if (DBG)
 		{
 			stopwatch.time("END saveBusinessObjectOntology ");
@@ -470,6 +508,62 @@ public class RelationalOWLPersister
 		});
 	}
 
+	/**
+	 * Loads many business object ontologies in one transaction. The graphs of all business 
+	 * objects are read together with set based queries, instead of several queries per 
+	 * business object and individual.
+	 * 
+	 * @param boIDs
+	 *            business object ids; the iteration order determines the result order.
+	 * @return boID to ontology in the iteration order of boIDs. Ids that do not exist or 
+	 *         are not named individuals are omitted.
+	 */
+	public Map<Long, OWLOntology> getBusinessObjectOntologies(final Set<Long> boIDs)
+	{
+		ThreadLocalStopwatch stopwatch = ThreadLocalStopwatch.getWatch();
+		if (DBG)
+			stopwatch.time("START getBusinessObjectOntologies(" + boIDs.size() + ")");
+		final Map<Long, OWLOntology> result = store.txn(new CirmTransaction<Map<Long, OWLOntology>>() {
+			public Map<Long, OWLOntology> call() throws Exception
+			{
+				OWLOntologyManager manager = Refs.tempOntoManager.resolve();
+				Map<Long, OWLEntity> entities = getStoreExt().selectEntitiesByIDs(boIDs, manager.getOWLDataFactory());
+				Map<Long, OWLOntology> ontologies = new LinkedHashMap<Long, OWLOntology>();
+				Map<OWLNamedIndividual, OWLOntology> ontologiesByIndividual = new LinkedHashMap<OWLNamedIndividual, OWLOntology>();
+				for (Long boID : boIDs)
+				{
+					OWLEntity entity = entities.get(boID);
+					if (!(entity instanceof OWLNamedIndividual))
+						continue;
+					IRI boIRI = entity.getIRI();
+					OWLOntology on;
+					synchronized (manager)
+					{
+						IRI ontologyIRI = IRI.create(boIRI.getStart().substring(0,
+								boIRI.getStart().length() - 1));
+						on = manager.getOntology(ontologyIRI);
+						if (on != null)
+							manager.removeOntology(on);
+						on = manager.createOntology(ontologyIRI);
+					}
+					ontologies.put(boID, on);
+					ontologiesByIndividual.put((OWLNamedIndividual) entity, on);
+				}
+				store.readIndividualsDataRecursive(ontologiesByIndividual);
+				return ontologies;
+			}
+		});
+		for (OWLOntology on : result.values())
+		{
+			if (USE_DELTA_SAVE)
+				snapshots.put(on, AxiomDelta.assertionAxioms(on));
+			transformer.reverseTransform(on);
+		}
+		if (DBG)
+			stopwatch.time("END getBusinessObjectOntologies(" + result.size() + ")");
+		return result;
+	}
+
 	/**
 	 * 
 	 * @param boIRI
@@ -492,7 +586,7 @@ public class RelationalOWLPersister
 					manager.removeOntology(on);
 				on = manager.createOntology(ontologyIRI);
 			}
-			readIndividualData(on, OWL.individual(boIRI));
+			readIndividualData(on, OWL.individual(boIRI), true);
 			return on;
 		} catch (Exception ex)
 		{
@@ -503,6 +597,7 @@ public class RelationalOWLPersister
 	// Mark the business object is invalid as of now (today's date)
 	public void shelveBusinessObjectOntology(OWLOntology ontology)
 	{
+		snapshots.remove(ontology.getOntologyID().getOntologyIRI());
 		OWLOntology optimizedOntology = transformer.transform(ontology);
 		Map<OWLEntity, DbId> identifiers; // = new HashMap<OWLEntity, Long>();
 		Set<OWLEntity> entities = new HashSet<OWLEntity>();
@@ -515,6 +610,7 @@ public class RelationalOWLPersister
 		try
 		{
 			identifiers = store.selectIDsAndEntitiesByIRIs(entities);
+			fireRDBDelete(ontology);
 			Set<OWLNamedIndividual> individuals = optimizedOntology.getIndividualsInSignature();
 			getStoreExt().deleteClassification(
 				optimizedOntology.getAxioms(AxiomType.CLASS_ASSERTION),
@@ -547,11 +643,13 @@ public class RelationalOWLPersister
 	 */
 	public void deleteBusinessObjectOntologyWithHistory(OWLOntology ontology)
 	{
+		snapshots.remove(ontology.getOntologyID().getOntologyIRI());
 		OWLOntology optimizedOntology = transformer.transform(ontology);
 		ThreadLocalConnection conn = store.getConnection();
 		try
 		{
 			Map<OWLEntity, Long> identifiers = null; //store.selectIDsAndEntitiesByIRIs(optimizedOntology, false);
+			fireRDBDelete(ontology);
 			// Set<OWLNamedIndividual> individuals =
 			// ontology.getIndividualsInSignature();
 			getStoreExt().deleteClassificationWithHistory(
@@ -656,4 +754,18 @@ public class RelationalOWLPersister
 		for (RDBListener l : rdbListeners)
 			l.saveExecuting(e);
 	}
+
+	private void fireRDBSaveCompleted(OWLOntology ontology)
+	{
+		RDBEvent e = new RDBEvent(ontology.getOntologyID());
+		for (RDBListener l : rdbListeners)
+			l.saveCompleted(e);
+	}
+
+	private void fireRDBDelete(OWLOntology ontology)
+	{
+		RDBEvent e = new RDBEvent(ontology.getOntologyID());
+		for (RDBListener l : rdbListeners)
+			l.deleteExecuting(e);
+	}
 }
@@ -59,8 +59,25 @@ public interface RelationalStore
 	 */
 	Json customSearch(Query query) throws SQLException;
 
+	/**
+	 * Streams the result rows of a custom search to the sink as they are read, 
+	 * each as a Json object containing properties for each column named.
+	 * @param query
+	 * @param sink
+	 * @throws SQLException
+	 */
+	void customSearch(Query query, SearchRowSink sink) throws SQLException;
+
 	Json advancedSearch(Query query) throws SQLException;
 
+	/**
+	 * Streams the result rows of an advanced search to the sink as they are read.
+	 * @param query
+	 * @param sink
+	 * @throws SQLException
+	 */
+	void advancedSearch(Query query, SearchRowSink sink) throws SQLException;
+
 	/**
 	 * Returns a set of boids, ordered as specified in te query.
 	 * 
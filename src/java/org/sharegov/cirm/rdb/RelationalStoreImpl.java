@@ -31,6 +31,7 @@ import static org.sharegov.cirm.rdb.Sql.INSERT_INTO;
 import static org.sharegov.cirm.rdb.Sql.UPDATE;
 import static org.sharegov.cirm.utils.GenUtils.dbg;
 
+import java.io.IOException;
 import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -59,6 +60,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.xml.datatype.DatatypeConfigurationException;
@@ -67,10 +69,12 @@ import javax.xml.datatype.DatatypeFactory;
 import mjson.Json;
 import oracle.net.aso.a;
 
+import org.hypergraphdb.util.Pair;
 import org.semanticweb.owlapi.model.AddAxiom;
 import org.semanticweb.owlapi.model.AxiomType;
 import org.semanticweb.owlapi.model.EntityType;
 import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
 import org.semanticweb.owlapi.model.OWLClass;
 import org.semanticweb.owlapi.model.OWLClassAssertionAxiom;
 import org.semanticweb.owlapi.model.OWLClassExpression;
@@ -93,9 +97,11 @@ import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 import org.semanticweb.owlapi.model.OWLProperty;
 import org.semanticweb.owlapi.model.OWLPropertyAssertionAxiom;
+import org.semanticweb.owlapi.model.OWLPropertyExpression;
 import org.semanticweb.owlapi.vocab.OWL2Datatype;
 import org.sharegov.cirm.CirmTransaction;
 import org.sharegov.cirm.OWL;
+import org.sharegov.cirm.RequestScopeFilter;
 import org.sharegov.cirm.utils.GenUtils;
 import org.sharegov.cirm.utils.ThreadLocalStopwatch;
 
@@ -136,6 +142,25 @@ public class RelationalStoreImpl implements RelationalStore
 	public static boolean DBG_ALL_TRANSACTIONS_LOCK = false;
 	public static boolean DBG_PRE_RETRY_SLEEP = true;
 	public static boolean DBG_NO_CLASSIFICATION = true;
+
+	/**
+	 * Reads the mapped rows and the vertical schema data of an individual's graph 
+	 * level by level before traversing it, instead of several queries per individual 
+	 * and relationship.
+	 */
+	public static boolean USE_GRAPH_PREFETCH = true;
+
+	/**
+	 * Executes the mapped statements of all individuals of a merge as JDBC batches grouped by SQL,
+	 * instead of one statement at a time.
+	 * @see MappedStatementBatches
+	 */
+	public static boolean USE_MAPPED_BATCHES = true;
+
+	/**
+	 * JDBC fetch size for customSearch and advancedSearch resultsets.
+	 */
+	public static int SEARCH_FETCH_SIZE = 500;
 	
 	/**
 	 * Causes the toplevel transaction to retry at least twice each time.
@@ -146,6 +171,13 @@ public class RelationalStoreImpl implements RelationalStore
 
 	public static boolean TXN_CHECK_CONNECTION = true;
 
+	/**
+	 * Serializes toplevel transactions on the same declared business objects in this JVM before execution.
+	 * Read at store creation.
+	 * @see BusinessObjectLockStrategy
+	 */
+	public static boolean USE_BUSINESS_OBJECT_LOCKS = true;
+
 	/**
 	 * Absolute time limit on retries for one transaction independent of the
 	 * number of attempted retries. 
@@ -163,6 +195,13 @@ public class RelationalStoreImpl implements RelationalStore
 
 	private static final boolean USE_SEQUENCE_FOR_IDS = true;
 
+	/**
+	 * Number of CIRM_SEQUENCE values reserved per roundtrip by nextSequenceNumber, 
+	 * if the data source does not define hasSequenceBlockSize.
+	 * Unused values are lost on restart.
+	 */
+	public static final int SEQUENCE_BLOCK_SIZE_DEFAULT = 50;
+
 	// private static final int AVG_WAIT_BEFORE_RETRY_MS = 500;
 
 	public static final int POOL_SIZE_INITIAL = 5;
@@ -180,6 +219,18 @@ public class RelationalStoreImpl implements RelationalStore
 	 */
 	public static int TRANSACTION_ISOLATION_LEVEL = Connection.TRANSACTION_SERIALIZABLE;
 
+	/**
+	 * Isolation level of read only toplevel transactions.
+	 * @see CirmTransaction#setReadOnly(boolean)
+	 */
+	public static int READ_ONLY_TRANSACTION_ISOLATION_LEVEL = Connection.TRANSACTION_READ_COMMITTED;
+
+	/**
+	 * Executes read only toplevel transactions once on a read only connection with READ_ONLY_TRANSACTION_ISOLATION_LEVEL.
+	 * If false, they are executed like all other transactions.
+	 */
+	public static boolean USE_READ_ONLY_TRANSACTIONS = true;
+
 	private static Logger logger = Logger.getLogger("org.sharegov.cirm.rdb");
 
 	public static final String TABLE_IRI = "CIRM_IRI";
@@ -199,8 +250,12 @@ public class RelationalStoreImpl implements RelationalStore
 	public static final String VIEW_DATA_PROPERTY_VALUE = "CIRM_DATA_PROP_VALUE_VIEW";
 	public static final int MAX_VARCHAR_SIZE = 4000;
 	public static final int VALUE_VARCHAR_SIZE = 255;
-	// public static final int MAX_INCLAUSE_SIZE = 1000; // oracle limits sql
+	public static final int MAX_INCLAUSE_SIZE = 1000; // oracle limits sql
 	// in() list to 1000 entries, see ORA-01795, so paging technique used.
+	/**
+	 * Max number of IRIs per IN list in selectIDsAndEntitiesByIRIs.
+	 */
+	public static final int IRI_LOOKUP_PAGE_SIZE = MAX_INCLAUSE_SIZE;
 
 //	private String url;
 //	private String username;
@@ -211,6 +266,17 @@ public class RelationalStoreImpl implements RelationalStore
 	//private volatile DataSource dataSource;
 	
 	private volatile DBLockStrategy lockingStrategy;
+
+	private volatile SequenceBlockAllocator sequenceAllocator;
+
+	private final IRIDictionary iriDictionary = IRIDictionary.get();
+
+	private final LiteralValueCache literalValueCache = LiteralValueCache.get();
+
+	/**
+	 * Rows prefetched for the mapped graph currently read by this thread.
+	 */
+	private final ThreadLocal<GraphPrefetch> graphPrefetch = new ThreadLocal<GraphPrefetch>();
 	
 	private DatatypeFactory xmlDatatypeFactory;
 	// private NumberFormat doubleFormat = NumberFormat.getNumberInstance();
@@ -218,6 +284,9 @@ public class RelationalStoreImpl implements RelationalStore
 	private Map<String, Long> iriTypes = null;
 
 	private int currentLocalID = 1000; // Used if USE_SEQUENCE IS OFF
+
+	private static final AtomicLong iriLookupRoundtrips = new AtomicLong();
+	private static final AtomicLong iriLookupCalls = new AtomicLong();
 	
 	public RelationalStoreImpl()
 	{
@@ -231,7 +300,7 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			throw new RuntimeException("Failed to create xmlDataFactory", e);
 		}
-		lockingStrategy = new SimpleDBLockStrategy();
+		lockingStrategy = USE_BUSINESS_OBJECT_LOCKS ? new BusinessObjectLockStrategy() : new SimpleDBLockStrategy();
 	}
 
 //	public RelationalStoreImpl(String url, String driverClassName, String username,
@@ -296,6 +365,8 @@ public class RelationalStoreImpl implements RelationalStore
 		ThreadLocalConnection conn = ThreadLocalConnection.getThreadLocalConnection();
 		if (conn == null)
 		{
+			boolean readOnly = isReadOnlyTransaction(CirmTransaction.get());
+			int isolationLevel = readOnly ? READ_ONLY_TRANSACTION_ISOLATION_LEVEL : TRANSACTION_ISOLATION_LEVEL;
 			try
 			{
 //				if (dataSource == null)
@@ -319,7 +390,9 @@ public class RelationalStoreImpl implements RelationalStore
 //
 //					}
 //				}
-				Connection toBeWrapped = dataSourceRef.resolve().getConnection();
+				Connection toBeWrapped = readOnly
+						? dataSourceRef.getReadOnlyConnection(RequestScopeFilter.getClient())
+						: dataSourceRef.resolve().getConnection();
 //				if (dataSource instanceof PoolDataSource) 
 //				{
 //					PoolDataSource pds = (PoolDataSource) dataSource;
@@ -335,9 +408,14 @@ public class RelationalStoreImpl implements RelationalStore
 					toBeWrapped.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
 				}
 				// Snapshot Isolation MVCC for Oracle?
-				if (toBeWrapped.getTransactionIsolation() != TRANSACTION_ISOLATION_LEVEL)
+				if (toBeWrapped.getTransactionIsolation() != isolationLevel)
 				{
-					toBeWrapped.setTransactionIsolation(TRANSACTION_ISOLATION_LEVEL);
+					toBeWrapped.setTransactionIsolation(isolationLevel);
+				}
+				// pooled connections keep the mode of their last use
+				if (toBeWrapped.isReadOnly() != readOnly)
+				{
+					toBeWrapped.setReadOnly(readOnly);
 				}
 				if (toBeWrapped.getAutoCommit())
 				{ // TODO THIS COMMITS THE TRANSACTION !!!!! THINK OF THE POOL!
@@ -455,6 +533,67 @@ public class RelationalStoreImpl implements RelationalStore
 	 */
 	//@Override
 	public long nextSequenceNumber()
+	{
+		return getSequenceAllocator().next();
+	}
+
+	/**
+	 * Returns the allocator that hands out CIRM_SEQUENCE ids reserved in blocks.
+	 * The block size is read from the optional data source property hasSequenceBlockSize
+	 * and defaults to SEQUENCE_BLOCK_SIZE_DEFAULT.
+	 */
+	public SequenceBlockAllocator getSequenceAllocator()
+	{
+		if (sequenceAllocator == null)
+			synchronized (this)
+			{
+				if (sequenceAllocator == null)
+				{
+					int blockSize = SEQUENCE_BLOCK_SIZE_DEFAULT;
+					if (dataSourceRef != null)
+						blockSize = dataSourceRef.getDescription().at("hasSequenceBlockSize", SEQUENCE_BLOCK_SIZE_DEFAULT).asInteger();
+					sequenceAllocator = new SequenceBlockAllocator(new SequenceBlockAllocator.BlockSource() {
+						public long[] nextBlock(int count)
+						{
+							return nextSequenceNumbers(count);
+						}
+					}, blockSize);
+				}
+			}
+		return sequenceAllocator;
+	}
+
+	/**
+	 * Fetches count new values from CIRM_SEQUENCE in one roundtrip.
+	 */
+	public long[] nextSequenceNumbers(final int count)
+	{
+		if (count == 1)
+			return new long[] { nextSequenceNumberFromDB() };
+		return txn(new CirmTransaction<long[]>() {
+		public long[] call() 
+		{
+			Connection conn = getConnection();
+			try
+			{
+				long[] nextIds = dataSourceRef.getHook().nextSequenceBlock(conn, SEQUENCE, count);
+				conn.commit();
+				return nextIds;
+			} 
+			catch (SQLException e)
+			{
+				rollback(conn);
+				e.printStackTrace();
+				throw new RuntimeException(e);
+			} 
+			finally
+			{
+				DBU.close(conn, null, null);
+			}			
+		}});
+	}
+
+	private long nextSequenceNumberFromDB()
 	{
 		return txn(new CirmTransaction<Long>() {
 		public Long call() 
@@ -721,29 +860,82 @@ public class RelationalStoreImpl implements RelationalStore
 		return selectIDsAndEntitiesByIRIs(entitiesWithIRIs, conn, false);
 	}
 
+	/**
+	 * Resolves the ids of the given entities by IRI and entity type.
+	 * Entities are grouped by IRI type and looked up page wise using IN lists, 
+	 * so the number of database roundtrips depends on the number of distinct 
+	 * entity types and pages, not on the number of entities.
+	 * 
+	 * @param entitiesWithIRIs
+	 * @param conn
+	 * @param shouldFindAll if true, a message is printed if not all entities were found.
+	 * @return a map containing a DbId for each entity found.
+	 */
 	public Map<OWLEntity, DbId> selectIDsAndEntitiesByIRIs(Set<? extends OWLEntity> entitiesWithIRIs, Connection conn, boolean shouldFindAll)
 	{
 		Map<OWLEntity, DbId> result = new HashMap<OWLEntity, DbId>(entitiesWithIRIs.size() * 2 + 1);
+		if (entitiesWithIRIs.isEmpty())
+			return result;
+		// IRI type id -> (IRI string -> entity)
+		Map<Long, Map<String, OWLEntity>> entitiesByType = new LinkedHashMap<Long, Map<String, OWLEntity>>();
+		for (OWLEntity e : entitiesWithIRIs)
+		{
+			Long cachedId = iriDictionary.getId(e);
+			if (cachedId != null)
+			{
+				result.put(e, new DbId(cachedId, e, true));
+				continue;
+			}
+			Long entityTypeID = selectIDByEntityType(e.getEntityType());
+			Map<String, OWLEntity> entitiesOfType = entitiesByType.get(entityTypeID);
+			if (entitiesOfType == null)
+			{
+				entitiesOfType = new HashMap<String, OWLEntity>();
+				entitiesByType.put(entityTypeID, entitiesOfType);
+			}
+			entitiesOfType.put(e.getIRI().toString(), e);
+		}
 		StringBuilder select = new StringBuilder();
-		select.append("SELECT ID FROM ").append(TABLE_IRI).append(" WHERE ")
-				.append("IRI = ? AND IRI_TYPE_ID = ? ");
 		PreparedStatement pstmt = null;
 		ResultSet rs = null;
 		try
 		{
-			pstmt = conn.prepareStatement(select.toString());
-			for (OWLEntity e : entitiesWithIRIs)
+			for (Map.Entry<Long, Map<String, OWLEntity>> typeEntry : entitiesByType.entrySet())
 			{
-				long entityTypeID = selectIDByEntityType(e.getEntityType());
-				String iriStr = e.getIRI().toString();
-				pstmt.setString(1, iriStr);
-				pstmt.setLong(2, entityTypeID);
-				rs = pstmt.executeQuery();
-				if (rs.next())
+				List<String> iris = new ArrayList<String>(typeEntry.getValue().keySet());
+				// We expect sorting the iris to improve query processing by db.
+				Collections.sort(iris);
+				int pageCount = (iris.size() + IRI_LOOKUP_PAGE_SIZE - 1) / IRI_LOOKUP_PAGE_SIZE;
+				for (int g = 0; g < pageCount; g++)
 				{
-					result.put(e, new DbId(rs.getLong(1), e, true));
+					int from = g * IRI_LOOKUP_PAGE_SIZE;
+					int to = Math.min(from + IRI_LOOKUP_PAGE_SIZE, iris.size());
+					select.delete(0, select.length());
+					select.append("SELECT ID, IRI FROM ").append(TABLE_IRI).append(" WHERE ")
+						.append("IRI_TYPE_ID = ? AND IRI IN (");
+					for (int i = from; i < to; i++)
+						select.append("?,");
+					select.deleteCharAt(select.lastIndexOf(",")).append(")");
+					pstmt = conn.prepareStatement(select.toString());
+					int j = 1;
+					pstmt.setLong(j++, typeEntry.getKey());
+					for (int i = from; i < to; i++)
+						pstmt.setString(j++, iris.get(i));
+					rs = pstmt.executeQuery();
+					iriLookupRoundtrips.incrementAndGet();
+					while (rs.next())
+					{
+						OWLEntity e = typeEntry.getValue().get(rs.getString(2));
+						if (e != null)
+						{
+							result.put(e, new DbId(rs.getLong(1), e, true));
+							iriDictionary.put(e, rs.getLong(1));
+						}
+					}
+					close(rs, pstmt);
+					rs = null;
+					pstmt = null;
 				}
-				rs.close();
 			}
 		} 
 		catch (SQLException e)
@@ -758,11 +950,51 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			close(rs, pstmt);
 		}
+		iriLookupCalls.incrementAndGet();
 		if (shouldFindAll && entitiesWithIRIs.size() != result.size())
 			System.err.println("Not all entities found - missing were " + (entitiesWithIRIs.size() - result.size()) + " of " + entitiesWithIRIs.size());
 		return result;
 	}
 
+	/**
+	 * Number of CIRM_IRI lookup queries executed by selectIDsAndEntitiesByIRIs since start or last reset.
+	 * Compare with getIRILookupCalls to verify that lookups are batched.
+	 */
+	public static long getIRILookupRoundtrips()
+	{
+		return iriLookupRoundtrips.get();
+	}
+
+	/**
+	 * Number of calls to selectIDsAndEntitiesByIRIs since start or last reset.
+	 */
+	public static long getIRILookupCalls()
+	{
+		return iriLookupCalls.get();
+	}
+
+	/**
+	 * @return the process wide IRI/ID cache used by this store.
+	 */
+	public IRIDictionary getIRIDictionary()
+	{
+		return iriDictionary;
+	}
+
+	/**
+	 * @return the process wide literal value ID cache used by this store.
+	 */
+	public LiteralValueCache getLiteralValueCache()
+	{
+		return literalValueCache;
+	}
+
+	public static void resetIRILookupCounters()
+	{
+		iriLookupRoundtrips.set(0);
+		iriLookupCalls.set(0);
+	}
+
 	// /**
 	// * This will find all entities of all types that match the given entities'
 	// IRIs.
@@ -1023,6 +1255,8 @@ public class RelationalStoreImpl implements RelationalStore
 							+ " of :" + batchResult.length + " failed.");
 				}
 			}
+			for (DbId dbId : result.values())
+				iriDictionary.put(dbId.getSecond(), dbId.getFirst());
 			return result;
 		} 
 		catch (SQLException e)
@@ -1101,6 +1335,8 @@ public class RelationalStoreImpl implements RelationalStore
 							+ " of :" + batchResult.length + " failed.");
 				}
 			}
+			for (Map.Entry<OWLEntity, Long> inserted : result.entrySet())
+				iriDictionary.put(inserted.getKey(), inserted.getValue());
 			return result;
 		} catch (SQLException e)
 		{
@@ -1232,7 +1468,8 @@ public class RelationalStoreImpl implements RelationalStore
 				.append(",VALUE_VARCHAR").append(",VALUE_CLOB")
 				.append(",VALUE_DATE").append(",VALUE_DOUBLE")
 				.append(",VALUE_INTEGER").append(",VALUE_VARCHAR_LONG")
-				.append(" FROM ").append("").append(VIEW_DATA_PROPERTY_VALUE)
+				.append(" FROM ").append("").append(version == null ? VIEW_DATA_PROPERTY_VALUE 
+						: HistoryArchiver.tableOrUnion(VIEW_DATA_PROPERTY_VALUE, version) + " V")
 				.append(" WHERE ").append(" SUBJECT =").append("? "); // / ORDER
 																		// BY
 																		// A.PREDICATE;
@@ -1359,7 +1596,7 @@ public class RelationalStoreImpl implements RelationalStore
 		Map<OWLObjectPropertyExpression, Set<OWLIndividual>> result = null;
 		StringBuffer select = new StringBuffer();
 		select.append("SELECT  B.IRI as PREDICATE, C.IRI as OBJECT FROM ")
-				.append(TABLE_OBJECT_PROPERTY).append(" A, ").append(TABLE_IRI)
+				.append(HistoryArchiver.tableOrUnion(TABLE_OBJECT_PROPERTY, version)).append(" A, ").append(TABLE_IRI)
 				.append(" B, ").append(TABLE_IRI).append(" C ")
 				.append(" WHERE ")
 				.append("SUBJECT = ? ")
@@ -1416,7 +1653,7 @@ public class RelationalStoreImpl implements RelationalStore
 		Set<OWLClass> result = null;
 		StringBuffer select = new StringBuffer();
 		select.append("SELECT B.IRI as CLASSIRI ").append("FROM ")
-				.append(TABLE_CLASSIFICATION).append(" A, ").append(TABLE_IRI)
+				.append(HistoryArchiver.tableOrUnion(TABLE_CLASSIFICATION, version)).append(" A, ").append(TABLE_IRI)
 				.append(" B ").append("WHERE ").append("SUBJECT = ? ")
 				.append("AND A.FROM_DATE <= ? ")
 				.append("AND (A.TO_DATE >= ? or A.TO_DATE is null) ")
@@ -1459,7 +1696,7 @@ public class RelationalStoreImpl implements RelationalStore
 	/**
 	 * Searches all 3 tables - CIRM_OWL_DATA_PROPERTY, CIRM_OWL_OBJECT_PROPERTY,
 	 * CIRM_CLASSIFICATION and returns the list of unique FROM_DATEs for a given
-	 * individual.
+	 * individual. Includes archived rows in their history tables.
 	 */
 	public List<Date> selectIndividualHistory(long subject)
 	{
@@ -1471,14 +1708,21 @@ public class RelationalStoreImpl implements RelationalStore
 		select.append("select distinct(FROM_DATE) from CIRM_OWL_DATA_PROPERTY where SUBJECT = ? union "
 				+ "select distinct(FROM_DATE) from CIRM_OWL_OBJECT_PROPERTY where SUBJECT = ? union "
 				+ "select distinct(FROM_DATE) from CIRM_CLASSIFICATION where SUBJECT = ? ");
+		int nrOfSubjectParams = 3;
+		if (HistoryArchiver.readsHistory(null))
+		{
+			select.append("union select distinct(FROM_DATE) from CIRM_OWL_DATA_PROPERTY_HIST where SUBJECT = ? union "
+				+ "select distinct(FROM_DATE) from CIRM_OWL_OBJECT_PROPERTY_HIST where SUBJECT = ? union "
+				+ "select distinct(FROM_DATE) from CIRM_CLASSIFICATION_HIST where SUBJECT = ? ");
+			nrOfSubjectParams = 6;
+		}
 		List<Date> dates = new ArrayList<Date>();
 		try
 		{
 			conn = getConnection();
 			stmt = conn.prepareStatement(select.toString());
-			stmt.setLong(1, subject);
-			stmt.setLong(2, subject);
-			stmt.setLong(3, subject);
+			for (int i = 1; i <= nrOfSubjectParams; i++)
+				stmt.setLong(i, subject);
 			rs = stmt.executeQuery();
 			while (rs.next())
 			{
@@ -1586,6 +1830,7 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			conn = getConnection();
 			stmt = conn.prepareStatement(deleteH.toString());
+			Set<Long> subjectIds = new HashSet<Long>();
 			for (OWLClassAssertionAxiom axiom : axioms)
 			{
 				OWLNamedIndividual subject = axiom.getIndividual()
@@ -1598,8 +1843,11 @@ public class RelationalStoreImpl implements RelationalStore
 									+ identifiers.size());
 				stmt.setLong(1, subjectId);
 				stmt.addBatch();
+				subjectIds.add(subjectId);
 			}
 			stmt.executeBatch();
+			if (HistoryArchiver.ENABLED)
+				HistoryArchiver.deleteHistory(conn, TABLE_CLASSIFICATION, subjectIds);
 			conn.commit();
 		} catch (SQLException e)
 		{
@@ -1668,6 +1916,7 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			conn = getConnection();
 			stmt = conn.prepareStatement(deleteH.toString());
+			Set<Long> subjectIds = new HashSet<Long>();
 			for (OWLDataPropertyAssertionAxiom axiom : axioms)
 			{
 				OWLNamedIndividual subject = axiom.getSubject()
@@ -1682,8 +1931,11 @@ public class RelationalStoreImpl implements RelationalStore
 									+ identifiers.size());
 				stmt.setLong(1, subjectId);
 				stmt.addBatch();
+				subjectIds.add(subjectId);
 			}
 			stmt.executeBatch();
+			if (HistoryArchiver.ENABLED)
+				HistoryArchiver.deleteHistory(conn, TABLE_DATA_PROPERTY, subjectIds);
 			conn.commit();
 		} catch (SQLException e)
 		{
@@ -1756,6 +2008,7 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			conn = getConnection();
 			stmt = conn.prepareStatement(deleteH.toString());
+			Set<Long> subjectIds = new HashSet<Long>();
 			for (OWLObjectPropertyAssertionAxiom axiom : axioms)
 			{
 				OWLNamedIndividual subject = axiom.getSubject()
@@ -1770,8 +2023,11 @@ public class RelationalStoreImpl implements RelationalStore
 									+ identifiers.size());
 				stmt.setLong(1, subjectId);
 				stmt.addBatch();
+				subjectIds.add(subjectId);
 			}
 			stmt.executeBatch();
+			if (HistoryArchiver.ENABLED)
+				HistoryArchiver.deleteHistory(conn, TABLE_OBJECT_PROPERTY, subjectIds);
 			conn.commit();
 		} catch (SQLException e)
 		{
@@ -2100,6 +2356,7 @@ public class RelationalStoreImpl implements RelationalStore
 			stmt.setString(1, iri);
 			stmt.setLong(2, id);
 			stmt.execute();
+			iriDictionary.invalidate(id);
 		} catch (SQLException e)
 		{
 			throw e;
@@ -2349,14 +2606,8 @@ public class RelationalStoreImpl implements RelationalStore
 			// be stores,
 			// as classes for mapped individuals can be derived from table and
 			// county ontology.
-			for (Map.Entry<OWLNamedIndividual, List<Statement>> entry : mergeMappedIndividuals(
-					ontology, identifiers).entrySet())
-			{
-				if (dbg())
-					logger.info("executing Statements for individual:"
-							+ entry.getKey());
-				execute(entry.getValue(), identifiers, conn);
-			}
+			Map<OWLNamedIndividual, List<Statement>> mappedStatements = mergeMappedIndividuals(ontology, identifiers);
+			executeMapped(mappedStatements, identifiers, conn);
 			if (dbg())
 				ThreadLocalStopwatch.getWatch().time("Done mapped statements ");
 			conn.commit();
@@ -2377,6 +2628,158 @@ public class RelationalStoreImpl implements RelationalStore
 		}
 	}
 
+	/**
+	 * Merges only the changes of an ontology since a snapshot of its assertions into DB.
+	 * 
+	 * In the vertical schema, the history of changed not mapped properties is closed per subject and property
+	 * and their current values are inserted; classes are merged per changed subject. In the mapped schema, only
+	 * dirty individuals are merged and hasMany relationships are only deleted and rejoined, if they changed.
+	 * Does nothing, if nothing changed.
+	 * 
+	 * Use this only, if the snapshot reflects the stored state of the ontology, e.g. taken within the 
+	 * transaction that loaded or saved it; otherwise use merge.
+	 * 
+	 * @param ontology a business object ontology in stored (optimized) form.
+	 * @param boObj
+	 * @param snapshot the class, data and object property assertions at load or last save time.
+	 */
+	public void mergeDelta(OWLOntology ontology, DbId boObj, Set<OWLAxiom> snapshot)
+	{
+		AxiomDelta delta = new AxiomDelta(snapshot, ontology);
+		if (dbg())
+		{
+			ThreadLocalStopwatch.getWatch().reset(
+					"Start delta merge ontology "
+							+ ontology.getOntologyID().getOntologyIRI() 
+							+ " changed axioms: " + delta.getChangedAxiomCount()
+							+ " dirty individuals: " + delta.getDirtyIndividuals().size());
+		}
+		if (delta.isEmpty())
+			return;
+		Timestamp time = new Timestamp(getStoreTimeInt().getTime());
+		Map<OWLEntity, DbId> identifiers = selectIDsAndEntitiesByIRIs(ontology, boObj, true);
+		// Properties of removed axioms might no longer be in the signature.
+		Set<OWLEntity> missingProperties = new HashSet<OWLEntity>();
+		Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> dataKeys = new HashSet<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>>();
+		for (Pair<OWLIndividual, OWLPropertyExpression<?, ?>> key : delta.getChangedDataKeys())
+		{
+			OWLNamedIndividual table = RelationalOWLMapper.table(key.getFirst().getTypes(ontology));
+			if (!isMappedDataProperty(table, key.getSecond()))
+				dataKeys.add(key);
+		}
+		Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> objectKeys = new HashSet<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>>();
+		for (Pair<OWLIndividual, OWLPropertyExpression<?, ?>> key : delta.getChangedObjectKeys())
+		{
+			OWLNamedIndividual table = RelationalOWLMapper.table(key.getFirst().getTypes(ontology));
+			if (!isMappedObjectProperty(table, key.getSecond()))
+				objectKeys.add(key);
+		}
+		for (Pair<OWLIndividual, OWLPropertyExpression<?, ?>> key : dataKeys)
+			if (key.getSecond() instanceof OWLEntity && !identifiers.containsKey(key.getSecond()))
+				missingProperties.add((OWLEntity) key.getSecond());
+		for (Pair<OWLIndividual, OWLPropertyExpression<?, ?>> key : objectKeys)
+			if (key.getSecond() instanceof OWLEntity && !identifiers.containsKey(key.getSecond()))
+				missingProperties.add((OWLEntity) key.getSecond());
+		if (!missingProperties.isEmpty())
+			identifiers.putAll(selectInsertIDsAndEntitiesByIRIs(missingProperties, false));
+		Set<OWLNamedIndividual> classChanged = new HashSet<OWLNamedIndividual>();
+		for (OWLIndividual ind : delta.getClassChangedIndividuals())
+			classChanged.add(ind.asOWLNamedIndividual());
+		Set<OWLClassAssertionAxiom> classAxioms = new HashSet<OWLClassAssertionAxiom>();
+		for (OWLClassAssertionAxiom axiom : ontology.getAxioms(AxiomType.CLASS_ASSERTION))
+			if (delta.isClassChanged(axiom.getIndividual()))
+				classAxioms.add(axiom);
+		Set<OWLDataPropertyAssertionAxiom> dataAxioms = getNotMappedDataPropertyAxioms(ontology);
+		Iterator<OWLDataPropertyAssertionAxiom> dataIt = dataAxioms.iterator();
+		while (dataIt.hasNext())
+		{
+			OWLDataPropertyAssertionAxiom axiom = dataIt.next();
+			if (!delta.isDataChanged(axiom.getSubject(), axiom.getProperty()))
+				dataIt.remove();
+		}
+		Set<OWLObjectPropertyAssertionAxiom> objectAxioms = getNotMappedObjectPropertyAxioms(ontology);
+		Iterator<OWLObjectPropertyAssertionAxiom> objectIt = objectAxioms.iterator();
+		while (objectIt.hasNext())
+		{
+			OWLObjectPropertyAssertionAxiom axiom = objectIt.next();
+			if (!delta.isObjectChanged(axiom.getSubject(), axiom.getProperty()))
+				objectIt.remove();
+		}
+		Map<Object, Long> literalValueToIDs = selectLiteralValueIDsFromAxioms(dataAxioms, true);
+		if (dbg())
+			ThreadLocalStopwatch.getWatch().time("Done get IRIs and Literal IDs ");
+		Set<OWLNamedIndividual> noIndividuals = Collections.emptySet();
+		Connection conn = null;
+		try
+		{
+			conn = getConnection();
+			// Vertical schema in the order of merge, updates before inserts.
+			List<List<Statement>> vertical = new ArrayList<List<Statement>>();
+			for (Map.Entry<List<Statement>, List<Statement>> e : mergeClassAssertions(classAxioms, classChanged, identifiers, time).entrySet())
+			{
+				vertical.add(e.getKey());
+				vertical.add(e.getValue());
+			}
+			vertical.add(closeProperties(TABLE_DATA_PROPERTY, dataKeys, identifiers, time));
+			vertical.addAll(mergeDataProperties(dataAxioms, noIndividuals, identifiers, literalValueToIDs, time).values());
+			vertical.add(closeProperties(TABLE_OBJECT_PROPERTY, objectKeys, identifiers, time));
+			vertical.addAll(mergeObjectProperties(objectAxioms, noIndividuals, identifiers, time).values());
+			for (List<Statement> statements : vertical)
+			{
+				if (!statements.isEmpty())
+					executeBatch(statements, identifiers, conn);
+			}
+			if (dbg())
+				ThreadLocalStopwatch.getWatch().time("Done batch statements ");
+			Map<OWLNamedIndividual, List<Statement>> mappedStatements = mergeMappedIndividuals(ontology, identifiers, delta);
+			executeMapped(mappedStatements, identifiers, conn);
+			if (dbg())
+				ThreadLocalStopwatch.getWatch().time("Done mapped statements ");
+			conn.commit();
+		} catch (SQLException e)
+		{
+			rollback(conn);
+			throw new RuntimeException(e);
+		} finally
+		{
+			close(conn);
+			if (dbg())
+			{
+				ThreadLocalStopwatch.getWatch().time(
+						"End delta merge "
+								+ ontology.getOntologyID().getOntologyIRI());
+			}
+		}
+	}
+
+	/**
+	 * Executes the statements of mapped individuals in merge order, batched by SQL if USE_MAPPED_BATCHES.
+	 */
+	private void executeMapped(Map<OWLNamedIndividual, List<Statement>> mappedStatements, 
+			Map<OWLEntity, DbId> identifiers, Connection conn) throws SQLException
+	{
+		if (USE_MAPPED_BATCHES)
+		{
+			for (List<Statement> batch : MappedStatementBatches.group(mappedStatements.values()))
+			{
+				if (batch.size() == 1)
+					execute(batch, identifiers, conn);
+				else
+					executeBatch(batch, identifiers, conn);
+			}
+		}
+		else
+		{
+			for (Map.Entry<OWLNamedIndividual, List<Statement>> entry : mappedStatements.entrySet())
+			{
+				if (dbg())
+					logger.info("executing Statements for individual:"
+							+ entry.getKey());
+				execute(entry.getValue(), identifiers, conn);
+			}
+		}
+	}
+
 	/**
 	 * Merge of all mapped individuals. hilpold this is the only method
 	 * preparing mapped merge.
@@ -2387,14 +2790,24 @@ public class RelationalStoreImpl implements RelationalStore
 	private Map<OWLNamedIndividual, List<Statement>> mergeMappedIndividuals(
 			OWLOntology ontology, Map<OWLEntity, DbId> identifiers)
 	{
+		return mergeMappedIndividuals(ontology, identifiers, null);
+	}
+
+	/**
+	 * Merge of mapped individuals; if a delta is given, only of it's dirty individuals.
+	 */
+	private Map<OWLNamedIndividual, List<Statement>> mergeMappedIndividuals(
+			OWLOntology ontology, Map<OWLEntity, DbId> identifiers, AxiomDelta delta)
+	{
 
 		Map<OWLNamedIndividual, List<Statement>> done = new LinkedHashMap<OWLNamedIndividual, List<Statement>>();
 		for (OWLNamedIndividual curIndividual : ontology.getIndividualsInSignature())
 		{
 			if (!done.containsKey(curIndividual) && 
+			    (delta == null || delta.isDirty(curIndividual)) &&
 			    RelationalOWLMapper.isMapped(curIndividual.getTypes(ontology)))
 			{
-				mergeMappedIndividual(ontology, curIndividual, identifiers, null, done);
+				mergeMappedIndividual(ontology, curIndividual, identifiers, null, done, delta);
 			}
 		}
 		return done;
@@ -2413,6 +2826,55 @@ public class RelationalStoreImpl implements RelationalStore
 	 * Call this within a transaction only.
 	 */
 	void readIndividualDataRecursive(OWLOntology on, OWLNamedIndividual ind)
+	{
+		boolean prefetching = USE_GRAPH_PREFETCH && graphPrefetch.get() == null;
+		if (prefetching)
+			graphPrefetch.set(prefetchGraph(Collections.singleton(ind), 
+					on.getOWLOntologyManager().getOWLDataFactory()));
+		try
+		{
+			readIndividualDataRecursiveInt(on, ind);
+		}
+		finally
+		{
+			if (prefetching)
+				graphPrefetch.remove();
+		}
+	}
+
+	/**
+	 * Reads the data of many individuals, each into its own ontology, the same way as 
+	 * readIndividualDataRecursive. The graphs of all individuals are prefetched together,
+	 * so the number of queries does not grow with the number of individuals.
+	 * 
+	 * Call this within a transaction only.
+	 * 
+	 * @param ontologiesByIndividual root individual to the ontology to add it's axioms to.
+	 */
+	void readIndividualsDataRecursive(Map<OWLNamedIndividual, OWLOntology> ontologiesByIndividual)
+	{
+		if (ontologiesByIndividual.isEmpty())
+			return;
+		boolean prefetching = USE_GRAPH_PREFETCH && graphPrefetch.get() == null;
+		if (prefetching)
+		{
+			OWLOntology first = ontologiesByIndividual.values().iterator().next();
+			graphPrefetch.set(prefetchGraph(ontologiesByIndividual.keySet(), 
+					first.getOWLOntologyManager().getOWLDataFactory()));
+		}
+		try
+		{
+			for (Map.Entry<OWLNamedIndividual, OWLOntology> entry : ontologiesByIndividual.entrySet())
+				readIndividualDataRecursiveInt(entry.getValue(), entry.getKey());
+		}
+		finally
+		{
+			if (prefetching)
+				graphPrefetch.remove();
+		}
+	}
+
+	private void readIndividualDataRecursiveInt(OWLOntology on, OWLNamedIndividual ind)
 	{
 		Set<OWLNamedIndividual> doneNotMapped = new HashSet<OWLNamedIndividual>();
 		Set<OWLNamedIndividual> doneMapped = new HashSet<OWLNamedIndividual>();
@@ -2542,7 +3004,12 @@ public class RelationalStoreImpl implements RelationalStore
 			Map<OWLEntity, DbId> identifiers = selectIDsAndEntitiesByIRIs(Collections.singleton(ind));
 			if (identifiers.isEmpty())
 			    return referencedIndividuals;
-			Map<OWLObjectPropertyExpression, Set<OWLIndividual>> objProps = 
+			GraphPrefetch prefetch = graphPrefetch.get();
+			Long subjectId = identifiers.get(ind).getFirst();
+			if (prefetch != null && !prefetch.containsSubject(subjectId))
+				prefetch = null;
+			Map<OWLObjectPropertyExpression, Set<OWLIndividual>> objProps = (prefetch != null)?
+					prefetch.getObjectProperties(subjectId) :
 			        selectObjectProperties(ind, identifiers, df);
 			for (Map.Entry<OWLObjectPropertyExpression, Set<OWLIndividual>> e : objProps.entrySet())
 			{
@@ -2559,7 +3026,8 @@ public class RelationalStoreImpl implements RelationalStore
 				}
 			}
 
-			Map<OWLDataPropertyExpression, Set<OWLLiteral>> dataProps = 
+			Map<OWLDataPropertyExpression, Set<OWLLiteral>> dataProps = (prefetch != null)?
+					prefetch.getDataProperties(subjectId) :
 			        selectDataProperties(ind, identifiers, df);
 			for (Map.Entry<OWLDataPropertyExpression, Set<OWLLiteral>> e : dataProps
 					.entrySet())
@@ -2570,7 +3038,9 @@ public class RelationalStoreImpl implements RelationalStore
 									propValue)));
 			}
 
-			Set<OWLClass> classes = selectClass(ind, identifiers, df);
+			Set<OWLClass> classes = (prefetch != null)? 
+					prefetch.getClasses(subjectId) : 
+					selectClass(ind, identifiers, df);
 			for (OWLClass c : classes)
 			{
 				changes.add(new AddAxiom(on, 
@@ -2743,64 +3213,26 @@ public class RelationalStoreImpl implements RelationalStore
 	{
 		OWLDataFactory df = onto.getOWLOntologyManager().getOWLDataFactory();
 		Set<OWLNamedIndividual> referencedIndividuals = Collections.emptySet();
-		Connection conn = getConnection();
-		// Determinne foreign key based on PK and otherTable.
-		OWLNamedIndividual primaryKeyColOtherTable;
-		Set<OWLNamedIndividual> primaryKeyCols = RelationalOWLMapper
-				.columnIriPK(otherTable);
-		boolean nonIRIPrimaryKeyColOtherTable = primaryKeyCols == null
-				|| primaryKeyCols.isEmpty();
-		if (!nonIRIPrimaryKeyColOtherTable)
-		{
-			primaryKeyColOtherTable = primaryKeyCols.iterator().next();
-		} else
-		{
-			primaryKeyColOtherTable = null;
-		}
-		OWLNamedIndividual foreignKeyColAJoinTable = RelationalOWLMapper
-				.foreignKeyByjoinColumnAndTable(primaryKeyColumn, joinTable);
-		String foreignKeyColAJoinTableStr = getColumnNameSQL(foreignKeyColAJoinTable);
-		String sql;
-		if (otherTable.equals(joinTable))
-		{
-			// assert joinTable equals otherTable
-			// 1:1 or 1:*
-			// in this case the jointable equals the othertable, therefore we
-			// can use the foreignKeyColAJoinTableStr
-			sql = "SELECT * FROM " + otherTable.getIRI().getFragment()
-					+ " WHERE " + foreignKeyColAJoinTableStr + " = "
-					+ primaryKeyValue;
-		} else
-		{
-			// many to many, not implemented for nonIRIPK yet.
-			String primaryKeyColOtherTableStr = getColumnNameSQL(primaryKeyColOtherTable);
-			OWLNamedIndividual foreignKeyColBJoinTable = RelationalOWLMapper
-					.foreignKeyByjoinColumnAndTable(primaryKeyColOtherTable,
-							joinTable);
-			String foreignKeyColBJoinTableStr = getColumnNameSQL(foreignKeyColBJoinTable);
-			sql = "SELECT * FROM " + joinTable.getIRI().getFragment() + " A, "
-					+ otherTable.getIRI().getFragment() + " B WHERE " + "A."
-					+ foreignKeyColAJoinTableStr + " = " + primaryKeyValue
-					+ " AND A." + foreignKeyColBJoinTableStr + " = B."
-					+ primaryKeyColOtherTableStr;
-		}
-		java.sql.Statement stmt = null;
-		ResultSet rs = null;
+		MappedRelationship relationship = new MappedRelationship(primaryKeyColumn, joinTable, otherTable);
+		List<MappedRow> rows = null;
+		GraphPrefetch prefetch = graphPrefetch.get();
+		if (prefetch != null)
+			rows = prefetch.getRelationshipRows(relationship.getKey(), primaryKeyValue);
+		if (rows == null)
+			rows = selectMappedRelationshipRows(relationship, primaryKeyValue);
 		try
 		{
-			stmt = conn.createStatement();
-			rs = stmt.executeQuery(sql);
 			int anonId = 1;
-			while (rs.next())
+			for (MappedRow row : rows)
 			{
 				// OWLNamedIndividual primaryKeyColumnOther =
 				// RelationalOWLMapper.columnIriPK(otherTable).iterator().next();
 				OWLIndividual otherIndividual;
-				if (!nonIRIPrimaryKeyColOtherTable)
+				if (!relationship.nonIRIPrimaryKeyColOtherTable)
 				{
 					// Named Individual
 					otherIndividual = (OWLNamedIndividual) selectEntityByID(
-							rs.getLong(getColumnNameSQL(primaryKeyColOtherTable)),
+							row.getLong(relationship.primaryKeyColOtherTableStr),
 							df);
 				} else
 				{
@@ -2824,7 +3256,7 @@ public class RelationalStoreImpl implements RelationalStore
 						doneMapped.add((OWLNamedIndividual) otherIndividual);
 					}
 					Set<OWLNamedIndividual> referenced = readMappedIndividualRow(
-							onto, otherIndividual, otherTable, rs);
+							onto, otherIndividual, otherTable, row);
 					if (!referenced.isEmpty())
 					{
 						if (referencedIndividuals.isEmpty())
@@ -2850,9 +3282,38 @@ public class RelationalStoreImpl implements RelationalStore
 				man.addAxiom(onto, factory.getOWLClassAssertionAxiom(
 						otherTableMappedClass, otherIndividual));
 			}
-			conn.commit();
 			return referencedIndividuals;
 		} catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Selects all rows on the right hand side of a 1:1, 1:* or *:*
+	 * relationship for one individual on the left hand side.
+	 * 
+	 * @param relationship
+	 * @param primaryKeyValue
+	 *            of the left hand side individual
+	 * @return the rows in the order returned by the database
+	 */
+	private List<MappedRow> selectMappedRelationshipRows(MappedRelationship relationship, long primaryKeyValue)
+	{
+		Connection conn = getConnection();
+		String sql = relationship.getSql(" = " + primaryKeyValue);
+		List<MappedRow> rows = new ArrayList<MappedRow>();
+		java.sql.Statement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery(sql);
+			while (rs.next())
+				rows.add(MappedRow.read(rs));
+			conn.commit();
+			return rows;
+		} catch (SQLException e)
 		{
 			rollback(conn);
 			throw new RuntimeException(e);
@@ -2864,6 +3325,7 @@ public class RelationalStoreImpl implements RelationalStore
 
 	/**
 	 * Submits a sql statement to read one mapped individual.
+	 * If the row was prefetched by prefetchGraph, no statement is submitted.
 	 * 
 	 * @param onto
 	 * @param individualAndID
@@ -2875,7 +3337,22 @@ public class RelationalStoreImpl implements RelationalStore
 			OWLClass mappedIndividualClass, OWLNamedIndividual table,
 			OWLNamedIndividual primaryKeyColumn)
 	{
-
+		GraphPrefetch prefetch = graphPrefetch.get();
+		if (prefetch != null)
+		{
+			MappedRow row = prefetch.getRow(table.getIRI().getFragment(), primaryKeyValue);
+			if (row != null)
+			{
+				try
+				{
+					return readMappedIndividualRow(onto, mappedIndividual, table, row);
+				}
+				catch (SQLException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		}
 		Connection conn = getConnection();
 		String primaryKeyColumnStr = getColumnNameSQL(primaryKeyColumn);
 		String sql = "SELECT * FROM " + table.getIRI().getFragment()
@@ -2904,80 +3381,506 @@ public class RelationalStoreImpl implements RelationalStore
 			throw new RuntimeException(e);
 		} finally
 		{
-			close(rs, stmt, conn);
+			close(rs, stmt, conn);
+		}
+	}
+
+	/**
+	 * Reads all mapped properties from a given resultset row that represents
+	 * the mappedIndiviual and creates axioms.
+	 * 
+	 * @param rsAtCurRow
+	 *            a resultset with a cursor positioned at the row that
+	 *            represents the mappedIndividual
+	 * @see #readMappedIndividualRow(OWLOntology, OWLIndividual, OWLNamedIndividual, MappedRow)
+	 */
+	public Set<OWLNamedIndividual> readMappedIndividualRow(OWLOntology onto,
+			OWLIndividual mappedIndividual, OWLNamedIndividual table,
+			ResultSet rsAtCurRow) throws SQLException
+	{
+		return readMappedIndividualRow(onto, mappedIndividual, table, MappedRow.read(rsAtCurRow));
+	}
+
+	/**
+	 * Reads all mapped properties from a given row that represents
+	 * the mappedIndiviual and creates axioms.
+	 * 
+	 * @param onto
+	 * @param mappedIndividual
+	 *            may be a named or anonymous individual (anonymous see
+	 *            Cirm_Service_Action)
+	 * @param row
+	 *            a row that represents the mappedIndividual
+	 * @return a set of foreign key values ordered by name of foreign key
+	 *         column. TODO should also return the foreign key values that were
+	 *         read.
+	 */
+	public Set<OWLNamedIndividual> readMappedIndividualRow(OWLOntology onto,
+			OWLIndividual mappedIndividual, OWLNamedIndividual table,
+			MappedRow row) throws SQLException
+	{
+		Set<OWLNamedIndividual> referencedIndividuals = new HashSet<OWLNamedIndividual>();
+		// OWLNamedIndividual table =
+		// RelationalOWLMapper.table(mappedIndividualClass);
+		// Set<OWLNamedIndividual> columnIRIPKs =
+		// RelationalOWLMapper.columnIriPK(table);
+		Map<OWLProperty<?, ?>, OWLNamedIndividual> propertyToColumn = RelationalOWLMapper
+				.columnMapping(table);
+		Set<Map<OWLObjectProperty, OWLNamedIndividual>> hasOnePropertyToFKColumn = RelationalOWLMapper
+				.hasOneByTable(table);
+		// Set<OWLNamedIndividual> columnPKs =
+		// RelationalOWLMapper.columnPK(table);
+		// READ mapped properties for the individual
+		for (Map.Entry<OWLProperty<?, ?>, OWLNamedIndividual> mappedProperty : propertyToColumn
+				.entrySet())
+		{
+			// String columnSQLName = getColumnNameSQL();
+            //System.out.println("Reading " + mappedProperty.getKey());
+			OWLNamedIndividual referenced = readOWLPropertyFromMappedColumn(
+					onto, mappedIndividual, mappedProperty.getKey(),
+					mappedProperty.getValue(), false, row);
+			if (referenced != null)
+			{
+				referencedIndividuals.add(referenced);
+			}
+		}
+		// Read FK values, create axioms and recursively load referred
+		// individuals
+		// 1:1
+		if (hasOnePropertyToFKColumn != null)
+		{
+			for (Map<OWLObjectProperty, OWLNamedIndividual> hasOneMap : hasOnePropertyToFKColumn)
+			{
+				// Assuming Singletons
+				Map.Entry<OWLObjectProperty, OWLNamedIndividual> hasOneEntry = hasOneMap
+						.entrySet().iterator().next();
+				OWLNamedIndividual referenced = readOWLPropertyFromMappedColumn(
+						onto, mappedIndividual, hasOneEntry.getKey(),
+						hasOneEntry.getValue(), true, row);
+				if (referenced != null)
+				{
+					referencedIndividuals.add(referenced);
+				}
+			}
+		}
+		return referencedIndividuals;
+	}
+
+	/**
+	 * Reads the rows of all mapped individuals and the vertical schema data of all 
+	 * individuals reachable from the given individuals level by level: per level 
+	 * one query per mapped table, one query per relationship of that table, 
+	 * three queries for object properties, data properties and classes (IN lists), 
+	 * plus one IRI lookup for the referenced ids. The result is used by
+	 * readIndividualDataMappedRecursive and readIndividualDataNotMapped instead 
+	 * of querying per individual and relationship.
+	 * 
+	 * Call this within a transaction only.
+	 * 
+	 * @param roots
+	 * @param df
+	 * @return the prefetched rows.
+	 */
+	public GraphPrefetch prefetchGraph(Set<OWLNamedIndividual> roots, OWLDataFactory df)
+	{
+		GraphPrefetch prefetch = new GraphPrefetch();
+		Set<OWLNamedIndividual> visited = new HashSet<OWLNamedIndividual>();
+		Set<OWLNamedIndividual> level = new HashSet<OWLNamedIndividual>(roots);
+		while (!level.isEmpty())
+		{
+			prefetch.levelRead();
+			visited.addAll(level);
+			Map<OWLEntity, DbId> identifiers = selectIDsAndEntitiesByIRIs(level);
+			// ids of individuals in this level -> vertical schema
+			Set<Long> subjectIds = new HashSet<Long>();
+			// table -> primary key values of individuals in this level
+			Map<OWLNamedIndividual, Set<Long>> primaryKeysByTable = new LinkedHashMap<OWLNamedIndividual, Set<Long>>();
+			for (OWLNamedIndividual ind : level)
+			{
+				DbId id = identifiers.get(ind);
+				if (id == null)
+					continue;
+				if (!prefetch.containsSubject(id.getFirst()))
+					subjectIds.add(id.getFirst());
+				OWLClass classFromIRI = findClassInLoadedOntologiesFor(ind);
+				if (classFromIRI == null || !RelationalOWLMapper.isMapped(classFromIRI))
+					continue;
+				OWLNamedIndividual table = RelationalOWLMapper.table(classFromIRI);
+				if (prefetch.containsRow(table.getIRI().getFragment(), id.getFirst()))
+					continue;
+				Set<Long> primaryKeys = primaryKeysByTable.get(table);
+				if (primaryKeys == null)
+				{
+					primaryKeys = new HashSet<Long>();
+					primaryKeysByTable.put(table, primaryKeys);
+				}
+				primaryKeys.add(id.getFirst());
+			}
+			// ids referenced by fk or object property columns -> next level
+			Set<Long> referencedIds = new HashSet<Long>();
+			// ids of named individuals on the right hand side of relationships
+			Set<Long> relatedIds = new HashSet<Long>();
+			for (Map.Entry<OWLNamedIndividual, Set<Long>> tableEntry : primaryKeysByTable.entrySet())
+			{
+				OWLNamedIndividual table = tableEntry.getKey();
+				OWLNamedIndividual primaryKeyColumn = RelationalOWLMapper.columnIriPK(table).iterator().next();
+				prefetchMappedRows(prefetch, table, primaryKeyColumn, tableEntry.getValue(), referencedIds);
+				for (MappedRelationship relationship : getMappedRelationships(table, primaryKeyColumn))
+					prefetchMappedRelationshipRows(prefetch, relationship, tableEntry.getValue(), referencedIds, relatedIds);
+			}
+			Set<OWLNamedIndividual> objects = prefetchVerticalData(prefetch, subjectIds, df);
+			relatedIds.addAll(referencedIds);
+			// Resolves and caches all ids for the traversal
+			Map<Long, OWLEntity> entities = selectEntitiesByIDs(relatedIds, df);
+			level = new HashSet<OWLNamedIndividual>();
+			for (Long relatedId : relatedIds)
+			{
+				OWLEntity e = entities.get(relatedId);
+				if (e instanceof OWLNamedIndividual && !visited.contains(e))
+					level.add((OWLNamedIndividual) e);
+			}
+			for (OWLNamedIndividual object : objects)
+				if (!visited.contains(object))
+					level.add(object);
+		}
+		if (dbg())
+			ThreadLocalStopwatch.getWatch().time("prefetchGraph levels: " + prefetch.getLevelCount() 
+					+ " queries: " + prefetch.getQueryCount());
+		return prefetch;
+	}
+
+	/**
+	 * Reads the rows of the given table by primary key values and collects
+	 * the ids referenced by them.
+	 */
+	private void prefetchMappedRows(GraphPrefetch prefetch, 
+	                                OWLNamedIndividual table,
+	                                OWLNamedIndividual primaryKeyColumn, 
+	                                Set<Long> primaryKeyValues, 
+	                                Set<Long> referencedIds)
+	{
+		String tableStr = table.getIRI().getFragment();
+		String primaryKeyColumnStr = getColumnNameSQL(primaryKeyColumn);
+		String sql = "SELECT * FROM " + tableStr + " WHERE " + primaryKeyColumnStr + " IN ";
+		for (MappedRow row : selectMappedRowsByKeys(prefetch, sql, primaryKeyValues))
+		{
+			try
+			{
+				prefetch.putRow(tableStr, row.getLong(primaryKeyColumnStr), row);
+				collectReferencedIds(table, row, referencedIds);
+			}
+			catch (SQLException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the rows of the right hand side of the relationship for all
+	 * given left hand side primary key values and collects the ids referenced
+	 * by them.
+	 */
+	private void prefetchMappedRelationshipRows(GraphPrefetch prefetch, 
+	                                            MappedRelationship relationship,
+	                                            Set<Long> primaryKeyValues,
+	                                            Set<Long> referencedIds,
+	                                            Set<Long> relatedIds)
+	{
+		String key = relationship.getKey();
+		prefetch.putRelationshipParents(key, primaryKeyValues);
+		for (MappedRow row : selectMappedRowsByKeys(prefetch, relationship.getSql(" IN "), primaryKeyValues))
+		{
+			try
+			{
+				prefetch.addRelationshipRow(key, row.getLong(relationship.foreignKeyColAJoinTableStr), row);
+				if (!relationship.nonIRIPrimaryKeyColOtherTable)
+					relatedIds.add(row.getLong(relationship.primaryKeyColOtherTableStr));
+				collectReferencedIds(relationship.otherTable, row, referencedIds);
+			}
+			catch (SQLException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads the current object properties, data properties and classes of the 
+	 * given subjects from the vertical schema.
+	 * 
+	 * @return the individuals referenced by object properties.
+	 */
+	private Set<OWLNamedIndividual> prefetchVerticalData(final GraphPrefetch prefetch,
+	                                                     Set<Long> subjectIds, 
+	                                                     final OWLDataFactory df)
+	{
+		final Set<OWLNamedIndividual> objects = new HashSet<OWLNamedIndividual>();
+		if (subjectIds.isEmpty())
+			return objects;
+		prefetch.putSubjects(subjectIds);
+		String objectPropertySql = "SELECT A.SUBJECT, A.OBJECT, B.IRI as PREDICATE, C.IRI as OBJECT_IRI FROM "
+				+ TABLE_OBJECT_PROPERTY + " A," + TABLE_IRI + " B," + TABLE_IRI + " C"
+				+ " WHERE A.PREDICATE = B.ID AND A.OBJECT = C.ID AND A.TO_DATE IS NULL AND A.SUBJECT IN ";
+		selectByKeys(prefetch, objectPropertySql, subjectIds, new ResultSetRowHandler() {
+			public void handle(ResultSet rs) throws SQLException
+			{
+				OWLObjectProperty predicate = df.getOWLObjectProperty(IRI.create(rs.getString("PREDICATE")));
+				OWLNamedIndividual object = df.getOWLNamedIndividual(IRI.create(rs.getString("OBJECT_IRI")));
+				iriDictionary.put(object, rs.getLong("OBJECT"));
+				prefetch.addObjectProperty(rs.getLong("SUBJECT"), predicate, object);
+				objects.add(object);
+			}
+		});
+		String dataPropertySql = "SELECT SUBJECT, PREDICATE_IRI, DATATYPE_IRI"
+				+ ",VALUE_VARCHAR,VALUE_CLOB,VALUE_DATE,VALUE_DOUBLE,VALUE_INTEGER,VALUE_VARCHAR_LONG"
+				+ " FROM " + VIEW_DATA_PROPERTY_VALUE + " WHERE TO_DATE is null AND SUBJECT IN ";
+		selectByKeys(prefetch, dataPropertySql, subjectIds, new ResultSetRowHandler() {
+			public void handle(ResultSet rs) throws SQLException
+			{
+				OWLDataProperty predicate = df.getOWLDataProperty(IRI.create(rs.getString("PREDICATE_IRI")));
+				OWL2Datatype datatype = OWL2Datatype.getDatatype(IRI.create(rs.getString("DATATYPE_IRI")));
+				prefetch.addDataProperty(rs.getLong("SUBJECT"), predicate, literal(df, rs, datatype));
+			}
+		});
+		String classSql = "SELECT A.SUBJECT, B.IRI as CLASSIRI FROM "
+				+ TABLE_CLASSIFICATION + " A," + TABLE_IRI + " B"
+				+ " WHERE A.OWLCLASS = B.ID AND A.TO_DATE IS NULL AND A.SUBJECT IN ";
+		selectByKeys(prefetch, classSql, subjectIds, new ResultSetRowHandler() {
+			public void handle(ResultSet rs) throws SQLException
+			{
+				prefetch.addClass(rs.getLong("SUBJECT"), df.getOWLClass(IRI.create(rs.getString("CLASSIRI"))));
+			}
+		});
+		return objects;
+	}
+
+	/**
+	 * Handles the current row of a resultset.
+	 */
+	private interface ResultSetRowHandler
+	{
+		void handle(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Executes the given sql, which must end with " IN ", page wise for the 
+	 * given key values.
+	 */
+	private List<MappedRow> selectMappedRowsByKeys(GraphPrefetch prefetch, String sqlEndingWithIn, Set<Long> keyValues)
+	{
+		final List<MappedRow> rows = new ArrayList<MappedRow>();
+		selectByKeys(prefetch, sqlEndingWithIn, keyValues, new ResultSetRowHandler() {
+			public void handle(ResultSet rs) throws SQLException
+			{
+				rows.add(MappedRow.read(rs));
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Executes the given sql, which must end with " IN ", page wise for the 
+	 * given key values and hands each row to the handler.
+	 */
+	private void selectByKeys(GraphPrefetch prefetch, String sqlEndingWithIn, Set<Long> keyValues, ResultSetRowHandler handler)
+	{
+		if (keyValues.isEmpty())
+			return;
+		List<Long> keys = new ArrayList<Long>(keyValues);
+		Collections.sort(keys);
+		Connection conn = getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		StringBuilder sql = new StringBuilder();
+		try
+		{
+			for (int from = 0; from < keys.size(); from += MAX_INCLAUSE_SIZE)
+			{
+				int to = Math.min(from + MAX_INCLAUSE_SIZE, keys.size());
+				sql.delete(0, sql.length());
+				sql.append(sqlEndingWithIn).append("(");
+				for (int i = from; i < to; i++)
+					sql.append("?,");
+				sql.deleteCharAt(sql.lastIndexOf(",")).append(")");
+				stmt = conn.prepareStatement(sql.toString());
+				int j = 1;
+				for (int i = from; i < to; i++)
+					stmt.setLong(j++, keys.get(i));
+				rs = stmt.executeQuery();
+				prefetch.queryExecuted();
+				while (rs.next())
+					handler.handle(rs);
+				close(rs, stmt);
+				rs = null;
+				stmt = null;
+			}
+			conn.commit();
+		} catch (SQLException e)
+		{
+			rollback(conn);
+			throw new RuntimeException(e);
+		} finally
+		{
+			close(rs, stmt, conn);
+		}
+	}
+
+	/**
+	 * Collects the ids a row of the given table refers to the same way
+	 * readMappedIndividualRow resolves them: hasOne foreign key columns and
+	 * object property columns holding an id.
+	 */
+	@SuppressWarnings("rawtypes")
+	private void collectReferencedIds(OWLNamedIndividual table, MappedRow row, Set<Long> referencedIds) throws SQLException
+	{
+		for (Map.Entry<OWLProperty<?, ?>, OWLNamedIndividual> mappedProperty : RelationalOWLMapper.columnMapping(table).entrySet())
+		{
+			OWLProperty property = mappedProperty.getKey();
+			if (!(property instanceof OWLObjectProperty) 
+					|| RelationalOWLMapper.isStoreFragment((OWLObjectProperty) property))
+				continue;
+			String value = row.getString(getColumnNameSQL(mappedProperty.getValue()));
+			if (value != null && value.length() > 0 
+					&& Character.isDigit(value.charAt(value.length() - 1)))
+			{
+				try
+				{
+					referencedIds.add(Long.parseLong(value));
+				} catch (NumberFormatException e)
+				{
+					// an IRI, not an id
+				}
+			}
+		}
+		Set<Map<OWLObjectProperty, OWLNamedIndividual>> hasOnePropertyToFKColumn = RelationalOWLMapper.hasOneByTable(table);
+		if (hasOnePropertyToFKColumn != null)
+		{
+			for (Map<OWLObjectProperty, OWLNamedIndividual> hasOneMap : hasOnePropertyToFKColumn)
+			{
+				Long value = row.getLong(getColumnNameSQL(hasOneMap.values().iterator().next()));
+				if (value != null)
+					referencedIds.add(value);
+			}
+		}
+	}
+
+	/**
+	 * Finds all relationships, which readIndividualDataMapped traverses for
+	 * an individual of the given table.
+	 */
+	private Set<MappedRelationship> getMappedRelationships(OWLNamedIndividual indTable, OWLNamedIndividual primaryKeyColumn)
+	{
+		Map<String, MappedRelationship> result = new LinkedHashMap<String, MappedRelationship>();
+		Set<Map<OWLNamedIndividual, OWLNamedIndividual>> joinTableToOtherTableMaps = RelationalOWLMapper
+				.joinsByTable(indTable);
+		if (joinTableToOtherTableMaps == null)
+			return Collections.emptySet();
+		for (Map<OWLNamedIndividual, OWLNamedIndividual> joinTableToOtherTable : joinTableToOtherTableMaps)
+		{
+			Map.Entry<OWLNamedIndividual, OWLNamedIndividual> joinTableToOtherTableEntry = joinTableToOtherTable
+					.entrySet().iterator().next();
+			OWLNamedIndividual joinTable = joinTableToOtherTableEntry.getKey();
+			OWLNamedIndividual otherTable = joinTableToOtherTableEntry.getValue();
+			for (OWLClass otherTableMappedClass : RelationalOWLMapper.classesByTable(otherTable))
+			{
+				Map<OWLObjectProperty, OWLClass> propertyAndDomain = RelationalOWLMapper
+						.hasManyByRange(otherTableMappedClass);
+				if (propertyAndDomain == null || propertyAndDomain.size() != 1)
+					continue;
+				Map.Entry<OWLObjectProperty, OWLClass> entry = propertyAndDomain.entrySet().iterator().next();
+				if (entry.getKey() != null && indTable.equals(RelationalOWLMapper.table(entry.getValue())))
+				{
+					MappedRelationship relationship = new MappedRelationship(primaryKeyColumn, joinTable, otherTable);
+					result.put(relationship.getKey(), relationship);
+				}
+			}
 		}
+		return new LinkedHashSet<MappedRelationship>(result.values());
 	}
 
 	/**
-	 * Reads all mapped properties from a given resultset row that represents
-	 * the mappedIndiviual and creates axioms.
-	 * 
-	 * @param onto
-	 * @param individualAndID
-	 *            the individual to read. Guaranteed to be convertible to ID.
-	 * @param mappedIndividual
-	 *            may be a named or anonymous individual (anonymous see
-	 *            Cirm_Service_Action)
-	 * @param rsAtCurRow
-	 *            a resultset with a cursor positioned at the row that
-	 *            represents the mappedIndividual
-	 * @return a set of foreign key values ordered by name of foreign key
-	 *         column. TODO should also return the foreign key values that were
-	 *         read.
+	 * The sql side of a 1:1, 1:* or *:* relationship from the table of a 
+	 * mapped individual (left hand side) to another table.
 	 */
-	public Set<OWLNamedIndividual> readMappedIndividualRow(OWLOntology onto,
-			OWLIndividual mappedIndividual, OWLNamedIndividual table,
-			ResultSet rsAtCurRow) throws SQLException
+	private class MappedRelationship
 	{
-		Set<OWLNamedIndividual> referencedIndividuals = new HashSet<OWLNamedIndividual>();
-		// OWLNamedIndividual table =
-		// RelationalOWLMapper.table(mappedIndividualClass);
-		// Set<OWLNamedIndividual> columnIRIPKs =
-		// RelationalOWLMapper.columnIriPK(table);
-		Map<OWLProperty<?, ?>, OWLNamedIndividual> propertyToColumn = RelationalOWLMapper
-				.columnMapping(table);
-		Set<Map<OWLObjectProperty, OWLNamedIndividual>> hasOnePropertyToFKColumn = RelationalOWLMapper
-				.hasOneByTable(table);
-		// Set<OWLNamedIndividual> columnPKs =
-		// RelationalOWLMapper.columnPK(table);
-		// READ mapped properties for the individual
-		for (Map.Entry<OWLProperty<?, ?>, OWLNamedIndividual> mappedProperty : propertyToColumn
-				.entrySet())
-		{
-			// String columnSQLName = getColumnNameSQL();
-            //System.out.println("Reading " + mappedProperty.getKey());
-			OWLNamedIndividual referenced = readOWLPropertyFromMappedColumn(
-					onto, mappedIndividual, mappedProperty.getKey(),
-					mappedProperty.getValue(), false, rsAtCurRow);
-			if (referenced != null)
+		final OWLNamedIndividual joinTable;
+		final OWLNamedIndividual otherTable;
+		final boolean nonIRIPrimaryKeyColOtherTable;
+		final String primaryKeyColOtherTableStr;
+		final String foreignKeyColAJoinTableStr;
+		final String foreignKeyColBJoinTableStr;
+
+		/**
+		 * @param primaryKeyColumn
+		 *            of the left hand side table
+		 * @param joinTable
+		 *            the jointable in a many to many relationship or equal to
+		 *            othertable in 1:1, 1:*, never null
+		 * @param otherTable
+		 *            the right hand side table of the relationship, never null
+		 */
+		MappedRelationship(OWLNamedIndividual primaryKeyColumn, OWLNamedIndividual joinTable, OWLNamedIndividual otherTable)
+		{
+			this.joinTable = joinTable;
+			this.otherTable = otherTable;
+			Set<OWLNamedIndividual> primaryKeyCols = RelationalOWLMapper.columnIriPK(otherTable);
+			nonIRIPrimaryKeyColOtherTable = primaryKeyCols == null || primaryKeyCols.isEmpty();
+			OWLNamedIndividual primaryKeyColOtherTable = nonIRIPrimaryKeyColOtherTable ? null : primaryKeyCols.iterator().next();
+			primaryKeyColOtherTableStr = nonIRIPrimaryKeyColOtherTable ? null : getColumnNameSQL(primaryKeyColOtherTable);
+			foreignKeyColAJoinTableStr = getColumnNameSQL(RelationalOWLMapper
+					.foreignKeyByjoinColumnAndTable(primaryKeyColumn, joinTable));
+			if (isManyToMany())
+			{
+				// many to many, not implemented for nonIRIPK yet.
+				foreignKeyColBJoinTableStr = getColumnNameSQL(RelationalOWLMapper
+						.foreignKeyByjoinColumnAndTable(primaryKeyColOtherTable, joinTable));
+			} 
+			else
 			{
-				referencedIndividuals.add(referenced);
+				foreignKeyColBJoinTableStr = null;
 			}
 		}
-		// Read FK values, create axioms and recursively load referred
-		// individuals
-		// 1:1
-		if (hasOnePropertyToFKColumn != null)
+
+		boolean isManyToMany()
 		{
-			for (Map<OWLObjectProperty, OWLNamedIndividual> hasOneMap : hasOnePropertyToFKColumn)
+			return !otherTable.equals(joinTable);
+		}
+
+		String getKey()
+		{
+			return joinTable.getIRI().getFragment() + "/" + otherTable.getIRI().getFragment() 
+					+ "/" + foreignKeyColAJoinTableStr;
+		}
+
+		/**
+		 * @param foreignKeyCondition
+		 *            appended to the left hand side foreign key column, e.g. " = 123"
+		 */
+		String getSql(String foreignKeyCondition)
+		{
+			if (!isManyToMany())
 			{
-				// Assuming Singletons
-				Map.Entry<OWLObjectProperty, OWLNamedIndividual> hasOneEntry = hasOneMap
-						.entrySet().iterator().next();
-				OWLNamedIndividual referenced = readOWLPropertyFromMappedColumn(
-						onto, mappedIndividual, hasOneEntry.getKey(),
-						hasOneEntry.getValue(), true, rsAtCurRow);
-				if (referenced != null)
-				{
-					referencedIndividuals.add(referenced);
-				}
+				// 1:1 or 1:*
+				// in this case the jointable equals the othertable, therefore we
+				// can use the foreignKeyColAJoinTableStr
+				return "SELECT * FROM " + otherTable.getIRI().getFragment()
+						+ " WHERE " + foreignKeyColAJoinTableStr + foreignKeyCondition;
+			} 
+			else
+			{
+				return "SELECT * FROM " + joinTable.getIRI().getFragment() + " A, "
+						+ otherTable.getIRI().getFragment() + " B WHERE " + "A."
+						+ foreignKeyColAJoinTableStr + foreignKeyCondition
+						+ " AND A." + foreignKeyColBJoinTableStr + " = B."
+						+ primaryKeyColOtherTableStr;
 			}
 		}
-		return referencedIndividuals;
 	}
 
 	/**
-	 * Reads a Data- or ObjectProperty from the Resultset and adds one axiom to
+	 * Reads a Data- or ObjectProperty from the row and adds one axiom to
 	 * the given ontology.
 	 * 
 	 * @return null or an individual that was referenced by an object property
@@ -2987,7 +3890,7 @@ public class RelationalStoreImpl implements RelationalStore
 	private OWLNamedIndividual readOWLPropertyFromMappedColumn(
 			OWLOntology onto, OWLIndividual mappedIndividual,
 			OWLProperty property, OWLNamedIndividual column,
-			boolean isFKColumn, ResultSet rs) throws SQLException
+			boolean isFKColumn, MappedRow row) throws SQLException
 	{
 		OWLNamedIndividual referenced = null;
 		// TODO THREAD SAFE OWL DATA FACTORY NEEDED if not onto exclusive
@@ -3004,7 +3907,7 @@ public class RelationalStoreImpl implements RelationalStore
 			Object value;
 			try
 			{
-				value = rs.getObject(columnNameSql);
+				value = row.getObject(columnNameSql);
 			} catch (SQLException e)
 			{
 				System.err
@@ -3042,8 +3945,8 @@ public class RelationalStoreImpl implements RelationalStore
 				// Resolving 1:1 or *:1 on * side. Refers to owlnamedobject in
 				// the business ontology that needs to be loaded also.
 				OWLObjectProperty objectProp = (OWLObjectProperty) property;
-				long value = rs.getLong(columnNameSql);
-				if (!rs.wasNull())
+				Long value = row.getLong(columnNameSql);
+				if (value != null)
 				{
 					OWLNamedIndividual object = (OWLNamedIndividual) selectEntityByID(
 							value, df);
@@ -3079,7 +3982,7 @@ public class RelationalStoreImpl implements RelationalStore
 				// or B long -> refers to entity (e.g. see emailAddress)
 				// or C other -> is a full IRI, create named Individual
 				OWLIndividual object;
-				String value = rs.getString(columnNameSql);
+				String value = row.getString(columnNameSql);
 				// NEED To add emailAddress Case.
 				// normal property
 				// This property will refer to legacy or county ontology.
@@ -3180,7 +4083,7 @@ public class RelationalStoreImpl implements RelationalStore
 			{
 				return selectEntityByIDInt(id, df);
 			}
-		});
+		}.setReadOnly(true));
 		
 	}
 	/**
@@ -3501,12 +4404,14 @@ public class RelationalStoreImpl implements RelationalStore
 	 * @param identifiers
 	 * @param statements
 	 * @param done
+	 * @param delta if not null, related individuals are only merged if dirty and hasMany relationships only if changed.
 	 */
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private void mergeMappedIndividual(OWLOntology o, OWLNamedIndividual ind,
 			Map<OWLEntity, DbId> identifiers,
 			Map<OWLNamedIndividual, DbId> foreignKeys,
-			Map<OWLNamedIndividual, List<Statement>> done)
+			Map<OWLNamedIndividual, List<Statement>> done,
+			AxiomDelta delta)
 	{
 		// logger.info("Merging individual" + ind.getIRI());
 		if (done.containsKey(ind))
@@ -3664,7 +4569,8 @@ public class RelationalStoreImpl implements RelationalStore
 						            objectProperty(fullIri(Concepts.hasColumnType))).getFlattened();
 						String columnName = column.getIRI().getFragment();
 						// RECURSION ALONG HASONE RELATIONSHIP
-						mergeMappedIndividual(o, entity, identifiers, null, done);
+						if (delta == null || delta.isDirty(entity))
+							mergeMappedIndividual(o, entity, identifiers, null, done, delta);
 						OWLNamedIndividual type = columnType.iterator().next().asOWLNamedIndividual();
 						update.SET(columnName.replace(table.getIRI().getFragment() + ".", ""), "?");
 						updateTypes.add(type);
@@ -3766,8 +4672,9 @@ public class RelationalStoreImpl implements RelationalStore
 			    reasoner().getObjectPropertyValues(joinColumnIRI,objectProperty(fullIri(Concepts.hasColumnType))).getFlattened().iterator().next();
 			OWLNamedIndividual foreignKeyColumnManyToMany = null;
 			OWLNamedIndividual foreignKeyColumnManyToManyType = null;
+			boolean relationshipChanged = delta == null || delta.isObjectChanged(ind, mappedProperty);
 			// Create delete statement first, but only if its an existing entity.
-			if (identifiers.get(ind).isExisting())
+			if (identifiers.get(ind).isExisting() && relationshipChanged)
 			{
 				Statement delete = null;
 				if(manyToMany)
@@ -3792,7 +4699,10 @@ public class RelationalStoreImpl implements RelationalStore
 					if (manyColumnIRI != null)
 					{
 						// RECURSION
-						mergeMappedIndividual(o, manyObject, identifiers, null, done);
+						if (delta == null || delta.isDirty(manyObject))
+							mergeMappedIndividual(o, manyObject, identifiers, null, done, delta);
+						if (!relationshipChanged)
+							continue;
 						if (foreignKeyColumnManyToMany == null)
 							foreignKeyColumnManyToMany = 
 							    RelationalOWLMapper.foreignKeyByjoinColumnAndTable(manyColumn, joinTable);
@@ -3815,6 +4725,8 @@ public class RelationalStoreImpl implements RelationalStore
 				else
 				{
 					// ONE TO MANY
+					if (delta != null && !delta.isDirty(manyObject))
+						continue;
 					if (done.containsKey(manyObject))
 					{
 						//logger.info("removing and re-merging many-to-one: "
@@ -3829,7 +4741,7 @@ public class RelationalStoreImpl implements RelationalStore
 							manyObject,
 							identifiers,
 							Collections.singletonMap(joinColumnIRI,
-									identifiers.get(ind)), done);
+									identifiers.get(ind)), done, delta);
 				}
 			}
 			
@@ -4130,10 +5042,78 @@ public class RelationalStoreImpl implements RelationalStore
 		return Collections.singletonMap(updates, inserts);
 	}
 
+	/**
+	 * Creates updates closing the history of the given subject and property pairs in a vertical property table.
+	 * Pairs, whose property has no identifier, were never stored and are ignored.
+	 * 
+	 * @param table TABLE_DATA_PROPERTY or TABLE_OBJECT_PROPERTY
+	 */
+	private List<Statement> closeProperties(String table,
+			Set<Pair<OWLIndividual, OWLPropertyExpression<?, ?>>> subjectProperties,
+			Map<OWLEntity, DbId> identifiers, Timestamp time)
+	{
+		List<Statement> updates = new ArrayList<Statement>();
+		Sql update = UPDATE(table).SET("TO_DATE", "?")
+				.WHERE("SUBJECT").EQUALS("?").AND().WHERE("PREDICATE").EQUALS("?")
+				.AND().WHERE("TO_DATE IS NULL");
+		List<OWLNamedIndividual> types = new ArrayList<OWLNamedIndividual>();
+		types.add(individual(Concepts.TIMESTAMP));
+		types.add(individual(Concepts.INTEGER));
+		types.add(individual(Concepts.INTEGER));
+		for (Pair<OWLIndividual, OWLPropertyExpression<?, ?>> subjectProperty : subjectProperties)
+		{
+			DbId s = identifiers.get(subjectProperty.getFirst());
+			DbId p = identifiers.get(subjectProperty.getSecond());
+			if (p == null)
+				continue;
+			if (s == null)
+				throw new IllegalStateException(
+						"Subject's Id not found in identifiers. Subject was: " + subjectProperty.getFirst());
+			List<Object> parameters = new ArrayList<Object>();
+			parameters.add(time);
+			parameters.add(s.getFirst());
+			parameters.add(p.getFirst());
+			Statement statement = new Statement();
+			statement.setSql(update);
+			statement.setParameters(parameters);
+			statement.setTypes(types);
+			updates.add(statement);
+		}
+		return updates;
+	}
+
 	// -------------------------------------------------------------------------
 	// HELPERS FOR MERGE ONLY
 	//
 
+	/**
+	 * @param table the table of the subject or null, if the subject is not mapped.
+	 * @return true, if the data property has a column mapping in the table.
+	 */
+	private static boolean isMappedDataProperty(OWLNamedIndividual table, OWLPropertyExpression<?, ?> property)
+	{
+		return table != null && RelationalOWLMapper.columnMapping(table).containsKey(property);
+	}
+
+	/**
+	 * @param table the table of the subject or null, if the subject is not mapped.
+	 * @return true, if the object property has a column mapping in the table or a hasOne or hasMany mapping.
+	 */
+	private static boolean isMappedObjectProperty(OWLNamedIndividual table, OWLPropertyExpression<?, ?> property)
+	{
+		if (table == null)
+			return false;
+		if (RelationalOWLMapper.columnMapping(table).containsKey(property))
+			return true;
+		if (property instanceof OWLObjectProperty)
+		{
+			OWLObjectProperty p = (OWLObjectProperty) property;
+			return RelationalOWLMapper.hasOne2TablesByProperty(p) != null
+					|| RelationalOWLMapper.hasMany(p) != null;
+		}
+		return false;
+	}
+
 	/**
 	 * Returns all DataPropertyAssertionAxioms, who do no have a mapped column
 	 * in the MAPPED schema for their literal objects. This is determined, by
@@ -4155,9 +5135,7 @@ public class RelationalStoreImpl implements RelationalStore
 					.getTypes(ontology));
 			if (table != null)
 			{
-				Map<OWLProperty<?, ?>, OWLNamedIndividual> columnMapping = RelationalOWLMapper
-						.columnMapping(table);
-				if (columnMapping.containsKey(curAxiom.getProperty()))
+				if (isMappedDataProperty(table, curAxiom.getProperty()))
 				{
 					it.remove();
 				} else
@@ -4196,30 +5174,12 @@ public class RelationalStoreImpl implements RelationalStore
 			OWLObjectPropertyAssertionAxiom curAxiom = it.next();
 			OWLNamedIndividual subject = (OWLNamedIndividual) curAxiom
 					.getSubject();
-			OWLObjectPropertyExpression propertyExpression = curAxiom
-					.getProperty();
 			Set<OWLClassExpression> subjectClasses = subject.getTypes(ontology);
 			OWLNamedIndividual table = RelationalOWLMapper
 					.table(subjectClasses);
-			if (table != null)
+			if (isMappedObjectProperty(table, curAxiom.getProperty()))
 			{
-				Map<OWLProperty<?, ?>, OWLNamedIndividual> columnMapping = RelationalOWLMapper
-						.columnMapping(table);
-				Set<OWLNamedIndividual> hasOneTables = null;
-				OWLClass hasManyMapping = null;
-				if (propertyExpression instanceof OWLObjectProperty)
-				{
-					OWLObjectProperty property = propertyExpression
-							.asOWLObjectProperty();
-					hasOneTables = RelationalOWLMapper
-							.hasOne2TablesByProperty(property);
-					hasManyMapping = RelationalOWLMapper.hasMany(property);
-				}
-				if (columnMapping.containsKey(curAxiom.getProperty())
-						|| hasOneTables != null || hasManyMapping != null)
-				{
-					it.remove();
-				}
+				it.remove();
 			}
 		}
 		return allAxioms;
@@ -4287,9 +5247,18 @@ public class RelationalStoreImpl implements RelationalStore
 				.entrySet())
 		{
 			String table = tableToLiteralEntry.getKey();
-			Set<Object> values = tableToLiteralEntry.getValue();
+			Set<Object> values = new HashSet<Object>();
+			for (Object value : tableToLiteralEntry.getValue())
+			{
+				Long cachedId = literalValueCache.getId(table, value);
+				if (cachedId != null)
+					resultAllTables.put(value, cachedId);
+				else
+					values.add(value);
+			}
 			Map<Object, Long> resultOneTable = selectLiteralValueIDsInternal(
 					table, values);
+			literalValueCache.putAll(table, resultOneTable);
 			resultAllTables.putAll(resultOneTable);
 			if (resultOneTable.size() < values.size() && insertIfMissing)
 			{
@@ -4311,6 +5280,7 @@ public class RelationalStoreImpl implements RelationalStore
 									"Oracle Select after Insert bug detected. Emulating cannot serialize to cause retry of whole transaction.",
 									"Should close connection and retry", 8177));
 				}
+				literalValueCache.putAll(table, selectInserted);
 				resultAllTables.putAll(selectInserted);
 			}
 		}
@@ -4934,6 +5904,8 @@ public class RelationalStoreImpl implements RelationalStore
 				stmt.addBatch();
 			}
 			result = stmt.executeBatch();
+			for (Long id : objects.values())
+				iriDictionary.invalidate(id);
 			conn.commit();
 		} catch (SQLException e)
 		{
@@ -4955,6 +5927,7 @@ public class RelationalStoreImpl implements RelationalStore
 			throws SQLException
 	{
 		PreparedStatement stmt = null;
+		Sql lastSql = null;
 		String lastSqlStr = null;
 		int lastParameterSize = -1;
 		try
@@ -4981,18 +5954,22 @@ public class RelationalStoreImpl implements RelationalStore
 				}
 				stmt.addBatch();
 				// Checking Assertions:
-				String curSql = s.getSql().toString();
-				if (lastSqlStr == null)
+				Sql curSql = s.getSql();
+				if (lastSql == null)
 				{
-					lastSqlStr = curSql;
+					lastSql = curSql;
 				} else
 				{
-					if (!curSql.equals(lastSqlStr))
+					// mapped batches contain equal SQL of different Sql objects.
+					if (curSql != lastSql)
 					{
-						throw new IllegalStateException(
-								"SQL in batch statement list does not match: last SQL: "
-										+ lastSqlStr + " current SQL: "
-										+ curSql);
+						if (lastSqlStr == null)
+							lastSqlStr = lastSql.SQL();
+						if (!curSql.SQL().equals(lastSqlStr))
+							throw new IllegalStateException(
+									"SQL in batch statement list does not match: last SQL: "
+											+ lastSqlStr + " current SQL: "
+											+ curSql.SQL());
 					}
 				}
 				int curParameterSize = s.getParameters().size();
@@ -5108,7 +6085,7 @@ public class RelationalStoreImpl implements RelationalStore
 			{
 				return queryGetEntitiesInt(query, df);
 			}
-		});
+		}.setReadOnly(true));
 	}
 
 	public Map<Long, OWLEntity> queryGetEntitiesInt(Query query, OWLDataFactory df)
@@ -5141,69 +6118,111 @@ public class RelationalStoreImpl implements RelationalStore
 			{
 				return customSearchInt(query);
 			}
-		});
+		}.setReadOnly(true));
+	}
+
+	@Override
+	public void customSearch(final Query query, final SearchRowSink sink) throws SQLException
+	{
+		if (!isSingleExecutionSearch())
+		{
+			deliver(customSearch(query), sink);
+			return;
+		}
+		txn(new CirmTransaction<Object>()
+		{
+			@Override
+			public Object call() throws Exception
+			{
+				customSearchInt(query, sink);
+				return null;
+			}
+		}.setReadOnly(true));
 	}
 	
 	public Json customSearchInt(Query query) throws SQLException
+	{
+		JsonArraySink results = new JsonArraySink();
+		customSearchInt(query, results);
+		return results.array;
+	}
+
+	/**
+	 * Streams the rows of a custom search to the sink. Column indexes and types are 
+	 * resolved once from the resultset metadata; columns of other types than varchar, 
+	 * longvarchar, clob, numeric and timestamp are not included. 
+	 */
+	public void customSearchInt(Query query, SearchRowSink sink) throws SQLException
 	{
 		PreparedStatement stmt = null;
 		Connection conn = null;
 		ResultSet rs = null;
-		Json results = Json.array();
 		try
 		{
 			conn = getConnection();
 			stmt = prepareStatement(conn, query.getStatement(), null);
+			stmt.setFetchSize(SEARCH_FETCH_SIZE);
 			rs = stmt.executeQuery();
 			DateFormat df = new SimpleDateFormat("MM/dd/yyyy");
 
 			ResultSetMetaData rsmd = rs.getMetaData();
-			Json metaInfo = Json.object();
+			// column name -> first index with that name, as rs.getString(columnName)
+			Map<String, Integer> columnIndexes = new LinkedHashMap<String, Integer>();
 			for (int i = 1; i <= rsmd.getColumnCount(); i++)
 			{
-				metaInfo.set(rsmd.getColumnName(i), rsmd.getColumnType(i));
+				if (!columnIndexes.containsKey(rsmd.getColumnName(i)))
+					columnIndexes.put(rsmd.getColumnName(i), i);
+			}
+			String[] columnNames = columnIndexes.keySet().toArray(new String[columnIndexes.size()]);
+			int[] columns = new int[columnNames.length];
+			int[] columnTypes = new int[columnNames.length];
+			for (int c = 0; c < columnNames.length; c++)
+			{
+				columns[c] = columnIndexes.get(columnNames[c]);
+				columnTypes[c] = rsmd.getColumnType(columns[c]);
 			}
 
 			while (rs.next())
 			{
 				Json eachRow = Json.object();
-				for (Entry<String, Json> property : metaInfo.asJsonMap()
-						.entrySet())
+				for (int c = 0; c < columns.length; c++)
 				{
-					String columnName = property.getKey();
-					int columnType = property.getValue().asInteger();
+					String columnName = columnNames[c];
+					int columnType = columnTypes[c];
 
 					if (columnType == Types.VARCHAR)
-						eachRow.set(columnName, rs.getString(columnName));
+						eachRow.set(columnName, rs.getString(columns[c]));
 					if (columnType == Types.LONGVARCHAR)
-						eachRow.set(columnName, rs.getString(columnName));
+						eachRow.set(columnName, rs.getString(columns[c]));
 					if (columnType == Types.CLOB)
-						eachRow.set(columnName, rs.getString(columnName));
+						eachRow.set(columnName, rs.getString(columns[c]));
 					if (columnType == Types.NUMERIC)
 					{
-						int i = rs.getInt(columnName);
+						int i = rs.getInt(columns[c]);
 						eachRow.set(columnName, i != 0 ? Integer.toString(i) : "");
 					}
 					if (columnType == Types.TIMESTAMP)
 					{
-						Timestamp dts = rs.getTimestamp(columnName);
+						Timestamp dts = rs.getTimestamp(columns[c]);
 						eachRow.set(columnName, (dts != null) ? df.format(dts)
 								: "");
 					}
 				}
-				results.add(eachRow);
+				sink.row(eachRow);
 			}
 			conn.commit();
 		} catch (SQLException e)
 		{
 			rollback(conn);
 			throw e;
+		} catch (IOException e)
+		{
+			rollback(conn);
+			throw new RuntimeException(e);
 		} finally
 		{
 			close(rs, stmt, conn);
 		}
-		return results;
-
 	}
 
 	@Override
@@ -5216,23 +6235,50 @@ public class RelationalStoreImpl implements RelationalStore
 			{
 				return advancedSearchInt(query);
 			}
-		});
+		}.setReadOnly(true));
+	}
+
+	@Override
+	public void advancedSearch(final Query query, final SearchRowSink sink) throws SQLException
+	{
+		if (!isSingleExecutionSearch())
+		{
+			deliver(advancedSearch(query), sink);
+			return;
+		}
+		txn(new CirmTransaction<Object>()
+		{
+			@Override
+			public Object call() throws Exception
+			{
+				advancedSearchInt(query, sink);
+				return null;
+			}
+		}.setReadOnly(true));
 	}
 
 	public Json advancedSearchInt(Query query) throws SQLException
+	{
+		JsonArraySink results = new JsonArraySink();
+		advancedSearchInt(query, results);
+		return results.array;
+	}
+
+	public void advancedSearchInt(Query query, SearchRowSink sink) throws SQLException
 	{
 		PreparedStatement stmt = null;
 		Connection conn = null;
 		ResultSet rs = null;
-		Json results = Json.array();
 		try
 		{
 			conn = getConnection();
 			stmt = conn.prepareStatement(query.getStatement().getSql().SQL());
+			stmt.setFetchSize(SEARCH_FETCH_SIZE);
 			rs = stmt.executeQuery();
 			DateFormat df = new SimpleDateFormat("MM/dd/yyyy");
 
 			ResultSetMetaData rsmd = rs.getMetaData();
+			boolean hasGisColumn = rsmd.getColumnCount() == 11;
 			while (rs.next())
 			{
 				int boid = rs.getInt(1);
@@ -5247,7 +6293,7 @@ public class RelationalStoreImpl implements RelationalStore
 				String hasCaseNumber = rs.getString(9);
 				String unit = rs.getString(10);
 				String gisColumn = null;
-				if (rsmd.getColumnCount() == 11)
+				if (hasGisColumn)
 					gisColumn = rs.getString(11);
 				Json single = Json.object();
 				single.set("boid", boid);
@@ -5270,7 +6316,7 @@ public class RelationalStoreImpl implements RelationalStore
 				single.set("hasCaseNumber",
 						(hasCaseNumber != null) ? hasCaseNumber : "");
 				single.set("gisColumn", (gisColumn != null) ? gisColumn : "");
-				results.add(single);
+				sink.row(single);
 
 			}
 			conn.commit();
@@ -5278,11 +6324,50 @@ public class RelationalStoreImpl implements RelationalStore
 		{
 			rollback(conn);
 			throw e;
+		} catch (IOException e)
+		{
+			rollback(conn);
+			throw new RuntimeException(e);
 		} finally
 		{
 			close(rs, stmt, conn);
 		}
-		return results;
+	}
+
+	/**
+	 * A search started now executes exactly once if it becomes a read only toplevel transaction.
+	 * Otherwise it may be retried by the store or as part of the enclosing transaction, so its 
+	 * rows are collected per execution and handed to the sink only after the search succeeded.
+	 */
+	private static boolean isSingleExecutionSearch()
+	{
+		return USE_READ_ONLY_TRANSACTIONS && !CirmTransaction.isExecutingOnThisThread();
+	}
+
+	private static void deliver(Json rows, SearchRowSink sink)
+	{
+		try
+		{
+			for (Json row : rows.asJsonList())
+				sink.row(row);
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Collects search rows into a Json array.
+	 */
+	private static class JsonArraySink implements SearchRowSink
+	{
+		final Json array = Json.array();
+
+		public void row(Json row)
+		{
+			array.add(row);
+		}
 	}
 
 	@Override
@@ -5295,7 +6380,7 @@ public class RelationalStoreImpl implements RelationalStore
 			{
 				return queryInt(query, df);
 			}
-		});
+		}.setReadOnly(true));
 	}
 
 	public LinkedHashSet<Long> queryInt(Query query, OWLDataFactory df)
@@ -5314,9 +6399,14 @@ public class RelationalStoreImpl implements RelationalStore
 			}
 			stmt = prepareStatement(conn, query.getStatement(),	selectIDsAndEntitiesByIRIs(queryEntities));
 			rs = stmt.executeQuery();
+			Keyset keyset = query.getKeyset();
+			if (keyset != null)
+				keyset.reset();
 			while (rs.next())
 			{
 				result.add(rs.getLong(1));
+				if (keyset != null)
+					keyset.readRow(rs);
 			}
 			conn.commit();
 		} 
@@ -5348,10 +6438,20 @@ public class RelationalStoreImpl implements RelationalStore
 		// OWLDataFactory dataFactory = OWL.dataFactory();
 		if (ids == null || ids.size() == 0)
 			return result;
+		List<Long> idsAsList = new ArrayList<Long>(ids.size());
+		for (Long id : ids)
+		{
+			OWLEntity cached = iriDictionary.getEntity(id);
+			if (cached != null)
+				result.put(id, cached);
+			else
+				idsAsList.add(id);
+		}
+		if (idsAsList.isEmpty())
+			return result;
 		int pageSize = 1000; // oracle limits sql in() list to 1000 entries, see
 								// ORA-01795, so paging technique used.
 		int pageCount = 1;
-		List<Long> idsAsList = new ArrayList<Long>(ids);
 		// We expect sorting the ids to improve query processing by db.
 		Collections.sort(idsAsList);
 		if (idsAsList.size() > 1000)
@@ -5381,6 +6481,7 @@ public class RelationalStoreImpl implements RelationalStore
 							typeOf(rs.getString("IRI_TYPE")),
 							IRI.create(rs.getString("IRI")));
 					result.put(rs.getLong("ID"), o);
+					iriDictionary.put(o, rs.getLong("ID"));
 				}
 			}
 			conn.commit();
@@ -6064,19 +7165,88 @@ public class RelationalStoreImpl implements RelationalStore
 				return result;
 			} catch (Exception e)
 			{
-				if (shouldRetry(e) && !toplevel.isRequestingRetry())
+				if (shouldRetry(e) && !toplevel.isRequestingRetry() && !isReadOnlyTransaction(toplevel))
 				{
 					toplevel.requestRetry();
 				}
 				throw new RuntimeException(e);
 			}
 		}
+		else if (isReadOnlyTransaction(transaction))
+		{
+			return txnReadOnly(transaction);
+		}
 		else
 		{
 			return (T) txnPrivate(transaction);
 		}
 	}
 
+	private static boolean isReadOnlyTransaction(CirmTransaction<?> t)
+	{
+		return USE_READ_ONLY_TRANSACTIONS && t != null && t.isReadOnly();
+	}
+
+	/**
+	 * Executes a read only toplevel transaction once; it is never retried and does not use the locking strategy.
+	 * Toplevel listeners are fired on success as for other transactions.
+	 */
+	private <T> T txnReadOnly(CirmTransaction<T> transaction)
+	{
+		T result;
+		transaction.begin();
+		try
+		{
+			ThreadLocalConnection conn = getConnection();
+			if (!conn.isTopLevelMode()) {
+				throw new RuntimeException("txnReadOnly: Connection must be in toplevel mode. Commit/Close will fail on" + conn.getDirectConnection());
+			}
+			try
+			{
+				result = transaction.execute();
+				// ends the read only transaction on the connection
+				conn.commit();
+				transaction.end(true);
+			}
+			catch (Exception e)
+			{
+				rollback(conn);
+				transaction.end(false);
+				throw new RuntimeException(e);
+			}
+			finally
+			{
+				close(conn);
+			}
+			transaction.getTransactionEventSupport().fireEvent(transaction);
+			return result;
+		}
+		finally
+		{
+			if (!transaction.isEnded())
+				transaction.end(false);
+		}
+	}
+
+	public DBLockStrategy getLockingStrategy()
+	{
+		return lockingStrategy;
+	}
+
+	/**
+	 * Declares a business object written by the toplevel transaction executing on this thread,
+	 * if it was not declared before execution. The locking strategy may request a retry.
+	 * @param boid
+	 */
+	public void declareBusinessObjectWrite(long boid)
+	{
+		CirmTransaction<?> toplevel = CirmTransaction.get();
+		if (toplevel == null || toplevel.getBusinessObjectIds().contains(boid))
+			return;
+		toplevel.addBusinessObjectId(boid);
+		lockingStrategy.businessObjectAdded(toplevel, boid);
+	}
+
 	private <T> T txnPrivate(CirmTransaction<T> transaction)
 	{
 		T result = null;
@@ -6085,37 +7255,46 @@ public class RelationalStoreImpl implements RelationalStore
 		try {
 			do
 			{
-				ThreadLocalConnection conn = getConnection();
-				if (!conn.isTopLevelMode()) {
-					throw new RuntimeException("txnPrivate: Connection must be in toplevel mode. Commit/Close will fail on" + conn.getDirectConnection());
-				}
-				//This has to be a top level connection
 				try
 				{
-					if (lockingStrategy.isLockRequired(transaction)	|| DBG_ALL_TRANSACTIONS_LOCK)
-					{
-						transaction.setAllowDBLock(true);
-						if(DBGLOCK) ThreadLocalStopwatch.getWatch().time("LOCKS USED FOR " + transaction);
+					// in process locks are acquired before a pooled connection is taken
+					lockingStrategy.beforeExecution(transaction);
+					ThreadLocalConnection conn = getConnection();
+					if (!conn.isTopLevelMode()) {
+						throw new RuntimeException("txnPrivate: Connection must be in toplevel mode. Commit/Close will fail on" + conn.getDirectConnection());
 					}
-					result = transaction.execute();
-					if (TEST_TXN_ALWAYS_RETRY_TWICE && retryCount < 2)
-						throw new RetryDetectedException("Test retry: " + retryCount);
-					conn.commit();
-					transaction.end(true);
-				} 
-				catch (Exception e)
-				{
-					rollback(conn);
-					if (!shouldRetry(e))
-					{	
-						transaction.end(false);
-						throw new RuntimeException(e);
+					//This has to be a top level connection
+					try
+					{
+						if (lockingStrategy.isLockRequired(transaction)	|| DBG_ALL_TRANSACTIONS_LOCK)
+						{
+							transaction.setAllowDBLock(true);
+							if(DBGLOCK) ThreadLocalStopwatch.getWatch().time("LOCKS USED FOR " + transaction);
+						}
+						result = transaction.execute();
+						if (TEST_TXN_ALWAYS_RETRY_TWICE && retryCount < 2)
+							throw new RetryDetectedException("Test retry: " + retryCount);
+						conn.commit();
+						transaction.end(true);
+					} 
+					catch (Exception e)
+					{
+						rollback(conn);
+						if (!shouldRetry(e))
+						{	
+							transaction.end(false);
+							throw new RuntimeException(e);
+						}
+					} 
+					finally
+					{
+						transaction.setAllowDBLock(false);
+						close(conn);
 					}
-				} 
+				}
 				finally
 				{
-					transaction.setAllowDBLock(false);
-					close(conn);
+					lockingStrategy.afterExecution(transaction);
 				}
 				if (!transaction.isSucceeded())
 				{
@@ -6134,6 +7313,7 @@ public class RelationalStoreImpl implements RelationalStore
 				}
 			} 
 			while (!transaction.isSucceeded());
+			dataSourceRef.noteWrite(RequestScopeFilter.getClient());
 			//Fire top level transaction event while transaction is still associated with thread.		
 			transaction.getTransactionEventSupport().fireEvent(transaction);	
 			return result;
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntologyID;
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.OWL;
+import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.utils.ThreadLocalStopwatch;
+
+/**
+ * Maintains CIRM_SR_SEARCH, a denormalized projection of the service request search result row
+ * (boid, type, full address, zip, city, status, last activity date, created date, case number, unit).<br>
+ * <br>
+ * As RDBListener, the row of a business object is recomputed from the mapped schema after each save in the
+ * same transaction and deleted when the business object is shelved or deleted. Rebuild backfills the whole table
+ * in batches of SR_REQUEST_ID ranges, each in its own transaction.<br>
+ * <br>
+ * Rollout: create the table (see mapped_schema_*.sql), set MAINTAIN, run rebuild, then set USE_FOR_SEARCH,
+ * so search is never answered from an incomplete projection.
+ *
+ * @see QueryTranslator
+ */
+public class SRSearchProjection implements RDBListener
+{
+	public static final String TABLE = "CIRM_SR_SEARCH";
+
+	/**
+	 * Register the projection as RDBListener of the persister.
+	 */
+	public static boolean MAINTAIN = false;
+
+	/**
+	 * Answer search result rows and covered search criteria from the projection.
+	 */
+	public static boolean USE_FOR_SEARCH = false;
+
+	public static boolean DBG = false;
+
+	public static final int DEFAULT_REBUILD_BATCH_SIZE = 5000;
+
+	/**
+	 * Result columns in the order expected by RelationalStoreImpl.advancedSearchInt.
+	 */
+	public static final String[] RESULT_COLUMNS = { "SR_REQUEST_ID", "TYPE", "FULL_ADDRESS", "ZIP", "CITY", "SR_STATUS",
+			"LAST_ACTIVITY_DATE", "CREATED_DATE", "CASE_NUMBER", "UNIT" };
+
+	private static final String INSERT_SELECT = "INSERT INTO " + TABLE 
+			+ " (SR_REQUEST_ID, TYPE, FULL_ADDRESS, ZIP, CITY, SR_STATUS, LAST_ACTIVITY_DATE, CREATED_DATE, CASE_NUMBER, UNIT) "
+			+ "SELECT a.SR_REQUEST_ID, i1.IRI, addrV.FULL_ADDRESS, addrV.ZIP, addrV.CITY_SHORT, a.SR_STATUS, "
+			+ "(SELECT MAX(a1.COMPLETE_DATE) FROM CIRM_SR_ACTIVITY a1 WHERE a1.SR_REQUEST_ID = a.SR_REQUEST_ID), "
+			+ "a.CREATED_DATE, a.CASE_NUMBER, addrV.UNIT "
+			+ "FROM CIRM_SR_REQUESTS a "
+			+ "LEFT OUTER JOIN CIRM_CLASSIFICATION cl ON cl.SUBJECT = a.SR_REQUEST_ID AND cl.TO_DATE IS NULL "
+			+ "LEFT OUTER JOIN CIRM_IRI i1 ON cl.OWLCLASS = i1.ID "
+			+ "LEFT OUTER JOIN CIRM_MDC_ADDRESS_VIEW addrV ON a.SR_REQUEST_ADDRESS = addrV.ADDRESS_ID ";
+
+	private static final String REFRESH_DELETE = "DELETE FROM " + TABLE + " WHERE SR_REQUEST_ID = ?";
+	private static final String REFRESH_INSERT = INSERT_SELECT + "WHERE a.SR_REQUEST_ID = ?";
+	private static final String RANGE_DELETE = "DELETE FROM " + TABLE + " WHERE SR_REQUEST_ID BETWEEN ? AND ?";
+	private static final String RANGE_INSERT = INSERT_SELECT + "WHERE a.SR_REQUEST_ID BETWEEN ? AND ?";
+
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong deletes = new AtomicLong();
+
+	private static final SRSearchProjection instance = new SRSearchProjection();
+
+	public static SRSearchProjection get()
+	{
+		return instance;
+	}
+
+	@Override
+	public void saveExecuting(RDBEvent e)
+	{
+	}
+
+	@Override
+	public void saveCompleted(RDBEvent e)
+	{
+		Long boid = boid(e.getOntologyID());
+		if (boid == null)
+			return;
+		refresh(boid);
+		refreshes.incrementAndGet();
+	}
+
+	@Override
+	public void deleteExecuting(RDBEvent e)
+	{
+		Long boid = boid(e.getOntologyID());
+		if (boid == null)
+			return;
+		executeUpdate(REFRESH_DELETE, boid, null);
+		deletes.incrementAndGet();
+	}
+
+	@Override
+	public void loadExecuting(RDBEvent e)
+	{
+	}
+
+	private static Long boid(OWLOntologyID ontologyId)
+	{
+		if (ontologyId == null || ontologyId.isAnonymous())
+			return null;
+		IRI boIRI = ontologyId.getOntologyIRI().resolve("#bo");
+		return OWL.parseIDFromBusinessOntologyIRI(boIRI);
+	}
+
+	/**
+	 * Recomputes the projection row of a business object inside the current transaction.
+	 * Business objects that are not service requests get no row.
+	 */
+	public void refresh(long boid)
+	{
+		if (DBG) ThreadLocalStopwatch.getWatch().time("SRSearchProjection.refresh " + boid);
+		executeUpdate(REFRESH_DELETE, boid, null);
+		executeUpdate(REFRESH_INSERT, boid, null);
+	}
+
+	/**
+	 * Rebuilds the whole projection from the mapped schema in batches, each in its own transaction.
+	 * Concurrent saves are reflected, as each batch and save serialize on the rows of their range.
+	 *
+	 * @return the number of projection rows written.
+	 */
+	public long rebuild(final int batchSize)
+	{
+		if (batchSize < 1) throw new IllegalArgumentException("batchSize must be >=1, was " + batchSize);
+		final RelationalStore store = Refs.defaultRelationalStore.resolve();
+		final long[] range = store.txn(new CirmTransaction<long[]>() {
+			public long[] call() throws Exception
+			{
+				return selectIdRange();
+			}
+		});
+		ThreadLocalStopwatch.startTop("START SRSearchProjection.rebuild " + range[0] + " - " + range[1]);
+		long rows = store.txn(new CirmTransaction<Long>() {
+			public Long call() throws Exception
+			{
+				// projection rows of service requests outside the current range
+				return (long) executeUpdate("DELETE FROM " + TABLE + " WHERE SR_REQUEST_ID < ? OR SR_REQUEST_ID > ?", range[0], range[1]);
+			}
+		});
+		ThreadLocalStopwatch.now("SRSearchProjection.rebuild deleted outside range: " + rows);
+		rows = 0;
+		for (long from = range[0]; from <= range[1]; from += batchSize)
+		{
+			final long batchFrom = from;
+			final long batchTo = Math.min(range[1], from + batchSize - 1);
+			rows += store.txn(new CirmTransaction<Integer>() {
+				public Integer call() throws Exception
+				{
+					executeUpdate(RANGE_DELETE, batchFrom, batchTo);
+					return executeUpdate(RANGE_INSERT, batchFrom, batchTo);
+				}
+			});
+		}
+		ThreadLocalStopwatch.stop("END SRSearchProjection.rebuild rows: " + rows);
+		return rows;
+	}
+
+	/**
+	 * @return min and max SR_REQUEST_ID; 0, -1 if there are none.
+	 */
+	private long[] selectIdRange()
+	{
+		RelationalStoreExt store = Refs.defaultRelationalStoreExt.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement("SELECT MIN(SR_REQUEST_ID), MAX(SR_REQUEST_ID) FROM CIRM_SR_REQUESTS");
+			rs = stmt.executeQuery();
+			rs.next();
+			if (rs.getObject(1) == null)
+				return new long[] { 0, -1 };
+			return new long[] { rs.getLong(1), rs.getLong(2) };
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			store.close(rs, stmt, conn);
+		}
+	}
+
+	/**
+	 * Executes an update with one or two long parameters inside the current transaction.
+	 * @return the update count.
+	 */
+	private int executeUpdate(String sql, Long p1, Long p2)
+	{
+		RelationalStoreExt store = Refs.defaultRelationalStoreExt.resolve();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		try
+		{
+			conn = store.getConnection();
+			stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, p1);
+			if (p2 != null)
+				stmt.setLong(2, p2);
+			return stmt.executeUpdate();
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+		finally
+		{
+			store.close(stmt, conn);
+		}
+	}
+
+	public Json getStatistics()
+	{
+		return Json.object()
+			.set("maintain", MAINTAIN)
+			.set("useForSearch", USE_FOR_SEARCH)
+			.set("refreshes", refreshes.get())
+			.set("deletes", deletes.get());
+	}
+}
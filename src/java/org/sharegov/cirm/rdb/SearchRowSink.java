@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.io.IOException;
+
+import mjson.Json;
+
+/**
+ * Receives search result rows one by one while the resultset is being read,
+ * e.g. to write them straight to a response instead of collecting all rows in memory.
+ *
+ * Each row of a successful search is delivered exactly once. Rows are streamed if the search is
+ * a read only toplevel transaction, which is never retried; inside another transaction or without 
+ * read only transactions, the store collects the rows of each execution and delivers them after the search.
+ *
+ * @see RelationalStore#customSearch(Query, SearchRowSink)
+ * @see RelationalStore#advancedSearch(Query, SearchRowSink)
+ */
+public interface SearchRowSink
+{
+	/**
+	 * Called once per row in resultset order.
+	 * @param row a Json object with one property per column; the store does not use it after the call.
+	 * @throws IOException if the row could not be written, which stops the search.
+	 */
+	void row(Json row) throws IOException;
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids that were reserved from a database sequence in blocks.
+ *
+ * A block of blockSize sequence values is fetched in one roundtrip by a BlockSource
+ * (e.g. using DatabaseHook.nextSequenceBlock) and then handed out from memory without locking.
+ * Only the thread that finds the current block exhausted synchronizes to fetch the next block.
+ *
+ * As all values are drawn from the database sequence, several nodes can allocate concurrently
+ * without collisions and direct users of the sequence (e.g. NEXTVAL clauses in inserts) are not affected.
+ * Values of a block that are not handed out before shutdown are simply lost.
+ */
+public class SequenceBlockAllocator
+{
+	/**
+	 * Fetches count new values from a database sequence.
+	 */
+	public interface BlockSource
+	{
+		long[] nextBlock(int count);
+	}
+
+	private static class Block
+	{
+		final long[] ids;
+		final AtomicInteger next = new AtomicInteger(0);
+
+		Block(long[] ids)
+		{
+			this.ids = ids;
+		}
+	}
+
+	private static final Block EMPTY_BLOCK = new Block(new long[0]);
+
+	private final BlockSource source;
+	private volatile int blockSize;
+	private volatile Block current = EMPTY_BLOCK;
+	private final AtomicLong allocatedCount = new AtomicLong();
+	private final AtomicLong blockFetchCount = new AtomicLong();
+
+	/**
+	 * @param source
+	 * @param blockSize number of sequence values to reserve per roundtrip; at least 1.
+	 */
+	public SequenceBlockAllocator(BlockSource source, int blockSize)
+	{
+		if (source == null)
+			throw new IllegalArgumentException("source null");
+		this.source = source;
+		setBlockSize(blockSize);
+	}
+
+	/**
+	 * Returns the next id. Lock free unless the current block is exhausted.
+	 */
+	public long next()
+	{
+		while (true)
+		{
+			Block b = current;
+			int i = b.next.getAndIncrement();
+			if (i < b.ids.length)
+			{
+				allocatedCount.incrementAndGet();
+				return b.ids[i];
+			}
+			refill(b);
+		}
+	}
+
+	private synchronized void refill(Block exhausted)
+	{
+		// Another thread might have refilled already.
+		if (current != exhausted)
+			return;
+		long[] ids = source.nextBlock(blockSize);
+		if (ids == null || ids.length == 0)
+			throw new IllegalStateException("Sequence block source returned no values.");
+		blockFetchCount.incrementAndGet();
+		current = new Block(ids);
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * Sets the block size for the next block fetch. The current block is not affected.
+	 * @param blockSize at least 1.
+	 */
+	public void setBlockSize(int blockSize)
+	{
+		if (blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be at least 1, was " + blockSize);
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return number of ids handed out since creation.
+	 */
+	public long getAllocatedCount()
+	{
+		return allocatedCount.get();
+	}
+
+	/**
+	 * @return number of database roundtrips made to reserve blocks since creation.
+	 */
+	public long getBlockFetchCount()
+	{
+		return blockFetchCount.get();
+	}
+}
@@ -55,6 +55,27 @@ public class SimpleDBLockStrategy implements DBLockStrategy
 		}
 	}
 
+	/**
+	 * Does nothing.
+	 */
+	public void beforeExecution(CirmTransaction<?> t)
+	{
+	}
+
+	/**
+	 * Does nothing.
+	 */
+	public void afterExecution(CirmTransaction<?> t)
+	{
+	}
+
+	/**
+	 * Does nothing.
+	 */
+	public void businessObjectAdded(CirmTransaction<?> t, long boid)
+	{
+	}
+
 	public int getMaxExecutionCount()
 	{
 		return maxExecutionCount;
@@ -188,9 +188,18 @@ public class Sql
 			return this;
 		}
 		
+		public Sql KEYSET(String idColumn, String predicate)
+		{
+			this.keysetIdColumn = idColumn;
+			this.keysetPredicate = predicate;
+			return this;
+		}
+
 		public Sql CLEAR_PAGINATION()
 		{
 			this.pagination.clear();
+			this.keysetIdColumn = null;
+			this.keysetPredicate = null;
 			return this;
 		}
 
@@ -256,6 +265,63 @@ public class Sql
 			return IN(true, subquery);
 		}
 		
+		public Sql COPY()
+		{
+			Select copy = new Select();
+			copy.distinct = distinct;
+			copy.tables.addAll(tables);
+			copy.columns.addAll(columns);
+			copy.pagination.putAll(pagination);
+			copy.keysetIdColumn = keysetIdColumn;
+			copy.keysetPredicate = keysetPredicate;
+			copy.sets.addAll(sets);
+			copy.join.addAll(join);
+			copy.innerJoin.addAll(innerJoin);
+			copy.outerJoin.addAll(outerJoin);
+			copy.leftOuterJoin.addAll(leftOuterJoin);
+			copy.rightOuterJoin.addAll(rightOuterJoin);
+			copy.where.addAll(where);
+			copy.having.addAll(having);
+			copy.groupBy.addAll(groupBy);
+			copy.orderBy.addAll(orderBy);
+			copy.orderDirection = orderDirection;
+			copy.lastList.addAll(lastList);
+			copy.values.addAll(values);
+			copy.aliases = (aliases == tables)? copy.tables : copy.columns;
+			copy.conjunctionList = copy.copyOf(this, conjunctionList);
+			copy.on = copy.copyOf(this, on);
+			copy.operationsList = copy.copyOf(this, operationsList);
+			copy.in = copy.copyOf(this, in);
+			copy.aliasable = aliasable;
+			copy.hasColumnAliases = hasColumnAliases;
+			copy.hasTableAliases = hasTableAliases;
+			copy.dbhook = dbhook;
+			return copy;
+		}
+
+		/**
+		 * @return the list of this select that corresponds to the given list of the original.
+		 */
+		private List<String> copyOf(Select original, List<String> list)
+		{
+			if (list == null)
+				return null;
+			else if (list == original.join)
+				return join;
+			else if (list == original.innerJoin)
+				return innerJoin;
+			else if (list == original.outerJoin)
+				return outerJoin;
+			else if (list == original.leftOuterJoin)
+				return leftOuterJoin;
+			else if (list == original.rightOuterJoin)
+				return rightOuterJoin;
+			else if (list == original.having)
+				return having;
+			else
+				return where;
+		}
+
 		public String SQL()
 		{
 			StringBuilder builder = new StringBuilder();
@@ -269,6 +335,23 @@ public class Sql
 			sqlClause(builder, "OUTER JOIN", outerJoin, "", "", "\nOUTER JOIN ", null, false);
 			sqlClause(builder, "LEFT OUTER JOIN", leftOuterJoin, "", "", "\nLEFT OUTER JOIN ", null, false);
 			sqlClause(builder, "RIGHT OUTER JOIN", rightOuterJoin, "", "", "\nRIGHT OUTER JOIN ", null, false);
+			List<String> where = this.where;
+			List<String> orderBy = this.orderBy;
+			if (keysetIdColumn != null)
+			{
+				if (keysetPredicate != null)
+				{
+					where = new ArrayList<String>(this.where);
+					if (!where.isEmpty() && !where.get(where.size() - 1).equals(AND))
+						where.add(AND);
+					where.add(keysetPredicate);
+				}
+				if (!orderBy.contains(keysetIdColumn))
+				{
+					orderBy = new ArrayList<String>(this.orderBy);
+					orderBy.add(keysetIdColumn);
+				}
+			}
 			sqlClause(builder, "WHERE", where, "(", ")", " AND ", null, false);
 			sqlClause(builder, "GROUP BY", groupBy, "", "", ", ", null, false);
 			sqlClause(builder, "HAVING", having, "(", ")", " AND ", null, false);
@@ -613,6 +696,20 @@ public class Sql
 		return this;
 	}
 	
+	/**
+	 * Keyset (seek) pagination: orders by idColumn after all other order columns and adds the predicate 
+	 * as last condition of the where clause, so it's parameters must be the last parameters of the statement. 
+	 * A null predicate selects the first page. Cleared by CLEAR_PAGINATION.
+	 * @see Keyset
+	 */
+	public Sql KEYSET(String idColumn, String predicate)
+	{
+		return this;
+	}
+	
+	/**
+	 * Clears pagination and keyset pagination.
+	 */
 	public Sql CLEAR_PAGINATION()
 	{
 		return this;
@@ -771,6 +868,14 @@ public class Sql
 	{
 		return "";
 	}
+
+	/**
+	 * @return an independent copy of a select, e.g. to reuse a prepared query; null for other statements.
+	 */
+	public Sql COPY()
+	{
+		return null;
+	}
 	
 	public static Sql MERGE_INTO(String table)
 	{
@@ -823,6 +928,8 @@ public class Sql
 	Stack<Map<String,String>> tables = new Stack<Map<String,String>>();
 	Stack<Map<String,String>> columns = new Stack<Map<String,String>>();
 	Map<String, String> pagination = new LinkedHashMap<String, String>(); 
+	String keysetIdColumn;
+	String keysetPredicate;
 	List<String> sets = new ArrayList<String>();
 	List<String> join = new ArrayList<String>();
 	List<String> innerJoin = new ArrayList<String>();
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjson.Json;
+
+/**
+ * LRU cache of prepared statements of one connection keyed by SQL text.
+ *
+ * Statements handed out by prepareStatement are proxies; close returns the statement to the cache
+ * with cleared parameters and batch, instead of closing it. A statement is not cached while it is in use,
+ * so preparing the same SQL again before close creates another statement. Evicted statements
+ * and all cached statements on closeAll are closed.
+ *
+ * This works on top of a driver or pool statement cache, which then sees the statements
+ * closed on connection close.
+ *
+ * A cache lives as long as its connection. A pooled connection keeps its cache while idle,
+ * so statements are reused by later borrowers; endUse is called when it is returned.
+ *
+ * Not thread safe, a connection is used by one thread at a time.
+ */
+public class StatementCache
+{
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+	private static final AtomicLong totalEvictions = new AtomicLong();
+
+	private final Connection connection;
+	private final int maxStatements;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+	private int hits;
+	private int misses;
+	private volatile int use = 0;
+
+	public StatementCache(Connection connection, int maxStatements)
+	{
+		this.connection = connection;
+		this.maxStatements = maxStatements;
+		statements = new LinkedHashMap<String, PreparedStatement>(maxStatements * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+			{
+				if (size() > StatementCache.this.maxStatements)
+				{
+					totalEvictions.incrementAndGet();
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return a cached or new prepared statement, whose close returns it to this cache.
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException
+	{
+		PreparedStatement stmt = statements.remove(sql);
+		if (stmt != null)
+		{
+			hits++;
+			totalHits.incrementAndGet();
+		}
+		else
+		{
+			misses++;
+			totalMisses.incrementAndGet();
+			stmt = connection.prepareStatement(sql);
+		}
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class },
+				new CachedStatementHandler(sql, stmt, stmt.getFetchSize(), use));
+	}
+
+	/**
+	 * Ends the current use of the connection, e.g. before it is returned to a pool.
+	 * Statements handed out before and closed afterwards are closed instead of cached, 
+	 * as the connection may be used by another thread by then.
+	 */
+	public void endUse()
+	{
+		use++;
+	}
+
+	/**
+	 * Closes all cached statements; to be called before the connection is closed.
+	 */
+	public void closeAll()
+	{
+		List<PreparedStatement> cached = new ArrayList<PreparedStatement>(statements.values());
+		statements.clear();
+		for (PreparedStatement stmt : cached)
+			closeQuietly(stmt);
+	}
+
+	/**
+	 * Returns a statement that is no longer used or closes it, if another statement
+	 * for the same SQL is cached.
+	 */
+	private void release(String sql, PreparedStatement stmt, int fetchSize, int stmtUse)
+	{
+		try
+		{
+			if (stmtUse != use || statements.containsKey(sql) || stmt.isClosed())
+			{
+				closeQuietly(stmt);
+				return;
+			}
+			stmt.clearParameters();
+			stmt.clearBatch();
+			stmt.clearWarnings();
+			if (stmt.getFetchSize() != fetchSize)
+				stmt.setFetchSize(fetchSize);
+			statements.put(sql, stmt);
+		}
+		catch (SQLException e)
+		{
+			closeQuietly(stmt);
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement stmt)
+	{
+		try
+		{
+			stmt.close();
+		}
+		catch (SQLException e)
+		{
+			System.err.println("StatementCache: close failed with " + e);
+		}
+	}
+
+	public int getSize()
+	{
+		return statements.size();
+	}
+
+	public int getHitCount()
+	{
+		return hits;
+	}
+
+	public int getMissCount()
+	{
+		return misses;
+	}
+
+	public static long getTotalHitCount()
+	{
+		return totalHits.get();
+	}
+
+	public static long getTotalMissCount()
+	{
+		return totalMisses.get();
+	}
+
+	public static long getTotalEvictionCount()
+	{
+		return totalEvictions.get();
+	}
+
+	/**
+	 * @return process wide statistics of all statement caches.
+	 */
+	public static Json getStatistics()
+	{
+		long h = getTotalHitCount();
+		long m = getTotalMissCount();
+		return Json.object()
+			.set("hits", h)
+			.set("misses", m)
+			.set("evictions", getTotalEvictionCount())
+			.set("hitRate", (h + m) == 0? 0 : (double) h / (h + m));
+	}
+
+	/**
+	 * Delegates to the statement, except close and isClosed.
+	 */
+	private class CachedStatementHandler implements InvocationHandler
+	{
+		private final String sql;
+		private final PreparedStatement stmt;
+		private final int fetchSize;
+		private final int use;
+		private boolean closed = false;
+
+		CachedStatementHandler(String sql, PreparedStatement stmt, int fetchSize, int use)
+		{
+			this.sql = sql;
+			this.stmt = stmt;
+			this.fetchSize = fetchSize;
+			this.use = use;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if ("close".equals(name) && method.getParameterTypes().length == 0)
+			{
+				if (!closed)
+				{
+					closed = true;
+					release(sql, stmt, fetchSize, use);
+				}
+				return null;
+			}
+			else if ("isClosed".equals(name) && method.getParameterTypes().length == 0)
+				return closed || stmt.isClosed();
+			else if (closed && method.getDeclaringClass() != Object.class)
+				throw new SQLException("Statement closed: " + sql);
+			try
+			{
+				return method.invoke(stmt, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -51,6 +51,10 @@ import oracle.jdbc.OracleConnection;
  * return this wrapper object in sublevel mode. All commit and close operations in sublevel methods will be ignored.   
  * Once execution returns to the starting toplevel method, the toplevel mode wrapper can be used to commit, rollback, et.c. 
  * the wrapped connection.
+ * 
+ * Both wrappers share a StatementCache for prepareStatement(String). For a CirmConnectionPool connection this is
+ * the cache of the physical connection, which the pool keeps across borrows; otherwise a cache is created 
+ * for the wrapper and closed with the toplevel wrapper.
  *  
  * 
  * @author Thomas Hilpold
@@ -59,11 +63,18 @@ public class ThreadLocalConnection implements Connection
 {
 	public static boolean DBG = false;
 
+	/**
+	 * Maximum number of cached prepared statements per connection; 0 disables the statement cache.
+	 */
+	public static int STATEMENT_CACHE_SIZE = 50;
+
 	// Access to this variable does not need to be synchronized.
 	private static ThreadLocal<ThreadLocalConnection> threadlocalSubLevelConnections = new ThreadLocal<ThreadLocalConnection>();
 
 	private boolean topLevelMethodMode;
 	private Connection wrappedConnection;
+	private final StatementCache statementCache;
+	private final boolean ownsStatementCache;
 
 	/**
 	 * Creates and returns a fully functional toplevel thread local connection wrapper for the given
@@ -81,8 +92,14 @@ public class ThreadLocalConnection implements Connection
 			throw new IllegalStateException("A toplevel connection for thread: " + Thread.currentThread().getName()
 					+ " was not closed properly.");
 		}
-		ThreadLocalConnection topLevelWrappedConnection = new ThreadLocalConnection(conn, true);
-		threadlocalSubLevelConnections.set(new ThreadLocalConnection(conn, false));
+		StatementCache statementCache;
+		boolean ownsStatementCache = !(conn instanceof CirmConnectionPool.PooledConnection);
+		if (ownsStatementCache)
+			statementCache = (STATEMENT_CACHE_SIZE > 0)? new StatementCache(conn, STATEMENT_CACHE_SIZE) : null;
+		else
+			statementCache = ((CirmConnectionPool.PooledConnection) conn).getStatementCache();
+		ThreadLocalConnection topLevelWrappedConnection = new ThreadLocalConnection(conn, true, statementCache, ownsStatementCache);
+		threadlocalSubLevelConnections.set(new ThreadLocalConnection(conn, false, statementCache, ownsStatementCache));
 		if (DBG)
 		{
 			System.out.println("ThreadLocalConnection toplevel created conn : " + topLevelWrappedConnection
@@ -118,7 +135,7 @@ public class ThreadLocalConnection implements Connection
 		return threadlocalSubLevelConnections.get() != null;
 	}
 
-	private ThreadLocalConnection(Connection connection, boolean topLevelMode)
+	private ThreadLocalConnection(Connection connection, boolean topLevelMode, StatementCache statementCache, boolean ownsStatementCache)
 	{
 		if (DBG && topLevelMode) {
 			System.out.println("Creating toplevel for connection : " + connection + " tlc: " + this);
@@ -128,6 +145,8 @@ public class ThreadLocalConnection implements Connection
 		}
 		this.topLevelMethodMode = topLevelMode;
 		wrappedConnection = connection;
+		this.statementCache = statementCache;
+		this.ownsStatementCache = ownsStatementCache;
 	}
 	
 	public void assertTopLevelMode() {
@@ -144,6 +163,14 @@ public class ThreadLocalConnection implements Connection
 		return wrappedConnection;
 	}
 	
+	/**
+	 * @return the statement cache shared by the toplevel and sublevel wrapper or null, if disabled.
+	 */
+	public StatementCache getStatementCache()
+	{
+		return statementCache;
+	}
+
 	public boolean isTopLevelMode()
 	{
 		return topLevelMethodMode;
@@ -184,7 +211,18 @@ public class ThreadLocalConnection implements Connection
 
 	public void closeAndDiscard() throws SQLException {
 		if (topLevelMethodMode) { 
-			if (wrappedConnection.isWrapperFor(OracleConnection.class)) {
+			if (wrappedConnection instanceof CirmConnectionPool.PooledConnection) {
+				// the pool closes the statement cache with the physical connection
+				try {
+					((CirmConnectionPool.PooledConnection) wrappedConnection).discard();
+					System.err.println("Successfully Discarded: " + wrappedConnection);
+				} finally {
+					// Disassociate this connection from the threadlocal var.
+					threadlocalSubLevelConnections.remove();
+				}
+			} else if (wrappedConnection.isWrapperFor(OracleConnection.class)) {
+				if (ownsStatementCache && statementCache != null)
+					statementCache.closeAll();
 				try {
 					OracleConnection oc =wrappedConnection.unwrap(OracleConnection.class);
 					oc.close(OracleConnection.INVALID_CONNECTION);
@@ -209,6 +247,9 @@ public class ThreadLocalConnection implements Connection
 					System.out.println("Connection : " + wrappedConnection + " had warnings before close.:");
 					System.out.println(wrappedConnection.getWarnings());
 				}
+				// a pooled connection keeps its statements for the next borrower
+				if (ownsStatementCache && statementCache != null)
+					statementCache.closeAll();
 				wrappedConnection.close();
 			}
 			catch (SQLException e)
@@ -271,6 +312,16 @@ public class ThreadLocalConnection implements Connection
 		wrappedConnection.setTypeMap(map);
 	}
 
+	/**
+	 * Uses the statement cache, if enabled.
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException
+	{
+		if (statementCache != null)
+			return statementCache.prepareStatement(sql);
+		return wrappedConnection.prepareStatement(sql);
+	}
+
 	// ------------------------------------------------------------------------
 	// UNMODIFIED METHODS DIRECTLY DELEGATED:
 	//
@@ -289,11 +340,6 @@ public class ThreadLocalConnection implements Connection
 		return wrappedConnection.createStatement();
 	}
 
-	public PreparedStatement prepareStatement(String sql) throws SQLException
-	{
-		return wrappedConnection.prepareStatement(sql);
-	}
-
 	public CallableStatement prepareCall(String sql) throws SQLException
 	{
 		return wrappedConnection.prepareCall(sql);
@@ -150,6 +150,30 @@ public class OracleHook implements DatabaseHook
         }	    
 	}
 
+	public long[] nextSequenceBlock(Connection conn, String sequenceName, int count)  throws SQLException
+	{
+        ResultSet rs = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = conn.prepareStatement("select " + sequenceName + ".nextval from dual connect by level <= ?");
+            stmt.setInt(1, count);
+            rs = stmt.executeQuery();
+            long[] result = new long[count];
+            int i = 0;
+            while (rs.next() && i < count)
+                result[i++] = rs.getLong(1);
+            if (i != count)
+                throw new SQLException("nextSequenceBlock: expected " + count + " values, got " + i);
+            conn.commit();
+            return result;
+        }        
+        finally
+        {
+            DBU.close(null, stmt, rs);
+        }	    
+	}
+
     public String nextSequenceClause(String sequenceName)
     {
         return sequenceName + ".NEXTVAL";
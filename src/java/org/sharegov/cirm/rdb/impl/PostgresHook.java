@@ -70,6 +70,30 @@ public class PostgresHook implements DatabaseHook
         }        
     }
     
+    public long[] nextSequenceBlock(Connection conn, String sequenceName, int count)  throws SQLException
+    {
+        ResultSet rs = null;
+        PreparedStatement stmt = null;
+        try
+        {
+            stmt = conn.prepareStatement("select nextval('" + sequenceName + "') from generate_series(1, ?)");
+            stmt.setInt(1, count);
+            rs = stmt.executeQuery();
+            long[] result = new long[count];
+            int i = 0;
+            while (rs.next() && i < count)
+                result[i++] = rs.getLong(1);
+            if (i != count)
+                throw new SQLException("nextSequenceBlock: expected " + count + " values, got " + i);
+            conn.commit();
+            return result;
+        }        
+        finally
+        {
+            DBU.close(null, stmt, rs);
+        }        
+    }
+    
     public String nextSequenceClause(String sequenceName)
     {
         return "nextval('" + sequenceName + "')";
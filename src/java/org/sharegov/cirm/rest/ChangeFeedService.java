@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rest;
+
+import static org.sharegov.cirm.utils.GenUtils.ko;
+import static org.sharegov.cirm.utils.GenUtils.ok;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import mjson.Json;
+
+import org.sharegov.cirm.rdb.BOChangeFeed;
+import org.sharegov.cirm.rdb.BOChangeFeed.Change;
+
+/**
+ * Long poll access to the business object change feed for interfaces and indexers.<br>
+ * A consumer reads changes after its cursor, processes them and stores the returned cursor
+ * as its offset, either itself or with POST consumer/{name}/offset.<br>
+ *
+ * @see BOChangeFeed
+ */
+@Path("changes")
+@Produces(MediaType.APPLICATION_JSON)
+public class ChangeFeedService extends RestService
+{
+	/**
+	 * Gets the next batch of changes after cursor, waiting up to timeoutSecs if there are none.
+	 * If no cursor is given, the stored offset of consumer is used.
+	 *
+	 * @return ok.changes[{boid, changeDate, cursor, bo?}], ok.cursor to continue with
+	 */
+	@GET
+	@Path("/")
+	public Json getChanges(@QueryParam("cursor") String cursor,
+			@QueryParam("consumer") String consumer,
+			@QueryParam("limit") @DefaultValue("" + BOChangeFeed.DEFAULT_BATCH_SIZE) int limit,
+			@QueryParam("includeBo") @DefaultValue("false") boolean includeBo,
+			@QueryParam("timeoutSecs") @DefaultValue("0") int timeoutSecs)
+	{
+		try
+		{
+			if ((cursor == null || cursor.isEmpty()) && consumer != null)
+				cursor = BOChangeFeed.get().getOffset(consumer);
+			List<Change> changes = BOChangeFeed.get().poll(cursor, limit, includeBo, timeoutSecs);
+			Json result = Json.array();
+			for (Change c : changes)
+				result.add(c.toJson());
+			String next = changes.isEmpty() ? cursor : changes.get(changes.size() - 1).getCursor();
+			return ok().set("changes", result).set("cursor", next);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return ko(e.getMessage());
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace(System.err);
+			return ko(t);
+		}
+	}
+
+	/**
+	 * Gets the stored cursor of a consumer.
+	 * @return ok.cursor, null if the consumer has not stored one.
+	 */
+	@GET
+	@Path("/consumer/{name}/offset")
+	public Json getOffset(@PathParam("name") String consumer)
+	{
+		try
+		{
+			return ok().set("cursor", BOChangeFeed.get().getOffset(consumer));
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace(System.err);
+			return ko(t);
+		}
+	}
+
+	/**
+	 * Stores cursor as the offset of a consumer, after the consumer processed all changes up to it.
+	 */
+	@POST
+	@Path("/consumer/{name}/offset")
+	public Json commitOffset(@PathParam("name") String consumer, @QueryParam("cursor") String cursor)
+	{
+		try
+		{
+			BOChangeFeed.get().commitOffset(consumer, cursor);
+			return ok();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return ko(e.getMessage());
+		}
+		catch (Throwable t)
+		{
+			t.printStackTrace(System.err);
+			return ko(t);
+		}
+	}
+}
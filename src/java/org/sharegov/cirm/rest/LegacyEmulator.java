@@ -48,6 +48,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -120,6 +121,8 @@ import org.sharegov.cirm.rdb.Query;
 import org.sharegov.cirm.rdb.QueryTranslator;
 import org.sharegov.cirm.rdb.RelationalOWLPersister;
 import org.sharegov.cirm.rdb.RelationalStore;
+import org.sharegov.cirm.rdb.SRSearchProjection;
+import org.sharegov.cirm.rdb.SearchRowSink;
 import org.sharegov.cirm.rdb.Sql;
 import org.sharegov.cirm.rdb.Statement;
 import org.sharegov.cirm.stats.CirmStatistics;
@@ -148,6 +151,11 @@ public class LegacyEmulator extends RestService
 	public static boolean DBGSQL = false;
 
 	public static final int MAX_CALLWS_ATTEMPTS = 3;
+
+	/**
+	 * Number of Service Requests whose search result rows are read, labeled and written per transaction.
+	 */
+	public static int SEARCH_CHUNK_SIZE = 500;
 	
 	private static Map<String, IRI> hasTypeMappingToXSD;
 
@@ -380,17 +388,9 @@ public class LegacyEmulator extends RestService
 	{
 		try
 		{
-			RelationalOWLPersister persister = getPersister();
-			OWLEntity entity = persister.getStore().selectEntityByID(
-					Long.valueOf(caseID), Refs.tempOntoManager.resolve().getOWLDataFactory());
-			if (entity != null)
-			{
-				BOntology bo = new BOntology(
-						persister.getBusinessObjectOntology(entity.getIRI()));
-				return bo;
-			}
-			else
-				return null;
+			Long boid = Long.valueOf(caseID);
+			Map<Long, OWLOntology> bos = getPersister().getBusinessObjectOntologies(Collections.singleton(boid));
+			return bos.containsKey(boid) ? new BOntology(bos.get(boid)) : null;
 		}
 		catch (Throwable e)
 		{
@@ -422,14 +422,33 @@ public class LegacyEmulator extends RestService
 		}
 	}
 
+	/**
+	 * Loads one service case the same way as findServiceCaseOntologies, 
+	 * in one transaction with set based queries.
+	 * @param caseid
+	 * @return the service case or null, if it does not exist or is not a valid business object.
+	 */
 	public BOntology findServiceCaseOntology(long caseid)
 	{
-			// System.out.println(Arrays.asList(this.getUserGroups()));
+		return findServiceCaseOntologies(Collections.singleton(caseid)).get(caseid);
+	}
+
+	/**
+	 * Loads many service cases with set based queries in one transaction.
+	 * @param caseids
+	 * @return caseid to BOntology in the iteration order of caseids; ids that do not exist or are 
+	 * not valid business objects are omitted.
+	 */
+	public Map<Long, BOntology> findServiceCaseOntologies(Set<Long> caseids)
+	{
 		RelationalOWLPersister persister = OperationService.getPersister();
-		OWLEntity entity = persister.getStore().selectEntityByID(caseid, Refs.tempOntoManager.resolve().getOWLDataFactory());
-		return entity == null ? null : 
-			BOntology.isValidBO(entity.getIRI()) ? 
-				new BOntology(persister.getBusinessObjectOntology(entity.getIRI())) : null;
+		Map<Long, BOntology> result = new LinkedHashMap<Long, BOntology>();
+		for (Map.Entry<Long, OWLOntology> entry : persister.getBusinessObjectOntologies(caseids).entrySet())
+		{
+			if (BOntology.isValidBO(entry.getValue().getOntologyID().getOntologyIRI()))
+				result.put(entry.getKey(), new BOntology(entry.getValue()));
+		}
+		return result;
 	}
 	
 	@GET
@@ -532,7 +551,7 @@ public class LegacyEmulator extends RestService
 		return caseid == -1 ? notfound : lookupServiceCase(caseid);		
 	}
 
-	private Json getExportData(final Json formData)
+	private Json getExportMetaData(Json formData)
 	{
 		Json metaData = Json.object().set("boid", "SR ID")
 				.set("type", "SR Type").set("fullAddress", "Address")
@@ -546,6 +565,24 @@ public class LegacyEmulator extends RestService
 			metaData.set("gisColumn", formData.at("gisColumnName").asString());
 			metaData.set("columns", metaData.at("columns").asInteger() + 1);
 		}
+		return metaData;
+	}
+
+	/**
+	 * Exports sorted by a result column are sorted in memory after labeling,
+	 * all others can be written row by row in search result order.
+	 */
+	private boolean isSortedExport(Json formData)
+	{
+		Json sortBy = formData.at("sortBy");
+		if(formData.has("atAddress") && formData.at("atAddress").has("sortBy"))
+			sortBy = formData.at("atAddress").at("sortBy");
+		return sortBy != null && !sortBy.asString().equals("");
+	}
+
+	private Json getExportData(final Json formData)
+	{
+		Json metaData = getExportMetaData(formData);
 		Json data = lookupAdvancedSearch(formData).at("resultsArray");
 
 		if(formData.has("atAddress"))
@@ -557,8 +594,7 @@ public class LegacyEmulator extends RestService
 				formData.set("sortDirection",
 					formData.at("atAddress").at("sortDirection").asString());
 		}
-		if (formData.has("sortBy") 
-				&& !formData.at("sortBy").asString().equals("")) 
+		if (isSortedExport(formData)) 
 		{
 			Collections.sort(data.asJsonList(), new Comparator<Json>()
 			{
@@ -661,7 +697,41 @@ public class LegacyEmulator extends RestService
 	public Representation exportToPDF(@FormParam("formData") String formData)
 	{
 		Json form = Json.read(formData);
-		final Json allData = getExportData(form);
+		if (isSortedExport(form))
+		{
+			final Json allData = getExportData(form);
+			OutputRepresentation or = new OutputRepresentation(
+					MediaType.APPLICATION_PDF)
+			{
+				@Override
+				public void write(OutputStream out) throws IOException
+				{
+					try
+					{
+						PDFExportUtil pdf = new PDFExportUtil();
+						pdf.exportData(out, allData);
+					}
+					catch (Exception e)
+					{
+						e.printStackTrace();
+					}
+				}
+			};
+			return or;
+		}
+		// Unsorted exports are written while the rows are read, one chunk at a time.
+		final Json metaData = getExportMetaData(form);
+		final Json ids;
+		try
+		{
+			ids = lookupAdvancedSearchIds(form);
+		}
+		catch (SQLException e)
+		{
+			throw new RuntimeException(e);
+		}
+		if (!ids.is("ok", true))
+			throw new RuntimeException(ids.at("error").asString());
 		OutputRepresentation or = new OutputRepresentation(
 				MediaType.APPLICATION_PDF)
 		{
@@ -670,8 +740,15 @@ public class LegacyEmulator extends RestService
 			{
 				try
 				{
-					PDFExportUtil pdf = new PDFExportUtil();
-					pdf.exportData(out, allData);
+					final PDFExportUtil pdf = new PDFExportUtil();
+					pdf.begin(out, metaData);
+					writeAdvancedSearchRows(ids, new SearchRowSink() {
+						public void row(Json row) throws IOException
+						{
+							pdf.addRow(row);
+						}
+					});
+					pdf.end();
 				}
 				catch (Exception e)
 				{
@@ -885,6 +962,8 @@ public class LegacyEmulator extends RestService
 	private long getSearchResultCount(Query q, RelationalStore store)
 			throws SQLException
 	{
+		if (q.getKeyset() != null)
+			q.getKeyset().clear(q);
 		q.getStatement().getSql().CLEAR_PAGINATION();
 		q.getStatement().getSql().CLEAR_COLUMNS();
 		q.getStatement().getSql().COLUMN("count(*)").AS("RecordCount");
@@ -915,145 +994,224 @@ public class LegacyEmulator extends RestService
 		try
 		{	
 			if (DBG) ThreadLocalStopwatch.startTop("START lookupAdvancedSearch " + xComment);
-			QueryTranslator qt = new QueryTranslator();
-			RelationalStore store = getPersister().getStore();
-			Json resultsArray = Json.array();
-			Query q = null;
+			Json result = lookupAdvancedSearchIds(data);
+			if (!result.is("ok", true))
+				return result;
+			final Json resultsArray = Json.array();
+			writeAdvancedSearchRows(result, new SearchRowSink() {
+				public void row(Json row)
+				{
+					resultsArray.add(row);
+				}
+			});
+			return result.set("resultsArray", resultsArray).delAt("boids").delAt("gisColumnName");
+		}
+		catch (Exception e)
+		{
+			ThreadLocalStopwatch.fail("FAILED lookupAdvancedSearch with " + e);
+			e.printStackTrace();
+			return ko(e.getMessage());
+		} finally {
+			if (DBG) ThreadLocalStopwatch.stop("END lookupAdvancedSearch " + xComment);
+		}
+	}
 
-			//If Gis Layer/Area is part of the Search criteria then the users
-			//want to see the searched column as part of the result as well.
-			Json gisSearch = object("isPresent", false);
-			if (data.has("gisColumnName"))
-			{
-				gisSearch.set("isPresent", true).set("gisColumnName",
-						data.at("gisColumnName").asString());
-				data.delAt("gisColumnName");
-			}
-			
-			if(!isClientExempt())
+	/**
+	 * First part of an advanced search: checks permissions and queries the ids of the 
+	 * Service Requests that satisfy the search criteria. Call it while the request is 
+	 * processed, as permissions depend on the current user.
+	 * 
+	 * @param data - Search Criteria
+	 * @return ok with the ids in result order ("boids"), the gis column name if any, the total 
+	 * number of records and a continuation token if a keyset was used; or ko.
+	 */
+	private Json lookupAdvancedSearchIds(Json data) throws SQLException
+	{
+		QueryTranslator qt = new QueryTranslator();
+		RelationalStore store = getPersister().getStore();
+		Query q = null;
+		Json result = ok();
+
+		//If Gis Layer/Area is part of the Search criteria then the users
+		//want to see the searched column as part of the result as well.
+		if (data.has("gisColumnName"))
+		{
+			result.set("gisColumnName", data.at("gisColumnName").asString());
+			data.delAt("gisColumnName");
+		}
+		
+		if(!isClientExempt())
+		{
+			GenUtils.ensureArray(data, "type");
+			List<Json> searchTypes = data.at("type").asJsonList();
+			boolean searchAllAllowed = "legacy:ServiceCase".equals(searchTypes.get(0).asString()); 
+			if(searchAllAllowed || searchTypes.size() > 1)
 			{
-				GenUtils.ensureArray(data, "type");
-				List<Json> searchTypes = data.at("type").asJsonList();
-				boolean searchAllAllowed = "legacy:ServiceCase".equals(searchTypes.get(0).asString()); 
-				if(searchAllAllowed || searchTypes.size() > 1)
-				{
-					Set<OWLNamedIndividual> permittedTypes = Permissions.
-							getAllowedObjectsOfClass(
-								Permissions.BO_VIEW, 
-								owlClass("legacy:ServiceCase"), 
-								getUserActors());
-					List<String> permittedTypeList = new ArrayList<String>();
-					for(OWLNamedIndividual ind : permittedTypes)
-					{	
-						String indIRIStr = ind.getIRI().toString();
-						if (searchAllAllowed || searchTypes.contains(Json.make(indIRIStr)))
-						{
-							permittedTypeList.add(indIRIStr);
-						}
+				Set<OWLNamedIndividual> permittedTypes = Permissions.
+						getAllowedObjectsOfClass(
+							Permissions.BO_VIEW, 
+							owlClass("legacy:ServiceCase"), 
+							getUserActors());
+				List<String> permittedTypeList = new ArrayList<String>();
+				for(OWLNamedIndividual ind : permittedTypes)
+				{	
+					String indIRIStr = ind.getIRI().toString();
+					if (searchAllAllowed || searchTypes.contains(Json.make(indIRIStr)))
+					{
+						permittedTypeList.add(indIRIStr);
 					}
-					data.set("type", permittedTypeList);
-					if(permittedTypeList.isEmpty())
-						return ko("Permission denied to all Service Request Types specified in search parameters");
 				}
-				else if (searchTypes.size() == 1)
-				{
-					if (!Permissions.check(individual("BO_View"), 
-							individual(searchTypes.get(0).asString()),
-							getUserActors()))
-						return ko("Permission denied to Service Request Type specified in search parameters.");
-				}
-				else 
-				{
-					return ko("No type indication was provided by Basic Search. Please contact tech team.");					
-				}
-					
+				data.set("type", permittedTypeList);
+				if(permittedTypeList.isEmpty())
+					return ko("Permission denied to all Service Request Types specified in search parameters");
 			}
-
-			
-			q = qt.translate(data, store);
-		
-			
-			Set<Long> results = store.query(q, 
-					Refs.tempOntoManager.resolve().getOWLDataFactory());
-			if (results.size() > 0)
+			else if (searchTypes.size() == 1)
 			{
-				Sql select = SELECT();
-				Statement statement = new Statement();
-				Query query = new Query();
-				statement.setSql(select);
-				query.setStatement(statement);
-
-				select
-					.COLUMN("a.SR_REQUEST_ID").AS("SR_REQUEST_ID")
-					.COLUMN("i1.IRI").AS("TYPE")
-					.COLUMN("addrV.FULL_ADDRESS").AS("FULL_ADDRESS")
-					.COLUMN("addrV.ZIP").AS("ZIP")
-					.COLUMN("addrV.CITY_SHORT").AS("CITY")
-					.COLUMN("a.SR_STATUS").AS("STATUS")
-					.COLUMN("acts.COMPLETE_DATE").AS("COMPLETE_DATE")
-					.COLUMN("a.CREATED_DATE").AS("CREATED_DATE")
-					.COLUMN("a.CASE_NUMBER").AS("CASE_NUMBER")
-					.COLUMN("addrV.UNIT").AS("UNIT");
-				if (gisSearch.at("isPresent").asBoolean() == true)
-					select.COLUMN(
-							"CIRM_GIS_INFO."
-									+ gisSearch.at("gisColumnName").asString())
-							.AS("gisColumn");
-				select.FROM("CIRM_SR_REQUESTS a");
-				String innerQuery = "(SELECT DISTINCT a1.SR_REQUEST_ID, " +
-						"MAX(a1.COMPLETE_DATE) AS COMPLETE_DATE FROM " +
-						"CIRM_SR_ACTIVITY a1 GROUP BY a1.SR_REQUEST_ID) acts ";
-				select.LEFT_OUTER_JOIN(innerQuery).ON("a.SR_REQUEST_ID",
-						"acts.SR_REQUEST_ID");
-				select.LEFT_OUTER_JOIN("CIRM_MDC_ADDRESS_VIEW addrV").ON(
-						"a.SR_REQUEST_ADDRESS", "addrV.ADDRESS_ID");
-				select.LEFT_OUTER_JOIN("CIRM_CLASSIFICATION cl").ON(
-						"cl.SUBJECT", "a.SR_REQUEST_ID");
-				select.LEFT_OUTER_JOIN("CIRM_IRI i1")
-						.ON("cl.OWLCLASS", "i1.ID");
-				select.LEFT_OUTER_JOIN("CIRM_GIS_INFO").ON("a.GIS_INFO_ID",
-						"CIRM_GIS_INFO.ID");
-				select.WHERE("cl.TO_DATE IS NULL");
-				select.AND();
-				select.WHERE("a.SR_REQUEST_ID");
-
-				Set<String> boids = new HashSet<String>();
-				for (Long boid : results)
-					boids.add(boid.toString());
-				select.IN(boids.toArray(new String[boids.size()]));
-				Json viewResults = store.advancedSearch(query);
+				if (!Permissions.check(individual("BO_View"), 
+						individual(searchTypes.get(0).asString()),
+						getUserActors()))
+					return ko("Permission denied to Service Request Type specified in search parameters.");
+			}
+			else 
+			{
+				return ko("No type indication was provided by Basic Search. Please contact tech team.");					
+			}
 				
-				for (Json j : viewResults.asJsonList())
+		}
+
+		q = qt.translate(data, store);
+		Set<Long> results = store.query(q, 
+				Refs.tempOntoManager.resolve().getOWLDataFactory());
+		if (q.getKeyset() != null)
+			result.set(QueryTranslator.CONTINUATION_TOKEN, q.getKeyset().getNextToken());
+		Json boids = Json.array();
+		for (Long boid : results)
+			boids.add(boid);
+		result.set("boids", boids);
+		return result.set("totalRecords", getSearchResultCount(q, store));
+	}
+
+	/**
+	 * Second part of an advanced search: reads the result rows of the ids found by
+	 * lookupAdvancedSearchIds in chunks of SEARCH_CHUNK_SIZE, each in its own read only 
+	 * transaction. Each chunk's rows are labeled after its transaction ended and handed 
+	 * to the sink in result order, so only one chunk is held in memory and no reasoner 
+	 * lookups happen while a connection is in use.
+	 * 
+	 * @param ids the result of lookupAdvancedSearchIds
+	 * @param sink receives each row once.
+	 */
+	private void writeAdvancedSearchRows(Json ids, SearchRowSink sink) throws SQLException, IOException
+	{
+		RelationalStore store = getPersister().getStore();
+		String gisColumnName = ids.has("gisColumnName") ? ids.at("gisColumnName").asString() : null;
+		List<Json> boids = ids.at("boids").asJsonList();
+		for (int from = 0; from < boids.size(); from += SEARCH_CHUNK_SIZE)
+		{
+			List<Json> chunk = boids.subList(from, Math.min(from + SEARCH_CHUNK_SIZE, boids.size()));
+			final Map<Long, List<Json>> rowsByBoid = new HashMap<Long, List<Json>>();
+			store.advancedSearch(advancedSearchRowsQuery(chunk, gisColumnName), new SearchRowSink() {
+				public void row(Json j)
 				{
-					OWLNamedIndividual ind = individual("legacy:" + j.at("type").asString());
-					j.set("label", OWL.getEntityLabel(ind));
-					ind = individual(j.at("Street_Address_City").asString());
-					Set<OWLLiteral> dpSet = ind.getDataPropertyValues(
-							dataProperty("Name"), topOntology.resolve());
-					if (!dpSet.isEmpty())
-						j.set("Street_Address_City", dpSet.iterator().next()
-								.getLiteral());
-					else
+					Long boid = j.at("boid").asLong();
+					List<Json> rows = rowsByBoid.get(boid);
+					if (rows == null)
 					{
-						dpSet = ind.getDataPropertyValues(
-								dataProperty("Alias"), topOntology.resolve());
-						if (!dpSet.isEmpty())
-							j.set("Street_Address_City", dpSet.iterator()
-									.next().getLiteral());
+						rows = new ArrayList<Json>(1);
+						rowsByBoid.put(boid, rows);
 					}
-					resultsArray.add(j);
+					rows.add(j);
+				}
+			});
+			for (Json boid : chunk)
+			{
+				List<Json> rows = rowsByBoid.get(boid.asLong());
+				if (rows == null)
+					continue;
+				for (Json j : rows)
+				{
+					labelAdvancedSearchRow(j);
+					sink.row(j);
 				}
 			}
-			return ok().set("resultsArray", resultsArray).set("totalRecords",
-					getSearchResultCount(q, store));
 		}
-		catch (Exception e)
+	}
+
+	private Query advancedSearchRowsQuery(List<Json> boids, String gisColumnName)
+	{
+		Sql select = SELECT();
+		Statement statement = new Statement();
+		Query query = new Query();
+		statement.setSql(select);
+		query.setStatement(statement);
+
+		if (SRSearchProjection.USE_FOR_SEARCH && gisColumnName == null)
 		{
-			ThreadLocalStopwatch.fail("FAILED lookupAdvancedSearch with " + e);
-			e.printStackTrace();
-			return ko(e.getMessage());
-		} finally {
-			if (DBG) ThreadLocalStopwatch.stop("END lookupAdvancedSearch " + xComment);
+			for (String column : SRSearchProjection.RESULT_COLUMNS)
+				select.COLUMN(column);
+			select.FROM(SRSearchProjection.TABLE);
+			select.WHERE("SR_REQUEST_ID");
+		}
+		else
+		{
+			select
+				.COLUMN("a.SR_REQUEST_ID").AS("SR_REQUEST_ID")
+				.COLUMN("i1.IRI").AS("TYPE")
+				.COLUMN("addrV.FULL_ADDRESS").AS("FULL_ADDRESS")
+				.COLUMN("addrV.ZIP").AS("ZIP")
+				.COLUMN("addrV.CITY_SHORT").AS("CITY")
+				.COLUMN("a.SR_STATUS").AS("STATUS")
+				.COLUMN("acts.COMPLETE_DATE").AS("COMPLETE_DATE")
+				.COLUMN("a.CREATED_DATE").AS("CREATED_DATE")
+				.COLUMN("a.CASE_NUMBER").AS("CASE_NUMBER")
+				.COLUMN("addrV.UNIT").AS("UNIT");
+			if (gisColumnName != null)
+				select.COLUMN("CIRM_GIS_INFO." + gisColumnName).AS("gisColumn");
+			select.FROM("CIRM_SR_REQUESTS a");
+			String innerQuery = "(SELECT DISTINCT a1.SR_REQUEST_ID, " +
+					"MAX(a1.COMPLETE_DATE) AS COMPLETE_DATE FROM " +
+					"CIRM_SR_ACTIVITY a1 GROUP BY a1.SR_REQUEST_ID) acts ";
+			select.LEFT_OUTER_JOIN(innerQuery).ON("a.SR_REQUEST_ID",
+					"acts.SR_REQUEST_ID");
+			select.LEFT_OUTER_JOIN("CIRM_MDC_ADDRESS_VIEW addrV").ON(
+					"a.SR_REQUEST_ADDRESS", "addrV.ADDRESS_ID");
+			select.LEFT_OUTER_JOIN("CIRM_CLASSIFICATION cl").ON(
+					"cl.SUBJECT", "a.SR_REQUEST_ID");
+			select.LEFT_OUTER_JOIN("CIRM_IRI i1")
+					.ON("cl.OWLCLASS", "i1.ID");
+			select.LEFT_OUTER_JOIN("CIRM_GIS_INFO").ON("a.GIS_INFO_ID",
+					"CIRM_GIS_INFO.ID");
+			select.WHERE("cl.TO_DATE IS NULL");
+			select.AND();
+			select.WHERE("a.SR_REQUEST_ID");
+		}
+		String[] inValues = new String[boids.size()];
+		for (int i = 0; i < inValues.length; i++)
+			inValues[i] = boids.get(i).asString();
+		select.IN(inValues);
+		return query;
+	}
+
+	/**
+	 * Adds the type label and replaces the city short name by the city name.
+	 */
+	private void labelAdvancedSearchRow(Json j)
+	{
+		OWLNamedIndividual ind = individual("legacy:" + j.at("type").asString());
+		j.set("label", OWL.getEntityLabel(ind));
+		ind = individual(j.at("Street_Address_City").asString());
+		Set<OWLLiteral> dpSet = ind.getDataPropertyValues(
+				dataProperty("Name"), topOntology.resolve());
+		if (!dpSet.isEmpty())
+			j.set("Street_Address_City", dpSet.iterator().next()
+					.getLiteral());
+		else
+		{
+			dpSet = ind.getDataPropertyValues(
+					dataProperty("Alias"), topOntology.resolve());
+			if (!dpSet.isEmpty())
+				j.set("Street_Address_City", dpSet.iterator()
+						.next().getLiteral());
 		}
 	}
 
@@ -1443,7 +1601,7 @@ public class LegacyEmulator extends RestService
 		{
 			ThreadLocalStopwatch.start("START updateServiceCase (str)");
 			final List<CirmMessage> msgsToSend = new ArrayList<CirmMessage>();
-			Json result =  Refs.defaultRelationalStore.resolve().txn(new CirmTransaction<Json>() {
+			CirmTransaction<Json> updateTxn = new CirmTransaction<Json>() {
 			public Json call()
 			{
 				msgsToSend.clear();
@@ -1456,7 +1614,10 @@ public class LegacyEmulator extends RestService
 				Json result = updateServiceCaseTransaction(serviceCaseParam, bo, updateDate, msgsToSend, originator);
 				Response.setCurrent(current);
 				return result;
-			}});			
+			}};
+			if (serviceCaseParam.has("boid") && serviceCaseParam.at("boid").isNumber())
+				updateTxn.addBusinessObjectId(serviceCaseParam.at("boid").asLong());
+			Json result =  Refs.defaultRelationalStore.resolve().txn(updateTxn);			
 			ThreadLocalStopwatch.stop("END updateServiceCase (str)");
 			return result;	
 		}
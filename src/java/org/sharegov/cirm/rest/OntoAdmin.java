@@ -62,7 +62,9 @@ import org.sharegov.cirm.Refs;
 import org.sharegov.cirm.StartUp;
 import org.sharegov.cirm.event.EventDispatcher;
 import org.sharegov.cirm.owl.CachedReasoner;
-import org.sharegov.cirm.owl.SynchronizedOWLOntologyManager;
+import org.sharegov.cirm.owl.CachedReasonerSnapshot;
+import org.sharegov.cirm.owl.CachedReasonerWarmup;
+import org.sharegov.cirm.owl.SynchronizedOWLManager;
 import org.sharegov.cirm.utils.GenUtils;
 import org.sharegov.cirm.utils.OntoChangesReference;
 import org.sharegov.cirm.utils.OntologyCommit;
@@ -81,6 +83,10 @@ public class OntoAdmin extends RestService
 	
 	public final String CACHED_REASONER_RESDIR = "/src/resources/cachedReasoner/";
 	public final String CACHED_REASONER_POPULATE_GET_INSTANCES_CACHE_FILE = CACHED_REASONER_RESDIR + "populateGetInstancesCache.json";
+	public final String CACHED_REASONER_SNAPSHOT_FILE = CACHED_REASONER_RESDIR + "cachedReasonerSnapshot.bin";
+	
+	private static volatile CachedReasonerSnapshot cachedReasonerSnapshot = null;
+	private static volatile CachedReasonerWarmup cachedReasonerWarmup = null;
 	public static int ACTIVITY_TIMEOUT_SECS = 180;
 	
 	public final String[] SERIAL_PRECACHE_IND_QUERIES = new String[] {
@@ -705,10 +711,7 @@ public class OntoAdmin extends RestService
 					System.out.println("done.");
 				}
 		        catch (Throwable t) {
-		        	if (manager instanceof SynchronizedOWLOntologyManager) 
-		        	{
-		        		manager = ((SynchronizedOWLOntologyManager)manager).getWrappedOWLOntologyManager(); 
-		        	}
+		        	manager = SynchronizedOWLManager.unwrapThreadSafeManager(manager);
 		            ((OWLOntologyManagerImpl) manager).ontologyCreated(ont);  // put it back - a hack but it works
 		            manager.setOntologyDocumentIRI(ont, ontologyDocumentIRI);
 		            String msg = "reload of " + iri + " from " + ontologyDocumentIRI + " failed with exception " + t.toString();
@@ -759,6 +762,23 @@ public class OntoAdmin extends RestService
 			return Json.make("Reasoner is not a CachedReasoner instance.");
 	}
 	
+	/**
+	 * Gets the most recent selective invalidation reports of the cached reasoner, newest first.
+	 */
+	@GET
+	@Path("/cachedReasonerInvalidations")
+	public Json cachedReasonerInvalidations()
+	{
+		OWLReasoner r = OWL.reasoner();
+		if (r instanceof CachedReasoner) 
+		{
+			CachedReasoner cr = (CachedReasoner)r;
+			return cr.getInvalidationReports();
+		}
+		else
+			return Json.make("Reasoner is not a CachedReasoner instance.");
+	}
+	
 	@GET
 	@Path("/nrOfCachedReasoners")
 	public Json nrOfCachedReasoners()
@@ -794,11 +814,96 @@ public class OntoAdmin extends RestService
 		{
 			Json queries = Json.read(GenUtils.readTextFile(f));
 			CachedReasoner cr = (CachedReasoner)r;
-			return cr.populateGetInstancesCache(queries);
+			int threads = StartUp.getConfig().at("cachedReasonerWarmupThreads", CachedReasonerWarmup.DEFAULT_THREADS).asInteger();
+			CachedReasonerWarmup warmup = new CachedReasonerWarmup(cr, OWL.loader().getReasonerFactory(), threads);
+			cachedReasonerWarmup = warmup;
+			try
+			{
+				return GenUtils.ok().set("warmup", warmup.run(warmup.parse(queries)));
+			}
+			catch (Exception e)
+			{
+				e.printStackTrace(System.err);
+				return GenUtils.ko(e);
+			}
 		}
 		else
 			return Json.make("Reasoner is not a CachedReasoner instance.");
 	}
+
+	/**
+	 * Gets the progress of the running or last cached reasoner warmup.
+	 */
+	@GET
+	@Path("/cachedReasonerWarmup")
+	public Json cachedReasonerWarmup()
+	{
+		CachedReasonerWarmup warmup = cachedReasonerWarmup;
+		if (warmup == null)
+			return GenUtils.ko("No warmup since start.");
+		return GenUtils.ok().set("warmup", warmup.getProgress());
+	}
+	
+	/**
+	 * @return the snapshot of the cached reasoner, null if the reasoner is not a CachedReasoner.
+	 */
+	public synchronized CachedReasonerSnapshot getCachedReasonerSnapshot()
+	{
+		OWLReasoner r = OWL.reasoner();
+		if (!(r instanceof CachedReasoner))
+			return null;
+		if (cachedReasonerSnapshot == null)
+		{
+			String fileStr = StartUp.getConfig().at("workingDir").asString() + CACHED_REASONER_SNAPSHOT_FILE;
+			cachedReasonerSnapshot = new CachedReasonerSnapshot((CachedReasoner) r, new File(fileStr));
+		}
+		return cachedReasonerSnapshot;
+	}
+
+	@GET
+	@Path("/cachedReasonerSnapshot")
+	public Json cachedReasonerSnapshot()
+	{
+		CachedReasonerSnapshot snapshot = getCachedReasonerSnapshot();
+		if (snapshot == null)
+			return Json.make("Reasoner is not a CachedReasoner instance.");
+		return snapshot.getStatus();
+	}
+
+	/**
+	 * Saves the current cached reasoner answers as snapshot to be loaded on the next start.
+	 */
+	@POST
+	@Path("/cachedReasonerSnapshot/save")
+	public Json cachedReasonerSnapshotSave()
+	{
+		CachedReasonerSnapshot snapshot = getCachedReasonerSnapshot();
+		if (snapshot == null)
+			return GenUtils.ko("Reasoner is not a CachedReasoner instance.");
+		try
+		{
+			return GenUtils.ok().set("snapshot", snapshot.save());
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace(System.err);
+			return GenUtils.ko(e);
+		}
+	}
+
+	/**
+	 * Loads the snapshot in the background, if it matches the current ontologies.
+	 */
+	@POST
+	@Path("/cachedReasonerSnapshot/load")
+	public Json cachedReasonerSnapshotLoad()
+	{
+		CachedReasonerSnapshot snapshot = getCachedReasonerSnapshot();
+		if (snapshot == null)
+			return GenUtils.ko("Reasoner is not a CachedReasoner instance.");
+		snapshot.loadInBackground();
+		return GenUtils.ok();
+	}
 	
 	public synchronized Json compare(String ontologyName){
 		Refs.owlRepo.resolve().ensurePeerStarted();
@@ -24,10 +24,16 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 
 import mjson.Json;
 
 import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.CirmTransactionListenerExecutor;
+import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.rdb.DataSourceRef;
+import org.sharegov.cirm.rdb.HistoryArchiver;
+import org.sharegov.cirm.rdb.SRSearchProjection;
 import org.sharegov.cirm.utils.CirmTransactionUtil;
 import org.sharegov.cirm.utils.GenUtils;
 import org.sharegov.cirm.utils.ServerMonitorFilter;
@@ -66,6 +72,101 @@ public class SystemMonitorService extends RestService
 		return ok().set("transactionInfo", result);
 	}
 	
+	/**
+	 * Gets queue sizes, failures and back pressure counters of asynchronous toplevel transaction listeners.
+	 * @return ok.transactionListenerInfo{queued, submitted, completed, failed, ...}
+	 */
+	@GET
+	@Path("/transactionListenerInfo")
+	public Json getTransactionListenerInfo()
+	{
+		return ok().set("transactionListenerInfo", CirmTransactionListenerExecutor.get().getStatistics());
+	}
+
+	/**
+	 * Gets the gauges of the operations database connection pools (active, idle, waiters, borrow wait p99),
+	 * if CirmConnectionPool is used, and read replica routing statistics.
+	 * @return ok.connectionPool{primary={...}, replicas={...}}
+	 */
+	@GET
+	@Path("/connectionPool")
+	public Json getConnectionPoolInfo()
+	{
+		DataSourceRef dataSourceRef = Refs.defaultPersister.resolve().getDataSourceRef();
+		Json result = dataSourceRef.getPoolStatistics()
+				.set("replicaRouting", dataSourceRef.getReplicaStatistics());
+		return ok().set("connectionPool", result);
+	}
+
+	/**
+	 * Gets the state of the SR search projection (maintain, useForSearch, refreshes, deletes).
+	 * @return ok.srSearchProjection{...}
+	 */
+	@GET
+	@Path("/srSearchProjection")
+	public Json getSRSearchProjectionInfo()
+	{
+		return ok().set("srSearchProjection", SRSearchProjection.get().getStatistics());
+	}
+
+	/**
+	 * Rebuilds the SR search projection from the mapped schema. 
+	 * Blocks until all batches are written.
+	 * @return ok.rows
+	 */
+	@POST
+	@Path("/srSearchProjection/rebuild")
+	public Json rebuildSRSearchProjection()
+	{
+		if (!SRSearchProjection.MAINTAIN) return GenUtils.ko("SRSearchProjection.MAINTAIN must be set before rebuild");
+		return ok().set("rows", SRSearchProjection.get().rebuild(SRSearchProjection.DEFAULT_REBUILD_BATCH_SIZE));
+	}
+
+	/**
+	 * Gets the state of history archival (enabled, running, watermark, moved rows per table).
+	 * @return ok.historyArchive{...}
+	 */
+	@GET
+	@Path("/historyArchive")
+	public Json getHistoryArchiveInfo()
+	{
+		return ok().set("historyArchive", HistoryArchiver.get().getStatistics());
+	}
+
+	/**
+	 * Starts archiving rows closed more than retainDays ago in a background thread,
+	 * or resumes an interrupted archival.
+	 * @return ok, if started.
+	 */
+	@POST
+	@Path("/historyArchive/start")
+	public Json startHistoryArchive(@QueryParam("retainDays") final Integer retainDays)
+	{
+		if (!HistoryArchiver.ENABLED) return GenUtils.ko("HistoryArchiver.ENABLED must be set before archival");
+		if (HistoryArchiver.get().isRunning()) return GenUtils.ko("History archival already running");
+		Thread t = new Thread("HistoryArchiver") {
+			public void run()
+			{
+				HistoryArchiver.get().archive(retainDays == null ? HistoryArchiver.DEFAULT_RETAIN_DAYS : retainDays, 
+						HistoryArchiver.DEFAULT_BATCH_SUBJECTS, HistoryArchiver.DEFAULT_THROTTLE_MS);
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return ok();
+	}
+
+	/**
+	 * Stops a running history archival after its current batch.
+	 */
+	@POST
+	@Path("/historyArchive/stop")
+	public Json stopHistoryArchive()
+	{
+		HistoryArchiver.get().stop();
+		return ok();
+	}
+
 	/**
 	 * Blocks until live transaction count is zero.
 	 * @return
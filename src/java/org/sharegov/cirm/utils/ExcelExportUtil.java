@@ -339,7 +339,8 @@ public class ExcelExportUtil
     				prop.getKey().equalsIgnoreCase("caseSensitive") ||
     				prop.getKey().equalsIgnoreCase("sortDirection") || 
     				prop.getKey().equalsIgnoreCase("currentPage") || 
-    				prop.getKey().equalsIgnoreCase("itemsPerPage")) 
+    				prop.getKey().equalsIgnoreCase("itemsPerPage") ||
+    				prop.getKey().equalsIgnoreCase("continuationToken")) 
     			continue;
  			if(prop.getKey().equalsIgnoreCase("type")) {
 				if(prop.getValue().isString() && prop.getValue().asString().equalsIgnoreCase("legacy:ServiceCase"))
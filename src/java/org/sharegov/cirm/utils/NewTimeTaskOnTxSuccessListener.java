@@ -4,7 +4,7 @@ import java.util.Calendar;
 import java.util.UUID;
 
 import org.sharegov.cirm.CirmTransactionEvent;
-import org.sharegov.cirm.CirmTransactionListener;
+import org.sharegov.cirm.AsyncCirmTransactionListener;
 
 import mjson.Json;
 
@@ -24,7 +24,7 @@ import mjson.Json;
  * @author Thomas Hilpold
  *
  */
-public class NewTimeTaskOnTxSuccessListener implements CirmTransactionListener {
+public class NewTimeTaskOnTxSuccessListener implements AsyncCirmTransactionListener {
 
 	boolean calendarMode;
 	private UUID cirmTransactionUUID;
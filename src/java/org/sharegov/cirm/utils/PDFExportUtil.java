@@ -17,13 +17,10 @@ package org.sharegov.cirm.utils;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.List;
 
 import mjson.Json;
 
-import com.itextpdf.text.Anchor;
 import com.itextpdf.text.BaseColor;
-import com.itextpdf.text.Chapter;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Element;
@@ -31,7 +28,6 @@ import com.itextpdf.text.Font;
 import com.itextpdf.text.PageSize;
 import com.itextpdf.text.Paragraph;
 import com.itextpdf.text.Phrase;
-import com.itextpdf.text.Section;
 import com.itextpdf.text.pdf.PdfPCell;
 import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfWriter;
@@ -53,9 +49,18 @@ public class PDFExportUtil
 		doc.addCreator("");
 	}
 
-	private static void createTable(Section subCatPart, Json allData) throws DocumentException {
+	/**
+	 * Number of rows after which the table written so far is added to the document and released.
+	 */
+	public static int FLUSH_ROWS = 500;
+
+	private Document doc;
+	private PdfPTable table;
+	private int columns;
+	private int pendingRows;
+
+	private static PdfPTable createTable(Json metaData) throws DocumentException {
 
-		Json metaData = allData.at("metaData");
 		PdfPTable table = null; 
 		PdfPCell c1 = null;
 		
@@ -115,69 +120,108 @@ public class PDFExportUtil
 			table.addCell(c1);
 		}
 		table.setHeaderRows(1);
+		// rows are written while the table is built
+		table.setComplete(false);
+		return table;
+	}
 
-		List<Json> data = allData.at("data").asJsonList();
-		for(Json dataValue : data)
+	private static void addRow(PdfPTable table, int columns, Json dataValue)
+	{
+		PdfPCell c1 = null;
+		if(!dataValue.at("hasCaseNumber").asString().isEmpty())
+			c1 = new PdfPCell(new Phrase(dataValue.at("hasCaseNumber").asString(), smallFont));
+		else
+			c1 = new PdfPCell(new Phrase(GenUtils.makeCaseNumber(dataValue.at("boid").asLong()), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("label").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("fullAddress").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("Street_Address_City").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("Zip_Code").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("hasStatus").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("hasDateCreated").asString(), smallFont));
+		table.addCell(c1);
+		c1 = new PdfPCell(new Phrase(dataValue.at("lastActivityUpdatedDate").asString(), smallFont));
+		table.addCell(c1);
+		if(columns == 9)
 		{
-			if(!dataValue.at("hasCaseNumber").asString().isEmpty())
-				c1 = new PdfPCell(new Phrase(dataValue.at("hasCaseNumber").asString(), smallFont));
-			else
-				c1 = new PdfPCell(new Phrase(GenUtils.makeCaseNumber(dataValue.at("boid").asLong()), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("label").asString(), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("fullAddress").asString(), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("Street_Address_City").asString(), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("Zip_Code").asString(), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("hasStatus").asString(), smallFont));
-			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("hasDateCreated").asString(), smallFont));
+			c1 = new PdfPCell(new Phrase(dataValue.at("gisColumn").asString(), smallFont));
 			table.addCell(c1);
-			c1 = new PdfPCell(new Phrase(dataValue.at("lastActivityUpdatedDate").asString(), smallFont));
-			table.addCell(c1);
-			if(columns == 9)
-			{
-				c1 = new PdfPCell(new Phrase(dataValue.at("gisColumn").asString(), smallFont));
-				table.addCell(c1);
-			}
 		}
-		
-		subCatPart.add(table);
 	}
 
-    public void exportData(OutputStream out, Json data) throws IOException
-    {
-    	try {
-        	Document doc = new Document(PageSize.LETTER.rotate());
-        	PdfWriter.getInstance(doc, out);
+	public void exportData(OutputStream out, Json data) throws IOException
+	{
+		begin(out, data.at("metaData"));
+		for (Json dataValue : data.at("data").asJsonList())
+			addRow(dataValue);
+		end();
+	}
+
+	/**
+	 * Starts a document with an empty table, to which rows are added one by one.
+	 * Every FLUSH_ROWS rows the table is written to out, so only those rows are held in memory.
+	 * 
+	 * @param out
+	 * @param metaData column headers and number of columns
+	 */
+	public void begin(OutputStream out, Json metaData) throws IOException
+	{
+		try
+		{
+			doc = new Document(PageSize.LETTER.rotate());
+			PdfWriter.getInstance(doc, out);
 			doc.open();
 			//addMetaData(doc);
-			addContent(doc, data);
-			doc.close();
-    	}
+			// keeps a page for exports without rows
+			doc.add(new Paragraph(" "));
+			columns = metaData.at("columns").asInteger();
+			table = createTable(metaData);
+			pendingRows = 0;
+		}
 		catch (DocumentException e)
 		{
-			e.printStackTrace();
+			throw new IOException(e);
 		}
-    }
+	}
 
-	private static void addContent(Document doc, Json data) throws DocumentException
+	public void addRow(Json dataValue) throws IOException
 	{
-		Anchor anchor = new Anchor(); //new Anchor("First Chapter", catFont);
-		//anchor.setName("First Chapter Anchor");
-		
-		Chapter catPart = new Chapter(new Paragraph(anchor), 1);
-		catPart.setNumberDepth(0);
-		Paragraph subPara = new Paragraph(); //new Paragraph("SubCategory 1", subFont);
-		Section subCatPart = catPart.addSection(subPara);
-		subCatPart.setNumberDepth(0);
-		
-		createTable(subCatPart, data);
-		
-		//Add everything to the document
-		doc.add(catPart);
+		addRow(table, columns, dataValue);
+		if (++pendingRows >= FLUSH_ROWS)
+		{
+			try
+			{
+				doc.add(table);
+			}
+			catch (DocumentException e)
+			{
+				throw new IOException(e);
+			}
+			pendingRows = 0;
+		}
+	}
+
+	public void end() throws IOException
+	{
+		try
+		{
+			table.setComplete(true);
+			doc.add(table);
+			doc.close();
+		}
+		catch (DocumentException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			table = null;
+			doc = null;
+		}
 	}
 }
@@ -34,8 +34,10 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.semanticweb.owlapi.model.OWLAnnotation;
 import org.semanticweb.owlapi.model.OWLIndividual;
@@ -74,6 +76,10 @@ public class PDFViewReport
 {
 
 	public static boolean DBG = true;
+	/**
+	 * Number of service cases loaded together by generateReport.
+	 */
+	public static int LOAD_BATCH_SIZE = 50;
 	private static final Font boldFont = new Font(Font.FontFamily.TIMES_ROMAN, 10, Font.BOLD);
 	private static final Font normalFont = new Font(Font.FontFamily.TIMES_ROMAN, 10, Font.NORMAL);
 	private static final Font bigBoldFont = new Font(Font.FontFamily.TIMES_ROMAN, 12, Font.BOLD);
@@ -768,13 +774,22 @@ public class PDFViewReport
         	doc.open();
 			//addMetaData(doc);
         	LegacyEmulator le = new LegacyEmulator();
-        	int i = 1;
-        	for(Long boid : boids)
+        	for(int from = 0; from < boids.size(); from += LOAD_BATCH_SIZE)
         	{
-       			ThreadLocalStopwatch.getWatch().time("PDFViewReport loading " + i + " of " + boids.size());
-    			Json data = le.findServiceCaseOntology(boid).toJSON();
-       			addContent(doc, data);
-       			i++;
+        		int to = Math.min(from + LOAD_BATCH_SIZE, boids.size());
+       			ThreadLocalStopwatch.getWatch().time("PDFViewReport loading " + (from + 1) + " to " + to + " of " + boids.size());
+       			Set<Long> batch = new LinkedHashSet<Long>(boids.subList(from, to));
+       			Map<Long, BOntology> bos = le.findServiceCaseOntologies(batch);
+       			for (Long boid : batch)
+       			{
+       				BOntology bo = bos.get(boid);
+       				if (bo == null)
+       				{
+       					ThreadLocalStopwatch.getWatch().time("PDFViewReport no service case found for " + boid);
+       					continue;
+       				}
+       				addContent(doc, bo.toJSON());
+       			}
         	}
     	}
 		catch (DocumentException e)
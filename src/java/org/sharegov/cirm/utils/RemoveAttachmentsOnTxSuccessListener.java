@@ -24,7 +24,7 @@ import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.sharegov.cirm.CirmTransactionEvent;
-import org.sharegov.cirm.CirmTransactionListener;
+import org.sharegov.cirm.AsyncCirmTransactionListener;
 import org.sharegov.cirm.ConfigSet;
 import org.sharegov.cirm.OWL;
 
@@ -39,7 +39,7 @@ import org.sharegov.cirm.OWL;
  * @author David Wong, Thomas Hilpold
  *
  */
-public class RemoveAttachmentsOnTxSuccessListener implements CirmTransactionListener
+public class RemoveAttachmentsOnTxSuccessListener implements AsyncCirmTransactionListener
 {
 
 	final List<Json> hasRemovedAttachmentList;
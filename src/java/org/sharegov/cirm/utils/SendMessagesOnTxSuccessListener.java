@@ -19,7 +19,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.sharegov.cirm.CirmTransactionEvent;
-import org.sharegov.cirm.CirmTransactionListener;
+import org.sharegov.cirm.AsyncCirmTransactionListener;
 import org.sharegov.cirm.legacy.CirmMessage;
 import org.sharegov.cirm.legacy.MessageManager;
 
@@ -34,7 +34,7 @@ import org.sharegov.cirm.legacy.MessageManager;
  * @author Thomas Hilpold
  *
  */
-public class SendMessagesOnTxSuccessListener implements CirmTransactionListener
+public class SendMessagesOnTxSuccessListener implements AsyncCirmTransactionListener
 {
 
 	final List<CirmMessage> cirmMessages;
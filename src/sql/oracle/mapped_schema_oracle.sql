@@ -6,6 +6,7 @@ drop table CIRM_MDC_ADDRESS cascade constraints;
 drop table CIRM_SERVICE_ACTION cascade constraints;
 drop table CIRM_SERVICE_CALL cascade constraints;
 drop table CIRM_GIS_INFO cascade constraints;
+drop table CIRM_SR_SEARCH cascade constraints;
 
 create table CIRM_MDC_ADDRESS ( ADDRESS_ID number(19,0) not null,
 								FULL_ADDRESS varchar2(255),
@@ -160,6 +161,21 @@ create table CIRM_GIS_INFO (
         	USING INDEX PCTFREE 30 INITRANS 100 MAXTRANS 255
  )  PCTFREE 30 PCTUSED 40 INITRANS 100 ROWDEPENDENCIES;
 
+--- SR SEARCH PROJECTION, maintained by SRSearchProjection
+create table CIRM_SR_SEARCH ( SR_REQUEST_ID number(19,0) not null,
+                              TYPE varchar2(255),
+                              FULL_ADDRESS varchar2(255),
+                              ZIP number(19,0),
+                              CITY varchar2(255),
+                              SR_STATUS varchar2(255),
+                              LAST_ACTIVITY_DATE timestamp(3),
+                              CREATED_DATE timestamp(3),
+                              CASE_NUMBER varchar2(255),
+                              UNIT varchar2(255),
+                              constraint CIRM_SR_SEARCH_PK primary key (SR_REQUEST_ID)
+                                  USING INDEX PCTFREE 30 INITRANS 100 MAXTRANS 255
+                            ) PCTFREE 30 PCTUSED 40 INITRANS 100 ROWDEPENDENCIES;
+
 alter table CIRM_SR_REQUESTS add constraint CIRMFK_ON_SR_REQUEST_ADDRESS foreign key (SR_REQUEST_ADDRESS) references CIRM_MDC_ADDRESS;
 alter table CIRM_SR_REQUESTS add constraint CIRMFK_ON_GIS_INFO_ID foreign key (GIS_INFO_ID) references CIRM_GIS_INFO;
 alter table CIRM_SR_ACTOR add constraint CIRMFK_ON_SR_ACTOR_ADDRESS foreign key (SR_ACTOR_ADDRESS) references CIRM_MDC_ADDRESS;
@@ -202,3 +218,7 @@ create index CIRM_IDX_SR_REQUEST_CREATE_DT on CIRM_SR_REQUESTS(CREATED_DATE) INI
 create unique index CIRM_IDX_SR_REQUEST_CASE_NUM on CIRM_SR_REQUESTS(UPPER(CASE_NUMBER)) INITRANS 100;
 create unique index CIRM_IDX_SR_REQUEST_CASE_NU2 on CIRM_SR_REQUESTS (CASE_NUMBER) INITRANS 100;
 create index CIRM_IDX_SR_REQUEST_STATUS on CIRM_SR_REQUESTS(SR_STATUS) INITRANS 100;
+
+create index CIRM_IDX_SR_SEARCH_TYPE_DT on CIRM_SR_SEARCH(TYPE, CREATED_DATE) INITRANS 100;
+create index CIRM_IDX_SR_SEARCH_STATUS_DT on CIRM_SR_SEARCH(SR_STATUS, CREATED_DATE) INITRANS 100;
+create index CIRM_IDX_SR_SEARCH_CASE_NUM on CIRM_SR_SEARCH(CASE_NUMBER) INITRANS 100;
@@ -9,6 +9,11 @@
 	drop table CIRM_OWL_DATA_VAL_DOUBLE cascade constraints;
 	drop table CIRM_OWL_DATA_VAL_INTEGER cascade constraints;
 	drop table CIRM_BO_CHANGE cascade constraints;
+	drop table CIRM_BO_CHANGE_CONSUMER cascade constraints;
+	drop table CIRM_OWL_DATA_PROPERTY_HIST cascade constraints;
+	drop table CIRM_OWL_OBJECT_PROPERTY_HIST cascade constraints;
+	drop table CIRM_CLASSIFICATION_HIST cascade constraints;
+	drop table CIRM_HIST_ARCHIVE_STATE cascade constraints;
 	
    	drop sequence CIRM_SEQUENCE;
    	
@@ -141,10 +146,63 @@
 	(
 	 	BO_ID number(19,0) NOT NULL,
 	 	CHANGE_DATE timestamp,
+	 	CHANGE_SEQ number(19,0),
 	 	constraint CIRM_BO_CHANGE_PK primary key (BO_ID, CHANGE_DATE)
 	 		using index PCTFREE 30 INITRANS 100 MAXTRANS 255
 	) PCTFREE 30 PCTUSED 40 INITRANS 100 ROWDEPENDENCIES;
 	
+	create table CIRM_BO_CHANGE_CONSUMER
+	(
+	 	CONSUMER_NAME varchar2(255) NOT NULL,
+	 	CHANGE_SEQ number(19,0),
+	 	UPDATED_DATE timestamp,
+	 	constraint CIRM_BO_CHANGE_CONSUMER_PK primary key (CONSUMER_NAME)
+	) PCTFREE 30 PCTUSED 40 INITRANS 100 ROWDEPENDENCIES;
+	
+	--row of BOChangeFeed.SEQUENCER, which serializes sequencing of CIRM_BO_CHANGE
+	insert into CIRM_BO_CHANGE_CONSUMER (CONSUMER_NAME, CHANGE_SEQ, UPDATED_DATE) values ('_sequencer', 0, null);
+	commit;
+	
+	--HISTORY TABLES: closed rows of the vertical tables, moved by HistoryArchiver
+    create table CIRM_OWL_DATA_PROPERTY_HIST (
+        SUBJECT number(19,0) NOT NULL,
+        PREDICATE number(19,0) NOT NULL,
+        DATATYPE_ID number(19,0) NOT NULL,
+	    VALUE_ID  number(19,0),
+	  	FROM_DATE timestamp,
+        TO_DATE timestamp,
+        constraint CIRM_OWL_DATA_PROP_HIST_PK primary key (SUBJECT, PREDICATE, VALUE_ID, FROM_DATE) 
+        	USING INDEX PCTFREE 10 INITRANS 10 MAXTRANS 255
+    ) PCTFREE 0 PCTUSED 90 INITRANS 10 COMPRESS;
+
+    create table CIRM_OWL_OBJECT_PROPERTY_HIST (
+	  	SUBJECT number(19,0) not null,
+	  	PREDICATE number(19,0) not null,
+        OBJECT number(19,0) not null,
+	  	FROM_DATE timestamp,
+        TO_DATE timestamp,
+        constraint CIRM_OWL_OBJ_PROP_HIST_PK primary key (SUBJECT, PREDICATE, OBJECT, FROM_DATE) 
+        	USING INDEX PCTFREE 10 INITRANS 10 MAXTRANS 255
+    ) PCTFREE 0 PCTUSED 90 INITRANS 10 COMPRESS;
+     
+    create table CIRM_CLASSIFICATION_HIST (
+		SUBJECT number(19,0) not null,
+		OWLCLASS number(19,0) not null,
+		FROM_DATE timestamp,
+		TO_DATE timestamp,
+		constraint CIRM_CLASSIFICATION_HIST_PK primary key (SUBJECT, OWLCLASS, FROM_DATE) 
+        	USING INDEX PCTFREE 10 INITRANS 10 MAXTRANS 255
+    ) PCTFREE 0 PCTUSED 90 INITRANS 10 COMPRESS;
+
+	create table CIRM_HIST_ARCHIVE_STATE
+	(
+		TABLE_NAME varchar2(30) NOT NULL,
+		CUTOFF_DATE timestamp NOT NULL,
+		LAST_SUBJECT number(19,0),
+		COMPLETED_DATE timestamp,
+		constraint CIRM_HIST_ARCHIVE_STATE_PK primary key (TABLE_NAME)
+	);
+	
     create sequence CIRM_SEQUENCE --START WITH 114000;
 	  START WITH 1
 	  MINVALUE 1
@@ -187,6 +245,7 @@
 	--Missing indices
 	create index CIRM_IDX_CLASS_OWLC_TO_SUBJ on CIRM_CLASSIFICATION(OWLCLASS, TO_DATE, SUBJECT) INITRANS 100;
 	create index CIRM_IDX_IRI_TYPEFK on CIRM_IRI(IRI_TYPE_ID) INITRANS 100;
+	create index CIRM_IDX_BO_CHANGE_SEQ on CIRM_BO_CHANGE(CHANGE_SEQ, CHANGE_DATE, BO_ID) INITRANS 100;
 	create index CIRM_IDX_DATA_PROP_DTFK on CIRM_OWL_DATA_PROPERTY(DATATYPE_ID) INITRANS 100;
 	create index CIRM_IDX_DATA_PROP_PREDFK on CIRM_OWL_DATA_PROPERTY(PREDICATE) INITRANS 100;
 	create index CIRM_IDX_OBJ_PROP_OBJECTFK on CIRM_OWL_OBJECT_PROPERTY(OBJECT) INITRANS 100;
@@ -41,6 +41,31 @@ LEFT OUTER JOIN CIRM_OWL_DATA_VAL_DOUBLE VD ON (DP.VALUE_ID = VD.ID)
 LEFT OUTER JOIN CIRM_OWL_DATA_VAL_INTEGER VI ON (DP.VALUE_ID = VI.ID)
 LEFT OUTER JOIN CIRM_OWL_DATA_VAL_STRING VS ON (DP.VALUE_ID = VS.ID)
 LEFT OUTER JOIN CIRM_OWL_DATA_VAL_CLOB VC ON (DP.VALUE_ID = VC.ID);
+
+-- Archived data properties and their values, see HistoryArchiver
+CREATE OR REPLACE FORCE VIEW "CIRMSCHM"."CIRM_DATA_PROP_VALUE_VIEW_HIST" AS
+SELECT
+DP.SUBJECT,
+I.IRI AS PREDICATE_IRI,
+DT.IRI AS DATATYPE_IRI,
+DP.VALUE_ID,
+VDAT.VALUE_DATE,
+VD.VALUE_DOUBLE,
+VI.VALUE_INTEGER,
+VS.VALUE_VARCHAR,
+VC.VALUE_HASH,
+VC.VALUE_VARCHAR AS VALUE_VARCHAR_LONG,
+VC.VALUE_CLOB,
+DP.FROM_DATE,
+DP.TO_DATE
+FROM CIRM_OWL_DATA_PROPERTY_HIST DP
+INNER JOIN CIRM_IRI I ON (DP.PREDICATE = I.ID) 
+INNER JOIN CIRM_IRI DT ON (DP.DATATYPE_ID = DT.ID)
+LEFT OUTER JOIN CIRM_OWL_DATA_VAL_DATE VDAT ON (DP.VALUE_ID = VDAT.ID)
+LEFT OUTER JOIN CIRM_OWL_DATA_VAL_DOUBLE VD ON (DP.VALUE_ID = VD.ID)
+LEFT OUTER JOIN CIRM_OWL_DATA_VAL_INTEGER VI ON (DP.VALUE_ID = VI.ID)
+LEFT OUTER JOIN CIRM_OWL_DATA_VAL_STRING VS ON (DP.VALUE_ID = VS.ID)
+LEFT OUTER JOIN CIRM_OWL_DATA_VAL_CLOB VC ON (DP.VALUE_ID = VC.ID);
   
 -- Shows data properties and any of their values in one view.
 -- Essential for Querytranslator
@@ -6,6 +6,7 @@ drop table if exists CIRM_MDC_ADDRESS cascade;
 drop table if exists CIRM_SERVICE_ACTION cascade;
 drop table if exists CIRM_SERVICE_CALL cascade;
 drop table if exists CIRM_GIS_INFO cascade;
+drop table if exists CIRM_SR_SEARCH cascade;
 
 create table cirm_mdc_address ( 
 address_id bigint not null,
@@ -138,6 +139,20 @@ gis_pw_maint_zone bigint,
 gis_fire_prev_bureau bigint
 constraint cirm_gis_info_pk primary key (id));
 
+-- sr search projection, maintained by SRSearchProjection
+create table cirm_sr_search ( 
+sr_request_id bigint not null, 
+type character varying(255),
+full_address character varying(255),
+zip integer,
+city character varying(255),
+sr_status character varying(255),
+last_activity_date timestamp,
+created_date timestamp,
+case_number character varying(255),
+unit character varying(255),
+constraint cirm_sr_search_pk primary key (sr_request_id));
+
 alter table cirm_sr_requests add constraint cirmfk_on_sr_request_address foreign key (sr_request_address) references cirm_mdc_address;
 alter table cirm_sr_requests add constraint cirmfk_on_gis_info_id foreign key (gis_info_id) references cirm_gis_info;
 alter table cirm_sr_actor add constraint cirmfk_on_sr_actor_address foreign key (sr_actor_address) references cirm_mdc_address;
@@ -156,6 +171,9 @@ create index cirm_idx_sr_request_addfk on cirm_sr_requests(sr_request_address) ;
 create index cirm_idx_mdc_address_fulladd on cirm_mdc_address(full_address) ;
 create index cirm_idx_sr_request_create_dt on cirm_sr_requests(created_date) ;
 create index cirm_idx_sr_request_case_num on cirm_sr_requests(upper(case_number)) ;
+create index cirm_idx_sr_search_type_dt on cirm_sr_search(type, created_date) ;
+create index cirm_idx_sr_search_status_dt on cirm_sr_search(sr_status, created_date) ;
+create index cirm_idx_sr_search_case_num on cirm_sr_search(case_number) ;
 
 -- views 
 
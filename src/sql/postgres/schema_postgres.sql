@@ -9,6 +9,11 @@ drop table if exists cirm_owl_data_val_date cascade;
 drop table if exists cirm_owl_data_val_double cascade;
 drop table if exists cirm_owl_data_val_integer cascade;
 drop table if exists cirm_bo_change cascade;
+drop table if exists cirm_bo_change_consumer cascade;
+drop table if exists cirm_owl_data_property_hist cascade;
+drop table if exists cirm_owl_object_property_hist cascade;
+drop table if exists cirm_classification_hist cascade;
+drop table if exists cirm_hist_archive_state cascade;
 drop sequence if exists cirm_sequence;
 drop sequence if exists cirm_user_friendly_sequence;
      
@@ -99,8 +104,57 @@ create table cirm_bo_change
 (
   bo_id bigint not null,
   change_date timestamp,
+  change_seq bigint,
   constraint cirm_bo_change_pk primary key (bo_id, change_date)
 );
+
+create table cirm_bo_change_consumer
+(
+  consumer_name character varying(255) not null,
+  change_seq bigint,
+  updated_date timestamp,
+  constraint cirm_bo_change_consumer_pk primary key (consumer_name)
+);
+
+-- row of BOChangeFeed.SEQUENCER, which serializes sequencing of cirm_bo_change
+insert into cirm_bo_change_consumer (consumer_name, change_seq, updated_date) values ('_sequencer', 0, null);
+	
+-- history tables: closed rows of the vertical tables, moved by HistoryArchiver
+create table cirm_owl_data_property_hist (
+  subject bigint not null,
+  predicate bigint not null,
+  datatype_id bigint not null,
+  value_id  bigint,
+  from_date timestamp,
+  to_date timestamp,
+  constraint cirm_owl_data_prop_hist_pk primary key (subject, predicate, value_id, from_date)
+);
+
+create table cirm_owl_object_property_hist (
+  subject bigint not null,
+  predicate bigint not null,
+  object bigint not null,
+  from_date timestamp,
+  to_date timestamp,
+  constraint cirm_owl_obj_prop_hist_pk primary key (subject, predicate, object, from_date)
+);
+
+create table cirm_classification_hist (
+  subject bigint not null,
+  owlclass bigint not null,
+  from_date timestamp,
+  to_date timestamp,
+  constraint cirm_classification_hist_pk primary key (subject, owlclass, from_date)
+);
+
+create table cirm_hist_archive_state
+(
+  table_name character varying(30) not null,
+  cutoff_date timestamp not null,
+  last_subject bigint,
+  completed_date timestamp,
+  constraint cirm_hist_archive_state_pk primary key (table_name)
+);
 	
 create sequence cirm_sequence
   start 1
@@ -136,6 +190,7 @@ create index cirm_idx_data_clob_hash on cirm_owl_data_val_clob(value_hash);
 --Missing indices
 create index cirm_idx_classification_class on cirm_classification(owlclass);
 create index cirm_idx_iri_typefk on cirm_iri(iri_type_id);
+create index cirm_idx_bo_change_seq on cirm_bo_change(change_seq, change_date, bo_id);
 create index cirm_idx_data_prop_dtfk on cirm_owl_data_property(datatype_id);
 create index cirm_idx_data_prop_predfk on cirm_owl_data_property(predicate);
 create index cirm_idx_obj_prop_objectfk on cirm_owl_object_property(object);
@@ -186,6 +241,30 @@ left outer join cirm_owl_data_val_integer vi on (dp.value_id = vi.id)
 left outer join cirm_owl_data_val_string vs on (dp.value_id = vs.id)
 left outer join cirm_owl_data_val_clob vc on (dp.value_id = vc.id);
 
+create or replace view cirm_data_prop_value_view_hist as
+select
+dp.subject,
+i.iri as predicate_iri,
+dt.iri as datatype_iri,
+dp.value_id,
+vdat.value_date,
+vd.value_double,
+vi.value_integer,
+vs.value_varchar,
+vc.value_hash,
+vc.value_varchar as value_varchar_long,
+vc.value_clob,
+dp.from_date,
+dp.to_date
+from cirm_owl_data_property_hist dp
+inner join cirm_iri i on (dp.predicate = i.id) 
+inner join cirm_iri dt on (dp.datatype_id = dt.id)
+left outer join cirm_owl_data_val_date vdat on (dp.value_id = vdat.id)
+left outer join cirm_owl_data_val_double vd on (dp.value_id = vd.id)
+left outer join cirm_owl_data_val_integer vi on (dp.value_id = vi.id)
+left outer join cirm_owl_data_val_string vs on (dp.value_id = vs.id)
+left outer join cirm_owl_data_val_clob vc on (dp.value_id = vc.id);
+
 create or replace view cirm_data_property_view as
 select
 dp.subject as subject_id,
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.CirmTransaction.STATE;
+import org.sharegov.cirm.CirmTransactionListenerExecutor.BackPressurePolicy;
+
+public class CirmTransactionListenerExecutorTest
+{
+	private static final CirmTransactionEvent SUCCEEDED = new CirmTransactionEvent(STATE.SUCCEEDED);
+
+	private static CirmTransaction<Object> txn(long boid)
+	{
+		return new CirmTransaction<Object>() {
+			public Object call()
+			{
+				return null;
+			}
+		}.addBusinessObjectId(boid);
+	}
+
+	private static class Recorder implements AsyncCirmTransactionListener
+	{
+		final List<String> events;
+		final String name;
+		final CountDownLatch block;
+
+		Recorder(List<String> events, String name, CountDownLatch block)
+		{
+			this.events = events;
+			this.name = name;
+			this.block = block;
+		}
+
+		public void transactionStateChanged(CirmTransactionEvent e)
+		{
+			try
+			{
+				if (block != null) block.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException ex)
+			{
+				throw new RuntimeException(ex);
+			}
+			events.add(name + "@" + Thread.currentThread().getName());
+		}
+	}
+
+	@Before
+	public void setUp()
+	{
+		CirmTransactionListenerExecutor.REPORT_FAILURES = false;
+	}
+
+	@Test
+	public void testOrderedPerBusinessObject() throws Exception
+	{
+		CirmTransactionListenerExecutor executor = new CirmTransactionListenerExecutor(4, 100);
+		List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		for (int i = 0; i < 50; i++)
+		{
+			List<CirmTransactionListener> listeners = new ArrayList<CirmTransactionListener>();
+			listeners.add(new Recorder(events, "" + i, null));
+			executor.notify(txn(42), listeners, SUCCEEDED);
+		}
+		assertTrue(executor.shutdown(5));
+		assertEquals(50, events.size());
+		for (int i = 0; i < 50; i++)
+			assertTrue(events.get(i).startsWith(i + "@CirmTransactionListener lane"));
+	}
+
+	/**
+	 * Transactions that declare no business object before execution, but save one, as the store
+	 * adds saved business objects to the toplevel transaction. Their async listeners run on one lane in order.
+	 */
+	@Test
+	public void testOrderedBySavedBusinessObject() throws Exception
+	{
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		for (int i = 0; i < 50; i++)
+		{
+			final Recorder recorder = new Recorder(events, "" + i, null);
+			CirmTransaction<Object> t = new CirmTransaction<Object>() {
+				public Object call()
+				{
+					// as RelationalStoreImpl.declareBusinessObjectWrite on save
+					CirmTransaction.get().addBusinessObjectId(4711);
+					addTopLevelEventListener(recorder);
+					return null;
+				}
+			};
+			t.begin();
+			t.execute();
+			t.end(true);
+			t.getTransactionEventSupport().fireEvent(t);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (events.size() < 50 && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(50, events.size());
+		String lane = events.get(0).substring(events.get(0).indexOf('@'));
+		assertTrue(lane.startsWith("@CirmTransactionListener lane"));
+		for (int i = 0; i < 50; i++)
+			assertEquals(i + lane, events.get(i));
+	}
+
+	@Test
+	public void testBlocksWhenFull() throws Exception
+	{
+		CirmTransactionListenerExecutor executor = new CirmTransactionListenerExecutor(1, 1);
+		List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch block = new CountDownLatch(1);
+		List<CirmTransactionListener> listeners = new ArrayList<CirmTransactionListener>();
+		// first is executing and blocked, second queued, third waits for space
+		listeners.add(new Recorder(events, "first", block));
+		listeners.add(new Recorder(events, "second", null));
+		listeners.add(new Recorder(events, "third", null));
+		new Thread() {
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(200);
+				}
+				catch (InterruptedException e)
+				{
+				}
+				block.countDown();
+			}
+		}.start();
+		executor.notify(txn(1), listeners, SUCCEEDED);
+		assertTrue(executor.shutdown(5));
+		assertEquals(1, executor.getStatistics().at("blocked").asLong());
+		assertEquals(3, events.size());
+		assertTrue(events.get(0).startsWith("first@CirmTransactionListener lane"));
+		assertTrue(events.get(1).startsWith("second@CirmTransactionListener lane"));
+		assertTrue(events.get(2).startsWith("third@CirmTransactionListener lane"));
+	}
+
+	/**
+	 * A transaction saving business objects of two lanes is notified after earlier notifications of both
+	 * and before later ones of either.
+	 */
+	@Test
+	public void testOrderedForMultipleBusinessObjects() throws Exception
+	{
+		CirmTransactionListenerExecutor executor = new CirmTransactionListenerExecutor(4, 100);
+		long a = 1;
+		long b = 2;
+		while (executor.laneIndexes(txn(a))[0] == executor.laneIndexes(txn(b))[0])
+			b++;
+		assertEquals(2, executor.laneIndexes(txn(a).addBusinessObjectId(b)).length);
+		List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch block = new CountDownLatch(1);
+		executor.notify(txn(a), Collections.<CirmTransactionListener>singletonList(new Recorder(events, "a", block)), SUCCEEDED);
+		executor.notify(txn(a).addBusinessObjectId(b), 
+				Collections.<CirmTransactionListener>singletonList(new Recorder(events, "ab", null)), SUCCEEDED);
+		executor.notify(txn(b), Collections.<CirmTransactionListener>singletonList(new Recorder(events, "b", null)), SUCCEEDED);
+		Thread.sleep(200);
+		assertTrue(events.isEmpty());
+		block.countDown();
+		assertTrue(executor.shutdown(5));
+		assertEquals(3, events.size());
+		assertTrue(events.get(0).startsWith("a@"));
+		assertTrue(events.get(1).startsWith("ab@"));
+		assertTrue(events.get(2).startsWith("b@"));
+		assertEquals(1, executor.getStatistics().at("multiLane").asLong());
+	}
+
+	@Test
+	public void testDiscardAndFailure() throws Exception
+	{
+		CirmTransactionListenerExecutor executor = new CirmTransactionListenerExecutor(1, 1);
+		executor.setBackPressurePolicy(BackPressurePolicy.DISCARD);
+		List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch block = new CountDownLatch(1);
+		List<CirmTransactionListener> listeners = new ArrayList<CirmTransactionListener>();
+		listeners.add(new Recorder(events, "first", block));
+		listeners.add(new AsyncCirmTransactionListener() {
+			public void transactionStateChanged(CirmTransactionEvent e)
+			{
+				throw new IllegalStateException("test failure");
+			}
+		});
+		listeners.add(new Recorder(events, "discarded", null));
+		executor.notify(txn(1), listeners, SUCCEEDED);
+		block.countDown();
+		assertTrue(executor.shutdown(5));
+		assertEquals(1, events.size());
+		assertEquals(1, executor.getStatistics().at("discarded").asLong());
+		assertEquals(1, executor.getStatistics().at("failed").asLong());
+		assertEquals(1, executor.getStatistics().at("completed").asLong());
+	}
+
+	@Test
+	public void testSynchronousListenersOnCallingThread() throws Exception
+	{
+		CirmTransactionListenerExecutor executor = new CirmTransactionListenerExecutor(1, 1);
+		final List<String> events = new ArrayList<String>();
+		List<CirmTransactionListener> listeners = new ArrayList<CirmTransactionListener>();
+		listeners.add(new CirmTransactionListener() {
+			public void transactionStateChanged(CirmTransactionEvent e)
+			{
+				events.add(Thread.currentThread().getName());
+			}
+		});
+		executor.notify(txn(1), listeners, SUCCEEDED);
+		assertEquals(Collections.singletonList(Thread.currentThread().getName()), events);
+		assertEquals(0, executor.getStatistics().at("submitted").asLong());
+	}
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CirmTransactionLocalTest
+{
+	/**
+	 * Collects values like a cache collects pending entries.
+	 */
+	static class TestLocal extends CirmTransactionLocal<List<String>>
+	{
+		int created = 0;
+		final List<List<String>> succeeded = new ArrayList<List<String>>();
+
+		protected List<String> initialValue()
+		{
+			created++;
+			return new ArrayList<String>();
+		}
+
+		protected void succeeded(List<String> value)
+		{
+			succeeded.add(value);
+		}
+	}
+
+	/**
+	 * Executes the transaction like the store's transaction controller without a database:
+	 * the given number of executions (retries), then success or failure and the toplevel event.
+	 */
+	static void run(CirmTransaction<?> t, int executions, boolean succeed) throws Exception
+	{
+		t.begin();
+		try
+		{
+			for (int i = 0; i < executions; i++)
+				t.execute();
+			t.end(succeed);
+			t.getTransactionEventSupport().fireEvent(t);
+		}
+		finally
+		{
+			if (!t.isEnded())
+				t.end(false);
+		}
+	}
+
+	/**
+	 * Executes a sublevel transaction the way the store does within a toplevel transaction.
+	 */
+	static <T> T runSublevel(CirmTransaction<T> t) throws Exception
+	{
+		CirmTransaction.get().checkRetryRequested();
+		T result = t.call();
+		CirmTransaction.get().checkRetryRequested();
+		return result;
+	}
+
+	@Test
+	public void testNoValueOutsideTransaction()
+	{
+		TestLocal local = new TestLocal();
+		assertNull(local.get());
+		assertNull(local.peek());
+		assertEquals(0, local.created);
+	}
+
+	@Test
+	public void testValueLivesForOneExecution() throws Exception
+	{
+		final TestLocal local = new TestLocal();
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				assertNull(local.peek());
+				List<String> value = local.get();
+				value.add("a");
+				assertSame(value, local.get());
+				assertSame(value, local.peek());
+				assertTrue(local.succeeded.isEmpty());
+				return null;
+			}
+		}, 1, true);
+		assertEquals(1, local.created);
+		assertEquals(1, local.succeeded.size());
+		assertEquals("a", local.succeeded.get(0).get(0));
+		assertNull(local.peek());
+		// the next toplevel transaction on the same thread starts with a new value
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				assertNull(local.peek());
+				assertTrue(local.get().isEmpty());
+				return null;
+			}
+		}, 1, true);
+		assertEquals(2, local.created);
+		assertEquals(2, local.succeeded.size());
+	}
+
+	@Test
+	public void testRetryClearsValue() throws Exception
+	{
+		final TestLocal local = new TestLocal();
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				if (getExecutionCount() == 1)
+					local.get().add("retried");
+				else
+				{
+					assertNull(local.peek());
+					local.get().add("committed");
+				}
+				return null;
+			}
+		}, 2, true);
+		assertEquals(2, local.created);
+		assertEquals(1, local.succeeded.size());
+		assertEquals(1, local.succeeded.get(0).size());
+		assertEquals("committed", local.succeeded.get(0).get(0));
+	}
+
+	@Test
+	public void testFailureDiscardsValue() throws Exception
+	{
+		final TestLocal local = new TestLocal();
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				local.get().add("failed");
+				return null;
+			}
+		}, 1, false);
+		assertEquals(1, local.created);
+		assertTrue(local.succeeded.isEmpty());
+		assertNull(local.peek());
+	}
+
+	@Test
+	public void testSublevelSharesToplevelValue() throws Exception
+	{
+		final TestLocal local = new TestLocal();
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				local.get().add("toplevel");
+				runSublevel(new CirmTransaction<Object>() {
+					public Object call() throws Exception
+					{
+						assertEquals(1, local.peek().size());
+						local.get().add("sublevel");
+						return null;
+					}
+				});
+				assertEquals(2, local.peek().size());
+				return null;
+			}
+		}, 1, true);
+		assertEquals(1, local.created);
+		assertEquals(1, local.succeeded.size());
+		assertEquals(2, local.succeeded.get(0).size());
+	}
+
+	@Test
+	public void testValueNotVisibleToOtherThreads() throws Exception
+	{
+		final TestLocal local = new TestLocal();
+		final List<Object> seen = new ArrayList<Object>();
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				local.get().add("a");
+				Thread other = new Thread() {
+					public void run()
+					{
+						seen.add(local.peek());
+					}
+				};
+				other.start();
+				other.join();
+				return null;
+			}
+		}, 1, true);
+		assertEquals(1, seen.size());
+		assertNull(seen.get(0));
+	}
+}
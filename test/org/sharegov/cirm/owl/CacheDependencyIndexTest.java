@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hypergraphdb.util.Pair;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+public class CacheDependencyIndexTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+	private static final OWLDataFactory df = OWLManager.getOWLDataFactory();
+
+	private static OWLClass cls(String name)
+	{
+		return df.getOWLClass(IRI.create(NS + name));
+	}
+
+	@Test
+	public void testEvictsOnlyDependentEntries()
+	{
+		OWLObjectProperty hasParentAgency = df.getOWLObjectProperty(IRI.create(NS + "hasParentAgency"));
+		OWLNamedIndividual southMiami = df.getOWLNamedIndividual(IRI.create(NS + "City_of_South_Miami"));
+		OWLClassExpression cityOrgs = df.getOWLObjectIntersectionOf(cls("City_Organization"),
+				df.getOWLObjectHasValue(hasParentAgency, southMiami));
+		ConcurrentHashMap<Pair<Boolean, OWLClassExpression>, String> instances = new ConcurrentHashMap<Pair<Boolean, OWLClassExpression>, String>();
+		ConcurrentHashMap<Pair<Boolean, OWLClassExpression>, String> other = new ConcurrentHashMap<Pair<Boolean, OWLClassExpression>, String>();
+		CacheDependencyIndex index = new CacheDependencyIndex();
+		Pair<Boolean, OWLClassExpression> q1 = new Pair<Boolean, OWLClassExpression>(false, cityOrgs);
+		Pair<Boolean, OWLClassExpression> q2 = new Pair<Boolean, OWLClassExpression>(false, cls("Department"));
+		instances.put(q1, "r1");
+		index.record("instances", instances, q1);
+		instances.put(q2, "r2");
+		index.record("instances", instances, q2);
+		other.put(q1, "r3");
+		index.record("other", other, q1);
+		assertEquals(3, index.size());
+
+		Set<OWLEntity> changed = new HashSet<OWLEntity>();
+		changed.add(southMiami);
+		Set<ConcurrentHashMap<?, ?>> only = new HashSet<ConcurrentHashMap<?, ?>>();
+		only.add(instances);
+		Map<String, Integer> evicted = index.evict(changed, only);
+		assertEquals(Collections.singletonMap("instances", 1), evicted);
+		assertFalse(instances.containsKey(q1));
+		assertTrue(instances.containsKey(q2));
+		assertTrue(other.containsKey(q1));
+		assertEquals(2, index.size());
+
+		evicted = index.evict(Collections.singleton(cls("City_Organization")), null);
+		assertEquals(Collections.singletonMap("other", 1), evicted);
+		assertEquals(1, index.size());
+		assertEquals(1, index.evictAll(instances));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void testSignatureOfPair()
+	{
+		OWLNamedIndividual ind = df.getOWLNamedIndividual(IRI.create(NS + "ind"));
+		OWLObjectProperty p = df.getOWLObjectProperty(IRI.create(NS + "p"));
+		Set<OWLEntity> signature = CacheDependencyIndex.signature(new Pair<OWLNamedIndividual, OWLObjectProperty>(ind, p));
+		assertEquals(2, signature.size());
+		assertTrue(signature.contains(ind));
+		assertTrue(signature.contains(p));
+	}
+}
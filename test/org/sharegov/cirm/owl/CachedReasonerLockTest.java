@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.NodeSet;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasoner;
+
+/**
+ * Cache misses of a CachedReasoner running concurrently with flush and clearCache.
+ */
+public class CachedReasonerLockTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+
+	private OWLOntologyManager manager;
+	private OWLDataFactory df;
+	private OWLOntology ontology;
+	private OWLClass department;
+	private OWLClass agency;
+	private OWLNamedIndividual publicWorks;
+	private final CountDownLatch missStarted = new CountDownLatch(1);
+	private final CountDownLatch missReleased = new CountDownLatch(1);
+
+	@Before
+	public void setUp() throws Exception
+	{
+		manager = OWLManager.createOWLOntologyManager();
+		df = manager.getOWLDataFactory();
+		ontology = manager.createOntology(IRI.create("http://www.miamidade.gov/ontology/test"));
+		department = df.getOWLClass(IRI.create(NS + "Department"));
+		agency = df.getOWLClass(IRI.create(NS + "Agency"));
+		publicWorks = df.getOWLNamedIndividual(IRI.create(NS + "Public_Works"));
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, publicWorks));
+	}
+
+	/**
+	 * @return a cached reasoner whose getTypes misses block until missReleased.
+	 */
+	private CachedReasoner cachedReasoner()
+	{
+		StructuralReasoner blocking = new StructuralReasoner(ontology, new SimpleConfiguration(), BufferingMode.BUFFERING) {
+			public NodeSet<OWLClass> getTypes(OWLNamedIndividual ind, boolean direct)
+			{
+				missStarted.countDown();
+				try
+				{
+					missReleased.await();
+				}
+				catch (InterruptedException e)
+				{
+					throw new RuntimeException(e);
+				}
+				return super.getTypes(ind, direct);
+			}
+		};
+		return CachedReasoner.cachedReasoner(SynchronizedReasoner.synchronizedReasoner(blocking));
+	}
+
+	private static Thread start(Runnable r)
+	{
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	@Test
+	public void testFlushAndClearWaitForCacheMiss() throws Exception
+	{
+		final CachedReasoner cr = cachedReasoner();
+		Thread miss = start(new Runnable() {
+			public void run()
+			{
+				cr.getTypes(publicWorks, true);
+			}
+		});
+		assertTrue(missStarted.await(10, TimeUnit.SECONDS));
+		// the miss computes the types before this change is flushed
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(agency, publicWorks));
+		long invalidations = cr.getInvalidationCount();
+		Thread flush = start(new Runnable() {
+			public void run()
+			{
+				cr.flush();
+			}
+		});
+		Thread clear = start(new Runnable() {
+			public void run()
+			{
+				cr.clearCache();
+			}
+		});
+		long until = System.currentTimeMillis() + 10000;
+		while (cr.getLock().getQueueLength() < 2 && System.currentTimeMillis() < until)
+			Thread.sleep(10);
+		assertEquals(2, cr.getLock().getQueueLength());
+		assertTrue(flush.isAlive());
+		assertTrue(clear.isAlive());
+		assertEquals(invalidations, cr.getInvalidationCount());
+		missReleased.countDown();
+		miss.join(10000);
+		flush.join(10000);
+		clear.join(10000);
+		assertFalse(miss.isAlive() || flush.isAlive() || clear.isAlive());
+		assertEquals(invalidations + 2, cr.getInvalidationCount());
+		// the answer of the unflushed reasoner was cleared after the miss added it
+		assertEquals(0, cr.getTotalCacheEntryCount());
+		assertTrue(cr.getTypes(publicWorks, true).containsEntity(agency));
+	}
+}
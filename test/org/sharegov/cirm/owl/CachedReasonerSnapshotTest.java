@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import mjson.Json;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasoner;
+
+public class CachedReasonerSnapshotTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+
+	private OWLOntologyManager manager;
+	private OWLDataFactory df;
+	private OWLOntology ontology;
+	private File file;
+	private OWLClass department;
+	private OWLClass agency;
+	private OWLNamedIndividual publicWorks;
+	private OWLDataProperty name;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		manager = OWLManager.createOWLOntologyManager();
+		df = manager.getOWLDataFactory();
+		ontology = manager.createOntology(IRI.create("http://www.miamidade.gov/ontology/test"));
+		department = df.getOWLClass(IRI.create(NS + "Department"));
+		agency = df.getOWLClass(IRI.create(NS + "Agency"));
+		publicWorks = df.getOWLNamedIndividual(IRI.create(NS + "Public_Works"));
+		name = df.getOWLDataProperty(IRI.create(NS + "Name"));
+		manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(department, agency));
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, publicWorks));
+		manager.addAxiom(ontology, df.getOWLDataPropertyAssertionAxiom(name, publicWorks, df.getOWLLiteral("Public Works", "en")));
+		file = File.createTempFile("cachedReasonerSnapshot", ".bin");
+	}
+
+	@After
+	public void tearDown()
+	{
+		file.delete();
+	}
+
+	private CachedReasoner cachedReasoner()
+	{
+		return CachedReasoner.cachedReasoner(SynchronizedReasoner.synchronizedReasoner(
+				new StructuralReasoner(ontology, new SimpleConfiguration(), BufferingMode.BUFFERING)));
+	}
+
+	@Test
+	public void testSaveAndLoad()
+	{
+		CachedReasoner cr = cachedReasoner();
+		cr.getSuperClasses(department, false);
+		cr.getTypes(publicWorks, false);
+		cr.getInstances(agency, false);
+		cr.getDataPropertyValues(publicWorks, name);
+		Json saved = new CachedReasonerSnapshot(cr, file).save();
+		assertEquals(4, saved.at("entries").asInteger());
+
+		CachedReasoner restarted = cachedReasoner();
+		Json loaded = new CachedReasonerSnapshot(restarted, file).load();
+		assertEquals("loaded", loaded.at("status").asString());
+		assertEquals(4, loaded.at("entries").asInteger());
+		assertEquals(4, restarted.getTotalCacheEntryCount());
+		assertEquals(cr.getSuperClasses(department, false), restarted.getSuperClasses(department, false));
+		assertEquals(cr.getInstances(agency, false), restarted.getInstances(agency, false));
+		assertEquals(cr.getDataPropertyValues(publicWorks, name), restarted.getDataPropertyValues(publicWorks, name));
+		assertEquals(4, restarted.getTotalCacheEntryCount());
+	}
+
+	@Test
+	public void testDiscardedAfterOntologyChange()
+	{
+		CachedReasoner cr = cachedReasoner();
+		cr.getTypes(publicWorks, false);
+		new CachedReasonerSnapshot(cr, file).save();
+
+		CachedReasoner restarted = cachedReasoner();
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(agency, df.getOWLNamedIndividual(IRI.create(NS + "Fire_Rescue"))));
+		CachedReasonerSnapshot snapshot = new CachedReasonerSnapshot(restarted, file);
+		assertEquals("pendingChanges", snapshot.load().at("status").asString());
+		assertTrue(file.exists());
+		restarted.flush();
+		assertEquals("discarded", snapshot.load().at("status").asString());
+		assertFalse(file.exists());
+		assertEquals(0, restarted.getTotalCacheEntryCount());
+		assertEquals("missing", snapshot.load().at("status").asString());
+	}
+
+	@Test
+	public void testOversizeLiteralSkipped()
+	{
+		StringBuilder description = new StringBuilder();
+		while (description.length() <= 70000)
+			description.append("Public Works maintains roads. ");
+		OWLNamedIndividual fireRescue = df.getOWLNamedIndividual(IRI.create(NS + "Fire_Rescue"));
+		manager.addAxiom(ontology, df.getOWLDataPropertyAssertionAxiom(name, fireRescue, description.toString()));
+		CachedReasoner cr = cachedReasoner();
+		cr.getDataPropertyValues(publicWorks, name);
+		cr.getDataPropertyValues(fireRescue, name);
+		Json saved = new CachedReasonerSnapshot(cr, file).save();
+		assertEquals(1, saved.at("entries").asInteger());
+		assertEquals(1, saved.at("skipped").asInteger());
+
+		CachedReasoner restarted = cachedReasoner();
+		Json loaded = new CachedReasonerSnapshot(restarted, file).load();
+		assertEquals("loaded", loaded.at("status").asString());
+		assertEquals(1, restarted.getTotalCacheEntryCount());
+		assertEquals(cr.getDataPropertyValues(fireRescue, name), restarted.getDataPropertyValues(fireRescue, name));
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mjson.Json;
+
+import org.hypergraphdb.util.Pair;
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLClassExpression;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.BufferingMode;
+import org.semanticweb.owlapi.reasoner.SimpleConfiguration;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasoner;
+import org.semanticweb.owlapi.reasoner.structural.StructuralReasonerFactory;
+
+public class CachedReasonerWarmupTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+	private static final int CLASSES = 20;
+
+	private OWLOntology ontology;
+	private List<Pair<Boolean, OWLClassExpression>> queries;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLDataFactory df = manager.getOWLDataFactory();
+		ontology = manager.createOntology(IRI.create("http://www.miamidade.gov/ontology/test"));
+		queries = new ArrayList<Pair<Boolean, OWLClassExpression>>();
+		for (int c = 0; c < CLASSES; c++)
+		{
+			OWLClass cls = df.getOWLClass(IRI.create(NS + "Type" + c));
+			for (int i = 0; i < 10; i++)
+				manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(cls, df.getOWLNamedIndividual(IRI.create(NS + "SR" + c + "_" + i))));
+			queries.add(new Pair<Boolean, OWLClassExpression>(false, cls));
+			queries.add(new Pair<Boolean, OWLClassExpression>(true, cls));
+		}
+	}
+
+	private CachedReasoner cachedReasoner()
+	{
+		return CachedReasoner.cachedReasoner(SynchronizedReasoner.synchronizedReasoner(
+				new StructuralReasoner(ontology, new SimpleConfiguration(), BufferingMode.BUFFERING)));
+	}
+
+	@Test
+	public void testParallelWarmupMergesIntoCache()
+	{
+		CachedReasoner cr = cachedReasoner();
+		cr.getInstances(queries.get(0).getSecond(), queries.get(0).getFirst());
+		Json report = new CachedReasonerWarmup(cr, new StructuralReasonerFactory(), 3).run(queries);
+		assertEquals(queries.size(), report.at("done").asInteger());
+		assertEquals(1, report.at("alreadyCached").asInteger());
+		assertEquals(queries.size() - 1, report.at("merged").asInteger());
+		assertEquals(0, report.at("failed").asInteger());
+		assertEquals(3, report.at("workers").asJsonList().size());
+		assertEquals(queries.size() - 1, report.at("timings").asJsonList().size());
+		assertEquals(queries.size(), cr.getTotalCacheEntryCount());
+		CachedReasoner reference = cachedReasoner();
+		for (Pair<Boolean, OWLClassExpression> q : queries)
+			assertEquals(reference.getInstances(q.getSecond(), q.getFirst()), cr.getInstances(q.getSecond(), q.getFirst()));
+	}
+
+	@Test
+	public void testSingleThreadUsesCachedReasoner()
+	{
+		CachedReasoner cr = cachedReasoner();
+		Json report = new CachedReasonerWarmup(cr, new StructuralReasonerFactory(), 1).run(queries);
+		assertEquals(queries.size(), report.at("done").asInteger());
+		assertEquals(0, report.at("merged").asInteger());
+		assertEquals(queries.size(), cr.getTotalCacheEntryCount());
+		assertFalse(report.has("stopped"));
+	}
+}
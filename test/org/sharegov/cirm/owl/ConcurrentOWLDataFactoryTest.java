@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAnonymousIndividual;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+public class ConcurrentOWLDataFactoryTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+
+	@Test
+	public void testInternsEntities()
+	{
+		ConcurrentOWLDataFactory factory = new ConcurrentOWLDataFactory();
+		IRI iri = IRI.create(NS + "Public_Works");
+		OWLNamedIndividual individual = factory.getOWLNamedIndividual(iri);
+		assertTrue(individual == factory.getOWLNamedIndividual(IRI.create(NS + "Public_Works")));
+		assertEquals(OWLManager.getOWLDataFactory().getOWLNamedIndividual(iri), individual);
+		OWLClass cls = factory.getOWLClass(iri);
+		assertTrue(cls == factory.getOWLClass(iri));
+		assertEquals(2, factory.getInternedCount());
+		factory.purge();
+		assertEquals(0, factory.getInternedCount());
+		assertEquals(individual, factory.getOWLNamedIndividual(iri));
+	}
+
+	@Test
+	public void testConcurrentCalls() throws Exception
+	{
+		final ConcurrentOWLDataFactory factory = new ConcurrentOWLDataFactory();
+		final Set<OWLNamedIndividual> individuals = Collections.synchronizedSet(new HashSet<OWLNamedIndividual>());
+		final Set<OWLAnonymousIndividual> anonymous = Collections.synchronizedSet(new HashSet<OWLAnonymousIndividual>());
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					for (int j = 0; j < 1000; j++)
+					{
+						individuals.add(factory.getOWLNamedIndividual(IRI.create(NS + "SR" + j)));
+						anonymous.add(factory.getOWLAnonymousIndividual());
+					}
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread t : threads)
+			t.join();
+		assertEquals(1000, individuals.size());
+		assertEquals(1000, factory.getInternedCount());
+		assertEquals(8000, anonymous.size());
+	}
+
+	@Test
+	public void testUnusedEntitiesCollected() throws Exception
+	{
+		ConcurrentOWLDataFactory factory = new ConcurrentOWLDataFactory();
+		OWLNamedIndividual kept = factory.getOWLNamedIndividual(IRI.create(NS + "Public_Works"));
+		for (int j = 0; j < 1000; j++)
+			factory.getOWLNamedIndividual(IRI.create(NS + "SR" + j));
+		for (int i = 0; i < 50 && factory.getInternedCount() > 1; i++)
+		{
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(1, factory.getInternedCount());
+		assertTrue(kept == factory.getOWLNamedIndividual(IRI.create(NS + "Public_Works")));
+		assertEquals(OWLManager.getOWLDataFactory().getOWLNamedIndividual(IRI.create(NS + "SR1")),
+				factory.getOWLNamedIndividual(IRI.create(NS + "SR1")));
+	}
+}
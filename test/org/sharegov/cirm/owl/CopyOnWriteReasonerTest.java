@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.reasoner.OWLReasoner;
+
+import com.clarkparsia.pellet.owlapiv3.PelletReasonerFactory;
+
+public class CopyOnWriteReasonerTest
+{
+	private static final String NS = "http://www.miamidade.gov/ontology#";
+
+	private OWLOntologyManager manager;
+	private OWLDataFactory df;
+	private OWLOntology ontology;
+	private OWLClass department;
+	private OWLClass agency;
+	private OWLNamedIndividual publicWorks;
+	private OWLNamedIndividual fireRescue;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		manager = OWLManager.createOWLOntologyManager();
+		df = manager.getOWLDataFactory();
+		ontology = manager.createOntology(IRI.create("http://www.miamidade.gov/ontology/test"));
+		department = df.getOWLClass(IRI.create(NS + "Department"));
+		agency = df.getOWLClass(IRI.create(NS + "Agency"));
+		publicWorks = df.getOWLNamedIndividual(IRI.create(NS + "Public_Works"));
+		fireRescue = df.getOWLNamedIndividual(IRI.create(NS + "Fire_Rescue"));
+		manager.addAxiom(ontology, df.getOWLSubClassOfAxiom(department, agency));
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, publicWorks));
+	}
+
+	@Test
+	public void testChangesPublishedOnFlush()
+	{
+		CopyOnWriteReasoner reasoner = CopyOnWriteReasoner.copyOnWriteReasoner(PelletReasonerFactory.getInstance(), ontology, 2);
+		OWLReasoner before = reasoner.unwrap();
+		assertEquals(1, reasoner.getInstances(agency, false).getFlattened().size());
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, fireRescue));
+		assertEquals(1, reasoner.getPendingChanges().size());
+		assertEquals(1, reasoner.getPendingAxiomAdditions().size());
+		assertEquals(1, reasoner.getInstances(agency, false).getFlattened().size());
+		reasoner.flush();
+		assertTrue(reasoner.getPendingChanges().isEmpty());
+		assertTrue(before != reasoner.unwrap());
+		assertEquals(2, reasoner.getInstances(agency, false).getFlattened().size());
+		assertEquals(1, reasoner.getStatistics().at("swaps").asInteger());
+		reasoner.dispose();
+	}
+
+	@Test
+	public void testQueriesDuringFlush() throws Exception
+	{
+		final CopyOnWriteReasoner reasoner = CopyOnWriteReasoner.copyOnWriteReasoner(PelletReasonerFactory.getInstance(), ontology, 2);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++)
+		{
+			readers[i] = new Thread(new Runnable() {
+				public void run()
+				{
+					while (!stop.get())
+						try
+						{
+							if (!reasoner.getTypes(publicWorks, false).containsEntity(agency))
+								failures.incrementAndGet();
+						}
+						catch (Throwable t)
+						{
+							failures.incrementAndGet();
+						}
+				}
+			});
+			readers[i].start();
+		}
+		for (int i = 0; i < 20; i++)
+		{
+			manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, df.getOWLNamedIndividual(IRI.create(NS + "SR" + i))));
+			reasoner.flush();
+		}
+		stop.set(true);
+		for (Thread t : readers)
+			t.join();
+		assertEquals(0, failures.get());
+		assertEquals(21, reasoner.getInstances(agency, false).getFlattened().size());
+		assertTrue(reasoner.getStatistics().at("queries").asLong() > 0);
+		reasoner.dispose();
+	}
+
+	@Test
+	public void testCachedReasonerFlushAndInvalidate()
+	{
+		CachedReasoner cr = CachedReasoner.cachedReasoner(
+				CopyOnWriteReasoner.copyOnWriteReasoner(PelletReasonerFactory.getInstance(), ontology, 1));
+		assertTrue(cr.getTypes(publicWorks, false).containsEntity(agency));
+		assertEquals(1, cr.getInstances(agency, false).getFlattened().size());
+		manager.addAxiom(ontology, df.getOWLClassAssertionAxiom(department, fireRescue));
+		cr.flushAndInvalidate();
+		assertTrue(cr.getPendingChanges().isEmpty());
+		assertEquals(2, cr.getInstances(agency, false).getFlattened().size());
+		cr.dispose();
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+/**
+ * Compares the throughput of SynchronizedOWLDataFactory/SynchronizedOWLOntologyManager with 
+ * ConcurrentOWLDataFactory/ReadWriteLockedOWLOntologyManager for 1 to 8 threads.
+ * Each operation creates an individual and a class and looks up an ontology, as OWL.individual() and
+ * json serialization do.
+ * Arguments: [ms per run] 
+ */
+public class OWLFactoryBench
+{
+	static final String NS = "http://www.miamidade.gov/ontology#";
+	static final int IRIS = 10000;
+	static final IRI[] iris = new IRI[IRIS];
+	static final IRI ontologyIRI = IRI.create("http://www.miamidade.gov/ontology");
+
+	/**
+	 * @return operations per ms
+	 */
+	static long run(final OWLDataFactory factory, final OWLOntologyManager manager, int threads, final long ms) throws InterruptedException
+	{
+		final AtomicLong ops = new AtomicLong();
+		final long end = System.currentTimeMillis() + ms;
+		Thread[] pool = new Thread[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			final int offset = i * 997;
+			pool[i] = new Thread(new Runnable() {
+				public void run()
+				{
+					long count = 0;
+					int k = offset;
+					while (System.currentTimeMillis() < end)
+					{
+						for (int j = 0; j < 1000; j++)
+						{
+							IRI iri = iris[k++ % IRIS];
+							factory.getOWLNamedIndividual(iri);
+							factory.getOWLClass(iri);
+							manager.getOntology(ontologyIRI);
+						}
+						count += 1000;
+					}
+					ops.addAndGet(count);
+				}
+			});
+			pool[i].start();
+		}
+		for (Thread t : pool)
+			t.join();
+		return ops.get() / ms;
+	}
+
+	public static void main(String[] argv) throws Exception
+	{
+		long ms = argv.length > 0 ? Long.parseLong(argv[0]) : 2000;
+		for (int i = 0; i < IRIS; i++)
+			iris[i] = IRI.create(NS + "Individual" + i);
+		OWLDataFactory synchronizedFactory = SynchronizedOWLDataFactory.synchronizedFactory(new OWLDataFactoryImpl());
+		OWLOntologyManager synchronizedManager = SynchronizedOWLOntologyManager.synchronizedManager(OWLManager.createOWLOntologyManager(synchronizedFactory));
+		synchronizedManager.createOntology(ontologyIRI);
+		OWLDataFactory concurrentFactory = new ConcurrentOWLDataFactory();
+		OWLOntologyManager readWriteLockedManager = ReadWriteLockedOWLOntologyManager.readWriteLockedManager(OWLManager.createOWLOntologyManager(concurrentFactory));
+		readWriteLockedManager.createOntology(ontologyIRI);
+		System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+		System.out.println("threads\tsynchronized ops/ms\tconcurrent ops/ms");
+		for (int threads = 1; threads <= 8; threads *= 2)
+		{
+			long synchronizedOps = run(synchronizedFactory, synchronizedManager, threads, ms);
+			long concurrentOps = run(concurrentFactory, readWriteLockedManager, threads, ms);
+			System.out.println(threads + "\t" + synchronizedOps + "\t" + concurrentOps);
+		}
+	}
+}
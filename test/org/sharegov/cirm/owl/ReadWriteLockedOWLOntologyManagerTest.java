@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.owl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+public class ReadWriteLockedOWLOntologyManagerTest
+{
+	private static final IRI ONTOLOGY = IRI.create("http://www.miamidade.gov/ontology/test");
+
+	@Test
+	public void testDelegates() throws Exception
+	{
+		OWLOntologyManager manager = ReadWriteLockedOWLOntologyManager.readWriteLockedManager(OWLManager.createOWLOntologyManager());
+		OWLDataFactory df = manager.getOWLDataFactory();
+		OWLOntology ontology = manager.createOntology(ONTOLOGY);
+		assertTrue(manager.contains(ONTOLOGY));
+		manager.addAxiom(ontology, df.getOWLDeclarationAxiom(df.getOWLClass(IRI.create(ONTOLOGY + "#Agency"))));
+		assertEquals(1, manager.getOntology(ONTOLOGY).getAxiomCount());
+		assertEquals(1, manager.getImportsClosure(ontology).size());
+		manager.removeOntology(ontology);
+		assertFalse(manager.contains(ONTOLOGY));
+	}
+
+	/**
+	 * Callers synchronizing on the manager block writers, but not readers.
+	 */
+	@Test
+	public void testSynchronizedCallerBlocksOnlyWriters() throws Exception
+	{
+		final OWLOntologyManager manager = ReadWriteLockedOWLOntologyManager.readWriteLockedManager(OWLManager.createOWLOntologyManager());
+		manager.createOntology(ONTOLOGY);
+		final CountDownLatch read = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(1);
+		synchronized (manager)
+		{
+			new Thread(new Runnable() {
+				public void run()
+				{
+					if (manager.getOntology(ONTOLOGY) != null)
+						read.countDown();
+					manager.removeOntology(manager.getOntology(ONTOLOGY));
+					written.countDown();
+				}
+			}).start();
+			assertTrue(read.await(10, TimeUnit.SECONDS));
+			assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+		}
+		assertTrue(written.await(10, TimeUnit.SECONDS));
+		assertFalse(manager.contains(ONTOLOGY));
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLAxiom;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLDataProperty;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.RemoveAxiom;
+
+public class AxiomDeltaTest
+{
+	private static final String NS = "http://www.miamidade.gov/test#";
+
+	private OWLOntologyManager manager;
+	private OWLDataFactory df;
+	private OWLOntology on;
+	private OWLNamedIndividual sr;
+	private OWLNamedIndividual activity;
+	private OWLDataProperty hasDetails;
+	private OWLObjectProperty hasActivity;
+	private OWLObjectProperty hasStatus;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		manager = OWLManager.createOWLOntologyManager();
+		df = manager.getOWLDataFactory();
+		on = manager.createOntology(IRI.create("http://www.miamidade.gov/test/bo/1"));
+		sr = df.getOWLNamedIndividual(IRI.create(NS + "bo"));
+		activity = df.getOWLNamedIndividual(IRI.create(NS + "activity1"));
+		hasDetails = df.getOWLDataProperty(IRI.create(NS + "hasDetails"));
+		hasActivity = df.getOWLObjectProperty(IRI.create(NS + "hasActivity"));
+		hasStatus = df.getOWLObjectProperty(IRI.create(NS + "hasStatus"));
+		manager.addAxiom(on, df.getOWLClassAssertionAxiom(df.getOWLClass(IRI.create(NS + "SR")), sr));
+		manager.addAxiom(on, df.getOWLDataPropertyAssertionAxiom(hasDetails, sr, "details"));
+		manager.addAxiom(on, df.getOWLObjectPropertyAssertionAxiom(hasStatus, sr,
+				df.getOWLNamedIndividual(IRI.create(NS + "O-OPEN"))));
+	}
+
+	@Test
+	public void testUnchanged()
+	{
+		AxiomDelta delta = new AxiomDelta(AxiomDelta.assertionAxioms(on), on);
+		assertTrue(delta.isEmpty());
+		assertTrue(delta.getDirtyIndividuals().isEmpty());
+	}
+
+	@Test
+	public void testChangedDataProperty()
+	{
+		Set<OWLAxiom> snapshot = AxiomDelta.assertionAxioms(on);
+		manager.applyChange(new RemoveAxiom(on, df.getOWLDataPropertyAssertionAxiom(hasDetails, sr, "details")));
+		manager.addAxiom(on, df.getOWLDataPropertyAssertionAxiom(hasDetails, sr, "changed"));
+		AxiomDelta delta = new AxiomDelta(snapshot, on);
+		assertEquals(2, delta.getChangedAxiomCount());
+		assertEquals(1, delta.getChangedDataKeys().size());
+		assertTrue(delta.isDataChanged(sr, hasDetails));
+		assertFalse(delta.isObjectChanged(sr, hasStatus));
+		assertFalse(delta.isClassChanged(sr));
+		assertTrue(delta.isDirty(sr));
+	}
+
+	@Test
+	public void testNewRelatedIndividualIsDirty()
+	{
+		Set<OWLAxiom> snapshot = AxiomDelta.assertionAxioms(on);
+		manager.addAxiom(on, df.getOWLObjectPropertyAssertionAxiom(hasActivity, sr, activity));
+		AxiomDelta delta = new AxiomDelta(snapshot, on);
+		assertTrue(delta.isObjectChanged(sr, hasActivity));
+		assertTrue(delta.isDirty(sr));
+		assertTrue(delta.isDirty(activity));
+	}
+
+	@Test
+	public void testRemovedSubjectIgnored()
+	{
+		manager.addAxiom(on, df.getOWLDataPropertyAssertionAxiom(hasDetails, activity, "activity details"));
+		Set<OWLAxiom> snapshot = AxiomDelta.assertionAxioms(on);
+		manager.applyChange(new RemoveAxiom(on, df.getOWLDataPropertyAssertionAxiom(hasDetails, activity, "activity details")));
+		AxiomDelta delta = new AxiomDelta(snapshot, on);
+		assertTrue(delta.isEmpty());
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.rdb.BOChangeFeed.Change;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeConnection;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSource;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSourceRef;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeStatement;
+
+/**
+ * Cursors and the control flow of the feed. Sequencing and offsets are tested against the
+ * database by T005_BOChangeFeedTest.
+ */
+public class BOChangeFeedTest
+{
+	int statementCacheSize;
+	FakeDataSource dataSource;
+	BOChangeFeed feed;
+
+	@Before
+	public void setUp()
+	{
+		statementCacheSize = ThreadLocalConnection.STATEMENT_CACHE_SIZE;
+		ThreadLocalConnection.STATEMENT_CACHE_SIZE = 0;
+	}
+
+	@After
+	public void tearDown()
+	{
+		ThreadLocalConnection.STATEMENT_CACHE_SIZE = statementCacheSize;
+	}
+
+	void createFeed(FakeDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+		feed = new BOChangeFeed(JdbcFixture.storeRef(new FakeDataSourceRef(dataSource.dataSource())));
+	}
+
+	List<String> prepared()
+	{
+		List<String> result = new ArrayList<String>();
+		for (FakeConnection c : dataSource.connections)
+			result.addAll(c.prepared);
+		return result;
+	}
+
+	static int count(List<String> sqls, String part)
+	{
+		int result = 0;
+		for (String sql : sqls)
+			if (sql.contains(part))
+				result++;
+		return result;
+	}
+
+	@Test
+	public void testCursorRoundTrip()
+	{
+		String cursor = BOChangeFeed.cursor(4711);
+		assertEquals(4711L, BOChangeFeed.parseCursor(cursor));
+		assertEquals(cursor, new Change(1, new Timestamp(0), 4711).getCursor());
+	}
+
+	@Test
+	public void testEmptyCursorStartsAtOldest()
+	{
+		assertEquals(0L, BOChangeFeed.parseCursor(null));
+		assertEquals(0L, BOChangeFeed.parseCursor(""));
+	}
+
+	@Test
+	public void testMalformedCursor()
+	{
+		for (String cursor : new String[] { "abc", "1:2:3", "-1" })
+		{
+			try
+			{
+				BOChangeFeed.parseCursor(cursor);
+				fail("Malformed cursor accepted: " + cursor);
+			}
+			catch (IllegalArgumentException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Another sequencer creates the missing SEQUENCER row just before this one inserts it.
+	 */
+	@Test
+	public void testSequencerCreatedConcurrently()
+	{
+		createFeed(new FakeDataSource() {
+			boolean created = false;
+
+			FakeConnection connect()
+			{
+				return new FakeConnection() {
+					FakeStatement prepare(String sql)
+					{
+						if (sql.startsWith("INSERT"))
+							return new FakeStatement(sql) {
+								int executeUpdate() throws SQLException
+								{
+									created = true;
+									throw new SQLException("unique constraint violated", "23505");
+								}
+							};
+						else if (sql.endsWith("FOR UPDATE"))
+							return new FakeStatement(sql) {
+								ResultSet executeQuery()
+								{
+									return created ? JdbcFixture.resultSet(0L)
+											: JdbcFixture.resultSet(Collections.<Object[]>emptyList());
+								}
+							};
+						return new FakeStatement(sql);
+					}
+				};
+			}
+		});
+		assertEquals(0, feed.sequence());
+		List<String> prepared = prepared();
+		assertEquals(1, count(prepared, "INSERT"));
+		assertEquals(2, count(prepared, "FOR UPDATE"));
+	}
+
+	@Test
+	public void testFailedSequencerCreationNotIgnored()
+	{
+		createFeed(new FakeDataSource() {
+			FakeConnection connect()
+			{
+				return new FakeConnection() {
+					FakeStatement prepare(String sql)
+					{
+						if (sql.startsWith("INSERT"))
+							return new FakeStatement(sql) {
+								int executeUpdate() throws SQLException
+								{
+									throw new SQLException("ORA-01400: cannot insert NULL", "23000", 1400);
+								}
+							};
+						return new FakeStatement(sql);
+					}
+				};
+			}
+		});
+		try
+		{
+			feed.sequence();
+			fail("Failed insert of the sequencer ignored.");
+		}
+		catch (RuntimeException e)
+		{
+			assertFalse(BOChangeFeed.isDuplicateKey(e));
+		}
+	}
+
+	@Test
+	public void testIsDuplicateKey()
+	{
+		SQLException oracle = new SQLException("ORA-00001: unique constraint violated", "23000", 1);
+		assertTrue(BOChangeFeed.isDuplicateKey(new RuntimeException(oracle)));
+		assertTrue(BOChangeFeed.isDuplicateKey(new SQLException("duplicate key value", "23505")));
+		assertFalse(BOChangeFeed.isDuplicateKey(new RuntimeException(new SQLException("ORA-01400", "23000", 1400))));
+		assertFalse(BOChangeFeed.isDuplicateKey(new RuntimeException()));
+	}
+
+	@Test
+	public void testReservedConsumer()
+	{
+		createFeed(new FakeDataSource());
+		for (String consumer : new String[] { BOChangeFeed.SEQUENCER, "", null })
+		{
+			try
+			{
+				feed.commitOffset(consumer, "1");
+				fail("Consumer name accepted: " + consumer);
+			}
+			catch (IllegalArgumentException e)
+			{
+			}
+		}
+		assertTrue(dataSource.connections.isEmpty());
+	}
+}
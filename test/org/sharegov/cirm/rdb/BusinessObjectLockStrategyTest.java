@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.sharegov.cirm.CirmTransaction;
+
+public class BusinessObjectLockStrategyTest
+{
+	private static CirmTransaction<Object> txn(long... boids)
+	{
+		CirmTransaction<Object> t = new CirmTransaction<Object>() {
+			public Object call()
+			{
+				return null;
+			}
+		};
+		for (long boid : boids)
+			t.addBusinessObjectId(boid);
+		return t;
+	}
+
+	@Test
+	public void testSameBusinessObjectWaits() throws Exception
+	{
+		final BusinessObjectLockStrategy s = new BusinessObjectLockStrategy(16);
+		final CirmTransaction<Object> first = txn(100);
+		s.beforeExecution(first);
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicLong acquiredAt = new AtomicLong();
+		Thread second = new Thread() {
+			public void run()
+			{
+				CirmTransaction<Object> t = txn(100);
+				started.countDown();
+				s.beforeExecution(t);
+				acquiredAt.set(System.nanoTime());
+				s.afterExecution(t);
+			}
+		};
+		second.start();
+		started.await();
+		Thread.sleep(100);
+		long releasedAt = System.nanoTime();
+		s.afterExecution(first);
+		second.join(5000);
+		assertTrue(acquiredAt.get() >= releasedAt);
+		assertEquals(1, s.getStatistics().at("contentions").asLong());
+	}
+
+	@Test
+	public void testOppositeOrderNoDeadlock() throws Exception
+	{
+		final BusinessObjectLockStrategy s = new BusinessObjectLockStrategy(64);
+		final CountDownLatch done = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++)
+		{
+			final long[] boids = i == 0 ? new long[] { 1, 2, 3 } : new long[] { 3, 2, 1 };
+			new Thread() {
+				public void run()
+				{
+					for (int j = 0; j < 1000; j++)
+					{
+						CirmTransaction<Object> t = txn(boids);
+						s.beforeExecution(t);
+						s.afterExecution(t);
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(0, s.getStatistics().at("timeouts").asLong());
+	}
+
+	/**
+	 * A business object found during execution is locked without waiting; a second transaction
+	 * finding it locked requests a retry and waits for it before its next execution.
+	 */
+	@Test
+	public void testBusinessObjectAddedDuringExecution() throws Exception
+	{
+		final BusinessObjectLockStrategy s = new BusinessObjectLockStrategy(16);
+		final AtomicLong retryRequested = new AtomicLong();
+		final CirmTransaction<Object> second = new CirmTransaction<Object>() {
+			public Object call()
+			{
+				addBusinessObjectId(100);
+				s.businessObjectAdded(this, 100);
+				if (isRequestingRetry())
+					retryRequested.incrementAndGet();
+				return null;
+			}
+		};
+		CirmTransaction<Object> first = new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				addBusinessObjectId(100);
+				s.businessObjectAdded(this, 100);
+				// saving again does not lock twice
+				s.businessObjectAdded(this, 100);
+				Thread t = new Thread() {
+					public void run()
+					{
+						second.begin();
+						try
+						{
+							s.beforeExecution(second);
+							second.execute();
+						}
+						catch (RetryDetectedException e)
+						{
+							// as the store would retry
+						}
+						catch (Exception e)
+						{
+							throw new RuntimeException(e);
+						}
+						finally
+						{
+							s.afterExecution(second);
+							second.end(false);
+						}
+					}
+				};
+				t.start();
+				t.join();
+				return null;
+			}
+		};
+		first.begin();
+		s.beforeExecution(first);
+		first.execute();
+		s.afterExecution(first);
+		first.end(true);
+		assertEquals(1, retryRequested.get());
+		assertEquals(1, s.getStatistics().at("contentions").asLong());
+		// the retry of second declares 100 before execution and gets the released lock
+		CirmTransaction<Object> retry = txn(100);
+		s.beforeExecution(retry);
+		s.afterExecution(retry);
+		assertEquals(1, s.getStatistics().at("contentions").asLong());
+	}
+
+	@Test
+	public void testNoBusinessObjects()
+	{
+		BusinessObjectLockStrategy s = new BusinessObjectLockStrategy(16);
+		CirmTransaction<Object> t = txn();
+		s.beforeExecution(t);
+		s.afterExecution(t);
+		assertEquals(0, s.getStatistics().at("acquisitions").asLong());
+	}
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeConnection;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSource;
+
+public class CirmConnectionPoolTest
+{
+	private FakeDataSource dataSource;
+	private CirmConnectionPool pool;
+
+	private int opened()
+	{
+		return dataSource.connections.size();
+	}
+
+	private int prepared()
+	{
+		int result = 0;
+		for (FakeConnection c : dataSource.connections)
+			result += c.prepared.size();
+		return result;
+	}
+
+	private int statementsClosed()
+	{
+		int result = 0;
+		for (FakeConnection c : dataSource.connections)
+			result += c.closedStatements();
+		return result;
+	}
+
+	@Before
+	public void setUp()
+	{
+		dataSource = new FakeDataSource();
+		pool = new CirmConnectionPool("test", dataSource.dataSource(), 0, 2, 1, true, 3600);
+	}
+
+	@After
+	public void tearDown()
+	{
+		pool.close();
+	}
+
+	@Test
+	public void testReuse() throws Exception
+	{
+		Connection c = pool.getConnection();
+		assertEquals(1, pool.getActive());
+		c.close();
+		assertTrue(c.isClosed());
+		assertEquals(0, pool.getActive());
+		assertEquals(1, pool.getIdle());
+		pool.getConnection().close();
+		assertEquals(1, opened());
+	}
+
+	@Test
+	public void testBorrowTimeout() throws Exception
+	{
+		pool.getConnection();
+		pool.getConnection();
+		try
+		{
+			pool.getConnection();
+			fail("Pool exhausted, borrow must time out.");
+		}
+		catch (SQLException e)
+		{
+			assertEquals(1, pool.getStatistics().at("borrowTimeouts").asLong());
+		}
+		assertTrue(pool.getBorrowWaitMs(99) >= 900);
+	}
+
+	@Test
+	public void testDiscard() throws Exception
+	{
+		Connection c1 = pool.getConnection();
+		Connection c2 = pool.getConnection();
+		((CirmConnectionPool.PooledConnection) c1).discard();
+		assertEquals(1, pool.getActive());
+		assertEquals(0, pool.getIdle());
+		c2.close();
+		c2.close();
+		assertEquals(0, pool.getActive());
+		assertEquals(1, pool.getIdle());
+		pool.getConnection();
+		pool.getConnection();
+		assertEquals(3, opened());
+		assertEquals(4, pool.getStatistics().at("borrows").asLong());
+	}
+
+	@Test
+	public void testStatementsReusedAcrossBorrows() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			ThreadLocalConnection conn = ThreadLocalConnection.createThreadLocalConnectionTopLevel(pool.getConnection());
+			conn.prepareStatement("SELECT 1").close();
+			ThreadLocalConnection.getThreadLocalConnection().prepareStatement("SELECT 1").close();
+			conn.close();
+		}
+		assertEquals(1, opened());
+		assertEquals(1, prepared());
+		assertEquals(0, statementsClosed());
+		pool.close();
+		assertEquals(1, statementsClosed());
+	}
+
+	@Test
+	public void testStatementClosedAfterReturnNotCached() throws Exception
+	{
+		Connection c = pool.getConnection();
+		StatementCache cache = ((CirmConnectionPool.PooledConnection) c).getStatementCache();
+		PreparedStatement leaked = cache.prepareStatement("SELECT 1");
+		c.close();
+		leaked.close();
+		assertEquals(1, statementsClosed());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testDiscardClosesStatements() throws Exception
+	{
+		ThreadLocalConnection conn = ThreadLocalConnection.createThreadLocalConnectionTopLevel(pool.getConnection());
+		conn.prepareStatement("SELECT 1").close();
+		conn.prepareStatement("SELECT 2").close();
+		conn.closeAndDiscard();
+		assertEquals(2, statementsClosed());
+		assertEquals(0, pool.getIdle());
+	}
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.data.ClientInfo;
+import org.restlet.security.User;
+import org.sharegov.cirm.RequestScopeFilter;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSource;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSourceRef;
+
+public class DataSourceRefTest
+{
+	int replicaRetrySecs;
+	int readYourWritesSecs;
+	FakeDataSource primary, replica0, replica1;
+	DataSourceRef ref;
+
+	@Before
+	public void setUp()
+	{
+		replicaRetrySecs = DataSourceRef.REPLICA_RETRY_SECS;
+		readYourWritesSecs = DataSourceRef.READ_YOUR_WRITES_SECS;
+		primary = new FakeDataSource("primary");
+		replica0 = new FakeDataSource("replica0");
+		replica1 = new FakeDataSource("replica1");
+		ref = new FakeDataSourceRef(primary.dataSource());
+		ref.setReplicas(Arrays.asList(replica0.dataSource(), replica1.dataSource()));
+	}
+
+	@After
+	public void tearDown()
+	{
+		DataSourceRef.REPLICA_RETRY_SECS = replicaRetrySecs;
+		DataSourceRef.READ_YOUR_WRITES_SECS = readYourWritesSecs;
+	}
+
+	String read(String client) throws SQLException
+	{
+		return ref.getReadOnlyConnection(client).toString();
+	}
+
+	@Test
+	public void testRoundRobin() throws SQLException
+	{
+		String first = read(null);
+		String second = read(null);
+		assertTrue(first.startsWith("replica"));
+		assertTrue(second.startsWith("replica"));
+		assertFalse(first.equals(second));
+		assertEquals(first, read(null));
+		assertEquals("primary", ref.resolve().getConnection().toString());
+		assertEquals(3, ref.getReplicaStatistics().at("replicaReads").asLong());
+	}
+
+	@Test
+	public void testWithoutReplicas() throws SQLException
+	{
+		ref = new FakeDataSourceRef(primary.dataSource());
+		assertFalse(ref.hasReplicas());
+		ref.noteWrite("user:jdoe");
+		assertEquals("primary", read("user:jdoe"));
+		assertEquals("primary", read(null));
+	}
+
+	@Test
+	public void testFailedReplicaSkipped() throws SQLException
+	{
+		DataSourceRef.REPLICA_RETRY_SECS = 60;
+		replica0.down = true;
+		for (int i = 0; i < 4; i++)
+			assertEquals("replica1", read(null));
+		// tried once, then skipped for REPLICA_RETRY_SECS
+		assertEquals(1, ref.getReplicaStatistics().at("replicaFailures").asLong());
+		replica1.down = true;
+		assertEquals("primary", read(null));
+		assertEquals(2, ref.getReplicaStatistics().at("replicaFailures").asLong());
+		DataSourceRef.REPLICA_RETRY_SECS = 0;
+		ref = new FakeDataSourceRef(primary.dataSource());
+		ref.setReplicas(Arrays.asList(replica0.dataSource()));
+		assertEquals("primary", read(null));
+		replica0.down = false;
+		assertEquals("replica0", read(null));
+	}
+
+	@Test
+	public void testReadYourWrites() throws SQLException
+	{
+		DataSourceRef.READ_YOUR_WRITES_SECS = 60;
+		ref.noteWrite("user:jdoe");
+		assertEquals("primary", read("user:jdoe"));
+		assertTrue(read("user:other").startsWith("replica"));
+		assertTrue(read(null).startsWith("replica"));
+		assertEquals(1, ref.getReplicaStatistics().at("pinnedReads").asLong());
+		DataSourceRef.READ_YOUR_WRITES_SECS = 0;
+		assertTrue(read("user:jdoe").startsWith("replica"));
+	}
+
+	@Test
+	public void testClientIdentifiedByServer()
+	{
+		ClientInfo clientInfo = new ClientInfo();
+		assertNull(RequestScopeFilter.getClient(clientInfo));
+		// the address is shared by all clients behind a proxy
+		clientInfo.setAddress("10.0.0.1");
+		assertNull(RequestScopeFilter.getClient(clientInfo));
+		// a user that was not authenticated is not trusted
+		clientInfo.setUser(new User("jdoe"));
+		assertNull(RequestScopeFilter.getClient(clientInfo));
+		clientInfo.setAuthenticated(true);
+		assertEquals("user:jdoe", RequestScopeFilter.getClient(clientInfo));
+	}
+}
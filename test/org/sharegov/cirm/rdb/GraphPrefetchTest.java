@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.semanticweb.owlapi.model.OWLObjectProperty;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+public class GraphPrefetchTest
+{
+	/**
+	 * @return a resultset positioned on one row with the given column labels and values.
+	 */
+	static ResultSet row(String[] labels, Object[] values) throws SQLException
+	{
+		ResultSet rs = JdbcFixture.resultSet(labels, Collections.singletonList(values));
+		rs.next();
+		return rs;
+	}
+
+	@Test
+	public void testMappedRowRead() throws SQLException
+	{
+		MappedRow row = MappedRow.read(row(new String[] { "SR_REQUEST_ID", "sr_status", "SR_REQUEST_ID" },
+				new Object[] { new BigDecimal("4711"), "O-OPEN", new BigDecimal("1") }));
+		assertEquals(4711L, (long) row.getLong("sr_request_id"));
+		assertEquals("4711", row.getString("SR_REQUEST_ID"));
+		assertEquals("O-OPEN", row.getString("SR_STATUS"));
+		try
+		{
+			row.getObject("NO_SUCH_COLUMN");
+			throw new AssertionError("Missing column accepted");
+		}
+		catch (SQLException e)
+		{
+		}
+	}
+
+	/**
+	 * @return a CLOB locator that becomes invalid when freed, like after closing the resultset.
+	 */
+	static Clob clob(final String text)
+	{
+		return JdbcFixture.proxy(Clob.class, new InvocationHandler() {
+			boolean freed = false;
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws SQLException
+			{
+				if (freed)
+					throw new SQLException("Invalid LOB locator");
+				if (method.getName().equals("free"))
+					freed = true;
+				else if (method.getName().equals("length"))
+					return (long) text.length();
+				else if (method.getName().equals("getSubString"))
+					return text.substring((int) (long) (Long) args[0] - 1, (Integer) args[1]);
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testMappedRowReadsClob() throws SQLException
+	{
+		Clob clob = clob("a long description");
+		MappedRow row = MappedRow.read(row(new String[] { "SR_DESCRIPTION" }, new Object[] { clob }));
+		assertEquals("a long description", row.getString("SR_DESCRIPTION"));
+		assertEquals("a long description", row.getObject("SR_DESCRIPTION"));
+		try
+		{
+			clob.length();
+			throw new AssertionError("Clob was not freed");
+		}
+		catch (SQLException e)
+		{
+		}
+	}
+
+	@Test
+	public void testMappedRows() throws SQLException
+	{
+		GraphPrefetch prefetch = new GraphPrefetch();
+		MappedRow sr = MappedRow.read(row(new String[] { "SR_REQUEST_ID" }, new Object[] { 1L }));
+		prefetch.putRow("CIRM_SR_REQUESTS", 1, sr);
+		assertTrue(prefetch.containsRow("CIRM_SR_REQUESTS", 1));
+		assertSame(sr, prefetch.getRow("CIRM_SR_REQUESTS", 1));
+		assertFalse(prefetch.containsRow("CIRM_SR_REQUESTS", 2));
+		assertNull(prefetch.getRow("CIRM_SR_ACTIVITY", 1));
+	}
+
+	@Test
+	public void testRelationshipRows() throws SQLException
+	{
+		GraphPrefetch prefetch = new GraphPrefetch();
+		List<Long> parents = Arrays.asList(1L, 2L);
+		assertNull(prefetch.getRelationshipRows("activities", 1));
+		prefetch.putRelationshipParents("activities", parents);
+		MappedRow activity = MappedRow.read(row(new String[] { "ACTIVITY_ID" }, new Object[] { 10L }));
+		prefetch.addRelationshipRow("activities", 1, activity);
+		assertEquals(1, prefetch.getRelationshipRows("activities", 1).size());
+		assertSame(activity, prefetch.getRelationshipRows("activities", 1).get(0));
+		// prefetched without rows
+		assertTrue(prefetch.getRelationshipRows("activities", 2).isEmpty());
+		// not prefetched, must be queried
+		assertNull(prefetch.getRelationshipRows("activities", 3));
+		// marking again does not drop rows
+		prefetch.putRelationshipParents("activities", parents);
+		assertEquals(1, prefetch.getRelationshipRows("activities", 1).size());
+	}
+
+	@Test
+	public void testVerticalData()
+	{
+		OWLDataFactory df = new OWLDataFactoryImpl();
+		OWLObjectProperty hasActor = df.getOWLObjectProperty(IRI.create("http://test.org/hasActor"));
+		OWLNamedIndividual actor = df.getOWLNamedIndividual(IRI.create("http://test.org/actor1"));
+		GraphPrefetch prefetch = new GraphPrefetch();
+		prefetch.putSubjects(Arrays.asList(1L, 2L));
+		prefetch.addObjectProperty(1, hasActor, actor);
+		prefetch.addClass(1, df.getOWLClass(IRI.create("http://test.org/ServiceCase")));
+		assertTrue(prefetch.containsSubject(1));
+		assertTrue(prefetch.containsSubject(2));
+		assertFalse(prefetch.containsSubject(3));
+		assertTrue(prefetch.getObjectProperties(1).get(hasActor).contains(actor));
+		assertEquals(1, prefetch.getClasses(1).size());
+		// subjects without data have empty, never null values
+		assertTrue(prefetch.getObjectProperties(2).isEmpty());
+		assertTrue(prefetch.getDataProperties(2).isEmpty());
+		assertTrue(prefetch.getClasses(2).isEmpty());
+	}
+}
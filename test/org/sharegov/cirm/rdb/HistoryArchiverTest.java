@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSource;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSourceRef;
+
+/**
+ * Checks of the archiver before it touches the database. Archival itself is tested against the database
+ * by T006_HistoryArchiverTest.
+ */
+public class HistoryArchiverTest
+{
+	boolean enabled;
+	FakeDataSource dataSource;
+	HistoryArchiver archiver;
+
+	@Before
+	public void setUp()
+	{
+		enabled = HistoryArchiver.ENABLED;
+		HistoryArchiver.ENABLED = true;
+		dataSource = new FakeDataSource();
+		archiver = new HistoryArchiver(JdbcFixture.storeRef(new FakeDataSourceRef(dataSource.dataSource())));
+	}
+
+	@After
+	public void tearDown()
+	{
+		HistoryArchiver.ENABLED = enabled;
+	}
+
+	@Test
+	public void testArchiveRequiresEnabled()
+	{
+		HistoryArchiver.ENABLED = false;
+		try
+		{
+			archiver.archive(10, 2, 0);
+			fail("Archival ran while not enabled.");
+		}
+		catch (IllegalStateException e)
+		{
+		}
+		assertFalse(HistoryArchiver.readsHistory(null));
+		assertEquals(RelationalStoreImpl.TABLE_CLASSIFICATION,
+				HistoryArchiver.tableOrUnion(RelationalStoreImpl.TABLE_CLASSIFICATION, null));
+		assertTrue(dataSource.connections.isEmpty());
+	}
+
+	@Test
+	public void testArchiveArguments()
+	{
+		int[][] arguments = { { 0, 2 }, { 10, 0 } };
+		for (int[] a : arguments)
+		{
+			try
+			{
+				archiver.archive(a[0], a[1], 0);
+				fail("Archival ran with retainDays " + a[0] + " batchSubjects " + a[1]);
+			}
+			catch (IllegalArgumentException e)
+			{
+			}
+		}
+		assertFalse(archiver.isRunning());
+		assertTrue(dataSource.connections.isEmpty());
+	}
+
+	@Test
+	public void testHistoryTable()
+	{
+		assertEquals("CIRM_CLASSIFICATION_HIST", HistoryArchiver.historyTable(RelationalStoreImpl.TABLE_CLASSIFICATION));
+	}
+}
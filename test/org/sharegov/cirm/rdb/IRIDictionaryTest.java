@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLClass;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.sharegov.cirm.CirmTransaction;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+public class IRIDictionaryTest
+{
+	OWLDataFactory df = new OWLDataFactoryImpl();
+
+	OWLNamedIndividual individual(int i)
+	{
+		return df.getOWLNamedIndividual(IRI.create("http://test.org/ind" + i));
+	}
+
+	/**
+	 * Executes the transaction like the store's transaction controller without a database:
+	 * the given number of executions (retries), then success and the toplevel event.
+	 */
+	static void run(CirmTransaction<?> t, int executions) throws Exception
+	{
+		t.begin();
+		try
+		{
+			for (int i = 0; i < executions; i++)
+				t.execute();
+			t.end(true);
+			t.getTransactionEventSupport().fireEvent(t);
+		}
+		finally
+		{
+			if (!t.isEnded())
+				t.end(false);
+		}
+	}
+
+	/**
+	 * @return the id the dictionary holds for e as seen by another thread.
+	 */
+	static Long getIdFromOtherThread(final IRIDictionary dictionary, final OWLEntity e) throws Exception
+	{
+		final AtomicReference<Long> result = new AtomicReference<Long>();
+		Thread t = new Thread() {
+			public void run()
+			{
+				result.set(dictionary.getId(e));
+			}
+		};
+		t.start();
+		t.join();
+		return result.get();
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		IRIDictionary dictionary = new IRIDictionary(10);
+		OWLClass c = df.getOWLClass(IRI.create("http://test.org/Class"));
+		OWLNamedIndividual ind = individual(1);
+		dictionary.put(c, 1);
+		dictionary.put(ind, 2);
+		assertEquals(1L, (long) dictionary.getId(c));
+		assertEquals(2L, (long) dictionary.getId(ind));
+		assertEquals(c, dictionary.getEntity(1));
+		assertEquals(ind, dictionary.getEntity(2));
+		assertNull(dictionary.getId(individual(2)));
+		assertNull(dictionary.getEntity(3));
+		assertEquals(1, dictionary.getMetaSize());
+		assertEquals(1, dictionary.getIndividualSize());
+		// same IRI with another entity type is another CIRM_IRI row
+		assertNull(dictionary.getId(df.getOWLClass(ind.getIRI())));
+		dictionary.invalidate(2);
+		assertNull(dictionary.getId(ind));
+		assertNull(dictionary.getEntity(2));
+	}
+
+	@Test
+	public void testPutInTransactionPublishedOnSuccess() throws Exception
+	{
+		final IRIDictionary dictionary = new IRIDictionary(10);
+		final OWLNamedIndividual ind = individual(1);
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				dictionary.put(ind, 7);
+				assertEquals(7L, (long) dictionary.getId(ind));
+				assertEquals(ind, dictionary.getEntity(7));
+				assertNull(getIdFromOtherThread(dictionary, ind));
+				return null;
+			}
+		}, 1);
+		assertEquals(7L, (long) getIdFromOtherThread(dictionary, ind));
+	}
+
+	@Test
+	public void testRetryDiscardsPuts() throws Exception
+	{
+		final IRIDictionary dictionary = new IRIDictionary(10);
+		final OWLNamedIndividual retried = individual(1);
+		final OWLNamedIndividual committed = individual(2);
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				if (getExecutionCount() == 1)
+					dictionary.put(retried, 1);
+				else
+				{
+					assertNull(dictionary.getId(retried));
+					dictionary.put(committed, 2);
+				}
+				return null;
+			}
+		}, 2);
+		assertNull(dictionary.getId(retried));
+		assertNull(dictionary.getEntity(1));
+		assertEquals(2L, (long) dictionary.getId(committed));
+	}
+
+	@Test
+	public void testEviction()
+	{
+		IRIDictionary dictionary = new IRIDictionary(2);
+		OWLClass c = df.getOWLClass(IRI.create("http://test.org/Class"));
+		dictionary.put(c, 100);
+		dictionary.put(individual(1), 1);
+		dictionary.put(individual(2), 2);
+		// access 1, so 2 is the eldest
+		dictionary.getEntity(1);
+		dictionary.put(individual(3), 3);
+		assertEquals(2, dictionary.getIndividualSize());
+		assertEquals(1, dictionary.getEvictionCount());
+		assertNull(dictionary.getId(individual(2)));
+		assertNull(dictionary.getEntity(2));
+		assertEquals(1L, (long) dictionary.getId(individual(1)));
+		assertEquals(3L, (long) dictionary.getId(individual(3)));
+		// meta entities are pinned
+		assertEquals(100L, (long) dictionary.getId(c));
+		dictionary.setMaxIndividuals(1);
+		dictionary.put(individual(4), 4);
+		assertEquals(1, dictionary.getIndividualSize());
+		assertEquals(individual(4), dictionary.getEntity(4));
+	}
+
+	/**
+	 * Threads get or create ids for overlapping individuals against an emulated CIRM_IRI table.
+	 * Every cached pair must match the table in both directions.
+	 */
+	@Test
+	public void testConcurrentGetOrCreate() throws Exception
+	{
+		final IRIDictionary dictionary = new IRIDictionary(50);
+		final ConcurrentMap<OWLEntity, Long> table = new ConcurrentHashMap<OWLEntity, Long>();
+		final AtomicLong sequence = new AtomicLong();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++)
+		{
+			final int offset = t * 10;
+			threads.add(new Thread() {
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 2000; i++)
+						{
+							OWLNamedIndividual ind = individual((offset + i) % 100);
+							Long id = dictionary.getId(ind);
+							if (id == null)
+							{
+								Long newId = sequence.incrementAndGet();
+								id = table.putIfAbsent(ind, newId);
+								if (id == null)
+									id = newId;
+								dictionary.put(ind, id);
+							}
+							assertEquals(table.get(ind), id);
+							OWLEntity e = dictionary.getEntity(id);
+							assertTrue(e == null || e.equals(ind));
+						}
+					}
+					catch (Throwable e)
+					{
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		if (failure.get() != null)
+			throw new RuntimeException(failure.get());
+		assertEquals(100, table.size());
+		assertTrue(dictionary.getIndividualSize() <= 50);
+		assertTrue(dictionary.getEvictionCount() > 0);
+		for (int i = 0; i < 100; i++)
+		{
+			Long id = dictionary.getId(individual(i));
+			if (id != null)
+			{
+				assertEquals(table.get(individual(i)), id);
+				assertEquals(individual(i), dictionary.getEntity(id));
+			}
+		}
+	}
+}
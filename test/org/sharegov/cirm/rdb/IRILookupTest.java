@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.EntityType;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLDataFactory;
+import org.semanticweb.owlapi.model.OWLEntity;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeConnection;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeStatement;
+
+import uk.ac.manchester.cs.owl.owlapi.OWLDataFactoryImpl;
+
+public class IRILookupTest
+{
+	/**
+	 * Emulates CIRM_IRI: every IRI bound to a lookup statement exists, except IRIs ending with "missing".
+	 * The id of an IRI is its position in iris + 1.
+	 */
+	static class TestConnection extends FakeConnection
+	{
+		final List<String> iris = new ArrayList<String>();
+		final List<Integer> parameterCounts = new ArrayList<Integer>();
+
+		FakeStatement prepare(String sql)
+		{
+			return new FakeStatement(sql) {
+				ResultSet executeQuery()
+				{
+					parameterCounts.add(parameters.size());
+					List<Object[]> rows = new ArrayList<Object[]>();
+					for (Object iri : parameters.values())
+						if (iri instanceof String && !((String) iri).endsWith("missing"))
+							rows.add(new Object[] { id((String) iri), iri });
+					return JdbcFixture.resultSet(rows);
+				}
+			};
+		}
+
+		long id(String iri)
+		{
+			int i = iris.indexOf(iri);
+			if (i < 0)
+			{
+				iris.add(iri);
+				i = iris.size() - 1;
+			}
+			return i + 1;
+		}
+	}
+
+	static class TestStore extends RelationalStoreImpl
+	{
+		public Map<String, Long> selectIriTypesCached()
+		{
+			Map<String, Long> result = new HashMap<String, Long>();
+			long id = 1;
+			for (EntityType<?> type : EntityType.values())
+				result.put(type.getName(), id++);
+			return result;
+		}
+	}
+
+	OWLDataFactory df = new OWLDataFactoryImpl();
+	TestStore store = new TestStore();
+	TestConnection tc = new TestConnection();
+
+	@Before
+	public void setUp()
+	{
+		IRIDictionary.get().clear();
+		RelationalStoreImpl.resetIRILookupCounters();
+	}
+
+	@Test
+	public void testPagedLookupPerType()
+	{
+		Set<OWLEntity> entities = new HashSet<OWLEntity>();
+		int individuals = 2 * RelationalStoreImpl.IRI_LOOKUP_PAGE_SIZE + 1;
+		for (int i = 0; i < individuals; i++)
+			entities.add(df.getOWLNamedIndividual(IRI.create("http://test.org/ind" + i)));
+		for (int i = 0; i < 3; i++)
+			entities.add(df.getOWLClass(IRI.create("http://test.org/Class" + i)));
+		Map<OWLEntity, DbId> result = store.selectIDsAndEntitiesByIRIs(entities, tc.connection(), true);
+		assertEquals(entities.size(), result.size());
+		// 3 pages of individuals, 1 page of classes
+		assertEquals(4, RelationalStoreImpl.getIRILookupRoundtrips());
+		assertEquals(1, RelationalStoreImpl.getIRILookupCalls());
+		for (int count : tc.parameterCounts)
+			assertTrue(count <= RelationalStoreImpl.IRI_LOOKUP_PAGE_SIZE + 1);
+		for (String sql : tc.prepared)
+			assertTrue(sql.contains("IRI_TYPE_ID = ? AND IRI IN ("));
+		for (Map.Entry<OWLEntity, DbId> entry : result.entrySet())
+		{
+			assertEquals(entry.getKey(), entry.getValue().getSecond());
+			assertEquals(tc.id(entry.getKey().getIRI().toString()), (long) entry.getValue().getFirst());
+		}
+	}
+
+	@Test
+	public void testMissingAndCached()
+	{
+		OWLNamedIndividual found = df.getOWLNamedIndividual(IRI.create("http://test.org/found"));
+		OWLNamedIndividual missing = df.getOWLNamedIndividual(IRI.create("http://test.org/missing"));
+		Set<OWLEntity> entities = new HashSet<OWLEntity>();
+		entities.add(found);
+		entities.add(missing);
+		Map<OWLEntity, DbId> result = store.selectIDsAndEntitiesByIRIs(entities, tc.connection(), false);
+		assertEquals(1, result.size());
+		assertTrue(result.containsKey(found));
+		assertEquals(1, tc.prepared.size());
+		// found is served from the IRI dictionary, only missing is queried again
+		result = store.selectIDsAndEntitiesByIRIs(entities, tc.connection(), false);
+		assertEquals(1, result.size());
+		assertEquals(2, tc.prepared.size());
+		assertEquals(2, (int) tc.parameterCounts.get(1));
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		Map<OWLEntity, DbId> result = store.selectIDsAndEntitiesByIRIs(new HashSet<OWLEntity>(), tc.connection(), false);
+		assertTrue(result.isEmpty());
+		assertEquals(0, tc.prepared.size());
+	}
+}
@@ -0,0 +1,488 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import mjson.Json;
+
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.utils.Ref;
+
+/**
+ * Hand rolled JDBC objects for unit tests of the rdb package, which run without a database.<br>
+ * <br>
+ * The fakes know connection and statement state and what a test scripts, but no SQL. Tests of SQL semantics
+ * run against the configured database with execute and query, see T005_BOChangeFeedTest and T006_HistoryArchiverTest.
+ */
+class JdbcFixture
+{
+	static <T> T proxy(Class<T> type, InvocationHandler handler)
+	{
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+	/**
+	 * A connection that keeps its transaction state and counts commits, rollbacks and statements.
+	 * Statements are created by prepare, which subclasses override to answer queries.
+	 */
+	static class FakeConnection implements InvocationHandler
+	{
+		final String name;
+		boolean readOnly = false;
+		boolean autoCommit = true;
+		int isolation = Connection.TRANSACTION_READ_COMMITTED;
+		int commits = 0;
+		int rollbacks = 0;
+		boolean closed = false;
+		final List<String> prepared = new ArrayList<String>();
+		final List<FakeStatement> statements = new ArrayList<FakeStatement>();
+
+		FakeConnection()
+		{
+			this("connection");
+		}
+
+		FakeConnection(String name)
+		{
+			this.name = name;
+		}
+
+		Connection connection()
+		{
+			return proxy(Connection.class, this);
+		}
+
+		/**
+		 * @return the statement for sql; by default one that answers no rows and updates nothing.
+		 */
+		FakeStatement prepare(String sql) throws SQLException
+		{
+			return new FakeStatement(sql);
+		}
+
+		int closedStatements()
+		{
+			int result = 0;
+			for (FakeStatement s : statements)
+				if (s.closed)
+					result++;
+			return result;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.equals("prepareStatement"))
+			{
+				prepared.add((String) args[0]);
+				FakeStatement s = prepare((String) args[0]);
+				statements.add(s);
+				return s.statement();
+			}
+			else if (name.equals("isReadOnly"))
+				return readOnly;
+			else if (name.equals("setReadOnly"))
+				readOnly = (Boolean) args[0];
+			else if (name.equals("getAutoCommit"))
+				return autoCommit;
+			else if (name.equals("setAutoCommit"))
+				autoCommit = (Boolean) args[0];
+			else if (name.equals("getTransactionIsolation"))
+				return isolation;
+			else if (name.equals("setTransactionIsolation"))
+				isolation = (Integer) args[0];
+			else if (name.equals("getHoldability"))
+				return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+			else if (name.equals("isClosed"))
+				return closed;
+			else if (name.equals("isValid"))
+				return !closed;
+			else if (name.equals("commit"))
+				commits++;
+			else if (name.equals("rollback"))
+				rollbacks++;
+			else if (name.equals("close"))
+				closed = true;
+			else if (name.equals("getWarnings"))
+				return null;
+			else if (name.equals("toString"))
+				return this.name;
+			else if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			else if (name.equals("equals"))
+				return proxy == args[0];
+			else
+				throw new UnsupportedOperationException(name);
+			return null;
+		}
+	}
+
+	/**
+	 * A prepared statement that records its parameters, batches and max rows. Subclasses answer
+	 * by overriding executeQuery, executeUpdate and executeBatch.
+	 */
+	static class FakeStatement implements InvocationHandler
+	{
+		final String sql;
+		final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+		final List<Map<Integer, Object>> batches = new ArrayList<Map<Integer, Object>>();
+		int maxRows = 0;
+		boolean closed = false;
+
+		FakeStatement(String sql)
+		{
+			this.sql = sql;
+		}
+
+		PreparedStatement statement()
+		{
+			return proxy(PreparedStatement.class, this);
+		}
+
+		ResultSet executeQuery() throws SQLException
+		{
+			return resultSet(Collections.<Object[]>emptyList());
+		}
+
+		int executeUpdate() throws SQLException
+		{
+			return 0;
+		}
+
+		int[] executeBatch() throws SQLException
+		{
+			return new int[batches.size()];
+		}
+
+		/**
+		 * @return rows limited to maxRows, if set.
+		 */
+		List<Object[]> limit(List<Object[]> rows)
+		{
+			return maxRows > 0 && rows.size() > maxRows ? rows.subList(0, maxRows) : rows;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+				parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+			else if (name.equals("setMaxRows"))
+				maxRows = (Integer) args[0];
+			else if (name.equals("getMaxRows"))
+				return maxRows;
+			else if (name.equals("setFetchSize"))
+				return null;
+			else if (name.equals("getFetchSize"))
+				return 10;
+			else if (name.equals("clearParameters"))
+				parameters.clear();
+			else if (name.equals("addBatch"))
+				batches.add(new HashMap<Integer, Object>(parameters));
+			else if (name.equals("clearBatch"))
+				batches.clear();
+			else if (name.equals("executeQuery"))
+				return executeQuery();
+			else if (name.equals("executeUpdate"))
+				return executeUpdate();
+			else if (name.equals("executeBatch"))
+				return executeBatch();
+			else if (name.equals("close"))
+				closed = true;
+			else if (name.equals("isClosed"))
+				return closed;
+			else if (name.equals("getWarnings") || name.equals("clearWarnings"))
+				return null;
+			else if (name.equals("toString"))
+				return sql;
+			else
+				throw new UnsupportedOperationException(name);
+			return null;
+		}
+	}
+
+	/**
+	 * @return a resultset of rows of column values, columns numbered from 1.
+	 */
+	static ResultSet resultSet(List<Object[]> rows)
+	{
+		return resultSet(null, rows);
+	}
+
+	/**
+	 * @return a single row resultset.
+	 */
+	static ResultSet resultSet(Object... values)
+	{
+		return resultSet(null, Collections.singletonList(values));
+	}
+
+	/**
+	 * @param labels column labels for getMetaData or null.
+	 * @return a resultset of rows of column values, columns numbered from 1. Numbers are converted by getLong,
+	 * getInt and getDouble, null reads as 0 and sets wasNull.
+	 */
+	static ResultSet resultSet(String[] labels, List<Object[]> rows)
+	{
+		return resultSet(labels, null, null, rows);
+	}
+
+	/**
+	 * @param types sql types of the columns for getMetaData or null.
+	 * @param scales scales of the columns for getMetaData or null.
+	 */
+	static ResultSet resultSet(final String[] labels, final int[] types, final int[] scales, final List<Object[]> rows)
+	{
+		return proxy(ResultSet.class, new InvocationHandler() {
+			int row = -1;
+			boolean wasNull = false;
+			boolean closed = false;
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws SQLException
+			{
+				String name = method.getName();
+				if (name.equals("next"))
+					return ++row < rows.size();
+				else if (name.equals("close"))
+					closed = true;
+				else if (name.equals("isClosed"))
+					return closed;
+				else if (name.equals("wasNull"))
+					return wasNull;
+				else if (name.equals("getMetaData"))
+					return metaData(labels, types, scales);
+				else if (name.startsWith("get") && args != null && args.length == 1)
+				{
+					if (row < 0 || row >= rows.size())
+						throw new SQLException("Not on a row");
+					Object value = args[0] instanceof Integer ? rows.get(row)[(Integer) args[0] - 1]
+							: rows.get(row)[Arrays.asList(labels).indexOf(((String) args[0]).toUpperCase())];
+					wasNull = value == null;
+					if (name.equals("getLong"))
+						return value == null ? 0L : ((Number) value).longValue();
+					else if (name.equals("getInt"))
+						return value == null ? 0 : ((Number) value).intValue();
+					else if (name.equals("getDouble"))
+						return value == null ? 0d : ((Number) value).doubleValue();
+					else if (name.equals("getString"))
+						return value == null ? null : value.toString();
+					else if (name.equals("getTimestamp") || name.equals("getObject"))
+						return value;
+					throw new UnsupportedOperationException(name);
+				}
+				else
+					throw new UnsupportedOperationException(name);
+				return null;
+			}
+		});
+	}
+
+	static ResultSetMetaData metaData(final String[] labels, final int[] types, final int[] scales)
+	{
+		return proxy(ResultSetMetaData.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				String name = method.getName();
+				if (name.equals("getColumnCount") && labels != null)
+					return labels.length;
+				else if ((name.equals("getColumnLabel") || name.equals("getColumnName")) && labels != null)
+					return labels[(Integer) args[0] - 1];
+				else if (name.equals("getColumnType") && types != null)
+					return types[(Integer) args[0] - 1];
+				else if (name.equals("getScale") && scales != null)
+					return scales[(Integer) args[0] - 1];
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * A data source handing out a new FakeConnection per getConnection, or failing while down.
+	 */
+	static class FakeDataSource implements InvocationHandler
+	{
+		final String name;
+		final List<FakeConnection> connections = new ArrayList<FakeConnection>();
+		boolean down = false;
+
+		FakeDataSource()
+		{
+			this("dataSource");
+		}
+
+		FakeDataSource(String name)
+		{
+			this.name = name;
+		}
+
+		DataSource dataSource()
+		{
+			return proxy(DataSource.class, this);
+		}
+
+		/**
+		 * @return the next connection; subclasses return connections that answer statements.
+		 */
+		FakeConnection connect() throws SQLException
+		{
+			return new FakeConnection(name);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws SQLException
+		{
+			if (!method.getName().equals("getConnection"))
+				throw new UnsupportedOperationException(method.getName());
+			if (down)
+				throw new SQLException(name + " is down");
+			FakeConnection c = connect();
+			synchronized (connections)
+			{
+				connections.add(c);
+			}
+			return c.connection();
+		}
+	}
+
+	/**
+	 * A DataSourceRef to a fixed primary instead of one described in OWL, with a hook that only
+	 * answers the store time.
+	 */
+	static class FakeDataSourceRef extends DataSourceRef
+	{
+		final DataSource primary;
+		Date storeTime = null;
+
+		FakeDataSourceRef(DataSource primary)
+		{
+			super((Ref<Json>) null);
+			this.primary = primary;
+		}
+
+		public DataSource resolve()
+		{
+			return primary;
+		}
+
+		public DatabaseHook getHook()
+		{
+			return proxy(DatabaseHook.class, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getName().equals("timeStamp"))
+						return storeTime == null ? new Date() : storeTime;
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return a reference to a store on the data source ref, without statement caching as fake connections
+	 * are not pooled.
+	 */
+	static Ref<RelationalStoreExt> storeRef(DataSourceRef dataSourceRef)
+	{
+		final RelationalStoreExt store = new RelationalStoreExt(dataSourceRef);
+		return new Ref<RelationalStoreExt>() {
+			public RelationalStoreExt resolve()
+			{
+				return store;
+			}
+		};
+	}
+
+	/**
+	 * Executes an update in its own transaction on a store of a real database, for the T00x tests.
+	 * @return the update count.
+	 */
+	static int execute(final RelationalStoreExt store, final String sql, final Object... parameters)
+	{
+		return store.txn(new CirmTransaction<Integer>() {
+			public Integer call() throws Exception
+			{
+				Connection conn = null;
+				PreparedStatement stmt = null;
+				try
+				{
+					conn = store.getConnection();
+					stmt = conn.prepareStatement(sql);
+					for (int i = 0; i < parameters.length; i++)
+						stmt.setObject(i + 1, parameters[i]);
+					return stmt.executeUpdate();
+				}
+				finally
+				{
+					store.close(stmt, conn);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Executes a query in its own transaction on a store of a real database, for the T00x tests.
+	 * @return the rows of column values.
+	 */
+	static List<Object[]> query(final RelationalStoreExt store, final String sql, final Object... parameters)
+	{
+		return store.txn(new CirmTransaction<List<Object[]>>() {
+			public List<Object[]> call() throws Exception
+			{
+				Connection conn = null;
+				PreparedStatement stmt = null;
+				ResultSet rs = null;
+				try
+				{
+					conn = store.getConnection();
+					stmt = conn.prepareStatement(sql);
+					for (int i = 0; i < parameters.length; i++)
+						stmt.setObject(i + 1, parameters[i]);
+					rs = stmt.executeQuery();
+					List<Object[]> rows = new ArrayList<Object[]>();
+					int columns = rs.getMetaData().getColumnCount();
+					while (rs.next())
+					{
+						Object[] row = new Object[columns];
+						for (int i = 0; i < columns; i++)
+							row[i] = rs.getObject(i + 1);
+						rows.add(row);
+					}
+					return rows;
+				}
+				finally
+				{
+					store.close(rs, stmt, conn);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.sharegov.cirm.rdb.Sql.SELECT;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class KeysetTest
+{
+	static final String ID = "a.SR_REQUEST_ID";
+
+	static Query query(String sortColumn, String direction)
+	{
+		Sql select = SELECT().COLUMN(ID).FROM("CIRM_SR_REQUESTS a").ORDER_BY(sortColumn).ORDER_DIRECTION(direction);
+		Statement statement = new Statement();
+		statement.setSql(select);
+		Query query = new Query();
+		query.setStatement(statement);
+		return query;
+	}
+
+	/**
+	 * @return a resultset positioned on a row with the id and a sort value of the given sql type and scale.
+	 */
+	static ResultSet row(long id, Object sortValue, int sqlType, int scale) throws SQLException
+	{
+		ResultSet rs = JdbcFixture.resultSet(null, new int[] { Types.BIGINT, sqlType }, new int[] { 0, scale },
+				Collections.singletonList(new Object[] { id, sortValue }));
+		rs.next();
+		return rs;
+	}
+
+	static String nextToken(String sortColumn, String direction, ResultSet lastRow) throws Exception
+	{
+		Query first = query(sortColumn, direction);
+		Keyset keyset = Keyset.seek(first, null);
+		assertNull(keyset.getNextToken());
+		keyset.readRow(lastRow);
+		return keyset.getNextToken();
+	}
+
+	@Test
+	public void testTimestampRoundTrip() throws Exception
+	{
+		Timestamp created = new Timestamp(1400000000000L);
+		String token = nextToken("a.CREATED_DATE", "ASC", row(42, created, Types.TIMESTAMP, 0));
+		Query next = query("a.CREATED_DATE", "ASC");
+		Keyset keyset = Keyset.seek(next, token);
+		String sql = next.getStatement().getSql().SQL();
+		assertTrue(sql, sql.contains("a.CREATED_DATE > ? OR a.CREATED_DATE IS NULL OR (a.CREATED_DATE = ? AND a.SR_REQUEST_ID > ?)"));
+		assertTrue(sql, sql.contains("ORDER BY a.CREATED_DATE ASC, a.SR_REQUEST_ID ASC"));
+		assertEquals(Arrays.<Object>asList(created, created, 42L), next.getStatement().getParameters());
+		assertEquals(Arrays.asList(Concepts.TIMESTAMP, Concepts.TIMESTAMP, Concepts.INTEGER), keyset.getSeekTypes());
+	}
+
+	@Test
+	public void testDecimalRoundTrip() throws Exception
+	{
+		String token = nextToken("a.X_COORDINATE", "DESC", row(7, new BigDecimal("1.5"), Types.NUMERIC, 2));
+		Query next = query("a.X_COORDINATE", "DESC");
+		Keyset keyset = Keyset.seek(next, token);
+		String sql = next.getStatement().getSql().SQL();
+		assertTrue(sql, sql.contains("a.X_COORDINATE < ? OR (a.X_COORDINATE = ? AND a.SR_REQUEST_ID < ?)"));
+		assertEquals(Arrays.<Object>asList("1.5", "1.5", 7L), next.getStatement().getParameters());
+		assertEquals(Arrays.asList(Concepts.DOUBLE, Concepts.DOUBLE, Concepts.INTEGER), keyset.getSeekTypes());
+	}
+
+	@Test
+	public void testIntegerAndNullRoundTrip() throws Exception
+	{
+		String token = nextToken("a.CASE_NUMBER", "ASC", row(8, new BigDecimal("100"), Types.NUMERIC, 0));
+		Query next = query("a.CASE_NUMBER", "ASC");
+		Keyset.seek(next, token);
+		assertEquals(Arrays.<Object>asList(100L, 100L, 8L), next.getStatement().getParameters());
+		token = nextToken("a.CASE_NUMBER", "ASC", row(9, null, Types.NUMERIC, 0));
+		next = query("a.CASE_NUMBER", "ASC");
+		Keyset keyset = Keyset.seek(next, token);
+		String sql = next.getStatement().getSql().SQL();
+		assertTrue(sql, sql.contains("a.CASE_NUMBER IS NULL AND a.SR_REQUEST_ID > ?"));
+		assertEquals(Arrays.<Object>asList(9L), next.getStatement().getParameters());
+		keyset.clear(next);
+		assertTrue(next.getStatement().getParameters().isEmpty());
+		assertNull(next.getKeyset());
+	}
+
+	@Test
+	public void testTokenOfOtherSortOrderRejected() throws Exception
+	{
+		String token = nextToken("a.CREATED_DATE", "ASC", row(42, new Timestamp(0), Types.TIMESTAMP, 0));
+		try
+		{
+			Keyset.seek(query("a.CREATED_DATE", "DESC"), token);
+			fail("Token of ascending order accepted for descending order.");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+		try
+		{
+			Keyset.seek(query("a.CREATED_DATE", "ASC"), "not a token");
+			fail("Invalid token accepted.");
+		}
+		catch (IllegalArgumentException e)
+		{
+		}
+	}
+}
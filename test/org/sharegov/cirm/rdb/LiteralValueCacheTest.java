@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.sharegov.cirm.CirmTransaction;
+
+public class LiteralValueCacheTest
+{
+	static final String STRING_TABLE = RelationalStoreImpl.TABLE_DATA_VALUE_STRING;
+
+	static Map<Object, Long> values(Object value, long id)
+	{
+		return Collections.<Object, Long>singletonMap(value, id);
+	}
+
+	/**
+	 * Executes the transaction like the store's transaction controller without a database.
+	 */
+	static void run(CirmTransaction<?> t, int executions) throws Exception
+	{
+		t.begin();
+		try
+		{
+			for (int i = 0; i < executions; i++)
+				t.execute();
+			t.end(true);
+			t.getTransactionEventSupport().fireEvent(t);
+		}
+		finally
+		{
+			if (!t.isEnded())
+				t.end(false);
+		}
+	}
+
+	static Long getIdFromOtherThread(final LiteralValueCache cache, final Object value) throws Exception
+	{
+		final AtomicReference<Long> result = new AtomicReference<Long>();
+		Thread t = new Thread() {
+			public void run()
+			{
+				result.set(cache.getId(STRING_TABLE, value));
+			}
+		};
+		t.start();
+		t.join();
+		return result.get();
+	}
+
+	@Test
+	public void testPutOutsideTransaction()
+	{
+		LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		cache.putAll(STRING_TABLE, values("abc", 1));
+		assertEquals(1L, (long) cache.getId(STRING_TABLE, "abc"));
+		assertNull(cache.getId(STRING_TABLE, "abd"));
+		assertNull(cache.getId(RelationalStoreImpl.TABLE_DATA_VALUE_DOUBLE, "abc"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testClobKeyedByHash()
+	{
+		LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		Map<Object, Object> clob = new HashMap<Object, Object>();
+		clob.put("hash1", "a long text");
+		cache.putAll(RelationalStoreImpl.TABLE_DATA_VALUE_CLOB, values(clob, 5));
+		assertEquals(5L, (long) cache.getId(RelationalStoreImpl.TABLE_DATA_VALUE_CLOB,
+				Collections.singletonMap("hash1", "a long text")));
+	}
+
+	@Test
+	public void testTransactionScopedLifetime() throws Exception
+	{
+		final LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				cache.putAll(STRING_TABLE, values("abc", 1));
+				assertEquals(1L, (long) cache.getId(STRING_TABLE, "abc"));
+				assertNull(getIdFromOtherThread(cache, "abc"));
+				assertEquals(0, cache.getSize());
+				return null;
+			}
+		}, 1);
+		assertEquals(1, cache.getSize());
+		assertEquals(1L, (long) getIdFromOtherThread(cache, "abc"));
+	}
+
+	@Test
+	public void testRetryClearsPendingValues() throws Exception
+	{
+		final LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				if (getExecutionCount() == 1)
+					cache.putAll(STRING_TABLE, values("rolled back", 1));
+				else
+				{
+					assertNull(cache.getId(STRING_TABLE, "rolled back"));
+					cache.putAll(STRING_TABLE, values("committed", 2));
+				}
+				return null;
+			}
+		}, 2);
+		assertNull(cache.getId(STRING_TABLE, "rolled back"));
+		assertEquals(2L, (long) cache.getId(STRING_TABLE, "committed"));
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testSublevelPutVisibleToToplevel() throws Exception
+	{
+		final LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		run(new CirmTransaction<Object>() {
+			public Object call() throws Exception
+			{
+				// sublevel transactions are called directly by the store
+				new CirmTransaction<Object>() {
+					public Object call() throws Exception
+					{
+						cache.putAll(STRING_TABLE, values("sublevel", 3));
+						return null;
+					}
+				}.call();
+				assertEquals(3L, (long) cache.getId(STRING_TABLE, "sublevel"));
+				assertNull(getIdFromOtherThread(cache, "sublevel"));
+				return null;
+			}
+		}, 1);
+		assertEquals(3L, (long) getIdFromOtherThread(cache, "sublevel"));
+	}
+
+	@Test
+	public void testMemoryBudgetEviction()
+	{
+		String value = "0123456789";
+		LiteralValueCache cache = new LiteralValueCache(LiteralValueCache.DEFAULT_MEMORY_BUDGET_BYTES);
+		cache.putAll(STRING_TABLE, values(value, 1));
+		long entryBytes = cache.getEstimatedBytes();
+		cache.setMemoryBudgetBytes(1);
+		cache.putAll(STRING_TABLE, values(value, 1));
+		assertEquals(0, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		cache = new LiteralValueCache(3 * entryBytes);
+		for (int i = 0; i < 5; i++)
+			cache.putAll(STRING_TABLE, values(value.substring(1) + i, i));
+		assertEquals(3, cache.getSize());
+		assertTrue(cache.getEstimatedBytes() <= 3 * entryBytes);
+		assertNull(cache.getId(STRING_TABLE, value.substring(1) + 0));
+		assertEquals(4L, (long) cache.getId(STRING_TABLE, value.substring(1) + 4));
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.sharegov.cirm.rdb.Sql.DELETE_FROM;
+import static org.sharegov.cirm.rdb.Sql.INSERT_INTO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MappedStatementBatchesTest
+{
+	private static Statement insertActivity(long id, long request)
+	{
+		Statement s = new Statement();
+		s.setSql(INSERT_INTO("CIRM_SR_ACTIVITY").VALUES("SR_REQUEST_ID", "?").VALUES("ACTIVITY_ID", "?"));
+		s.getParameters().add(new DbId(request, null, true));
+		s.getParameters().add(new DbId(id, null, false));
+		return s;
+	}
+
+	private static Statement insertActor(long id, long address)
+	{
+		Statement s = new Statement();
+		s.setSql(INSERT_INTO("CIRM_SR_ACTOR").VALUES("ADDRESS_ID", "?").VALUES("SR_ACTOR_ID", "?"));
+		s.getParameters().add(new DbId(address, null, false));
+		s.getParameters().add(new DbId(id, null, false));
+		return s;
+	}
+
+	private static Statement deleteActivities(long request)
+	{
+		Statement s = new Statement();
+		s.setSql(DELETE_FROM("CIRM_SR_ACTIVITY").WHERE("SR_REQUEST_ID").EQUALS("?"));
+		s.getParameters().add(new DbId(request, null, true));
+		return s;
+	}
+
+	@Test
+	public void testGroupAcrossIndividuals()
+	{
+		List<List<Statement>> individuals = new ArrayList<List<Statement>>();
+		for (int i = 0; i < 3; i++)
+		{
+			individuals.add(Arrays.asList(insertActor(100 + i, 200 + i)));
+			individuals.add(Arrays.asList(insertActivity(300 + i, 1)));
+		}
+		List<List<Statement>> batches = MappedStatementBatches.group(individuals);
+		assertEquals(2, batches.size());
+		assertEquals(3, batches.get(0).size());
+		assertEquals(3, batches.get(1).size());
+		assertSame(individuals.get(0).get(0), batches.get(0).get(0));
+	}
+
+	@Test
+	public void testKeepDependencyOrder()
+	{
+		Statement activity1 = insertActivity(300, 1);
+		Statement activity2 = insertActivity(301, 1);
+		// second activity refers to a row inserted in between
+		Statement request = new Statement();
+		request.setSql(INSERT_INTO("CIRM_SR_REQUESTS").VALUES("SR_REQUEST_ID", "?"));
+		request.getParameters().add(new DbId(1L, null, false));
+		List<List<Statement>> batches = MappedStatementBatches.group(Arrays.asList(
+				Arrays.asList(activity1), Arrays.asList(request), Arrays.asList(activity2)));
+		assertEquals(3, batches.size());
+	}
+
+	@Test
+	public void testNoMoveAcrossDelete()
+	{
+		List<List<Statement>> batches = MappedStatementBatches.group(Arrays.asList(
+				Arrays.asList(insertActivity(300, 1)),
+				Arrays.asList(deleteActivities(2)),
+				Arrays.asList(insertActivity(301, 3))));
+		assertEquals(3, batches.size());
+	}
+}
@@ -15,12 +15,17 @@
  ******************************************************************************/
 package org.sharegov.cirm.rdb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.sharegov.cirm.OWL.fullIri;
 
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.sql.Timestamp;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +51,7 @@ import org.semanticweb.owlapi.model.OWLObjectProperty;
 import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.OWLProperty;
 import org.semanticweb.owlapi.vocab.OWL2Datatype;
 import org.sharegov.cirm.BOntology;
 import org.sharegov.cirm.OWL;
@@ -496,4 +502,76 @@ public class QueryTranslatorTest
 		
 	}
 	
+	/**
+	 * An ontology declaring the given properties and a mapping of CIRM_SR_REQUESTS as the OWL mapper returns it:
+	 * column fragments are qualified by their table.
+	 */
+	static OWLOntology srRequestsOntology(Map<OWLProperty<?, ?>, OWLNamedIndividual> columns) throws OWLOntologyCreationException
+	{
+		columns.put(OWL.objectProperty("hasStatus"), OWL.individual("CIRM_SR_REQUESTS.SR_STATUS"));
+		columns.put(OWL.dataProperty("hasDateCreated"), OWL.individual("CIRM_SR_REQUESTS.CREATED_DATE"));
+		columns.put(OWL.dataProperty("hasCaseNumber"), OWL.individual("CIRM_SR_REQUESTS.CASE_NUMBER"));
+		columns.put(OWL.objectProperty("atAddress"), OWL.individual("CIRM_SR_REQUESTS.SR_REQUEST_ADDRESS"));
+		OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+		OWLOntology ont = manager.createOntology();
+		for (OWLProperty<?, ?> property : columns.keySet())
+			manager.addAxiom(ont, manager.getOWLDataFactory().getOWLDeclarationAxiom(property));
+		return ont;
+	}
+
+	@Test
+	public void testCoveredBySRSearchProjection() throws OWLOntologyCreationException
+	{
+		Map<OWLProperty<?, ?>, OWLNamedIndividual> columns = new HashMap<OWLProperty<?, ?>, OWLNamedIndividual>();
+		OWLOntology ont = srRequestsOntology(columns);
+		OWLNamedIndividual table = OWL.individual("CIRM_SR_REQUESTS");
+		Json pattern = Json.object("type", "PW441", 
+				"hasStatus", Json.object("iri", "http://www.miamidade.gov/cirm/legacy#O-OPEN"),
+				"hasDateCreated", ">=\"2014-01-01T00:00:00.000-05:00\"",
+				"hasCaseNumber", "14-00000001",
+				"sortBy", "hasDateCreated", "sortDirection", "desc", 
+				"currentPage", 1, "itemsPerPage", 10);
+		assertTrue(QueryTranslator.coveredBySRSearchProjection(ont, pattern, table, columns));
+		assertTrue(QueryTranslator.coveredBySRSearchProjection(ont, Json.object("type", "PW441"), table, columns));
+		// mapped columns are qualified by their table and resolve to the aliased projection
+		Sql select = Sql.SELECT().COLUMN("CIRM_SR_REQUESTS.SR_REQUEST_ID").FROM(QueryTranslator.SR_SEARCH_PROJECTION_FROM);
+		Statement statement = new Statement();
+		statement.setSql(select);
+		QueryTranslator.whereSRSearchProjectionType(select, statement, Arrays.asList("PW441"));
+		select.AND();
+		select.WHERE("CIRM_SR_REQUESTS.SR_STATUS").EQUALS("?");
+		String sql = select.SQL();
+		assertTrue(sql, sql.contains("SELECT CIRM_SR_REQUESTS.SR_REQUEST_ID\nFROM CIRM_SR_SEARCH CIRM_SR_REQUESTS\n"));
+		assertTrue(sql, sql.contains("CIRM_SR_REQUESTS.TYPE = ?"));
+		assertEquals(fullIri("PW441").toString(), statement.getParameters().get(0));
+		// the base type needs no type criterion
+		select = Sql.SELECT().COLUMN("CIRM_SR_REQUESTS.SR_REQUEST_ID").FROM(QueryTranslator.SR_SEARCH_PROJECTION_FROM);
+		QueryTranslator.whereSRSearchProjectionType(select, new Statement(), Arrays.asList("legacy:ServiceCase"));
+		assertFalse(select.SQL().contains("WHERE"));
+	}
+
+	@Test
+	public void testNotCoveredBySRSearchProjection() throws OWLOntologyCreationException
+	{
+		Map<OWLProperty<?, ?>, OWLNamedIndividual> columns = new HashMap<OWLProperty<?, ?>, OWLNamedIndividual>();
+		OWLOntology ont = srRequestsOntology(columns);
+		OWLNamedIndividual table = OWL.individual("CIRM_SR_REQUESTS");
+		// a column the projection does not carry
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "PW441", "atAddress", Json.object("iri", "http://www.miamidade.gov/bo/Street_Address/1#bo")), 
+				table, columns));
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "PW441", "sortBy", "atAddress"), table, columns));
+		// nested criteria need joins
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "PW441", "hasStatus", Json.object("type", "Status")), table, columns));
+		// unmapped properties and other tables
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "PW441", "hasDetails", "x"), table, columns));
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "ServiceActivity"), OWL.individual("CIRM_SR_ACTIVITY"), columns));
+		columns.put(OWL.dataProperty("hasCaseNumber"), OWL.individual("CIRM_SR_ACTIVITY.CASE_NUMBER"));
+		assertFalse(QueryTranslator.coveredBySRSearchProjection(ont, 
+				Json.object("type", "PW441", "hasCaseNumber", "14-00000001"), table, columns));
+	}
 }
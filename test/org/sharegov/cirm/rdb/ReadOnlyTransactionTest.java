@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.CirmTransaction;
+import org.sharegov.cirm.CirmTransactionEvent;
+import org.sharegov.cirm.CirmTransactionListener;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeConnection;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSource;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeDataSourceRef;
+
+public class ReadOnlyTransactionTest
+{
+	/**
+	 * Hands out one fake connection per call and records how many were taken for reading.
+	 */
+	static class ReadOnlyDataSourceRef extends FakeDataSourceRef
+	{
+		final FakeDataSource dataSource;
+		int readOnlyConnections = 0;
+
+		ReadOnlyDataSourceRef(FakeDataSource dataSource)
+		{
+			super(dataSource.dataSource());
+			this.dataSource = dataSource;
+		}
+
+		public Connection getReadOnlyConnection(String client) throws SQLException
+		{
+			readOnlyConnections++;
+			return primary.getConnection();
+		}
+
+		public void noteWrite(String client)
+		{
+		}
+	}
+
+	/**
+	 * Counts successful toplevel events.
+	 */
+	static class SucceededCounter implements CirmTransactionListener
+	{
+		int succeeded = 0;
+
+		public void transactionStateChanged(CirmTransactionEvent e)
+		{
+			if (e.isSucceeded())
+				succeeded++;
+		}
+	}
+
+	boolean useReadOnlyTransactions;
+	boolean useBusinessObjectLocks;
+	ReadOnlyDataSourceRef dataSourceRef;
+	RelationalStoreImpl store;
+
+	@Before
+	public void setUp()
+	{
+		useReadOnlyTransactions = RelationalStoreImpl.USE_READ_ONLY_TRANSACTIONS;
+		useBusinessObjectLocks = RelationalStoreImpl.USE_BUSINESS_OBJECT_LOCKS;
+		RelationalStoreImpl.USE_BUSINESS_OBJECT_LOCKS = true;
+		dataSourceRef = new ReadOnlyDataSourceRef(new FakeDataSource() {
+			FakeConnection connect()
+			{
+				// a transaction must set its isolation level
+				FakeConnection c = new FakeConnection();
+				c.isolation = Connection.TRANSACTION_SERIALIZABLE;
+				return c;
+			}
+		});
+		store = new RelationalStoreImpl(dataSourceRef);
+	}
+
+	@After
+	public void tearDown()
+	{
+		RelationalStoreImpl.USE_READ_ONLY_TRANSACTIONS = useReadOnlyTransactions;
+		RelationalStoreImpl.USE_BUSINESS_OBJECT_LOCKS = useBusinessObjectLocks;
+	}
+
+	long lockAcquisitions()
+	{
+		return ((BusinessObjectLockStrategy) store.getLockingStrategy()).getStatistics().at("acquisitions").asLong();
+	}
+
+	/**
+	 * A read only transaction on business object 1 that fails with a retryable exception on its first execution.
+	 */
+	static CirmTransaction<String> failingOnce(final SucceededCounter counter)
+	{
+		CirmTransaction<String> t = new CirmTransaction<String>() {
+			public String call() throws Exception
+			{
+				addTopLevelEventListener(counter);
+				if (getExecutionCount() == 1)
+					throw new RetryDetectedException("retryable");
+				return "read";
+			}
+		};
+		t.setReadOnly(true).addBusinessObjectId(1);
+		return t;
+	}
+
+	@Test
+	public void testReadOnlyFastPath()
+	{
+		RelationalStoreImpl.USE_READ_ONLY_TRANSACTIONS = true;
+		final SucceededCounter counter = new SucceededCounter();
+		CirmTransaction<String> t = new CirmTransaction<String>() {
+			public String call() throws Exception
+			{
+				addTopLevelEventListener(counter);
+				// sublevel transactions share the read only connection
+				return store.txn(new CirmTransaction<String>() {
+					public String call() throws Exception
+					{
+						return "read";
+					}
+				});
+			}
+		};
+		t.setReadOnly(true).addBusinessObjectId(1);
+		assertEquals("read", store.txn(t));
+		assertEquals(1, t.getExecutionCount());
+		assertEquals(1, counter.succeeded);
+		assertEquals(1, dataSourceRef.readOnlyConnections);
+		assertEquals(1, dataSourceRef.dataSource.connections.size());
+		FakeConnection c = dataSourceRef.dataSource.connections.get(0);
+		assertTrue(c.readOnly);
+		assertFalse(c.autoCommit);
+		assertEquals(RelationalStoreImpl.READ_ONLY_TRANSACTION_ISOLATION_LEVEL, c.isolation);
+		assertEquals(1, c.commits);
+		assertTrue(c.closed);
+		assertEquals(0, lockAcquisitions());
+	}
+
+	@Test
+	public void testReadOnlyNotRetried()
+	{
+		RelationalStoreImpl.USE_READ_ONLY_TRANSACTIONS = true;
+		SucceededCounter counter = new SucceededCounter();
+		CirmTransaction<String> t = failingOnce(counter);
+		try
+		{
+			store.txn(t);
+			fail("Read only transaction was retried.");
+		}
+		catch (RuntimeException e)
+		{
+			assertTrue(RetryDetectedException.isRetryDetectedOrCausedBy(e));
+		}
+		assertEquals(1, t.getExecutionCount());
+		assertTrue(t.isFailed());
+		assertEquals(0, counter.succeeded);
+		FakeConnection c = dataSourceRef.dataSource.connections.get(0);
+		assertEquals(0, c.commits);
+		assertEquals(1, c.rollbacks);
+		assertTrue(c.closed);
+	}
+
+	@Test
+	public void testReadOnlyDisabled()
+	{
+		RelationalStoreImpl.USE_READ_ONLY_TRANSACTIONS = false;
+		SucceededCounter counter = new SucceededCounter();
+		CirmTransaction<String> t = failingOnce(counter);
+		assertEquals("read", store.txn(t));
+		assertEquals(2, t.getExecutionCount());
+		assertEquals(1, counter.succeeded);
+		assertEquals(0, dataSourceRef.readOnlyConnections);
+		assertEquals(2, dataSourceRef.dataSource.connections.size());
+		FakeConnection c = dataSourceRef.dataSource.connections.get(1);
+		assertFalse(c.readOnly);
+		assertEquals(RelationalStoreImpl.TRANSACTION_ISOLATION_LEVEL, c.isolation);
+		assertEquals(1, c.commits);
+		assertEquals(2, lockAcquisitions());
+	}
+}
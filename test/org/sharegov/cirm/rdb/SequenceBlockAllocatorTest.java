@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class SequenceBlockAllocatorTest
+{
+	/**
+	 * Emulates a database sequence.
+	 */
+	static class TestSequence implements SequenceBlockAllocator.BlockSource
+	{
+		final AtomicLong value = new AtomicLong(1000);
+
+		public long[] nextBlock(int count)
+		{
+			long[] result = new long[count];
+			for (int i = 0; i < count; i++)
+				result[i] = value.incrementAndGet();
+			return result;
+		}
+	}
+
+	@Test
+	public void testOneFetchPerBlock()
+	{
+		SequenceBlockAllocator a = new SequenceBlockAllocator(new TestSequence(), 10);
+		for (int i = 0; i < 25; i++)
+			assertEquals(1001 + i, a.next());
+		assertEquals(3, a.getBlockFetchCount());
+		assertEquals(25, a.getAllocatedCount());
+	}
+
+	@Test
+	public void testConcurrentUniqueIds() throws Exception
+	{
+		final SequenceBlockAllocator a = new SequenceBlockAllocator(new TestSequence(), 7);
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread() {
+				public void run()
+				{
+					for (int i = 0; i < 1000; i++)
+						assertTrue(ids.add(a.next()));
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertEquals(8000, ids.size());
+	}
+}
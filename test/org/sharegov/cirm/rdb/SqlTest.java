@@ -15,6 +15,9 @@
  ******************************************************************************/
 package org.sharegov.cirm.rdb;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.sharegov.cirm.rdb.Sql.INSERT_INTO;
 import static org.sharegov.cirm.rdb.Sql.MERGE_INTO;
 import static org.sharegov.cirm.rdb.Sql.SELECT;
@@ -137,4 +140,42 @@ public class SqlTest
 		System.out.print(MERGE.SQL());
 	}
 
+	@Test
+	public void testCOPY()
+	{
+		Sql select = SELECT()
+			.COLUMN("COLUMN1")
+			.FROM("TABLEA")
+			.JOIN("TABLEB").ON("COLUMN1", "COLUMN2")
+			.WHERE("COLUMN1").GREATER_THAN("?")
+			.AND()
+			.WHERE("COLUMN2").EQUALS("?");
+		String expected = select.SQL();
+		Sql copy = select.COPY();
+		assertEquals(expected, copy.SQL());
+		copy.CLEAR_COLUMNS().COLUMN("COUNT(*)");
+		copy.AND().WHERE("COLUMN3").IN("1", "2");
+		assertEquals(expected, select.SQL());
+		assertFalse(expected.equals(copy.SQL()));
+	}
+
+	@Test
+	public void testKEYSET()
+	{
+		Sql select = SELECT()
+			.COLUMN("SR_REQUEST_ID")
+			.FROM("CIRM_SR_REQUESTS")
+			.WHERE("SR_STATUS").EQUALS("?")
+			.ORDER_BY("CREATED_DATE")
+			.ORDER_DIRECTION("DESC");
+		String unpaged = select.SQL();
+		select.KEYSET("SR_REQUEST_ID", "CREATED_DATE < ? OR (CREATED_DATE = ? AND SR_REQUEST_ID < ?)");
+		String sql = select.SQL();
+		assertTrue(sql.contains("(SR_STATUS = ?) \nAND (CREATED_DATE < ? OR (CREATED_DATE = ? AND SR_REQUEST_ID < ?))"));
+		assertTrue(sql.endsWith("ORDER BY CREATED_DATE DESC, SR_REQUEST_ID DESC"));
+		assertEquals(sql, select.COPY().SQL());
+		select.CLEAR_PAGINATION();
+		assertEquals(unpaged, select.SQL());
+	}
+
 }
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+
+import org.junit.Test;
+import org.sharegov.cirm.rdb.JdbcFixture.FakeConnection;
+
+public class StatementCacheTest
+{
+	@Test
+	public void testCloseReturnsStatement() throws Exception
+	{
+		FakeConnection tc = new FakeConnection();
+		StatementCache cache = new StatementCache(tc.connection(), 10);
+		for (int i = 0; i < 5; i++)
+		{
+			PreparedStatement stmt = cache.prepareStatement("SELECT 1");
+			stmt.close();
+			assertTrue(stmt.isClosed());
+		}
+		assertEquals(1, tc.prepared.size());
+		assertEquals(0, tc.closedStatements());
+		assertEquals(4, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		cache.closeAll();
+		assertEquals(1, tc.closedStatements());
+	}
+
+	@Test
+	public void testStatementInUseNotShared() throws Exception
+	{
+		FakeConnection tc = new FakeConnection();
+		StatementCache cache = new StatementCache(tc.connection(), 10);
+		PreparedStatement outer = cache.prepareStatement("SELECT 1");
+		PreparedStatement inner = cache.prepareStatement("SELECT 1");
+		inner.close();
+		outer.close();
+		assertEquals(2, tc.prepared.size());
+		assertEquals(1, tc.closedStatements());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void testEviction() throws Exception
+	{
+		FakeConnection tc = new FakeConnection();
+		StatementCache cache = new StatementCache(tc.connection(), 2);
+		for (int i = 0; i < 3; i++)
+			cache.prepareStatement("SELECT " + i).close();
+		assertEquals(2, cache.getSize());
+		assertEquals(1, tc.closedStatements());
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.Refs;
+import org.sharegov.cirm.rdb.BOChangeFeed.Change;
+
+/**
+ * Sequencing and consumer offsets of BOChangeFeed against the configured database.<br>
+ * <br>
+ * The test writes changes of business objects with negative ids, which no business object has, and
+ * reads only those back, so it can share the database with a running server.
+ */
+public class T005_BOChangeFeedTest
+{
+	static final long BOID = -4711000;
+	static final String CONSUMER = "T005_BOChangeFeedTest";
+
+	RelationalStoreExt store;
+	BOChangeFeed feed;
+	String tail;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		store = Refs.defaultRelationalStoreExt.resolve();
+		feed = new BOChangeFeed(Refs.defaultRelationalStoreExt);
+		while (feed.sequence() > 0);
+		tail = BOChangeFeed.cursor(select("SELECT COALESCE(MAX(CHANGE_SEQ), 0) FROM " + BOChangeListener.CHANGE_TABLE));
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		execute("DELETE FROM " + BOChangeListener.CHANGE_TABLE + " WHERE BO_ID BETWEEN ? AND ?", BOID - 100, BOID);
+		execute("DELETE FROM " + BOChangeFeed.CONSUMER_TABLE + " WHERE CONSUMER_NAME = ?", CONSUMER);
+	}
+
+	int execute(String sql, Object... parameters)
+	{
+		return JdbcFixture.execute(store, sql, parameters);
+	}
+
+	/**
+	 * @return the number in the first column of the first row, null if there is none.
+	 */
+	Long select(String sql, Object... parameters)
+	{
+		List<Object[]> rows = JdbcFixture.query(store, sql, parameters);
+		return rows.isEmpty() || rows.get(0)[0] == null ? null : ((Number) rows.get(0)[0]).longValue();
+	}
+
+	void commitChange(long boid, Timestamp changeDate)
+	{
+		execute("INSERT INTO " + BOChangeListener.CHANGE_TABLE + " (BO_ID, CHANGE_DATE) VALUES (?,?)", boid, changeDate);
+	}
+
+	Timestamp minutesAgo(int minutes)
+	{
+		return new Timestamp(store.getStoreTime().getTime() - minutes * 60000L);
+	}
+
+	/**
+	 * @return the changes of test business objects.
+	 */
+	static List<Change> ours(List<Change> changes)
+	{
+		List<Change> result = new ArrayList<Change>();
+		for (Change c : changes)
+			if (c.getBoid() <= BOID && c.getBoid() >= BOID - 100)
+				result.add(c);
+		return result;
+	}
+
+	static List<Long> boids(List<Change> changes)
+	{
+		List<Long> result = new ArrayList<Long>();
+		for (Change c : ours(changes))
+			result.add(c.getBoid());
+		return result;
+	}
+
+	@Test
+	public void testLateCommitNotSkipped()
+	{
+		Timestamp started = minutesAgo(2);
+		Timestamp later = minutesAgo(1);
+		// the transaction of business object 1 writes first, but commits after the one of 2
+		commitChange(BOID - 2, later);
+		List<Change> changes = feed.read(tail, 1000, false);
+		assertEquals(Arrays.asList(BOID - 2), boids(changes));
+		String cursor = changes.get(changes.size() - 1).getCursor();
+		commitChange(BOID - 1, started);
+		commitChange(BOID - 3, later);
+		changes = ours(feed.read(cursor, 1000, false));
+		assertEquals(Arrays.asList(BOID - 1, BOID - 3), boids(changes));
+		assertTrue(changes.get(0).getSeq() > BOChangeFeed.parseCursor(cursor));
+		assertEquals(started, changes.get(0).getChangeDate());
+		assertTrue(ours(feed.read(changes.get(1).getCursor(), 1000, false)).isEmpty());
+	}
+
+	@Test
+	public void testSequencedInBatches()
+	{
+		int batchSize = BOChangeFeed.SEQUENCE_BATCH_SIZE;
+		BOChangeFeed.SEQUENCE_BATCH_SIZE = 2;
+		try
+		{
+			for (int i = 1; i <= 5; i++)
+				commitChange(BOID - i, minutesAgo(10 - i));
+			List<Long> read = new ArrayList<Long>();
+			Iterator<Change> it = feed.iterator(tail, 1, false);
+			while (it.hasNext())
+			{
+				Change c = it.next();
+				if (!ours(Arrays.asList(c)).isEmpty())
+					read.add(c.getBoid());
+			}
+			assertEquals(Arrays.asList(BOID - 1, BOID - 2, BOID - 3, BOID - 4, BOID - 5), read);
+		}
+		finally
+		{
+			BOChangeFeed.SEQUENCE_BATCH_SIZE = batchSize;
+		}
+	}
+
+	@Test
+	public void testExistingSequencerKept()
+	{
+		String sql = "SELECT CHANGE_SEQ FROM " + BOChangeFeed.CONSUMER_TABLE + " WHERE CONSUMER_NAME = ?";
+		Long last = select(sql, BOChangeFeed.SEQUENCER);
+		assertTrue("The schema seeds the sequencer.", last != null);
+		feed.createSequencer();
+		assertEquals(last, select(sql, BOChangeFeed.SEQUENCER));
+	}
+
+	@Test
+	public void testConsumerOffset()
+	{
+		assertNull(feed.getOffset(CONSUMER));
+		feed.commitOffset(CONSUMER, "7");
+		assertEquals("7", feed.getOffset(CONSUMER));
+		feed.commitOffset(CONSUMER, "9");
+		assertEquals("9", feed.getOffset(CONSUMER));
+	}
+}
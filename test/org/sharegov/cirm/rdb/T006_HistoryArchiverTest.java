@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.rdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_CLASSIFICATION;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_DATA_PROPERTY;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_IRI;
+import static org.sharegov.cirm.rdb.RelationalStoreImpl.TABLE_OBJECT_PROPERTY;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sharegov.cirm.Refs;
+
+/**
+ * Archival of closed rows into the _HIST tables of the configured database.<br>
+ * <br>
+ * The test closes rows of existing IRIs in 1990 and archives everything closed before 1995, which
+ * includes real rows that old, if any. The archive state of a running server is restored afterwards.
+ */
+public class T006_HistoryArchiverTest
+{
+	static final Timestamp FROM_DATE = Timestamp.valueOf("1990-01-01 00:00:00.006");
+	static final Timestamp TO_DATE = Timestamp.valueOf("1990-06-01 00:00:00.006");
+	static final Timestamp CUTOFF_AFTER = Timestamp.valueOf("1995-01-01 00:00:00");
+
+	boolean enabled;
+	long watermarkRefreshMs;
+	RelationalStoreExt store;
+	HistoryArchiver archiver;
+	List<Object[]> savedState;
+	List<Long> subjects = new ArrayList<Long>();
+
+	@Before
+	public void setUp()
+	{
+		enabled = HistoryArchiver.ENABLED;
+		watermarkRefreshMs = HistoryArchiver.WATERMARK_REFRESH_MS;
+		HistoryArchiver.ENABLED = true;
+		HistoryArchiver.WATERMARK_REFRESH_MS = 0;
+		store = Refs.defaultRelationalStoreExt.resolve();
+		archiver = new HistoryArchiver(Refs.defaultRelationalStoreExt);
+		savedState = JdbcFixture.query(store, "SELECT TABLE_NAME, CUTOFF_DATE, LAST_SUBJECT, COMPLETED_DATE FROM "
+				+ HistoryArchiver.STATE_TABLE);
+		JdbcFixture.execute(store, "DELETE FROM " + HistoryArchiver.STATE_TABLE);
+		for (Object[] row : JdbcFixture.query(store, "SELECT ID FROM " + TABLE_IRI + " ORDER BY ID"))
+		{
+			subjects.add(((Number) row[0]).longValue());
+			if (subjects.size() == 3)
+				break;
+		}
+		for (long subject : subjects)
+		{
+			JdbcFixture.execute(store, "INSERT INTO " + TABLE_CLASSIFICATION
+					+ " (SUBJECT, OWLCLASS, FROM_DATE, TO_DATE) VALUES (?,?,?,?)", subject, subject, FROM_DATE, TO_DATE);
+			JdbcFixture.execute(store, "INSERT INTO " + TABLE_OBJECT_PROPERTY
+					+ " (SUBJECT, PREDICATE, OBJECT, FROM_DATE, TO_DATE) VALUES (?,?,?,?,?)", subject, subject, subject,
+					FROM_DATE, TO_DATE);
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		for (String table : new String[] { TABLE_CLASSIFICATION, TABLE_OBJECT_PROPERTY })
+			for (String t : new String[] { table, HistoryArchiver.historyTable(table) })
+				JdbcFixture.execute(store, "DELETE FROM " + t + " WHERE FROM_DATE = ? AND TO_DATE = ?", FROM_DATE, TO_DATE);
+		JdbcFixture.execute(store, "DELETE FROM " + HistoryArchiver.STATE_TABLE);
+		for (Object[] row : savedState)
+			JdbcFixture.execute(store, "INSERT INTO " + HistoryArchiver.STATE_TABLE
+					+ " (TABLE_NAME, CUTOFF_DATE, LAST_SUBJECT, COMPLETED_DATE) VALUES (?,?,?,?)", row);
+		HistoryArchiver.ENABLED = enabled;
+		HistoryArchiver.WATERMARK_REFRESH_MS = watermarkRefreshMs;
+	}
+
+	/**
+	 * @return the days to retain for a cutoff on CUTOFF_AFTER.
+	 */
+	int retainDays()
+	{
+		return (int) ((store.getStoreTime().getTime() - CUTOFF_AFTER.getTime()) / (24L * 3600 * 1000));
+	}
+
+	long count(String table)
+	{
+		List<Object[]> rows = JdbcFixture.query(store, "SELECT COUNT(*) FROM " + table + " t WHERE FROM_DATE = ? AND TO_DATE = ?",
+				FROM_DATE, TO_DATE);
+		return ((Number) rows.get(0)[0]).longValue();
+	}
+
+	/**
+	 * @return cutoff, last subject and completed date of the archival of table, null if there is none.
+	 */
+	Object[] state(String table)
+	{
+		List<Object[]> rows = JdbcFixture.query(store, "SELECT CUTOFF_DATE, LAST_SUBJECT, COMPLETED_DATE FROM "
+				+ HistoryArchiver.STATE_TABLE + " WHERE TABLE_NAME = ?", table);
+		return rows.isEmpty() ? null : rows.get(0);
+	}
+
+	void assertArchived()
+	{
+		for (String table : new String[] { TABLE_CLASSIFICATION, TABLE_OBJECT_PROPERTY })
+		{
+			assertEquals(0, count(table));
+			assertEquals(subjects.size(), count(HistoryArchiver.historyTable(table)));
+			assertNotNull(state(table)[2]);
+		}
+		// the data property table completes without test rows
+		assertNotNull(state(TABLE_DATA_PROPERTY)[2]);
+	}
+
+	@Test
+	public void testArchive()
+	{
+		assertNull(HistoryArchiver.getWatermark());
+		assertTrue(archiver.archive(retainDays(), Integer.MAX_VALUE, 0) >= 2 * subjects.size());
+		assertArchived();
+		Timestamp watermark = HistoryArchiver.getWatermark();
+		assertEquals(state(TABLE_CLASSIFICATION)[0], watermark);
+		assertFalse(watermark.before(CUTOFF_AFTER));
+		assertTrue(HistoryArchiver.readsHistory(TO_DATE));
+		// a version read before the watermark sees the archived rows
+		assertEquals(subjects.size(), count(HistoryArchiver.tableOrUnion(TABLE_CLASSIFICATION, TO_DATE)));
+		assertEquals(0, archiver.archive(retainDays(), Integer.MAX_VALUE, 0));
+	}
+
+	@Test
+	public void testStoppedArchivalResumes() throws Exception
+	{
+		Thread archival = new Thread(new Runnable() {
+			public void run()
+			{
+				archiver.archive(retainDays(), Integer.MAX_VALUE, 3000);
+			}
+		});
+		archival.start();
+		long until = System.currentTimeMillis() + 60000;
+		while (archiver.getStatistics().at("movedRows").at(TABLE_CLASSIFICATION).asLong() == 0
+				&& System.currentTimeMillis() < until)
+			Thread.sleep(10);
+		archiver.stop();
+		archival.join(60000);
+		assertFalse(archiver.isRunning());
+		assertEquals(0, count(TABLE_CLASSIFICATION));
+		assertNull(state(TABLE_CLASSIFICATION)[2]);
+		assertNull(state(TABLE_DATA_PROPERTY));
+		assertEquals(subjects.size(), count(TABLE_OBJECT_PROPERTY));
+		archiver.archive(retainDays(), Integer.MAX_VALUE, 0);
+		assertArchived();
+	}
+}
@@ -25,8 +25,11 @@ import org.semanticweb.owlapi.model.OWLClassExpression;
 import org.semanticweb.owlapi.model.OWLIndividual;
 import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLProperty;
+import org.semanticweb.owlapi.reasoner.InferenceType;
 import org.semanticweb.owlapi.reasoner.NodeSet;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
+import org.sharegov.cirm.owl.CopyOnWriteReasoner;
+import org.sharegov.cirm.owl.SynchronizedReasoner;
 
 public class ReasonerBench
 {
@@ -55,6 +58,14 @@ public class ReasonerBench
 	}
 	
 	private void getColumMappings()
+	{
+		long start = System.currentTimeMillis();
+		NodeSet<OWLNamedIndividual> S = queryColumMappings();
+		System.out.println("Time " + (System.currentTimeMillis() - start));
+		System.out.println(S.getFlattened());
+	}
+	
+	private NodeSet<OWLNamedIndividual> queryColumMappings()
 	{
 		Map<OWLClass, OWLNamedIndividual> tableMapping = getTableMappings();
 		Map<OWLNamedIndividual, Map<OWLProperty<?, ?>, OWLNamedIndividual>> mapping = new LinkedHashMap<OWLNamedIndividual, Map<OWLProperty<?, ?>, OWLNamedIndividual>>();
@@ -64,10 +75,61 @@ public class ReasonerBench
 				        or(owlClass(fulliri("DBPrimaryKey")), owlClass(fulliri("DBNoKey"))), 
 				        some(objectProperty(fulliri("hasTable")), 
 				        		oneOf(tableMapping.values().toArray(new OWLIndividual[tableMapping.values().size()]))))));
+		return reasoner.getInstances(q, false);
+	}
+	
+	/**
+	 * Runs the column mapping queries from concurrent threads against the given reasoner.
+	 * @return elapsed ms
+	 */
+	private static long contention(OWLReasoner r, int threads, final int rounds) throws InterruptedException
+	{
+		reasoner = r;
+		final ReasonerBench b = new ReasonerBench();
+		Thread[] pool = new Thread[threads];
 		long start = System.currentTimeMillis();
-		NodeSet<OWLNamedIndividual> S = reasoner.getInstances(q, false);
-		System.out.println("Time " + (System.currentTimeMillis() - start) + " on " + q);
-		System.out.println(S.getFlattened());
+		for (int i = 0; i < threads; i++)
+		{
+			pool[i] = new Thread(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						for (int j = 0; j < rounds; j++)
+							b.queryColumMappings();
+					}
+					catch (Throwable t)
+					{
+						t.printStackTrace();
+					}
+				}
+			});
+			pool[i].start();
+		}
+		for (Thread t : pool)
+			t.join();
+		return System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Compares a SynchronizedReasoner with a CopyOnWriteReasoner under concurrent queries.
+	 * Arguments: contention [threads] [rounds] [copies]
+	 */
+	private static void contention(String [] argv) throws Exception
+	{
+		int threads = argv.length > 1 ? Integer.parseInt(argv[1]) : 8;
+		int rounds = argv.length > 2 ? Integer.parseInt(argv[2]) : 10;
+		int copies = argv.length > 3 ? Integer.parseInt(argv[3]) : CopyOnWriteReasoner.DEFAULT_COPIES;
+		OWLReasoner pellet = reasoner;
+		pellet.precomputeInferences(InferenceType.CLASS_HIERARCHY);
+		long synchronizedMs = contention(SynchronizedReasoner.synchronizedReasoner(pellet), threads, rounds);
+		System.out.println("SynchronizedReasoner threads " + threads + " rounds " + rounds + " time " + synchronizedMs);
+		CopyOnWriteReasoner copyOnWrite = CopyOnWriteReasoner.copyOnWriteReasoner(reasonerFactory, pellet.getRootOntology(), copies);
+		long copyOnWriteMs = contention(copyOnWrite, threads, rounds);
+		System.out.println("CopyOnWriteReasoner threads " + threads + " rounds " + rounds + " time " + copyOnWriteMs 
+				+ " " + copyOnWrite.getStatistics());
+		copyOnWrite.dispose();
+		reasoner = pellet;
 	}
 	
 	public static void main(String [] argv)
@@ -75,6 +137,11 @@ public class ReasonerBench
 		try
 		{
 			OWLHelp.init();
+			if (argv.length > 0 && argv[0].equals("contention"))
+			{
+				contention(argv);
+				return;
+			}
 			ReasonerBench b = new ReasonerBench();
 			System.out.println(b.getTableMappings());			
 			b.getColumMappings();
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2014 Miami-Dade County
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.sharegov.cirm.utils;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import mjson.Json;
+
+import org.junit.Test;
+
+import com.itextpdf.text.pdf.PdfReader;
+
+public class PDFExportUtilTest
+{
+	static Json metaData()
+	{
+		return Json.object().set("boid", "SR ID")
+				.set("type", "SR Type").set("fullAddress", "Address")
+				.set("city", "City").set("zip", "Zip")
+				.set("hasStatus", "Status")
+				.set("lastActivityUpdatedDate", "Last Activity Date")
+				.set("createdDate", "Created Date").set("columns", 8);
+	}
+
+	static Json row(int boid)
+	{
+		return Json.object().set("boid", boid).set("hasCaseNumber", "")
+				.set("label", "Pothole").set("fullAddress", "111 NW 1ST ST")
+				.set("Street_Address_City", "Miami").set("Zip_Code", 33128)
+				.set("hasStatus", "O-OPEN").set("hasDateCreated", "01/01/2014")
+				.set("lastActivityUpdatedDate", "");
+	}
+
+	@Test
+	public void testRowByRowExport() throws Exception
+	{
+		int flushRows = PDFExportUtil.FLUSH_ROWS;
+		PDFExportUtil.FLUSH_ROWS = 10;
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			PDFExportUtil pdf = new PDFExportUtil();
+			pdf.begin(out, metaData());
+			for (int i = 1; i <= 205; i++)
+				pdf.addRow(row(i));
+			pdf.end();
+			PdfReader reader = new PdfReader(out.toByteArray());
+			// 206 rows of small text do not fit on one page
+			assertTrue(reader.getNumberOfPages() > 1);
+			reader.close();
+		}
+		finally
+		{
+			PDFExportUtil.FLUSH_ROWS = flushRows;
+		}
+	}
+
+	@Test
+	public void testExportEmptyData() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new PDFExportUtil().exportData(out, Json.object().set("metaData", metaData().set("gisColumn", "Layer").set("columns", 9))
+				.set("data", Json.array()));
+		PdfReader reader = new PdfReader(out.toByteArray());
+		assertTrue(reader.getNumberOfPages() == 1);
+		reader.close();
+	}
+}